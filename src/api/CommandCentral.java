@@ -134,12 +134,13 @@ public class CommandCentral {
      *
      * "Recon" uses a tree and alignment to perform a reconstruction, under a range of conditions
      * specified by a set of parameters.
+     * For marginal inference, "Ancestor" (or "Ancestors") nominates the branch point(s); "Ancestor": "all" infers all ancestors.
      */
     public static class GRequest_Recon extends GRequest {
         private IdxTree idxTree = null;
         private EnumSeq.Alignment aln = null;
         private GRASP.Inference MODE = null;
-        private int[] ancestors = null; // if marginal inference, a list of ancestors of at least one
+        private int[] ancestors = null; // if marginal inference, a list of ancestors of at least one (null means all ancestors)
         private Enumerable alpha = null;
         private SubstModel MODEL = null;
         String[] INDELS = new String[] {"BEP", "BEML", "SICP", "SICML", "PSP", "PSML"};
@@ -171,7 +172,9 @@ public class CommandCentral {
             try {
                 String infmode = params.optString("Inference", "Joint");
                 MODE = infmode.equals("Joint") ? GRASP.Inference.JOINT : (infmode.equals("Marginal") ? GRASP.Inference.MARGINAL : null);
-                if (MODE == GRASP.Inference.MARGINAL) {
+                if (MODE == GRASP.Inference.MARGINAL && params.optString("Ancestor", "").equalsIgnoreCase("all")) {
+                    ancestors = null; // all ancestors
+                } else if (MODE == GRASP.Inference.MARGINAL) {
                     try {
                         Integer ancspec1 = params.optInt("Ancestor");
                         if (ancspec1 == null) {
@@ -262,7 +265,9 @@ public class CommandCentral {
                     break;
             }
             if (MODE == GRASP.Inference.JOINT)
-                indelpred.getJoint(MODEL, RATES);
+                indelpred.getJointMatrix(MODEL, RATES);
+            else if (MODE == GRASP.Inference.MARGINAL && ancestors == null)
+                indelpred.getMarginalMatrix(MODEL, RATES);
             else if (MODE == GRASP.Inference.MARGINAL) {
                 for (int i = 0; i < ancestors.length; i ++) {
                     if (indelpred.getTree().getIndex(ancestors[i]) < 0)
@@ -13,6 +13,11 @@ public class ASRRuntimeException extends RuntimeException {
         this.msg = msg;
     }
 
+    public ASRRuntimeException(String msg, Throwable cause) {
+        super(msg, cause);
+        this.msg = msg;
+    }
+
     @Override
     public String getMessage() {
         if (msg != null)
@@ -0,0 +1,139 @@
+package asr;
+
+import dat.file.AlnWriter;
+import dat.file.FastaWriter;
+import dat.pog.IdxGraph;
+import dat.pog.POGraph;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Streaming output of inferred ancestors.
+ * Each ancestor is resolved (consensus path, sequences, DOT text) and written to the requested files before the next
+ * ones are resolved, so that at most a window of ancestors is held in memory, rather than all of them.
+ * Ancestors in a window can be resolved in parallel, but are always written in the order they are given.
+ */
+public class AncestorWriter {
+
+    public static int WINDOW_PER_THREAD = 4; // ancestors resolved at a time, for each thread
+
+    private final Prediction pred;
+    private final GRASP.Inference mode;
+    private final List<Object> labels;
+    private FastaWriter fasta = null;
+    private boolean gappy = true;
+    private AlnWriter clustal = null;
+    private String dotdir = null;
+
+    /**
+     * Set up output of ancestors; nothing is written until {@link #write(int)} is called.
+     * @param pred the reconstruction
+     * @param mode inference mode, currently JOINT and MARGINAL are supported
+     * @param labels the ancestors to write, in order, see {@link Prediction#getLabels(GRASP.Inference)}
+     */
+    public AncestorWriter(Prediction pred, GRASP.Inference mode, List<Object> labels) {
+        this.pred = pred;
+        this.mode = mode;
+        this.labels = labels;
+    }
+
+    /**
+     * Write sequences to a FASTA file; the caller closes the file after {@link #write(int)}
+     * @param fw the file
+     * @param gappy if true, sequences are written with gaps
+     */
+    public void setFasta(FastaWriter fw, boolean gappy) {
+        this.fasta = fw;
+        this.gappy = gappy;
+    }
+
+    /**
+     * Write (gappy) sequences to a CLUSTAL file; the caller closes the file after {@link #write(int)}
+     * @param aw the file
+     */
+    public void setClustal(AlnWriter aw) {
+        this.clustal = aw;
+    }
+
+    /**
+     * Write the POG of each ancestor to a DOT file in a directory, with a README on how to render them.
+     * @param directory the directory
+     */
+    public void setDOT(String directory) {
+        this.dotdir = directory;
+    }
+
+    /**
+     * @return the name of an ancestor, as used in files
+     */
+    public static String getName(Object label) {
+        return "N" + label.toString();
+    }
+
+    /**
+     * What is written for one ancestor
+     */
+    private static class Resolved {
+        private Object[] gappy, nogap;
+        private String dot;
+    }
+
+    private Resolved resolve(Object label) {
+        Resolved r = new Resolved();
+        if (fasta != null || clustal != null) {
+            int[] idxs = pred.getConsensus(label);
+            if (idxs == null)
+                throw new ASRRuntimeException("Failed to find optimal path for ancestor ID: " + label);
+            if (clustal != null || (fasta != null && gappy))
+                r.gappy = pred.getSequence(label, mode, idxs, true);
+            if (fasta != null && !gappy)
+                r.nogap = pred.getSequence(label, mode, idxs, false);
+        }
+        if (dotdir != null) {
+            POGraph pog = pred.getAncestor(label, mode);
+            String name = pog.getName();                // the DOT graph is named as the file, but the POG keeps its name
+            pog.setName(getName(label));
+            r.dot = pog.toDOT();
+            pog.setName(name);
+        }
+        return r;
+    }
+
+    /**
+     * Resolve and write all ancestors.
+     * @param nThreads number of threads to resolve ancestors with; 1 or less to resolve them in the calling thread
+     * @throws IOException if a write fails
+     * @throws ASRRuntimeException if an ancestor could not be resolved
+     */
+    public void write(int nThreads) throws IOException {
+        int window = Math.max(1, nThreads) * WINDOW_PER_THREAD;
+        Resolved[] buffer = new Resolved[Math.min(window, labels.size())];
+        for (int start = 0; start < labels.size(); start += window) {
+            int n = Math.min(window, labels.size() - start);
+            int from = start;
+            if (nThreads <= 1) {
+                for (int i = 0; i < n; i ++)
+                    buffer[i] = resolve(labels.get(from + i));
+            } else {
+                Scheduler.get(nThreads).run(n, i -> buffer[i] = resolve(labels.get(from + i)));
+            }
+            for (int i = 0; i < n; i ++) {
+                String name = getName(labels.get(from + i));
+                if (fasta != null)
+                    fasta.write(name, gappy ? buffer[i].gappy : buffer[i].nogap);
+                if (clustal != null)
+                    clustal.add(name, buffer[i].gappy);
+                if (dotdir != null)
+                    IdxGraph.saveToDOT(dotdir, name, buffer[i].dot);
+                buffer[i] = null;
+            }
+        }
+        if (dotdir != null) {
+            String[] names = new String[labels.size()];
+            for (int i = 0; i < names.length; i ++)
+                names[i] = getName(labels.get(i));
+            IdxGraph.saveREADME_DOT(dotdir, names);
+        }
+    }
+}
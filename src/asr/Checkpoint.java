@@ -0,0 +1,316 @@
+package asr;
+
+import bn.ctmc.SubstModel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Checkpoints of a long-running reconstruction, kept in a folder so that an interrupted run can be resumed without
+ * repeating completed work. Three kinds of work are saved as they complete:
+ * <ul>
+ *     <li>the indel solution, i.e. the ancestor POGs before character inference (as a binary reconstruction, see {@link PredictionFile})</li>
+ *     <li>joint states and marginal distributions of all ancestors, in blocks of {@link #BLOCK_SIZE} positions</li>
+ *     <li>marginal distributions of a single ancestor</li>
+ * </ul>
+ * The folder is labelled by the run it belongs to (e.g. input files and indel method); if another run uses the same
+ * folder, the old checkpoints are discarded. Each block is also labelled by the settings of character inference
+ * (substitution model and rates), so blocks saved with other settings are inferred again.
+ * Files are written to a temporary name first, and renamed when complete, so an interrupted write is never resumed from.
+ */
+public class Checkpoint {
+
+    public static int BLOCK_SIZE = 500; // positions in each block of character inference
+
+    private static final String RUNFILE = "RUN";
+    private static final String INDELFILE = "indels.bin";
+    private static final String SUFFIX = ".ckp";
+
+    private final File dir;
+
+    /**
+     * Open a folder of checkpoints, creating it if needed
+     * @param directory the folder
+     * @param run label of the run; checkpoints from a run with another label are deleted
+     * @throws IOException if the folder cannot be created or written to
+     */
+    public Checkpoint(String directory, String run) throws IOException {
+        this.dir = new File(directory);
+        if (!dir.exists() && !dir.mkdirs())
+            throw new IOException("Failed to create checkpoint folder " + directory);
+        File runfile = new File(dir, RUNFILE);
+        String previous = runfile.exists() ? Files.readString(runfile.toPath(), StandardCharsets.UTF_8) : null;
+        if (!run.equals(previous)) {
+            clear();
+            Files.writeString(runfile.toPath(), run, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Label the settings of character inference, for blocks to be resumed only with the same settings
+     * @param kind the kind of inference, e.g. "joint"
+     * @param model substitution model
+     * @param rates position-specific rates
+     * @return the label
+     */
+    public static String getKey(String kind, SubstModel model, double[] rates) {
+        return kind + ":" + model.getName() + ":" + Arrays.hashCode(model.getF()) + ":" + Arrays.hashCode(rates);
+    }
+
+    /**
+     * Label a run by the method of indel inference and the content of its input files
+     * @param method the method of indel inference, incl. any settings that change its result
+     * @param filenames input files, e.g. alignment and tree
+     * @return the label
+     * @throws IOException if a file cannot be read
+     */
+    public static String getRun(String method, String... filenames) throws IOException {
+        StringBuilder sb = new StringBuilder(method);
+        for (String filename : filenames) {
+            CRC32 crc = new CRC32();
+            crc.update(Files.readAllBytes(new File(filename).toPath()));
+            sb.append(":").append(Long.toHexString(crc.getValue()));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Delete all checkpoints in the folder, but keep the label of the run
+     */
+    public void clear() {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX) || name.endsWith(".tmp") || name.equals(INDELFILE));
+        if (files != null)
+            for (File file : files)
+                file.delete();
+    }
+
+    /**
+     * Delete all checkpoints and the folder, e.g. when the run has completed
+     */
+    public void delete() {
+        clear();
+        new File(dir, RUNFILE).delete();
+        dir.delete(); // only if empty
+    }
+
+    private void commit(File tmp, File file) throws IOException {
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Save the indel solution
+     * @param pred the reconstruction, after indel inference
+     * @throws IOException if the file cannot be written
+     */
+    public void saveIndels(Prediction pred) throws IOException {
+        File tmp = new File(dir, INDELFILE + ".tmp");
+        PredictionFile.save(pred, tmp.getPath());
+        commit(tmp, new File(dir, INDELFILE));
+    }
+
+    /**
+     * Load the indel solution, if saved
+     * @return the reconstruction, or null if there is no (valid) indel solution
+     */
+    public Prediction loadIndels() {
+        File file = new File(dir, INDELFILE);
+        if (!file.exists())
+            return null;
+        try (PredictionFile pf = PredictionFile.open(file.getPath())) {
+            return pf.toPrediction();
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private File getBlockFile(String kind, int from) {
+        return new File(dir, kind + "_" + from + SUFFIX);
+    }
+
+    private static String getHeader(String key, int[] rows, int from, int to) {
+        return key + ":" + Arrays.hashCode(rows) + ":" + from + "-" + to;
+    }
+
+    private DataInputStream openBlock(File file, String header) {
+        if (!file.exists())
+            return null;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (header.equals(in.readUTF()))
+                return in;
+            in.close();
+        } catch (IOException e) {
+            // treat as missing
+        }
+        return null;
+    }
+
+    private DataOutputStream createBlock(File tmp, String header) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        out.writeUTF(header);
+        return out;
+    }
+
+    /**
+     * Save the joint states of a block of positions
+     * @param key settings of inference, see {@link #getKey(String, SubstModel, double[])}
+     * @param states the states
+     * @param rows the branch points to save
+     * @param from first position of block
+     * @param to position after the last of the block
+     * @throws IOException if the file cannot be written
+     */
+    public void saveJoint(String key, StateMatrix states, int[] rows, int from, int to) throws IOException {
+        File file = getBlockFile("joint", from);
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = createBlock(tmp, getHeader(key, rows, from, to))) {
+            for (int row : rows)
+                for (int pos = from; pos < to; pos ++)
+                    out.writeByte(states.getCode(row, pos));
+        }
+        commit(tmp, file);
+    }
+
+    /**
+     * Load the joint states of a block of positions, if saved with the same settings
+     * @param key settings of inference, see {@link #getKey(String, SubstModel, double[])}
+     * @param states the states to set
+     * @param rows the branch points to load
+     * @param from first position of block
+     * @param to position after the last of the block
+     * @return true if the block was loaded, false if it needs to be inferred
+     */
+    public boolean loadJoint(String key, StateMatrix states, int[] rows, int from, int to) {
+        DataInputStream in = openBlock(getBlockFile("joint", from), getHeader(key, rows, from, to));
+        if (in == null)
+            return false;
+        try (in) {
+            byte[] codes = new byte[to - from];
+            for (int row : rows) {
+                in.readFully(codes);
+                for (int pos = from; pos < to; pos ++)
+                    states.setCode(row, pos, codes[pos - from]);
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void writeDistribs(DataOutputStream out, DistribMatrix distribs, int row, int from, int to) throws IOException {
+        int nSym = distribs.getDomain().size();
+        for (int pos = from; pos < to; pos ++) {
+            byte maxidx = distribs.getMaxIndex(row, pos);
+            out.writeByte(maxidx);
+            if (maxidx != StateMatrix.ABSENT)
+                for (int i = 0; i < nSym; i ++)
+                    out.writeFloat(distribs.getProb(row, pos, i));
+        }
+    }
+
+    private void readDistribs(DataInputStream in, DistribMatrix distribs, int row, int from, int to) throws IOException {
+        float[] probs = new float[distribs.getDomain().size()];
+        for (int pos = from; pos < to; pos ++) {
+            byte maxidx = in.readByte();
+            if (maxidx != StateMatrix.ABSENT)
+                for (int i = 0; i < probs.length; i ++)
+                    probs[i] = in.readFloat();
+            distribs.set(row, pos, probs, maxidx);
+        }
+    }
+
+    /**
+     * Save the marginal distributions of a block of positions
+     * @param key settings of inference, see {@link #getKey(String, SubstModel, double[])}
+     * @param distribs the distributions
+     * @param rows the branch points to save
+     * @param from first position of block
+     * @param to position after the last of the block
+     * @throws IOException if the file cannot be written
+     */
+    public void saveMarginal(String key, DistribMatrix distribs, int[] rows, int from, int to) throws IOException {
+        File file = getBlockFile("marginal", from);
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = createBlock(tmp, getHeader(key, rows, from, to))) {
+            for (int row : rows)
+                writeDistribs(out, distribs, row, from, to);
+        }
+        commit(tmp, file);
+    }
+
+    /**
+     * Load the marginal distributions of a block of positions, if saved with the same settings
+     * @param key settings of inference, see {@link #getKey(String, SubstModel, double[])}
+     * @param distribs the distributions to set
+     * @param rows the branch points to load
+     * @param from first position of block
+     * @param to position after the last of the block
+     * @return true if the block was loaded, false if it needs to be inferred
+     */
+    public boolean loadMarginal(String key, DistribMatrix distribs, int[] rows, int from, int to) {
+        DataInputStream in = openBlock(getBlockFile("marginal", from), getHeader(key, rows, from, to));
+        if (in == null)
+            return false;
+        try (in) {
+            for (int row : rows)
+                readDistribs(in, distribs, row, from, to);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private File getAncestorFile(Object label) {
+        return new File(dir, "marginal_N" + label + SUFFIX);
+    }
+
+    /**
+     * Save the marginal distributions of one ancestor
+     * @param key settings of inference, see {@link #getKey(String, SubstModel, double[])}
+     * @param distribs the distributions
+     * @param row the branch point of the ancestor
+     * @param label the label of the ancestor
+     * @throws IOException if the file cannot be written
+     */
+    public void saveMarginal(String key, DistribMatrix distribs, int row, Object label) throws IOException {
+        File file = getAncestorFile(label);
+        File tmp = new File(file.getPath() + ".tmp");
+        int nPos = distribs.getPositions();
+        try (DataOutputStream out = createBlock(tmp, getHeader(key, new int[] {row}, 0, nPos))) {
+            writeDistribs(out, distribs, row, 0, nPos);
+        }
+        commit(tmp, file);
+    }
+
+    /**
+     * Load the marginal distributions of one ancestor, if saved with the same settings
+     * @param key settings of inference, see {@link #getKey(String, SubstModel, double[])}
+     * @param distribs the distributions to set
+     * @param row the branch point of the ancestor
+     * @param label the label of the ancestor
+     * @return true if the ancestor was loaded, false if it needs to be inferred
+     */
+    public boolean loadMarginal(String key, DistribMatrix distribs, int row, Object label) {
+        int nPos = distribs.getPositions();
+        DataInputStream in = openBlock(getAncestorFile(label), getHeader(key, new int[] {row}, 0, nPos));
+        if (in == null)
+            return false;
+        try (in) {
+            readDistribs(in, distribs, row, 0, nPos);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
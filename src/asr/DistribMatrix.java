@@ -0,0 +1,170 @@
+package asr;
+
+import bn.prob.EnumDistrib;
+import dat.Enumerable;
+
+import java.util.Arrays;
+
+/**
+ * Compact storage of inferred (marginal) distributions, by branch point and position.
+ * Probabilities are held as floats, one for each value in the domain of the substitution model, and the most probable
+ * value is coded by a byte (as in {@link StateMatrix}), so that it is not affected by the reduced precision.
+ * Positions where the branch point has no distribution (e.g. where the ancestor has a gap) are marked absent.
+ * Rows are allocated when the first distribution of a branch point is assigned; distributions are re-created on access.
+ */
+public class DistribMatrix {
+
+    private final Enumerable domain;
+    private final Object[] values;
+    private final int nSym;
+    private final int nPos;
+    private final float[][] probs;  // [branch point][position * nSym + value index]
+    private final byte[][] max;     // [branch point][position] index of most probable value, StateMatrix.ABSENT if no distribution
+
+    /**
+     * Create an empty matrix
+     * @param domain the values of the distributions, at most {@link Byte#MAX_VALUE} of them
+     * @param nRows number of branch points
+     * @param nPos number of positions
+     */
+    public DistribMatrix(Enumerable domain, int nRows, int nPos) {
+        if (domain.size() > Byte.MAX_VALUE)
+            throw new ASRRuntimeException("Too many values to store compactly: " + domain.size());
+        this.domain = domain;
+        this.values = domain.getValues();
+        this.nSym = domain.size();
+        this.nPos = nPos;
+        this.probs = new float[nRows][];
+        this.max = new byte[nRows][];
+    }
+
+    public Enumerable getDomain() {
+        return domain;
+    }
+
+    public int getPositions() {
+        return nPos;
+    }
+
+    /**
+     * @return true if the branch point has been assigned (even if all its positions are absent)
+     */
+    public boolean isAssigned(int row) {
+        return max[row] != null;
+    }
+
+    /**
+     * Mark the branch point as assigned; positions are absent until set.
+     */
+    public synchronized void assign(int row) {
+        if (max[row] == null) {
+            probs[row] = new float[nPos * nSym];
+            byte[] arr = new byte[nPos];
+            Arrays.fill(arr, StateMatrix.ABSENT);
+            max[row] = arr;
+        }
+    }
+
+    /**
+     * Set the distribution of a branch point at a position
+     * @param d the distribution, or null if absent
+     */
+    public void set(int row, int pos, EnumDistrib d) {
+        assign(row);
+        if (d == null) {
+            max[row][pos] = StateMatrix.ABSENT;
+            Arrays.fill(probs[row], pos * nSym, (pos + 1) * nSym, 0f);
+        } else {
+            for (int i = 0; i < nSym; i ++)
+                probs[row][pos * nSym + i] = (float) d.get(i);
+            max[row][pos] = (byte) d.getMaxIndex();
+        }
+    }
+
+    /**
+     * Set the distribution of a branch point at a position from its compact form
+     * @param probs the probabilities, one for each value in the domain (ignored if absent)
+     * @param maxidx index of the most probable value, or {@link StateMatrix#ABSENT}
+     */
+    public void set(int row, int pos, float[] probs, byte maxidx) {
+        assign(row);
+        max[row][pos] = maxidx;
+        if (maxidx == StateMatrix.ABSENT)
+            Arrays.fill(this.probs[row], pos * nSym, (pos + 1) * nSym, 0f);
+        else
+            System.arraycopy(probs, 0, this.probs[row], pos * nSym, nSym);
+    }
+
+    /**
+     * Copy the distribution of a branch point from one position to another
+     */
+    public void copy(int row, int src, int dst) {
+        assign(row);
+        max[row][dst] = max[row][src];
+        System.arraycopy(probs[row], src * nSym, probs[row], dst * nSym, nSym);
+    }
+
+    /**
+     * @return true if there is a distribution for the branch point at the position
+     */
+    public boolean isPresent(int row, int pos) {
+        return max[row] != null && max[row][pos] != StateMatrix.ABSENT;
+    }
+
+    /**
+     * @return the distribution, null if absent
+     */
+    public EnumDistrib get(int row, int pos) {
+        if (!isPresent(row, pos))
+            return null;
+        double[] p = new double[nSym];
+        for (int i = 0; i < nSym; i ++)
+            p[i] = probs[row][pos * nSym + i];
+        return new EnumDistrib(domain, p);
+    }
+
+    /**
+     * @return the probability of the value with the given index, 0 if absent
+     */
+    public float getProb(int row, int pos, int index) {
+        return isPresent(row, pos) ? probs[row][pos * nSym + index] : 0f;
+    }
+
+    /**
+     * @return index of the most probable value, {@link StateMatrix#ABSENT} if absent
+     */
+    public byte getMaxIndex(int row, int pos) {
+        return max[row] == null ? StateMatrix.ABSENT : max[row][pos];
+    }
+
+    /**
+     * @return the most probable value, null if absent
+     */
+    public Object getMax(int row, int pos) {
+        return isPresent(row, pos) ? values[max[row][pos]] : null;
+    }
+
+    /**
+     * Decode the distributions of a branch point
+     * @return distributions, null where absent; null if the branch point has not been assigned
+     */
+    public EnumDistrib[] getRow(int row) {
+        if (max[row] == null)
+            return null;
+        EnumDistrib[] arr = new EnumDistrib[nPos];
+        for (int pos = 0; pos < nPos; pos ++)
+            arr[pos] = get(row, pos);
+        return arr;
+    }
+
+    /**
+     * Decode all distributions
+     * @return distributions indexed by branch point and position; null for branch points that have not been assigned
+     */
+    public EnumDistrib[][] toArray() {
+        EnumDistrib[][] arr = new EnumDistrib[max.length][];
+        for (int row = 0; row < max.length; row ++)
+            arr[row] = getRow(row);
+        return arr;
+    }
+}
@@ -0,0 +1,177 @@
+package asr;
+
+import bn.ctmc.SubstModel;
+import bn.math.Kernels;
+import bn.prob.EnumDistrib;
+import dat.Enumerable;
+import dat.phylo.IdxTree;
+import dat.phylo.PhyloBN;
+import dat.phylo.TreeDecor;
+import dat.phylo.TreeInstance;
+
+import java.util.Arrays;
+
+/**
+ * "Marginal" reconstruction at ALL branch points of a tree by one upward (Felsenstein's pruning) and one downward pass.
+ * The upward pass determines the (conditional) likelihood of the observations under each branch point, given its state;
+ * the downward pass determines the probability of all other observations, jointly with the state of each branch point.
+ * Their product is proportional to the posterior distribution, so the posterior for every branch point costs
+ * about the same as a single query with MaxLhoodMarginal.
+ * The tree may be a forest (e.g. a position-specific tree, pruned by indels), in which case each root is
+ * treated independently. Branch points that are disconnected (no parent, no children) are not inferred.
+ */
+public class FelsensteinMarginal implements TreeDecor<EnumDistrib> {
+
+    final private IdxTree tree;
+    final private Enumerable domain;
+    final private int nStates;
+    final private double[] F;           // stationary (root) probabilities
+    final private double[][][] P;       // [bpidx][parent state][child state] transition probabilities; null if no parent
+    final private Kernels kernels = Kernels.get(); // scalar or SIMD, decided when inference is set-up
+    private double[][] posterior = null;// [bpidx][state] result of last inference, null for branch points not inferred
+
+    /**
+     * Set-up marginal inference for the specified tree and substitution model; the transition probabilities
+     * for each branch are determined here, so that they can be re-used for any instance of the tree.
+     * @param tree phylogenetic tree, possibly specific to a position in an alignment
+     * @param model evolutionary model
+     * @param rate relative evolutionary rate
+     */
+    public FelsensteinMarginal(IdxTree tree, SubstModel model, double rate) {
+        this.tree = tree;
+        this.domain = model.getDomain();
+        this.nStates = domain.size();
+        this.F = model.getF();
+        this.P = new double[tree.getSize()][][];
+        for (int idx = 0; idx < tree.getSize(); idx ++) {
+            if (tree.getParent(idx) >= 0)
+                P[idx] = model.getProbs(tree.getBranchPoint(idx).getDistance() * rate);
+        }
+    }
+
+    /**
+     * Set-up marginal inference for the specified tree and substitution model, using the default rate.
+     * @param tree phylogenetic tree
+     * @param model evolutionary model
+     */
+    public FelsensteinMarginal(IdxTree tree, SubstModel model) {
+        this(tree, model, PhyloBN.DEFAULT_RATE);
+    }
+
+    /**
+     * Retrieve the posterior distribution at a specified branch point
+     * @param idx branch point index
+     * @return the posterior distribution over states defined by the substitution model,
+     * or null if the branch point was not part of inference
+     */
+    @Override
+    public EnumDistrib getDecoration(int idx) {
+        if (posterior == null)
+            throw new ASRRuntimeException("Marginal inference has not been performed");
+        return posterior[idx] == null ? null : new EnumDistrib(domain, posterior[idx]);
+    }
+
+    /**
+     * Determine the posterior distribution at all branch points, given the observations at certain branch points in the tree (i.e. leaves)
+     * @param ti observed states
+     */
+    @Override
+    public void decorate(TreeInstance ti) {
+        if (ti.getSize() != tree.getSize())
+            throw new ASRRuntimeException("Invalid tree instance: size " + ti.getSize() + " does not match tree " + tree.getSize());
+        int[] observed = new int[ti.getSize()];
+        for (int idx = 0; idx < observed.length; idx ++) {
+            Object y = ti.getInstance(idx);
+            if (y == null)
+                observed[idx] = -1;
+            else if (domain.isValid(y))
+                observed[idx] = domain.getIndex(y);
+            else
+                throw new ASRRuntimeException("Invalid symbol for marginal inference: " + y);
+        }
+        posterior = infer(observed);
+    }
+
+    /**
+     * Determine the posterior distribution at all branch points.
+     * @param observed state index for each branch point, -1 if not instantiated
+     * @return posterior distribution (normalised) for each branch point that is part of inference, null otherwise
+     */
+    public double[][] infer(int[] observed) {
+        int n = tree.getSize();
+        double[][] below = new double[n][];     // [bpidx][state] likelihood of subtree under branch point (incl. itself), given its state
+        double[][] msgup = new double[n][];     // [bpidx][parent state] likelihood of subtree under branch point, given the state of its parent
+        double[][] above = new double[n][];     // [bpidx][state] probability of observations outside subtree, jointly with state
+        double[][] result = new double[n][];
+        // upward pass: since a parent is always indexed before its children, iterate backwards
+        for (int idx = n - 1; idx >= 0; idx --) {
+            if (!tree.isConnected(idx))
+                continue;
+            double[] L = evidence(observed[idx]);
+            for (int child : tree.getChildren(idx))
+                multiply(L, msgup[child]);
+            normalise(L);
+            below[idx] = L;
+            if (P[idx] != null) {
+                double[] msg = new double[nStates];
+                for (int s = 0; s < nStates; s ++)
+                    msg[s] = kernels.dot(P[idx][s], L, nStates);
+                normalise(msg);
+                msgup[idx] = msg;
+            }
+        }
+        // downward pass: parents before children
+        for (int idx = 0; idx < n; idx ++) {
+            if (!tree.isConnected(idx))
+                continue;
+            int parent = tree.getParent(idx);
+            double[] A = new double[nStates];
+            if (parent < 0) {
+                System.arraycopy(F, 0, A, 0, nStates);
+            } else {
+                // everything at the parent, except what came up from this branch point
+                double[] B = evidence(observed[parent]);
+                multiply(B, above[parent]);
+                for (int sibling : tree.getChildren(parent))
+                    if (sibling != idx)
+                        multiply(B, msgup[sibling]);
+                for (int s = 0; s < nStates; s ++) {
+                    if (B[s] != 0)
+                        kernels.axpy(B[s], P[idx][s], A, nStates);
+                }
+                normalise(A);
+            }
+            above[idx] = A;
+            double[] post = new double[nStates];
+            for (int s = 0; s < nStates; s ++)
+                post[s] = A[s] * below[idx][s];
+            normalise(post);
+            result[idx] = post;
+        }
+        return result;
+    }
+
+    private double[] evidence(int observed) {
+        double[] e = new double[nStates];
+        if (observed >= 0)
+            e[observed] = 1;
+        else
+            Arrays.fill(e, 1);
+        return e;
+    }
+
+    private static void multiply(double[] dst, double[] src) {
+        for (int s = 0; s < dst.length; s ++)
+            dst[s] *= src[s];
+    }
+
+    private static void normalise(double[] v) {
+        double sum = 0;
+        for (double x : v)
+            sum += x;
+        if (sum > 0)
+            for (int s = 0; s < v.length; s ++)
+                v[s] /= sum;
+    }
+
+}
@@ -1,6 +1,7 @@
 package asr;
 
 import bn.ctmc.SubstModel;
+import bn.math.Kernels;
 import bn.prob.EnumDistrib;
 import bn.prob.GammaDistrib;
 import bn.prob.GaussianDistrib;
@@ -39,13 +40,27 @@ public class GRASP {
     // Mode for BEP
     public static boolean RECODE_NULL = true;
     public static int MIP_SOLVER_TIME_LIMIT_MINUTES = 720; // 12 hours
+    // Start the MIP solver from the BEP solution
+    public static boolean MIP_WARM_START = true;
     public static boolean REMOVE_INDEL_ORPHANS = true;
     public static boolean ONLYINDEL = false;
     public enum Inference {
         JOINT,
         MARGINAL
     }
+    // Engine for joint reconstruction: PUPKO uses dynamic programming over primitive arrays, BN builds a Bayesian network and uses variable elimination
+    public enum JointEngine {
+        PUPKO,
+        BN
+    }
+    public static JointEngine JOINT_ENGINE = JointEngine.PUPKO;
+    // Infer characters only once for positions with the same tree, leaf states and rate
+    public static boolean SITE_PATTERNS = true;
+    // Use SIMD (JDK Vector API) kernels for tree likelihoods, if the JVM provides the incubator module
+    public static boolean SIMD = false;
     public static RATE_CATEGORY INDEL_RATE = RATE_CATEGORY.HIGH;
+    // Sub-folder of the output folder where checkpoints are saved
+    public static String CHECKPOINT_DIR = "checkpoint";
 
     public static void usage() {
         usage(0, null);
@@ -61,10 +76,12 @@ public class GRASP {
                 "\t{-i | --input-folder <foldername>}\n" +
                 "\t{-pre | --prefix <stub>}\n" +
                 "\t{-rf | --rates-file <filename>}\n" +
+                "\t{--rate-categories <number | list-of-rates>}\n" +
                 "\t{-s | --substitution-model <JTT(default)|Dayhoff|LG|WAG|JC|Yang>}\n" +
                 "\t{-t | --threads <number>}\n" +
                 "\t{-j | --joint (default)}\n" +
-                "\t{-m | --marginal <branchpoint-id>}\n" +
+                "\t{--joint-engine <PUPKO(default)|BN>}\n" +
+                "\t{-m | --marginal <branchpoint-id | all>}\n" +
                 "\t{--indel-method <methodname>} (select one from BEP(default) BEML SICP SICML PSP PSML SCIP Gurobi)\n" +
                 "\t{--reuse-tree Re-use the reconstructed tree for TrAVIS}\n" +
                 "\t{* --indel-prior <LOWGAP|MEDGAP|HIGHGAP>}\n" +
@@ -76,6 +93,10 @@ public class GRASP {
                 "\t{--nogap}\n" +
                 "\t{--seed <seed>}\n" +
                 "\t{--nonibble}\n" +
+                "\t{--nopatterns}\n" +
+                "\t{--nowarmstart}\n" +
+                "\t{--simd}\n" +
+                "\t{--checkpoint}{--resume}\n" +
                 "\t{--exclude-noedge}\n" +
                 "\t{--save-as <list-of-formats>} (select multiple from FASTA CLUSTAL TREE DISTRIB ASR DOT TREES TrAVIS SIMUL)\n" +
                 "\t{--save-all} (saves reconstruction with ALL formats)\n" +
@@ -87,19 +108,21 @@ public class GRASP {
                 "\t(2) For each ancestral position, the most probable character is assigned to each phylogenetic branch \n\tpoint when performing a joint reconstruction. Alternatively, for each \n\tposition at a nominated branch point, the probability distribution over all possible \n\tcharacters is inferred when performing a marginal reconstruction.\n" +
                 "\tFinally, edges are drawn to represent all inferred combinations of indels to form an ancestor POG \n\twith nodes that can form a valid sequence with inferred content; a preferred path\n\tthrough the POG is then inferred, nominating a single, best supported sequence.\n");
         out.println("Mode of character inference:\n" +
-                "\t-j (or --joint) activates joint reconstruction (default), \n\t-m (or --marginal) activates marginal reconstruction (requires a branch-point to be nominated)\n" +
+                "\t-j (or --joint) activates joint reconstruction (default), \n\t-m (or --marginal) activates marginal reconstruction (requires a branch-point to be nominated, or \"all\" for all ancestors)\n" +
+                "\t--joint-engine selects the algorithm for joint reconstruction: PUPKO (default; fast dynamic programming) or BN (Bayesian network with variable elimination); both give the same states\n" +
                 "\t--onlyindel disengages the stage of character state inference\n");
         out.println("Required arguments:\n" +
                 "\t-a (or --aln) must specify the name of a multiple-sequence alignment file on FASTA or CLUSTAL format\n" +
                 "\t-n (or --nwk) must specify the name of a phylogenetic-tree file on Newick format\n");
         out.println("Optional arguments:\n" +
                 "\t-o (or --output-folder) specifies the folder that will be used to save output files,\n\t\te.g. inferred ancestor or ancestors, tree, etc. as specified by format\n" +
-                "\t-i (or --input-folder) skips indel inference, and loads a previous reconstruction from specified folder\n" +
+                "\t-i (or --input-folder) skips indel inference, and loads a previous reconstruction from specified folder\n\t\t(ASR.bin if available, unless ASR.json is newer)\n" +
                 "\t-sa (or --save-as) lists the files and formats to be generated (see below)\n\t--save-all nominates all\n" +
                 "\t-pre (or --prefix) specifies a stub that is added to result filenames (default is the prefix of the alignment file)\n" +
                 "\t-indel (or --indel-method) specifies what method to use for inferring indels (see below)\n" +
                 "\t-s (or --substitution-model) specifies what evolutionary model to use for inferring character states (see below)\n" +
                 "\t-rf (or --rates-file) specifies a tabulated file with relative, position-specific substitution rates\n\t\tWe recommend the use of this generally, but specifically for trees with great distances, and with biologically diverse entries\n\t\tAs an example, IQ-TREE produces rates on the accepted format with the --rate option (--mlrate is NOT supported yet).\n" +
+                "\t--rate-categories snaps the rates from the rates file to discrete categories, so that transition probabilities are shared\n\t\tby positions; specify the number of (equally populated) categories, or a comma-separated list of category rates.\n\t\tWith --verbose, joint reconstruction reports the proportion of ancestor states that differ from using continuous rates\n" +
                 "\t-ef (or --empirical-freqs) specifies a tabulated file with the headers Character & Proportion that contain\n\t\tstationary character frequencies for the chosen substitution model. The standard stationary character frequencies of a\n\t\tchosen substitution model are used by default when -ef is not specified\n" +
                 "\t--indel-prior (not implemented but intended for TrAVIS) specifies Gamma priors pre-determined from Pfam alignments that have few, moderate, or large numbers of gaps.\n" +
                 "\t--indel-length-distrib specifies the indel length distribution function, which serves to model both deletions and insertions in TrAVIS\n" +
@@ -107,9 +130,14 @@ public class GRASP {
                 "\t--include-extants means that extants are included in output files (when the format allows)\n" +
                 "\t--nogap means that the gap-character is excluded in the resulting output (when the format allows)\n" +
                 "\t--nonibble de-activates the removal of indices in partial order graphs that cannot form a path from start to end\n" +
+                "\t--nopatterns de-activates the compression of positions with identical trees, leaf states and rates into site patterns\n\t\tfor character inference (the result is the same, but takes longer)\n" +
+                "\t--simd uses SIMD instructions (the JDK Vector API) for tree likelihoods; requires the Java option\n\t\t--add-modules jdk.incubator.vector, else a warning is printed and scalar code is used\n" +
+                "\t--checkpoint saves completed stages of inference (the indel solution, and blocks of positions with ancestor states)\n\t\tin the folder \"" + CHECKPOINT_DIR + "\" of the output folder, which is removed when the run is complete\n" +
+                "\t--resume continues an interrupted run that used --checkpoint (with the same input files and indel method),\n\t\tskipping work that was completed and saved\n" +
                 "\t--orphans de-activates the removal of orphaned indel trees\n" +
                 "\t--exclude-noedge removes non-existing edge as an option for parsimony in BEP\n" +
                 "\t--solver-time-limit the maximum time the MIP solver can run for in minutes before defaulting to BEP indel inference\n" +
+                "\t--nowarmstart de-activates starting the MIP solver from the BEP indel solution (by default given to the solver as a hint)\n" +
                 "\t--verbose prints out information about steps undertaken, and --time the time it took to finish\n" +
                 "\t-h (or --help) will print out this screen\n");
         out.println("Files/formats: \n" +
@@ -118,6 +146,7 @@ public class GRASP {
                 "\tTREE: phylogenetic tree with ancestor nodes labelled\n" +
                 "\tDISTRIB: character distributions for each position (indexed by POG, only available for marginal reconstruction)\n" +
                 "\tASR: complete reconstruction as JSON, incl. POGs of ancestors and extants, and tree (ASR.json)\n" +
+                "\tASRBIN: complete reconstruction in binary, memory-mapped format (ASR.bin), convert with asr.PredictionFile\n" +
                 "\tDOT: partial-order graphs of ancestors in DOT format\n" +
                 "\tTREES: position-specific trees with ancestor states labelled\n" +
                 "\tTrAVIS: Produce commandline parameters for running TrAVIS\n" +
@@ -149,10 +178,46 @@ public class GRASP {
     }
 
 
+    /**
+     * Save the character distributions of an ancestor as a tabulated file, one row per position
+     * @param filename name of file
+     * @param d distributions, indexed by position (null if the position is not part of the ancestor)
+     * @param MODEL substitution model, defining the character states
+     * @throws IOException if the file could not be written
+     */
+    static void saveDistribs(String filename, EnumDistrib[] d, SubstModel MODEL) throws IOException {
+        Object[][] m = new Object[d.length + 1][];
+        for (int j = 0; j < d.length; j++) {
+            if (d[j] != null) {
+                m[j + 1] = new Object[MODEL.getDomain().size() + 1];
+                m[j + 1][0] = j + 1;
+                if (m[0] == null) {
+                    m[0] = new Object[MODEL.getDomain().size() + 1];
+                    m[0][0] = "Index";
+                }
+                for (int jj = 0; jj < m[j + 1].length - 1; jj++) {
+                    m[j + 1][jj + 1] = d[j].get(jj);
+                    if (m[0][jj + 1] == null)
+                        m[0][jj + 1] = MODEL.getDomain().get(jj);
+                }
+            }
+        }
+        for (int j = 0; j < d.length; j++) {
+            if (d[j] == null) {
+                m[j + 1] = new Object[m[0].length];
+                m[j + 1][0] = j + 1;
+                for (int jj = 0; jj < m[j + 1].length - 1; jj++)
+                    m[j + 1][jj + 1] = null;
+            }
+        }
+        TSVFile.saveObjects(filename, m);
+    }
+
     public static void main(String[] args) {
 
         boolean BYPASS = false; // bypass inference, default is false
         String ASRFILE = "ASR.json";
+        String ASRBINFILE = "ASR.bin";
         String ALIGNMENT = null;
         String NEWICK = null;
         String OUTPUT = null;
@@ -160,9 +225,13 @@ public class GRASP {
         String PREFIX = null;
         String RATESFILE = null;
         double[] RATES = null;
+        String RATE_CATEGORIES = null;  // number of rate categories, or their centres
+        double[] RATES_CONTINUOUS = null;
         boolean REUSE_TREE = false;
         boolean CONFLATE_RATES = false;
         boolean COPY_SUBST_RATES = false;
+        boolean CHECKPOINT = false;     // save checkpoints of completed work
+        boolean RESUME = false;         // resume from checkpoints saved by an earlier run
         String EMPIRICAL_FREQS_FILE = null;
         double[] EMPIRICAL_FREQS = null;
 
@@ -182,15 +251,16 @@ public class GRASP {
         // output formats
         boolean SAVE_AS = false;
         boolean INCLUDE_EXTANTS = false;
-        String[]  FORMATS    = new String[]  {"FASTA", "DISTRIB", "CLUSTAL", "TREE", "ASR", "DOT", "TREES", "MATLAB", "LATEX", "POAG", "TrAVIS", "SIMUL"};
+        String[]  FORMATS    = new String[]  {"FASTA", "DISTRIB", "CLUSTAL", "TREE", "ASR", "DOT", "TREES", "MATLAB", "LATEX", "POAG", "TrAVIS", "SIMUL", "ASRBIN"};
         // select these, default for "joint reconstruction"
         boolean[] SAVE_AS_IDX = new boolean[FORMATS.length];
         // select to compute consensus path for these output formats
-        boolean[] CONSENSUS = new boolean[]  {true,    false,     true,      false,  false, false, false,   false,    false,   false,  true,    true  };
+        boolean[] CONSENSUS = new boolean[]  {true,    false,     true,      false,  false, false, false,   false,    false,   false,  true,    true,    false };
         // default inference mode
         Inference MODE = Inference.JOINT;
         // ancestor to reconstruct if inference mode is "marginal"
         Integer MARG_NODE = null;
+        boolean MARG_ALL = false;       // marginal reconstruction of all ancestors
         int SEED = new Random().nextInt();
 
         long START_TIME = System.currentTimeMillis(), ELAPSED_TIME;
@@ -210,6 +280,8 @@ public class GRASP {
                     PREFIX = args[++ a];
                 } else if ((arg.equalsIgnoreCase("-rates-file") || arg.equalsIgnoreCase("rf")) && args.length > a + 1) {
                     RATESFILE = args[++a];
+                } else if (arg.equalsIgnoreCase("-rate-categories") && args.length > a + 1) {
+                    RATE_CATEGORIES = args[++a];
                 } else if ((arg.equalsIgnoreCase("-seed")  && args.length > a + 1)) {
                     SEED = Integer.parseInt(args[++a]);
                 } else if (arg.equalsIgnoreCase("-joint") || arg.equalsIgnoreCase("j")) {
@@ -217,12 +289,22 @@ public class GRASP {
                 } else if ((arg.equalsIgnoreCase("-marginal") || arg.equalsIgnoreCase("m")) && args.length > a + 1) {
                     MODE = Inference.MARGINAL;
                     String ancid = args[++a];
+                    if (ancid.equalsIgnoreCase("all")) {
+                        MARG_ALL = true;
+                        continue;
+                    }
                     if (ancid.startsWith("N"))
                         ancid = ancid.substring(1);
                     try {
                         MARG_NODE = Integer.parseInt(ancid);
                     } catch (NumberFormatException e) {
-                        usage(2, args[a] + " is not a valid ancestor name (use <number>, or \"N<number>\", where <number> starts with 0 at root, depth-first). Tip: perform joint reconstruction first to check branch point numbering in tree.");
+                        usage(2, args[a] + " is not a valid ancestor name (use <number>, or \"N<number>\", where <number> starts with 0 at root, depth-first, or \"all\"). Tip: perform joint reconstruction first to check branch point numbering in tree.");
+                    }
+                } else if (arg.equalsIgnoreCase("-joint-engine") && args.length > a + 1) {
+                    try {
+                        JOINT_ENGINE = JointEngine.valueOf(args[++a].toUpperCase());
+                    } catch (IllegalArgumentException e) {
+                        usage(2, args[a] + " is not a valid engine for option --joint-engine (choose from PUPKO, BN)");
                     }
                 } else if (arg.equalsIgnoreCase("-onlyindel")) {
                     MODE = null;
@@ -280,7 +362,7 @@ public class GRASP {
                     }
                     SAVE_AS = true;
                 } else if (arg.equalsIgnoreCase("-save-all")) {
-                    for (int i = 0; i < FORMATS.length - 2; i ++)
+                    for (int i = 0; i < FORMATS.length - 3; i ++) // all but TrAVIS, SIMUL and ASRBIN
                         SAVE_AS_IDX[i] = true;
                     SAVE_AS = true;
                 } else if (arg.equalsIgnoreCase("-save-tree")) {
@@ -350,6 +432,16 @@ public class GRASP {
                     TIME = true;
                 } else if (arg.equalsIgnoreCase("-nonibble")) {
                     NIBBLE = false;
+                } else if (arg.equalsIgnoreCase("-nopatterns")) {
+                    SITE_PATTERNS = false;
+                } else if (arg.equalsIgnoreCase("-nowarmstart")) {
+                    MIP_WARM_START = false;
+                } else if (arg.equalsIgnoreCase("-simd")) {
+                    SIMD = true;
+                } else if (arg.equalsIgnoreCase("-checkpoint")) {
+                    CHECKPOINT = true;
+                } else if (arg.equalsIgnoreCase("-resume")) {
+                    CHECKPOINT = RESUME = true;
                 } else if (arg.equalsIgnoreCase("-solver-time-limit")) {
                     try {
                         MIP_SOLVER_TIME_LIMIT_MINUTES = Integer.parseInt(args[++a]);
@@ -367,6 +459,13 @@ public class GRASP {
             }
         }
 
+        if (SIMD) {
+            if (!Kernels.setVector(true))
+                System.err.println("Warning: SIMD kernels are not available (run Java with --add-modules jdk.incubator.vector); using scalar code");
+            else if (VERBOSE)
+                System.out.println("Using " + Kernels.get() + " kernels");
+        }
+
         if (ALIGNMENT == null && INPUT == null)
             usage(3, "Must specify alignment (--aln <Clustal or FASTA file>) or previously saved folder (--input-folder <folder>");
         else if (NEWICK == null && INPUT == null)
@@ -454,20 +553,44 @@ public class GRASP {
                 usage(24, "Rates file could not be opened or read: " + RATESFILE);
             }
         }
+        if (RATE_CATEGORIES != null) {
+            if (RATES == null)
+                usage(31, "Rate categories require position-specific rates (--rates-file <filename>)");
+            try {
+                RateCategories cats = RateCategories.parse(RATE_CATEGORIES, RATES);
+                RATES_CONTINUOUS = RATES;
+                RATES = cats.snap(RATES);
+                if (VERBOSE)
+                    System.out.println("Using " + cats);
+            } catch (NumberFormatException | ASRRuntimeException e) {
+                usage(31, RATE_CATEGORIES + " is not a valid number of rate categories, or list of category rates, for option --rate-categories");
+            }
+        }
 
         Object[][] ancseqs_gappy = null;
         Object[][] ancseqs_nogap = null;
         String[] ancnames = null;
+        boolean STREAM = false; // write ancestors one at a time, rather than collecting all before saving
         POGraph[] ancestors = null;
         Prediction indelpred = null;
+        Checkpoint checkpoint = null;
         EnumSeq.Alignment aln = null;
         Tree tree = null;
         POGTree pogtree = null;
 
         try {
+            File inputfile = null;
             if (INPUT != null) {
+                File asrjson = new File(INPUT, ASRFILE);
+                File asrbin = new File(INPUT, ASRBINFILE);
+                // binary is quicker to load, so preferred if available, unless the JSON file was saved after it
+                if (asrbin.exists() && (!asrjson.exists() || asrbin.lastModified() >= asrjson.lastModified()))
+                    inputfile = asrbin;
+                else
+                    inputfile = asrjson;
                 try {
-                    indelpred = Prediction.load(INPUT + "/" + ASRFILE);
+                    indelpred = Prediction.load(inputfile.getPath());
+                    System.out.println("Loaded reconstruction from " + inputfile.getPath() + (inputfile == asrjson && asrbin.exists() ? " (newer than " + asrbin.getPath() + ")" : ""));
                 } catch (ASRRuntimeException e) {
                     usage(7, "Prediction failed to load: " + e.getMessage());
                 }
@@ -478,6 +601,13 @@ public class GRASP {
                 tree = Utils.loadTree(NEWICK);
                 Utils.checkData(aln, tree);
             }
+            if (CHECKPOINT && !BYPASS) {
+                String method = INDELS[INDEL_IDX] + (INDEL_CONSERVATIVE ? "" : "*") + ":" + NIBBLE + ":" + RECODE_NULL + ":" + REMOVE_INDEL_ORPHANS;
+                String run = INPUT == null ? Checkpoint.getRun(method, ALIGNMENT, NEWICK) : Checkpoint.getRun("INPUT", inputfile.getPath());
+                checkpoint = new Checkpoint(OUTPUT + "/" + CHECKPOINT_DIR, run);
+                if (!RESUME)
+                    checkpoint.clear();
+            }
         } catch (ASRException e) {
             usage(22, "Invalid input for ASR: " + e.getMessage());
         } catch (IOException e) {
@@ -487,6 +617,13 @@ public class GRASP {
         if (!BYPASS && indelpred == null) {
             // if we are past the above, we can assume that the data are good to process
             pogtree = new POGTree(aln, tree);
+            if (checkpoint != null) {
+                indelpred = checkpoint.loadIndels();
+                if (indelpred != null && VERBOSE)
+                    System.out.println("Resumed indel solution from " + OUTPUT + "/" + CHECKPOINT_DIR);
+            }
+        }
+        if (!BYPASS && indelpred == null) {
             switch (INDEL_IDX) {
                 case 0:
                     indelpred = Prediction.PredictByBidirEdgeParsimony(pogtree);
@@ -512,27 +649,49 @@ public class GRASP {
                 default:
                     break;
             }
+            if (checkpoint != null && indelpred != null) {
+                try {
+                    checkpoint.saveIndels(indelpred);
+                } catch (IOException e) {
+                    usage(2, "Failed to save checkpoint: " + e.getMessage());
+                }
+            }
         }
 
         if (!BYPASS) {
             if (indelpred == null)
                 usage(3, INDELS[INDEL_IDX] + " is not implemented");
-            if (MODE == Inference.JOINT)
-                indelpred.getJoint(MODEL, RATES);
-            else if (MODE == Inference.MARGINAL) {
-                if (indelpred.getTree().getIndex(MARG_NODE) < 0)
-                    usage(2, MARG_NODE + " is not a valid ancestor number");
-                indelpred.getMarginal(MARG_NODE, MODEL, RATES);
+            indelpred.setCheckpoint(checkpoint);
+            if (MODE == Inference.JOINT) {
+                if (RATES_CONTINUOUS != null && VERBOSE) { // report how categorical rates change the reconstruction
+                    Object[][] continuous = indelpred.getJoint(MODEL, RATES_CONTINUOUS);
+                    Object[][] categorical = indelpred.getJoint(MODEL, RATES);
+                    System.out.printf("Rate categories changed %.2f%% of ancestor states relative to continuous rates%n", RateCategories.getDifference(continuous, categorical) * 100);
+                } else
+                    indelpred.getJointMatrix(MODEL, RATES);
+            } else if (MODE == Inference.MARGINAL) {
+                if (MARG_ALL)
+                    indelpred.getMarginalMatrix(MODEL, RATES);
+                else {
+                    if (indelpred.getTree().getIndex(MARG_NODE) < 0)
+                        usage(2, MARG_NODE + " is not a valid ancestor number");
+                    indelpred.getMarginal(MARG_NODE, MODEL, RATES);
+                }
             } else if (ONLYINDEL) {
                 indelpred.saveIndelSolutionAsFasta(OUTPUT, PREFIX);
             }
 
             POGraph.SUPPORTED_PATH_DEFAULT = SPATH_IDX;
+            STREAM = !(SAVE_AS_IDX[10] || SAVE_AS_IDX[11]); // TrAVIS and SIMUL need all ancestor sequences at once
+            if (STREAM && (SAVE_AS_IDX[4] || SAVE_AS_IDX[12]))
+                indelpred.getAncestors(MODE); // saved reconstructions include ancestor states
+        }
+        if (!BYPASS && !STREAM) {
             Map<Object, POGraph> pogs = indelpred.getAncestors(MODE);
             ancestors = new POGraph[pogs.size()];
             try {
                 for (Map.Entry<Object, POGraph> entry : pogs.entrySet()) {
-                    if (MODE == Inference.MARGINAL) {
+                    if (MODE == Inference.MARGINAL && !MARG_ALL) {
                         ancestors[0] = entry.getValue();
                         break;
                     }
@@ -550,7 +709,7 @@ public class GRASP {
                 int ii = 0;
                 try {
                     for (Map.Entry<Object, POGraph> entry : pogs.entrySet()) {
-                        if (MODE == Inference.MARGINAL) {
+                        if (MODE == Inference.MARGINAL && !MARG_ALL) {
                             ancnames[0] = "N" + entry.getKey().toString();
                             ancseqs_gappy[0] = indelpred.getSequence(entry.getKey(), MODE, true);
                             ancseqs_nogap[0] = indelpred.getSequence(entry.getKey(), MODE, false);
@@ -569,6 +728,8 @@ public class GRASP {
                     }
                 }
             }
+        }
+        if (!BYPASS) {
             File file = new File(OUTPUT);
             if (file.mkdirs()) { // true if the directory was created, false otherwise
             } else {
@@ -578,16 +739,37 @@ public class GRASP {
         }
 
         try {
+            if (STREAM && MODE != null && (SAVE_AS_IDX[0] || SAVE_AS_IDX[2] || SAVE_AS_IDX[5])) {
+                AncestorWriter stream = new AncestorWriter(indelpred, MODE, indelpred.getLabels(MODE));
+                FastaWriter fw = null;
+                AlnWriter aw = null;
+                String filename = PREFIX + (MODE == Inference.MARGINAL && !MARG_ALL ? "_N" + MARG_NODE : "_ancestors");
+                if (SAVE_AS_IDX[0]) {
+                    fw = new FastaWriter(new File(OUTPUT, filename + ".fa"));
+                    stream.setFasta(fw, GAPPY);
+                }
+                if (SAVE_AS_IDX[2]) {
+                    aw = new AlnWriter(new File(OUTPUT, filename + ".aln"));
+                    stream.setClustal(aw);
+                }
+                if (SAVE_AS_IDX[5])
+                    stream.setDOT(OUTPUT);
+                stream.write(NTHREADS);
+                if (fw != null)
+                    fw.close();
+                if (aw != null)
+                    aw.close();
+            }
             for (int i = 0; i < SAVE_AS_IDX.length; i++) {
-                if (!SAVE_AS_IDX[i])
+                if (!SAVE_AS_IDX[i] || (STREAM && (i == 0 || i == 2 || i == 5))) // streamed above
                     continue;
-                switch (i) { // {"FASTA", "DISTRIB", "CLUSTAL", "TREE", "POGS", "DOT", "TREES", "MATLAB", "LATEX", "POAG", "TrAVIS", "SIMUL"};
+                switch (i) { // {"FASTA", "DISTRIB", "CLUSTAL", "TREE", "POGS", "DOT", "TREES", "MATLAB", "LATEX", "POAG", "TrAVIS", "SIMUL", "ASRBIN"};
                     case 0: // FASTA
                         if (!BYPASS && MODE != null) {
                             FastaWriter fw = null;
-                            if (MODE == Inference.MARGINAL) // just one sequence
+                            if (MODE == Inference.MARGINAL && !MARG_ALL) // just one sequence
                                 fw = new FastaWriter(new File(OUTPUT, PREFIX + "_N" + MARG_NODE + ".fa"));
-                            else if (MODE == Inference.JOINT)
+                            else
                                 fw = new FastaWriter(new File(OUTPUT, PREFIX + "_ancestors.fa"));
                             if (GAPPY)
                                 fw.save(ancnames, ancseqs_gappy);
@@ -598,41 +780,26 @@ public class GRASP {
                         break;
                     case 1: // DISTRIB
                         if (!BYPASS && MODE == Inference.MARGINAL) { // must be true for this format
-                            EnumDistrib[] d = indelpred.getMarginal(MARG_NODE, MODEL, RATES);
-                            if (d != null) {
-                                Object[][] m = new Object[d.length + 1][];
-                                for (int j = 0; j < d.length; j++) {
-                                    if (d[j] != null) {
-                                        m[j + 1] = new Object[MODEL.getDomain().size() + 1];
-                                        m[j + 1][0] = j + 1;
-                                        if (m[0] == null) {
-                                            m[0] = new Object[MODEL.getDomain().size() + 1];
-                                            m[0][0] = "Index";
-                                        }
-                                        for (int jj = 0; jj < m[j + 1].length - 1; jj++) {
-                                            m[j + 1][jj + 1] = d[j].get(jj);
-                                            if (m[0][jj + 1] == null)
-                                                m[0][jj + 1] = MODEL.getDomain().get(jj);
-                                        }
-                                    }
-                                }
-                                for (int j = 0; j < d.length; j++) {
-                                    if (d[j] == null) {
-                                        m[j + 1] = new Object[m[0].length];
-                                        m[j + 1][0] = j + 1;
-                                        for (int jj = 0; jj < m[j + 1].length - 1; jj++)
-                                            m[j + 1][jj + 1] = null;
-                                    }
+                            if (MARG_ALL) {
+                                DistribMatrix dd = indelpred.getMarginalMatrix(MODEL, RATES);
+                                IdxTree ptree = indelpred.getTree();
+                                for (int bpidx : ptree.getAncestors()) {
+                                    if (dd.isAssigned(bpidx))         // decode one ancestor at a time
+                                        saveDistribs(OUTPUT + "/" + PREFIX + "_N" + ptree.getLabel(bpidx) + ".tsv", dd.getRow(bpidx), MODEL);
                                 }
-                                TSVFile.saveObjects(OUTPUT + "/" + PREFIX + "_N" + MARG_NODE + ".tsv", m);
-                            } else
-                                usage(8, "Invalid ancestor node label: " + MARG_NODE);
+                            } else {
+                                EnumDistrib[] d = indelpred.getMarginal(MARG_NODE, MODEL, RATES);
+                                if (d != null)
+                                    saveDistribs(OUTPUT + "/" + PREFIX + "_N" + MARG_NODE + ".tsv", d, MODEL);
+                                else
+                                    usage(8, "Invalid ancestor node label: " + MARG_NODE);
+                            }
                         }
                         break;
                     case 2: // CLUSTAL
                         if (!BYPASS && MODE != null) {
                             AlnWriter aw = null;
-                            if (MODE == Inference.MARGINAL) // just one sequence
+                            if (MODE == Inference.MARGINAL && !MARG_ALL) // just one sequence
                                 aw = new AlnWriter(new File(OUTPUT, PREFIX + "_N" + MARG_NODE + ".aln"));
                             else
                                 aw = new AlnWriter(new File(OUTPUT, PREFIX + "_ancestors.aln"));
@@ -1126,6 +1293,10 @@ public class GRASP {
                                 usage(23, "TrAVIS reports must be based on joint reconstructions");
                         }
                         break;
+                    case 12: // ASRBIN
+                        if (!BYPASS)
+                            PredictionFile.save(indelpred, OUTPUT + "/" + ASRBINFILE);
+                        break;
                 }
                 ELAPSED_TIME = (System.currentTimeMillis() - START_TIME);
                 if (VERBOSE || TIME) {
@@ -1133,6 +1304,8 @@ public class GRASP {
                             TimeUnit.MILLISECONDS.toSeconds(ELAPSED_TIME) - TimeUnit.MINUTES.toSeconds(TimeUnit.MILLISECONDS.toMinutes(ELAPSED_TIME)));
                 }
             }
+            if (checkpoint != null) // all results are saved, so checkpoints are no longer needed
+                checkpoint.delete();
         } catch (ASRException e) {
             usage(22, "Invalid input for ASR: " + e.getMessage());
         } catch (IOException e) {
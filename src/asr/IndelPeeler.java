@@ -7,10 +7,10 @@ import bn.ctmc.matrix.*;
 import dat.EnumSeq;
 import dat.Enumerable;
 import dat.phylo.BranchPoint;
+import dat.phylo.GapPeeling;
 import dat.phylo.IdxTree;
 import dat.phylo.PhyloBN;
 import dat.pog.POGTree;
-import dat.pog.POGraph;
 import dat.pog.SymNode;
 import smile.math.Function;
 import smile.math.MathEx;
@@ -18,66 +18,111 @@ import smile.math.special.Minimise;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
 
 public class IndelPeeler {
 
-    private final GapSubstModel model;
-    private final POGTree pogTree;
-    final private IdxTree tree;
-    private final PhyloBN pbn;
+    private final GapPeeling engine;
+    private final int[] states;
     private final int columnIdx;
-    private final double[][] nodeResidueProbs;
-    private final double[] nodeGapProbs;
-    private double[] containsGap = null;
-    private final int numResidues; // excluding gap
-    private final Object[] alphabet;
-    private final int alphabetSize; // including gap
     private final double geometricSeqLenParam;
     private double treeProb;
 
     public IndelPeeler(POGTree pogTree, SubstModel model, Double rate, int columnIdx, double geometricSeqLenParam, PhyloBN pbn) {
-        this.pogTree = pogTree;
-        this.tree = pogTree.getTree();
-        this.model = (GapSubstModel) model;
+        this(createEngine(pogTree.getTree(), (GapSubstModel) model, pbn != null ? pbn :
+                (rate == null ? PhyloBN.create(pogTree.getTree(), model) : PhyloBN.create(pogTree.getTree(), model, rate))),
+                pogTree, columnIdx, geometricSeqLenParam);
+    }
+
+    public IndelPeeler(POGTree pogTree, SubstModel model, Double rate, int columnIdx, double geometricSeqLenParam) {
+        this(pogTree, model, rate, columnIdx, geometricSeqLenParam, null);
+    }
+
+    public IndelPeeler(POGTree pogTree, SubstModel model, int columnIdx, double geometricSeqLenParam) {
+        this(pogTree, model, null, columnIdx, geometricSeqLenParam, null);
+    }
+
+    private IndelPeeler(GapPeeling engine, POGTree pogTree, int columnIdx, double geometricSeqLenParam) {
+        this(engine, encode(engine.getDomain(), pogTree, columnIdx), columnIdx, geometricSeqLenParam);
+    }
+
+    /**
+     * Create a peeler for a column that has already been encoded, sharing the engine with other columns.
+     */
+    private IndelPeeler(GapPeeling engine, int[] states, int columnIdx, double geometricSeqLenParam) {
+        this.engine = engine;
+        this.states = states;
         this.columnIdx = columnIdx;
-        this.alphabet = model.getDomain().getValues();
-        this.numResidues = model.getDomain().size() - 1;
-        this.alphabetSize = model.getDomain().size();
         this.geometricSeqLenParam = geometricSeqLenParam;
+    }
 
+    /**
+     * Create the peeling engine for the branch times in a phylogenetic BN.
+     * Note that an insertion on a branch is timed by the branch that leads to its parent (zero if the parent is the root).
+     * @param tree the tree
+     * @param model the gap augmented substitution model
+     * @param pbn the phylogenetic BN, with a substitution node for each branch point
+     * @return the engine
+     */
+    private static GapPeeling createEngine(IdxTree tree, GapSubstModel model, PhyloBN pbn) {
+        double[] times = new double[tree.getSize()];
+        for (int bpidx = 0; bpidx < times.length; bpidx++)
+            times[bpidx] = ((SubstNode) pbn.getBNode(bpidx)).getTime();
+        return createEngine(tree, model, times);
+    }
 
-        this.nodeResidueProbs = new double[tree.getSize()][model.getDomain().size() - 1]; // only residues, not gap
-        this.nodeGapProbs = new double[tree.getSize()];
-        // instantiate with negative infinity for subsequent log sum calculations
-        for (int i = 0; i < tree.getSize(); i++) {
-            Arrays.fill(nodeResidueProbs[i], Double.NEGATIVE_INFINITY);
-            nodeGapProbs[i] = Double.NEGATIVE_INFINITY;
+    /**
+     * Create the peeling engine for given branch times.
+     * @param tree the tree
+     * @param model the gap augmented substitution model
+     * @param times the time of the branch that leads to each branch point (zero for the root)
+     * @return the engine
+     */
+    private static GapPeeling createEngine(IdxTree tree, GapSubstModel model, double[] times) {
+        double[] instimes = new double[tree.getSize()];
+        for (int bpidx = 0; bpidx < times.length; bpidx++) {
+            int parent = tree.getParent(bpidx);
+            instimes[bpidx] = parent < 0 ? 0 : times[parent];
         }
+        return new GapPeeling(tree, model, times, instimes);
+    }
 
-        if (pbn == null) {
-            if (rate == null) {
-                this.pbn = PhyloBN.create(tree, model);
-            } else {
-                this.pbn = PhyloBN.create(tree, model, rate);
+    /**
+     * Encode the residues of the extants in a column, as indices into the alphabet of the model.
+     * Residues have the same index in the gap-augmented alphabet, since the gap is added last.
+     * @param alpha the alphabet, with or without gap
+     * @param pogTree the alignment and phylogeny
+     * @param columnIdx the column index
+     * @return residue indices, one for each branch point, {@link GapPeeling#GAP} for gaps
+     */
+    private static int[] encode(Enumerable alpha, POGTree pogTree, int columnIdx) {
+        IdxTree tree = pogTree.getTree();
+        int[] states = new int[tree.getSize()];
+        Arrays.fill(states, GapPeeling.GAP);
+        for (int bpidx = 0; bpidx < states.length; bpidx++) {
+            if (tree.isLeaf(bpidx)) {
+                SymNode n = (SymNode) pogTree.getExtant(bpidx).getNode(columnIdx);
+                if (n != null) {
+                    states[bpidx] = alpha.getIndex(n.getValue());
+                    if (states[bpidx] < 0)
+                        throw new ASRRuntimeException("Invalid residue " + n.getValue() + " in column " + columnIdx);
+                }
             }
-        } else {
-            this.pbn = pbn;
         }
-
-    }
-
-    public IndelPeeler(POGTree pogTree, SubstModel model, Double rate, int columnIdx, double geometricSeqLenParam) {
-        this(pogTree, model, rate, columnIdx, geometricSeqLenParam, null);
+        return states;
     }
 
-    public IndelPeeler(POGTree pogTree, SubstModel model, int columnIdx, double geometricSeqLenParam) {
-        this(pogTree, model, null, columnIdx, geometricSeqLenParam, null);
+    private static int[][] encode(Enumerable alpha, POGTree pogTree) {
+        int[][] columns = new int[pogTree.getPositions()][];
+        for (int colIdx = 0; colIdx < columns.length; colIdx++)
+            columns[colIdx] = encode(alpha, pogTree, colIdx);
+        return columns;
     }
 
-
     /**
      * Calculates the likelihood of observing each column (independently)
      * given a particular indel rate.
@@ -98,12 +143,16 @@ public class IndelPeeler {
         double[][] columnPriors = new double[numCols][numRates];
 
         IndelPeeler[] peelers = new IndelPeeler[numRates * numCols];
+        int[][] columns = null;
         for (int rateIdx = 0; rateIdx < numRates; ++rateIdx) {
             PhyloBN pbn = PhyloBN.create(pogTree.getTree(), model, rates[rateIdx]);
+            GapPeeling engine = createEngine(pogTree.getTree(), (GapSubstModel) model, pbn);
+            if (columns == null) // encoding does not depend on rate
+                columns = encode(model.getDomain(), pogTree);
             for (int colIdx = 0; colIdx < numCols; ++colIdx) {
                 //int idx = colIdx * numRates + rateIdx;
                 int idx = rateIdx * numCols + colIdx;
-                peelers[idx] = new IndelPeeler(pogTree, model, rates[rateIdx], colIdx, geometricSeqLenParam, pbn);
+                peelers[idx] = new IndelPeeler(engine, columns[colIdx], colIdx, geometricSeqLenParam);
             }
         }
 
@@ -125,35 +174,41 @@ public class IndelPeeler {
     public static double calcProbAlnGivenTree(POGTree pogTree, GapSubstModel model, EnumSeq.Alignment<Enumerable> aln,
                                               double geometricSeqLenParam, Enumerable alpha, int nThreads) {
 
-        double logLikelihood = 0.0;
-        int numCols = aln.getWidth();
-
         PhyloBN pbn = PhyloBN.create(pogTree.getTree(), model, 1.0);
-        IndelPeeler[] peelers = createPeelingJobs(pogTree, model, geometricSeqLenParam, numCols, null, pbn);
-        double[] columnProbs = runPeelingJobs(peelers, nThreads);
-        for (int colIdx = 0; colIdx < numCols; colIdx++) {
-            logLikelihood += columnProbs[colIdx];
-        }
+        GapPeeling engine = createEngine(pogTree.getTree(), model, pbn);
+        return logProbAln(engine, model, encode(model.getDomain(), pogTree), null, geometricSeqLenParam, nThreads);
+    }
 
-        double probExtraCol = probExtraCol(pogTree.getTree(), model, geometricSeqLenParam); // add the normalisation term
+    /**
+     * Calculate the log likelihood of an alignment, given the tree and model that are represented by a peeling engine,
+     * normalised by the probability of observing an alignment of that length (equation 29 in Rivas & Eddy, 2008).
+     * @param engine the peeling engine
+     * @param model the gap augmented substitution model
+     * @param columns the encoded columns of the alignment, possibly unique column patterns
+     * @param weights the number of columns with each pattern, or null if each column is counted once
+     * @param geometricSeqLenParam the geometric sequence length parameter
+     * @param nThreads the number of threads to use for parallelisation
+     * @return the log likelihood
+     */
+    private static double logProbAln(GapPeeling engine, GapSubstModel model, int[][] columns, int[] weights,
+                                     double geometricSeqLenParam, int nThreads) {
 
-        // need to create a dummy aln containing only gaps
-        List<EnumSeq.Gappy<Enumerable>> seqArray = new ArrayList<>();
-        for (int i = 0; i < aln.getHeight(); i++) {
-            EnumSeq<Enumerable> seq = aln.getEnumSeq(i);
-            EnumSeq.Gappy<Enumerable> gap_copy = new EnumSeq.Gappy<>(alpha);
-            gap_copy.set(new Character[1]); // add an empty column
-            gap_copy.setName(seq.getName());
-            seqArray.add(gap_copy);
+        double logLikelihood = 0.0;
+        IndelPeeler[] peelers = new IndelPeeler[columns.length];
+        for (int colIdx = 0; colIdx < columns.length; ++colIdx) {
+            peelers[colIdx] = new IndelPeeler(engine, columns[colIdx], colIdx, geometricSeqLenParam);
+        }
+        double[] columnProbs = runPeelingJobs(peelers, nThreads);
+        for (int colIdx = 0; colIdx < columns.length; colIdx++) {
+            logLikelihood += weights == null ? columnProbs[colIdx] : weights[colIdx] * columnProbs[colIdx];
         }
 
-
-        EnumSeq.Alignment<Enumerable> gap_aln = new EnumSeq.Alignment<>(seqArray);
-        POGTree gapPogTree = new POGTree(gap_aln, pogTree.getTree());
+        double probExtraCol = probExtraCol(engine.getTree(), model, geometricSeqLenParam); // add the normalisation term
 
         //  Normalisation: log P★ - log(1 - P(col_gap))
-        IndelPeeler peeler = new IndelPeeler(gapPogTree, model, 0, geometricSeqLenParam);
-        double gapColumnProb = peeler.decorate(); // get the probability of an all gap column
+        int[] gapColumn = new int[engine.getTree().getSize()]; // a column containing only gaps
+        Arrays.fill(gapColumn, GapPeeling.GAP);
+        double gapColumnProb = engine.logProbCol(gapColumn, geometricSeqLenParam); // get the probability of an all gap column
         double unobservedCols = MathEx.logm1exp(gapColumnProb);
 
         double normalisationTerm = probExtraCol - unobservedCols;
@@ -195,262 +250,43 @@ public class IndelPeeler {
         return colLikelihood;
     }
 
-    private static IndelPeeler[] createPeelingJobs(POGTree pogTree, SubstModel model,
-                                                   double geometricSeqLenParam, int numCols, Double rate, PhyloBN pbn) {
-
-        IndelPeeler[] peelers = new IndelPeeler[numCols];
-        for (int colIdx = 0; colIdx < numCols; ++colIdx) {
-            peelers[colIdx] = new IndelPeeler(pogTree, model, rate, colIdx, geometricSeqLenParam, pbn);
-        }
-
-        return peelers;
-    }
-
     private static double[] runPeelingJobs(IndelPeeler[] peelers, int nThreads) {
 
-        double[] results = new double[peelers.length];
-        ThreadedPeeler thread_pool = new ThreadedPeeler(peelers, nThreads);
         try {
-            Map<Integer, Double> ret = thread_pool.runBatch();
-            for (int col_idx = 0; col_idx < peelers.length; ++col_idx) {
-                results[col_idx] = ret.get(col_idx);
-            }
-        } catch (InterruptedException | ExecutionException e) {
+            return new ThreadedPeeler(peelers, nThreads).run();
+        } catch (ExecutionException e) {
             e.printStackTrace();
             throw new RuntimeException("Failed to run peeling jobs");
         }
-
-        return results;
     }
 
     /**
      * logProbColGivenRate
      *
-     * @return
+     * @return log P(col| Tree, Model, SeqLenParam)
      */
     public double decorate() {
-
-        felsensteinsExtendedPeeling();
-        int ROOT_INDEX = 0;
-        double rootGapProb = nodeGapProbs[ROOT_INDEX];
-
-        // sum over possible residue assignments
-        double[] residueTerms = new double[numResidues]; // number of alphabet letters
-        for (int resIdx = 0; resIdx < numResidues; resIdx++) {
-            double priorProb = Math.log(model.getProb(alphabet[resIdx]));
-            double rootResidueProb = nodeResidueProbs[ROOT_INDEX][resIdx];
-            residueTerms[resIdx] = priorProb + rootResidueProb; // weight by prior prob of residue
-        }
-
-        double weightedLogSumResidueProb = MathEx.logsumexp(residueTerms) + Math.log(geometricSeqLenParam);
-        double[] finalColTerms = {rootGapProb, weightedLogSumResidueProb};
-
-        double colProb = MathEx.logsumexp(finalColTerms);
-        treeProb = colProb;
-        return colProb;
-
+        treeProb = engine.logProbCol(states, geometricSeqLenParam);
+        return treeProb;
     }
 
     public double getDecoration() {
         return treeProb;
     }
 
-
-    private void felsensteinsExtendedPeeling() {
-
-        containsGap = containsGap();
-
-        // iterate through branch point indices backwards for postorder traversal
-        for (int bpidx = tree.getSize() - 1; bpidx >= 0; bpidx--) {
-
-            if (tree.isLeaf(bpidx)) {
-                calcLeafPeelingProbabilities(bpidx);
-            } else {
-                calcAncestralPeelingProbabilities(bpidx);
-            }
-        }
-    }
-
-    private void calcLeafPeelingProbabilities(int bpidx) {
-        POGraph extantPog = pogTree.getExtant(bpidx);
-        SymNode n = (SymNode) extantPog.getNode(columnIdx);
-
-        if (n == null) {
-            nodeGapProbs[bpidx] = Double.NEGATIVE_INFINITY;
-        } else {
-            int resIdx = model.getDomain().getIndex(n.getValue());
-            nodeResidueProbs[bpidx][resIdx] = 0.0;
-        }
-
-    }
-
-    private void calcAncestralPeelingProbabilities(int bpidx) {
-
-        nodeGapProbs[bpidx] = MathEx.logsumexp(calcLogProbChildrenGivenAncestralGap(bpidx));
-
-        for (int parentResIdx = 0; parentResIdx < numResidues; parentResIdx++) {
-            nodeResidueProbs[bpidx][parentResIdx] = calcLogProbChildrenGivenAncestralResidue(bpidx, parentResIdx);
-        }
-
-    }
-
-    private double[] calcLogProbChildrenGivenAncestralGap(int bpidx) {
-
-        int[] childrenBpIndices = tree.getChildren(bpidx);
-        double[] allChildrenLogGapTerms = new double[childrenBpIndices.length];
-
-        int current_child = 0;
-        for (int childBpidx : childrenBpIndices) {
-            // collect all possible terms we will marginalise over
-            if (this.containsGap[childBpidx] == 1.0) {
-                // need to enumerate over every residue sum(Pu(L_child,q).P(q|-,t) and
-                // then add Pu(L_child, -) so full alphabet_size
-                double[] childLogProbTerms = new double[alphabetSize];
-                //1.0 sum(Pu(L_child,q).P(q|-,t)
-                for (int resIdx = 0; resIdx < numResidues; resIdx++) {
-                    double nodeResidueProb = nodeResidueProbs[childBpidx][resIdx];
-
-                    Object residue = model.getDomain().get(resIdx);
-                    double insertionProb = Math.log(getProbOfInsertion(bpidx, residue));
-
-                    childLogProbTerms[resIdx] = nodeResidueProb + insertionProb;
-                }
-
-                childLogProbTerms[numResidues] = nodeGapProbs[childBpidx];
-                allChildrenLogGapTerms[current_child] = MathEx.logsumexp(childLogProbTerms);
-
-            } else {
-                allChildrenLogGapTerms[current_child] = Double.NEGATIVE_INFINITY;
-            }
-            current_child++;
-        }
-
-        return allChildrenLogGapTerms;
+    public int getColumnIndex() {
+        return columnIdx;
     }
 
-    private double calcLogProbChildrenGivenAncestralResidue(int bpidx, int parentResIdx) {
-
-        int[] childrenBpindices = tree.getChildren(bpidx);
-
-        double[] childrenLogProbTerms = new double[childrenBpindices.length];
-        int currentChildResIdx = 0;
-        for (int childBpidx : childrenBpindices) {
-
-            // only include full alphabet with gap if all children have gaps
-            double[] childLogProbTerms = (containsGap[childBpidx] == 1.0) ? new double[alphabetSize] : new double[numResidues];
-
-            for (int childResIdx = 0; childResIdx < numResidues; childResIdx++) {
-                double childNodeResidueProb = nodeResidueProbs[childBpidx][childResIdx];
-
-
-                double gapAugmentedResidueProb = Math.log(getProbGapAugmented(childBpidx, alphabet[childResIdx],
-                        alphabet[parentResIdx]));
-                childLogProbTerms[childResIdx] = childNodeResidueProb + gapAugmentedResidueProb;
-            }
-
-            if (containsGap[childBpidx] == 1.0) {
-                double deletionProb = Math.log(getProbOfGap(childBpidx));
-                childLogProbTerms[numResidues] = deletionProb;
-            }
-
-            double childLogProb = MathEx.logsumexp(childLogProbTerms);
-
-            childrenLogProbTerms[currentChildResIdx] = childLogProb;
-
-            currentChildResIdx++;
-        }
-
-        return MathEx.sum(childrenLogProbTerms);
-    }
-
-
     public double[] containsGap() {
 
-        double[] containsGap = new double[tree.getSize()];
-
-        // If we want to do a postorder traversal, can just iterate
-        // through branch point indices backwards as these are labelled depth-first.
-        for (int bpidx = tree.getSize() - 1; bpidx >= 0; bpidx--) {
-
-            if (tree.isLeaf(bpidx)) {
-                POGraph extantPog = pogTree.getExtant(bpidx);
-                SymNode n = (SymNode) extantPog.getNode(columnIdx);
-                if (n == null) {
-                    containsGap[bpidx] = 1.0;
-                } else {
-                    containsGap[bpidx] = 0.0;
-                }
-            } else {
-                //ancestor
-                int[] children = tree.getChildren(bpidx);
-                double all_gaps = 1.0;
-                // if any of the children don't contain a gap, break and record
-                for (int child : children) {
-                    if (containsGap[child] == 0.0) {
-                        all_gaps = 0.0;
-                        break;
-                    }
-                }
-                containsGap[bpidx] = all_gaps;
-            }
-        }
-
+        GapPeeling.Workspace ws = engine.peel(states);
+        double[] containsGap = new double[states.length];
+        for (int bpidx = 0; bpidx < states.length; bpidx++)
+            containsGap[bpidx] = ws.isAllGap(bpidx) ? 1.0 : 0.0;
         return containsGap;
     }
 
-    private double getProbOfInsertion(int bpidx, Object state) {
-
-        SubstNode substNode = (SubstNode) pbn.getBNode(bpidx);
-
-        double insertionProb = ksiT(substNode.getTime());
-        double stationaryFreqResidue = model.getProb(state);//  substNode.getProb(state);
-
-        return insertionProb * stationaryFreqResidue;
-    }
-
-    private double ksiT(double time) {
-
-        if (model.getMu() == 0 && model.getLambda() == 0) {
-            return 0.0;
-        }
-        double insertionRate = model.getLambda() / (model.getMu() + model.getLambda());
-        double indelProp = 1 - Math.exp(-((model.getMu() + model.getLambda()) * time));
-
-        return insertionRate * indelProp;
-    }
-
-    private double getProbGapAugmented(int bpidx, Object childState, Object parentState) {
-
-        SubstNode substNode = (SubstNode) pbn.getBNode(bpidx);
-        double probNoInsert = 1 - ksiT(substNode.getTime());
-        double conditinalProb = substNode.getProb(childState, parentState);
-
-        return conditinalProb * probNoInsert;
-    }
-
-    private double getProbOfGap(int bpidx) {
-
-        SubstNode substNode = (SubstNode) pbn.getBNode(bpidx);
-        double probNoInsertion = 1 - ksiT(substNode.getTime());
-        double probDeletion = gammaT(substNode.getTime());
-
-        return probNoInsertion * probDeletion;
-
-    }
-
-    public double gammaT(double time) {
-
-        if (model.getMu() == 0 && model.getLambda() == 0) {
-            return 0.0;
-        }
-
-        double indelTotal = model.getMu() + model.getLambda();
-        double deletionProp = model.getMu() / (indelTotal);
-        double indelProp = 1 - Math.exp(-((indelTotal) * time));
-
-        return deletionProp * indelProp;
-    }
-
 
     /**
      * Optimises mu and lambda (insertion and deletion rates) assuming they are equal. Uses Brent's method to find
@@ -507,7 +343,11 @@ public class IndelPeeler {
 
         IndelPeeler.AlnLikelihood alnLikelihood = new IndelPeeler.AlnLikelihood(evaluator);
 
-        return Minimise.brent(alnLikelihood, min_val, max_val);
+        double optimal = Minimise.brent(alnLikelihood, min_val, max_val);
+        if (GRASP.VERBOSE)
+            System.out.println("Evaluated likelihood for " + evaluator.getNEvaluations() + " values of mu/lambda, over " +
+                    evaluator.getNPatterns() + " unique column patterns");
+        return optimal;
     }
 
     /**
@@ -527,6 +367,13 @@ public class IndelPeeler {
         }
     }
 
+    /**
+     * Evaluates the likelihood of an alignment for different values of mu and lambda (assumed equal).
+     * Everything that does not depend on mu and lambda is prepared once: the encoded columns, reduced to unique
+     * column patterns that are weighted by their number of occurrences, and the branch times. Each evaluation then only
+     * creates the model and the peeling engine. Results are remembered, since Brent's method re-evaluates previous
+     * points at each iteration.
+     */
     public static class LikelihoodEvaluator {
 
         final POGTree pogTree;
@@ -536,6 +383,11 @@ public class IndelPeeler {
         final Enumerable alpha;
         EnumSeq.Alignment<Enumerable> aln;
         double geometricSeqLenParam;
+        private final int[][] patterns;     // unique encoded columns
+        private final int[] weights;        // number of columns with each pattern
+        private final double[] times;       // time of the branch that leads to each branch point
+        private final Map<Double, Double> evaluated = new HashMap<>();
+        private int nEvaluations = 0;
 
         public LikelihoodEvaluator(
                 IdxTree tree,
@@ -553,13 +405,75 @@ public class IndelPeeler {
             this.IRM = IRM;
             this.alpha = alpha;
 
+            Map<Pattern, Integer> index = new LinkedHashMap<>();
+            List<Integer> counts = new ArrayList<>();
+            for (int[] column : encode(alpha, pogTree)) {
+                Integer idx = index.putIfAbsent(new Pattern(column), index.size());
+                if (idx == null)
+                    counts.add(1);
+                else
+                    counts.set(idx, counts.get(idx) + 1);
+            }
+            this.patterns = new int[index.size()][];
+            this.weights = new int[index.size()];
+            for (Map.Entry<Pattern, Integer> entry : index.entrySet()) {
+                patterns[entry.getValue()] = entry.getKey().states;
+                weights[entry.getValue()] = counts.get(entry.getValue());
+            }
+            IdxTree phylo = pogTree.getTree();
+            this.times = new double[phylo.getSize()];
+            for (int bpidx = 0; bpidx < times.length; bpidx++)
+                times[bpidx] = phylo.getParent(bpidx) < 0 ? 0 : phylo.getDistance(bpidx) * PhyloBN.DEFAULT_RATE;
         }
 
         public double evaluate(double muLambda) {
+            Double logLikelihood = evaluated.get(muLambda);
+            if (logLikelihood != null)
+                return logLikelihood;
+            nEvaluations += 1;
             model = new GapSubstModel(this.F, this.IRM, this.alpha, muLambda, muLambda);
+            GapPeeling engine = createEngine(pogTree.getTree(), model, times);
             // trying to maximise the log likelihood
-            return IndelPeeler.calcProbAlnGivenTree(pogTree, model, aln, geometricSeqLenParam, alpha, GRASP.NTHREADS);
+            logLikelihood = logProbAln(engine, model, patterns, weights, geometricSeqLenParam, GRASP.NTHREADS);
+            evaluated.put(muLambda, logLikelihood);
+            return logLikelihood;
+        }
+
+        /**
+         * @return number of unique column patterns in the alignment
+         */
+        public int getNPatterns() {
+            return patterns.length;
+        }
+
+        /**
+         * @return number of distinct values of mu and lambda for which the likelihood has been computed
+         */
+        public int getNEvaluations() {
+            return nEvaluations;
+        }
+    }
+
+    /**
+     * An encoded column, which is equal to another if the states are the same.
+     */
+    private static class Pattern {
+        final int[] states;
+        final int hash;
+
+        Pattern(int[] states) {
+            this.states = states;
+            this.hash = Arrays.hashCode(states);
+        }
 
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Pattern && Arrays.equals(states, ((Pattern) o).states);
         }
     }
 }
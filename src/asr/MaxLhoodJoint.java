@@ -27,6 +27,7 @@ public class MaxLhoodJoint implements TreeDecor<Object> {
     final private IdxTree tree;
     private PhyloBN pbn = null;
     private Inference inf = null;
+    private VarElim ve = null;      // kept with the BN, so that query plans are re-used
 
 
     /**
@@ -79,6 +80,17 @@ public class MaxLhoodJoint implements TreeDecor<Object> {
     }
 
 
+    /**
+     * @return the inference engine for the current BN, re-used unless the BN has been replaced
+     */
+    private VarElim getVarElim() {
+        if (ve == null || ve.bn != pbn.getBN()) {
+            ve = new VarElim();
+            ve.instantiate(pbn.getBN());
+        }
+        return ve;
+    }
+
     /**
      * Retrieve the inferred state for a specified branch point, as determined by max likelihood
      * @param idx branch point index
@@ -150,8 +162,7 @@ public class MaxLhoodJoint implements TreeDecor<Object> {
         }
         if (pbn.isValid()) {
             // set-up the inference engine
-            VarElim ve = new VarElim();
-            ve.instantiate(pbn.getBN());
+            VarElim ve = getVarElim();
             Query q_mpe = ve.makeMPE();
             CGTable r1 = (CGTable) ve.infer(q_mpe);
             Variable.Assignment[] assign = r1.getMPE();
@@ -184,7 +195,7 @@ public class MaxLhoodJoint implements TreeDecor<Object> {
                 if (m == null) {
                     m = new JC(1, values);
                     modelcache.add(m, tag);
-                    m.CACHE_SIZE = (int) (this.tree.getSize());
+                    m.setCacheSize(this.tree.getSize());
                 }
                 return m;
             }
@@ -233,8 +244,7 @@ public class MaxLhoodJoint implements TreeDecor<Object> {
         }
         if (pbn.isValid()) {
             // set-up the inference engine
-            VarElim ve = new VarElim();
-            ve.instantiate(pbn.getBN());
+            VarElim ve = getVarElim();
             Query q_mpe = ve.makeMPE();
             CGTable r1 = (CGTable) ve.infer(q_mpe);
             Variable.Assignment[] assign = r1.getMPE();
@@ -21,6 +21,7 @@ public class MaxLhoodMarginal <E extends Distrib> implements TreeDecor<E> {
     final private IdxTree tree;
     final private int bpidx;
     final private PhyloBN pbn;
+    private VarElim ve = null;      // kept with the BN, so that query plans are re-used
 
     /**
      * Set-up inference of the posterior distribution at the specified ancestor branch point, by creating
@@ -92,8 +93,10 @@ public class MaxLhoodMarginal <E extends Distrib> implements TreeDecor<E> {
         }
         if (pbn.isValid()) {
             // set-up the inference engine
-            VarElim ve = new VarElim();
-            ve.instantiate(pbn.getBN());
+            if (ve == null || ve.bn != pbn.getBN()) {
+                ve = new VarElim();
+                ve.instantiate(pbn.getBN());
+            }
             BNode querynode;
             if (pbn.isExt())
                 querynode = pbn.getExtNode(bpidx) != null ? pbn.getExtNode(bpidx) : pbn.getBNode(bpidx);
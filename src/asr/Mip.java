@@ -22,12 +22,14 @@ public class Mip {
     private static final double MAX_PENALTY = 10.0;
     public static double MIN_MU_LAMBDA_VALUE = 0;
     public static double MAX_MU_LAMBDA_VALUE = 0.5;
-    private static final int GAP = 0;
-    private static final int NON_GAP = 1;
     private static final int VIRTUAL_START = -1;
     private static final int DEFAULT_GAP_PENALTY = 2;
     private static final double[] GAP_PENALTIES = new double[]{8.0, 6.0, 4.0, 2.0};
-    private final HashMap<Integer, Integer[]> extantBinarySeqs;
+    // Sub-models are split at columns that all sequences pass through, but span at least this many columns
+    public static int MIN_BLOCK_SIZE = 20;
+    // Time limit (ms) for evaluating the objective of the hint, unless the time limit of the solver is longer
+    private static final long HINT_TIME_LIMIT = 60 * 1000;
+    private final BitSet[] extantContent; // columns with content, by branch point index of extants (null for ancestors)
     private final POAGraph alnPog;
     private final POGTree pogTree;
     private final int nPos;
@@ -39,21 +41,33 @@ public class Mip {
     double[][] treeNeighbourAlphaPen;
     boolean useBranchLengths;
     private MPSolver solver;
-    private final Set<Integer> nodesToSkip = new HashSet<>();
-    private final Set<Integer> nodesConnectedToPreviousNode = new HashSet<>();
+    private final BitSet nodesToSkip = new BitSet();
+    private final BitSet nodesConnectedToPreviousNode = new BitSet();
     private final int[] nodeWeights;
-    private HashMap<Integer, MPVariable[]> ancestorPositionVars;
+    // Edges of the alignment POG incl. virtual start and end, by node index + 1 (so the virtual start is at 0)
+    private int[][] forwardEdges;
+    private int[][] backwardEdges;
+    private int[] edgeSlots; // first slot of the forward edges of each node (index + 1) in the edge variables of an ancestor
+    private MPVariable[][] positionVars; // by branch point index (null for extants), then column
+    private MPVariable[][] edgeVars;     // by branch point index (null for extants), then edge slot
     private MPObjective objective;
-    private final HashMap<EdgeKey, MPVariable> edges = new HashMap<>();
-    private final HashMap<DiffKey, MPVariable> diff = new HashMap<>();
     private final int virtualEndIdx;
+    private boolean[][] hint = null; // content by column, of each ancestor in a known (feasible) indel history, by branch point index
+    private List<List<PathConstraint>> pathConstraints = null; // by branch point index, recorded only if hinted
+    private MPSolver.ResultStatus resultStatus = null;
+    private double objectiveValue = 0;
+    private double hintObjectiveValue = Double.NaN; // objective of the hint, if evaluated (solution not optimal)
+    private boolean hintUsed = false;                // the hint is the solution, since it is better than the incumbent
+    private long timeLimit = (long) GRASP.MIP_SOLVER_TIME_LIMIT_MINUTES * 60 * 1000; // in milliseconds
+    private long wallTime = 0;
+    private long buildTime = 0;
 
     public Mip(POGTree pogTree, EnumSeq.Alignment<Enumerable> aln, String solverName, String substModelName,
                int nThreads, boolean useBranchLengths) {
 
         this.pogTree = pogTree;
         this.tree = pogTree.getTree();
-        this.extantBinarySeqs = createBinarySeqMap(aln, tree);
+        this.extantContent = createExtantContent(aln, tree);
         this.alnPog = new POAGraph(aln);
         this.nPos =  aln.getWidth();
         this.aln = aln;
@@ -64,11 +78,185 @@ public class Mip {
         this.nodeWeights = new int[nPos];
         this.virtualEndIdx = nPos;
         Arrays.fill(this.nodeWeights, 1);
+        this.indexEdges();
         this.identifyNodesToSkip();
         this.treeNeighbourAlphaPen = createTreeNeighbourAlphaPen();
 
     }
 
+    /**
+     * Create the sub-model for a block of columns of a model; the gap penalties are inherited.
+     * @param parent the complete model
+     * @param from first column of block
+     * @param to last column of block (inclusive)
+     * @param nThreads number of threads for the solver of the sub-model
+     */
+    private Mip(Mip parent, int from, int to, int nThreads) {
+        this.pogTree = parent.pogTree;
+        this.tree = parent.tree;
+        this.aln = getColumns(parent.aln, from, to);
+        this.extantContent = createExtantContent(aln, tree);
+        this.alnPog = new POAGraph(aln);
+        this.nPos = aln.getWidth();
+        this.nThreads = nThreads;
+        this.solverName = parent.solverName;
+        this.substModelName = parent.substModelName;
+        this.useBranchLengths = parent.useBranchLengths;
+        this.timeLimit = parent.timeLimit;
+        this.nodeWeights = new int[nPos];
+        this.virtualEndIdx = nPos;
+        Arrays.fill(this.nodeWeights, 1);
+        this.indexEdges();
+        this.identifyNodesToSkip();
+        this.treeNeighbourAlphaPen = Arrays.copyOfRange(parent.treeNeighbourAlphaPen, from, to + 1);
+        if (parent.hint != null) {
+            this.hint = new boolean[parent.hint.length][];
+            for (int idx = 0; idx < hint.length; idx++)
+                if (parent.hint[idx] != null)
+                    this.hint[idx] = Arrays.copyOfRange(parent.hint[idx], from, to + 1);
+        }
+    }
+
+    /**
+     * Give the solver a known indel history to start from, e.g. that of bi-directional edge parsimony.
+     * The most supported path of each ancestor is used, if it is a path through the alignment POG; the solver is then
+     * given it as a (partial) solution, so that it does not start without an incumbent.
+     * If the solver stops (at the time limit) with a solution that is not optimal, the objective of the hint is evaluated
+     * under the same model; if it is better, the hint is the solution (see {@link #isHintUsed()}). This requires the
+     * path of every ancestor to be usable and to satisfy the model; otherwise the hint is only a starting point.
+     * @param pred a reconstruction of the same alignment and tree
+     * @return number of ancestors with a usable path
+     */
+    public int setHint(Prediction pred) {
+        hint = new boolean[tree.getSize()][];
+        int count = 0;
+        for (int ancestorIdx : tree.getAncestors()) {
+            int[] path;
+            try {
+                path = pred.getConsensus(ancestorIdx);
+            } catch (ASRRuntimeException e) {
+                continue;
+            }
+            if (path == null || path.length == 0 || !alnPog.isStartNode(path[0]) || !alnPog.isEndNode(path[path.length - 1]))
+                continue;
+            boolean[] content = new boolean[nPos];
+            boolean valid = true;
+            for (int i = 0; i < path.length && valid; i++) {
+                content[path[i]] = true;
+                if (i > 0 && !alnPog.isEdge(path[i - 1], path[i]))
+                    valid = false;
+            }
+            if (valid) {
+                hint[ancestorIdx] = content;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Set the solution hint from the known indel history: the content of each ancestor, and the edges between
+     * consecutive positions with content.
+     * An ancestor is left out of the hint if its path does not satisfy the (path) constraints of the model; the solver
+     * otherwise fails to complete the hint, and starts without it.
+     * @return number of ancestors in the hint
+     */
+    private int applyHint() {
+        Map<MPVariable, Double> values = new LinkedHashMap<>();
+        int count = 0;
+        for (int ancestorIdx : tree.getAncestors()) {
+            boolean[] content = hint[ancestorIdx];
+            if (content == null)
+                continue;
+            Map<MPVariable, Double> ancValues = new LinkedHashMap<>(); // variables may be shared, e.g. an edge with the node it must lead to
+            MPVariable[] seqVars = positionVars[ancestorIdx];
+            for (int j = 0; j < nPos; j++)
+                ancValues.putIfAbsent(seqVars[j], content[j] ? 1.0 : 0.0);
+            for (int from = VIRTUAL_START; from < nPos; from++) {
+                int[] forward = getForwardEdges(from);
+                for (int k = 0; k < forward.length; k++) {
+                    MPVariable edge = edgeVars[ancestorIdx][edgeSlots[from + 1] + k];
+                    if (edge == null)
+                        continue;
+                    int to = forward[k];
+                    boolean used = (from == VIRTUAL_START || content[from]) && (to == virtualEndIdx || content[to]);
+                    for (int j = from + 1; j < to && used; j++) // an edge is used if no position between its ends has content
+                        used = !content[j];
+                    ancValues.putIfAbsent(edge, used ? 1.0 : 0.0);
+                }
+            }
+            if (isFeasible(pathConstraints.get(ancestorIdx), ancValues)) {
+                values.putAll(ancValues);
+                count++;
+            }
+        }
+        MPVariable[] vars = new MPVariable[values.size()];
+        double[] vals = new double[values.size()];
+        int i = 0;
+        for (Map.Entry<MPVariable, Double> entry : values.entrySet()) {
+            vars[i] = entry.getKey();
+            vals[i++] = entry.getValue();
+        }
+        solver.setHint(vars, vals);
+        return count;
+    }
+
+    private static boolean isFeasible(List<PathConstraint> constraints, Map<MPVariable, Double> values) {
+        if (constraints == null)
+            return true;
+        for (PathConstraint pc : constraints) {
+            double sum = 0;
+            for (MPVariable var : new LinkedHashSet<>(pc.vars())) { // a variable may be listed more than once, but has one coefficient
+                Double val = values.get(var);
+                if (val == null)
+                    return false;
+                sum += pc.constraint().getCoefficient(var) * val;
+            }
+            if (sum < pc.constraint().lb() - 1e-6 || sum > pc.constraint().ub() + 1e-6)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Cut out a block of columns from an alignment
+     * @param aln the alignment
+     * @param from first column
+     * @param to last column (inclusive)
+     * @return the alignment of the block, with the same sequence names
+     */
+    private static EnumSeq.Alignment<Enumerable> getColumns(EnumSeq.Alignment<Enumerable> aln, int from, int to) {
+        List<EnumSeq.Gappy<Enumerable>> seqs = new ArrayList<>(aln.getHeight());
+        for (int i = 0; i < aln.getHeight(); i++) {
+            EnumSeq.Gappy<Enumerable> seq = aln.getEnumSeq(i);
+            EnumSeq.Gappy<Enumerable> block = new EnumSeq.Gappy<>(seq.getType());
+            block.set(Arrays.copyOfRange(seq.get(), from, to + 1));
+            block.setName(seq.getName());
+            seqs.add(block);
+        }
+        return new EnumSeq.Alignment<>(seqs);
+    }
+
+    /**
+     * Split the alignment into blocks that can be solved independently. A column where all sequences have content is
+     * an articulation point of the alignment POG: no edge bypasses it, so every ancestor has content there, and the
+     * penalties on either side of it do not interact. Adjacent blocks share such a column.
+     * Blocks are made at least {@link #MIN_BLOCK_SIZE} columns wide, to not spend more time setting up solvers than solving.
+     * @return blocks of columns, as first and last (inclusive) column
+     */
+    private List<int[]> getBlocks() {
+        List<int[]> blocks = new ArrayList<>();
+        int from = 0;
+        for (int col = 0; col < nPos - 1; col++) {
+            if (col - from + 1 >= MIN_BLOCK_SIZE && aln.getOccupancy(col) == aln.getHeight()) {
+                blocks.add(new int[] {from, col});
+                from = col;
+            }
+        }
+        blocks.add(new int[] {from, nPos - 1});
+        return blocks;
+    }
+
     private void identifyNodesToSkip() {
         int previousNode = 0;
         for (int nodeIdx = 0; nodeIdx < nPos - 1; nodeIdx++) {
@@ -78,7 +266,7 @@ public class Mip {
                     && Arrays.stream(getForwardEdges(nodeIdx)).min().orElseThrow() == (nodeIdx + 1)
                     && getBackwardEdges(nodeIdx + 1).length == 1) {
 
-                this.nodesToSkip.add(nodeIdx + 1);
+                this.nodesToSkip.set(nodeIdx + 1);
                 this.nodeWeights[previousNode] += 1;
             } else {
                 previousNode = nodeIdx + 1;
@@ -90,7 +278,7 @@ public class Mip {
                     }
                 }
                 if (nodeFound)  {
-                    this.nodesConnectedToPreviousNode.add(nodeIdx + 1);
+                    this.nodesConnectedToPreviousNode.set(nodeIdx + 1);
                 }
             }
         }
@@ -159,9 +347,141 @@ public class Mip {
 
     }
 
+    /**
+     * Infer the indel history. The model is split into blocks at columns that all sequences pass through (see
+     * {@link #getBlocks()}), which are solved in parallel, each within the time limit, and joined.
+     * @return the ancestor sequences, with 1 for content and 0 for gap, keyed by branch point index; null if no
+     * solution was found for a block
+     */
     public HashMap<Integer, Integer[]> runMPSolverIndelInference() {
 
         Loader.loadNativeLibraries(); // link to Google-OR Tools
+
+        if (solverName.equalsIgnoreCase("SCIP"))
+            System.out.println("SCIP solver detected - using single thread for solving.");
+        List<int[]> blocks = getBlocks();
+        if (blocks.size() == 1) {
+            HashMap<Integer, Integer[]> solution = solve();
+            report(resultStatus, objectiveValue, wallTime, buildTime);
+            return solution;
+        }
+        int nConcurrent = Math.min(nThreads, blocks.size());
+        int threadsPerBlock = Math.max(1, nThreads / nConcurrent);
+        if (GRASP.VERBOSE) {
+            System.out.println("Indel model split into " + blocks.size() + " blocks at columns with content in all sequences, solving "
+                    + nConcurrent + " at a time");
+        }
+        Mip[] subs = new Mip[blocks.size()];
+        List<HashMap<Integer, Integer[]>> solutions = new ArrayList<>(Collections.nCopies(blocks.size(), null));
+        long start = System.currentTimeMillis();
+        Scheduler.get(nConcurrent).run(blocks.size(), b -> {
+            subs[b] = new Mip(this, blocks.get(b)[0], blocks.get(b)[1], threadsPerBlock);
+            solutions.set(b, subs[b].solve()); // each task sets its own element only
+        });
+        long elapsed = System.currentTimeMillis() - start;
+
+        // join the blocks; since adjacent blocks share a column, the objective is the sum across blocks
+        MPSolver.ResultStatus status = MPSolver.ResultStatus.OPTIMAL;
+        double objectiveSum = 0;
+        long buildSum = 0;
+        for (int b = 0; b < blocks.size(); b++) {
+            if (solutions.get(b) == null) {
+                report(subs[b].resultStatus, 0, elapsed, 0);
+                return null;
+            }
+            if (subs[b].resultStatus != MPSolver.ResultStatus.OPTIMAL)
+                status = subs[b].resultStatus;
+            objectiveSum += subs[b].objectiveValue;
+            buildSum += subs[b].buildTime;
+        }
+        boolean allHinted = true;
+        double hintSum = 0;
+        for (Mip sub : subs) {
+            allHinted &= sub.hintUsed;
+            hintSum += sub.hintObjectiveValue; // NaN unless evaluated in every block
+        }
+        this.hintUsed = allHinted;
+        this.hintObjectiveValue = hintSum;
+        HashMap<Integer, Integer[]> ancestralIndels = new HashMap<>();
+        for (int ancestralIdx : tree.getAncestors()) {
+            Integer[] ancestralSeq = new Integer[nPos];
+            for (int b = 0; b < blocks.size(); b++)
+                System.arraycopy(solutions.get(b).get(ancestralIdx), 0, ancestralSeq, blocks.get(b)[0], blocks.get(b)[1] - blocks.get(b)[0] + 1);
+            ancestralIndels.put(ancestralIdx, ancestralSeq);
+        }
+        this.resultStatus = status;
+        this.objectiveValue = objectiveSum;
+        this.wallTime = elapsed;
+        this.buildTime = buildSum;
+        report(status, objectiveSum, elapsed, buildSum);
+        return ancestralIndels;
+    }
+
+    /**
+     * @return the value of the objective (the penalty of the indel history) after {@link #runMPSolverIndelInference()}
+     */
+    public double getObjectiveValue() {
+        return objectiveValue;
+    }
+
+    /**
+     * @return the status of the solver after {@link #runMPSolverIndelInference()}; not optimal if any block is not
+     */
+    public MPSolver.ResultStatus getResultStatus() {
+        return resultStatus;
+    }
+
+    /**
+     * @return the value of the objective for the hint (see {@link #setHint(Prediction)}), which is only evaluated if the
+     * solution is not optimal; NaN if not evaluated, or if the hint is not feasible under the model
+     */
+    public double getHintObjectiveValue() {
+        return hintObjectiveValue;
+    }
+
+    /**
+     * @return true if the hint was better than the solution found by the solver (within its time limit), and is
+     * therefore the solution, in every block
+     */
+    public boolean isHintUsed() {
+        return hintUsed;
+    }
+
+    /**
+     * Set the time limit of the solver; by default {@link GRASP#MIP_SOLVER_TIME_LIMIT_MINUTES}
+     * @param millis time limit in milliseconds, applied to each block
+     */
+    public void setTimeLimit(long millis) {
+        this.timeLimit = millis;
+    }
+
+    /**
+     * @return the time (in ms) spent building the model, i.e. before the solver starts; summed across blocks
+     */
+    public long getBuildTime() {
+        return buildTime;
+    }
+
+    private static void report(MPSolver.ResultStatus resultStatus, double objectiveValue, long wallTime, long buildTime) {
+        if (resultStatus == MPSolver.ResultStatus.OPTIMAL || resultStatus == MPSolver.ResultStatus.FEASIBLE) {
+            System.out.println(resultStatus == MPSolver.ResultStatus.OPTIMAL ? "Optimal solution found" : "Feasible solution found");
+            System.out.println("Objective value: " + objectiveValue);
+            System.out.printf("Indel model built in %.1f sec%n", buildTime / 1000.0);
+            System.out.printf("Indel solution found in %d min, %d sec%n", TimeUnit.MILLISECONDS.toMinutes(wallTime),
+                    TimeUnit.MILLISECONDS.toSeconds(wallTime) - TimeUnit.MINUTES.toSeconds(TimeUnit.MILLISECONDS.toMinutes(wallTime)));
+        } else if (resultStatus == MPSolver.ResultStatus.INFEASIBLE) {
+            System.err.println("Indel model is infeasible given the input alignment.");
+        } else if (resultStatus == MPSolver.ResultStatus.NOT_SOLVED) {
+            System.err.println("No solution found or a solution could not be identified with the given time limit.");
+        }
+    }
+
+    /**
+     * Build and solve the model
+     * @return the solution, or null if none was found; see {@link #resultStatus}
+     */
+    private HashMap<Integer, Integer[]> solve() {
+
         this.solver = MPSolver.createSolver(solverName);
 
 //        if (solverName.equalsIgnoreCase("SCIP")) {
@@ -176,12 +496,21 @@ public class Mip {
         }
 
 
+        long start = System.currentTimeMillis();
         objective = solver.objective();
 
+        if (hint != null)
+            pathConstraints = new ArrayList<>(Collections.nCopies(tree.getSize(), null));
         createAncestralPositionVariables();
         createEdgeVariables();
         addPenaltyConstraints();
         objective.setMinimization();
+        if (hint != null) {
+            int count = applyHint();
+            if (GRASP.VERBOSE)
+                System.out.println("MIP solution hint covers " + count + " of " + tree.getAncestors().length + " ancestors");
+        }
+        buildTime = System.currentTimeMillis() - start;
 
         if (GRASP.VERBOSE) {
             solver.enableOutput();
@@ -191,7 +520,6 @@ public class Mip {
         if (solverName.equalsIgnoreCase("SCIP")) {
             // SCIP creates concurrent solvers - appears to be a bug where other workers
             // are not terminated when a solution is found.
-            System.out.println("SCIP solver detected - using single thread for solving.");
             solver.setSolverSpecificParametersAsString("lp/initalgorithm = d");
             solver.setNumThreads(1);
             actualThreadsUsed = 1;
@@ -200,44 +528,75 @@ public class Mip {
         }
 
         if (GRASP.VERBOSE) {
-            System.out.println(solverName + "(" + solver.solverVersion().strip() + ") model build complete. Starting solver with " + actualThreadsUsed + (actualThreadsUsed == 1 ? " thread..." : " threads..."));
+            System.out.println(solverName + "(" + solver.solverVersion().strip() + ") model build complete in " + buildTime + " ms ("
+                    + solver.numVariables() + " variables, " + solver.numConstraints() + " constraints). Starting solver with "
+                    + actualThreadsUsed + (actualThreadsUsed == 1 ? " thread..." : " threads..."));
         }
 
-        solver.setTimeLimit((long) GRASP.MIP_SOLVER_TIME_LIMIT_MINUTES * 60 * 1000); // convert to milliseconds
+        solver.setTimeLimit(timeLimit);
 
 
-        MPSolver.ResultStatus resultStatus = solver.solve();
-
-        if (resultStatus == MPSolver.ResultStatus.OPTIMAL) {
-            System.out.println("Optimal solution found");
-            System.out.println("Objective value: " + objective.value());
-            System.out.printf("Indel solution found in %d min, %d sec%n", TimeUnit.MILLISECONDS.toMinutes(solver.wallTime()),
-                    TimeUnit.MILLISECONDS.toSeconds(solver.wallTime()) - TimeUnit.MINUTES.toSeconds(TimeUnit.MILLISECONDS.toMinutes(solver.wallTime())));
-
-        } else if (resultStatus == MPSolver.ResultStatus.FEASIBLE) {
-
-            System.out.println("Feasible solution found");
-            System.out.println("Objective value: " + objective.value());
-            System.out.printf("Indel solution found in %d min, %d sec%n", TimeUnit.MILLISECONDS.toMinutes(solver.wallTime()),
-                    TimeUnit.MILLISECONDS.toSeconds(solver.wallTime()) - TimeUnit.MINUTES.toSeconds(TimeUnit.MILLISECONDS.toMinutes(solver.wallTime())));
-
-        } else if (resultStatus == MPSolver.ResultStatus.INFEASIBLE) {
-            System.err.println("Indel model is infeasible given the input alignment.");
-            return null;
-        } else if (resultStatus == MPSolver.ResultStatus.NOT_SOLVED) {
-            System.err.println("No solution found or a solution could not be identified with the given time limit.");
-            return null;
+        resultStatus = solver.solve();
+        wallTime = solver.wallTime();
+        HashMap<Integer, Integer[]> solution = null;
+        if (resultStatus == MPSolver.ResultStatus.OPTIMAL || resultStatus == MPSolver.ResultStatus.FEASIBLE) {
+            objectiveValue = objective.value();
+            solution = extractSolutionMPSolver(tree, positionVars);
         }
+        if (resultStatus != MPSolver.ResultStatus.OPTIMAL && hint != null) {
+            hintObjectiveValue = evaluateHint();
+            // the solver stopped without a solution, or with an incumbent worse than the hint
+            if (!Double.isNaN(hintObjectiveValue) && (solution == null || hintObjectiveValue < objectiveValue)) {
+                if (GRASP.VERBOSE)
+                    System.out.println("MIP solution hint (" + hintObjectiveValue + ") is better than the incumbent ("
+                            + (solution == null ? "none" : objectiveValue) + ")");
+                resultStatus = MPSolver.ResultStatus.FEASIBLE;
+                objectiveValue = hintObjectiveValue;
+                hintUsed = true;
+                solution = new HashMap<>();
+                for (int ancestorIdx : tree.getAncestors()) {
+                    Integer[] ancestralSeq = new Integer[nPos];
+                    for (int j = 0; j < nPos; j++)
+                        ancestralSeq[j] = hint[ancestorIdx][j] ? 1 : 0;
+                    solution.put(ancestorIdx, ancestralSeq);
+                }
+            }
+        }
+        return solution;
+    }
 
-        return extractSolutionMPSolver(ancestorPositionVars);
+    /**
+     * Determine the objective of the hint under this model, by fixing the position variables of all ancestors to the
+     * hint and solving again. This modifies the model, so is only done after the solution is extracted.
+     * @return the objective, or NaN if an ancestor is not in the hint, or if the hint is not feasible under the model
+     */
+    private double evaluateHint() {
+        Map<MPVariable, Double> values = new HashMap<>();
+        for (int ancestorIdx : tree.getAncestors()) {
+            if (hint[ancestorIdx] == null)
+                return Double.NaN;
+            for (int j = 0; j < nPos; j++) {
+                Double previous = values.put(positionVars[ancestorIdx][j], hint[ancestorIdx][j] ? 1.0 : 0.0);
+                if (previous != null && previous != (hint[ancestorIdx][j] ? 1.0 : 0.0)) // a shared variable cannot have both
+                    return Double.NaN;
+            }
+        }
+        for (Map.Entry<MPVariable, Double> entry : values.entrySet())
+            entry.getKey().setBounds(entry.getValue(), entry.getValue());
+        solver.setTimeLimit(Math.max(timeLimit, HINT_TIME_LIMIT)); // with all ancestors fixed, presolve (nearly) solves it
+        MPSolver.ResultStatus status = solver.solve();
+        wallTime = solver.wallTime(); // since the solver was created
+        if (status != MPSolver.ResultStatus.OPTIMAL && status != MPSolver.ResultStatus.FEASIBLE)
+            return Double.NaN;
+        return objective.value();
     }
 
-    private static HashMap<Integer, Integer[]> extractSolutionMPSolver(HashMap<Integer, MPVariable[]> ancestorPositionVars) {
+    private static HashMap<Integer, Integer[]> extractSolutionMPSolver(IdxTree tree, MPVariable[][] positionVars) {
 
         HashMap<Integer, Integer[]> ancestralIndels = new HashMap<>();
 
-        for (int ancestralIdx : ancestorPositionVars.keySet()) {
-            MPVariable[] nodePosVar = ancestorPositionVars.get(ancestralIdx);
+        for (int ancestralIdx : tree.getAncestors()) {
+            MPVariable[] nodePosVar = positionVars[ancestralIdx];
             Integer[] ancestralSeq = new Integer[nodePosVar.length];
             for (int pos = 0; pos < nodePosVar.length; pos++) {
                 ancestralSeq[pos] = (int) Math.round(nodePosVar[pos].solutionValue());
@@ -260,27 +619,29 @@ public class Mip {
         return true;
     }
 
-    public static HashMap<Integer, Integer[]> createBinarySeqMap(EnumSeq.Alignment<Enumerable> aln, IdxTree tree) {
+    /**
+     * Mark the columns with content in each extant sequence
+     * @return the columns with content, by branch point index of the extant; null for ancestors
+     */
+    private static BitSet[] createExtantContent(EnumSeq.Alignment<Enumerable> aln, IdxTree tree) {
 
-        HashMap<Integer, Integer[]> binarySeqMap = new HashMap<>();
+        BitSet[] content = new BitSet[tree.getSize()];
 
         for (int i = 0; i < aln.getHeight(); i++) {
 
             EnumSeq<Enumerable> seq = aln.getEnumSeq(i);
-            Integer[] binSeqValues = new Integer[aln.getWidth()]; // + VIRTUAL_NODES];
+            BitSet present = new BitSet(aln.getWidth());
 
             for (int j = 0; j < aln.getWidth(); j++) {
-                if (seq.get(j) == null) {
-                    binSeqValues[j] = GAP;
-                } else {
-                    binSeqValues[j] = NON_GAP;
+                if (seq.get(j) != null) {
+                    present.set(j);
                 }
             }
 
-            binarySeqMap.put(tree.getIndex(seq.getName()), binSeqValues);
+            content[tree.getIndex(seq.getName())] = present;
         }
 
-        return binarySeqMap;
+        return content;
     }
 
     /**
@@ -397,20 +758,20 @@ public class Mip {
      */
     private void createAncestralPositionVariables() {
 
-        HashMap<Integer, MPVariable[]> ancestorSeqVars = new HashMap<>();
+        MPVariable[][] ancestorSeqVars = new MPVariable[tree.getSize()][];
         for (int ancestorIdx : tree.getAncestors()) {
             MPVariable[] seqVars = new MPVariable[nPos];
             for (int j = 0; j < nPos; j++) {
-                if (this.nodesToSkip.contains(j)) {
+                if (this.nodesToSkip.get(j)) {
                     seqVars[j] = seqVars[j - 1];
                 } else {
                     seqVars[j] = solver.makeBoolVar("");
                 }
             }
-            ancestorSeqVars.put(ancestorIdx, seqVars);
+            ancestorSeqVars[ancestorIdx] = seqVars;
         }
 
-        this.ancestorPositionVars = ancestorSeqVars;
+        this.positionVars = ancestorSeqVars;
     }
 
     public static int[] append(int[] arr, int val) {
@@ -423,40 +784,39 @@ public class Mip {
 
 
         int[] startIndices = alnPog.getStarts();
-        this.nodesConnectedToPreviousNode.remove(VIRTUAL_START + 1);
-        this.nodesConnectedToPreviousNode.remove(virtualEndIdx);
+        this.nodesConnectedToPreviousNode.clear(VIRTUAL_START + 1);
+        this.nodesConnectedToPreviousNode.clear(virtualEndIdx);
 
 
+        this.edgeVars = new MPVariable[tree.getSize()][];
         for (int ancestorIdx : tree.getAncestors()) {
 
+            this.edgeVars[ancestorIdx] = new MPVariable[edgeSlots[nPos + 1]];
             // VIRTUAL STARTS TO REAL STARTS //
             for (int edgeEnd : startIndices) {
                 // Variable for each edge from virtual start to a "real" start node
                 MPVariable edge = solver.makeBoolVar("");
-                EdgeKey edgeKey = new EdgeKey(VIRTUAL_START, edgeEnd, ancestorIdx);
-                edges.put(edgeKey, edge);
+                setEdge(ancestorIdx, VIRTUAL_START, edgeEnd, edge);
             }
 
             for (int nodeIdx = 0; nodeIdx < alnPog.maxsize(); nodeIdx++) {
                 // first go through and find nodes where we actually need edge variables
-                if (!this.nodesToSkip.contains(nodeIdx + 1)) { // next node is not skipped
-                    if (!this.nodesConnectedToPreviousNode.contains(nodeIdx + 1)) { // current node not connected to adjacent node
+                if (!this.nodesToSkip.get(nodeIdx + 1)) { // next node is not skipped
+                    if (!this.nodesConnectedToPreviousNode.get(nodeIdx + 1)) { // current node not connected to adjacent node
                         if (getForwardEdges(nodeIdx).length == 1) {
                             for (int posTo : getForwardEdges(nodeIdx)) {
                                 // node has one outgoing edge, outgoing edge is implicit on this node being activated
-                                EdgeKey edgeKey = new EdgeKey(nodeIdx, posTo, ancestorIdx);
-                                this.edges.put(edgeKey, this.ancestorPositionVars.get(ancestorIdx)[nodeIdx]);
+                                setEdge(ancestorIdx, nodeIdx, posTo, this.positionVars[ancestorIdx][nodeIdx]);
                             }
                         } else {
                             for (int posTo : getForwardEdges(nodeIdx)) {
-                                EdgeKey edgeKey = new EdgeKey(nodeIdx, posTo, ancestorIdx);
                                 MPVariable edge;
                                 if (getBackwardEdges(posTo).length == 1) {
-                                    edge = this.ancestorPositionVars.get(ancestorIdx)[posTo];
+                                    edge = this.positionVars[ancestorIdx][posTo];
                                 } else {
                                     edge = solver.makeBoolVar("");
                                 }
-                                this.edges.put(edgeKey, edge);
+                                setEdge(ancestorIdx, nodeIdx, posTo, edge);
                             }
 
                             addEdgeConstraint(ancestorIdx, nodeIdx);
@@ -471,11 +831,10 @@ public class Mip {
                             }
                             MPVariable edge;
                             if (getBackwardEdges(posTo).length == 1) {
-                                edge = this.ancestorPositionVars.get(ancestorIdx)[posTo];
+                                edge = this.positionVars[ancestorIdx][posTo];
                             } else {
-                                EdgeKey edgeKey = new EdgeKey(nodeIdx, posTo, ancestorIdx);
                                 edge = solver.makeBoolVar("");
-                                this.edges.put(edgeKey, edge);
+                                setEdge(ancestorIdx, nodeIdx, posTo, edge);
                             }
                             all_edges_from_pos.add(edge);
                         }
@@ -484,22 +843,28 @@ public class Mip {
                             if (posFrom == nodeIdx) {
                                 continue;
                             }
-                            MPVariable edge = this.edges.get(new EdgeKey(posFrom, nodeIdx + 1, ancestorIdx));
+                            MPVariable edge = getEdge(ancestorIdx, posFrom, nodeIdx + 1);
                             all_edges_to_pos1.add(edge);
                         }
 
                         MPConstraint constraint = solver.makeConstraint(0, 0);
-                        MPVariable nodePlusOne = this.ancestorPositionVars.get(ancestorIdx)[nodeIdx + 1];
+                        MPVariable nodePlusOne = this.positionVars[ancestorIdx][nodeIdx + 1];
                         constraint.setCoefficient(nodePlusOne, constraint.getCoefficient(nodePlusOne) + 1);
 
-                        MPVariable node = this.ancestorPositionVars.get(ancestorIdx)[nodeIdx];
+                        MPVariable node = this.positionVars[ancestorIdx][nodeIdx];
                         constraint.setCoefficient(node, constraint.getCoefficient(node) + -1);
                         addConstraintSum(constraint, all_edges_from_pos, 1);
                         addConstraintSum(constraint, all_edges_to_pos1, -1);
+                        if (hint != null) {
+                            List<MPVariable> vars = new ArrayList<>(List.of(node, nodePlusOne));
+                            vars.addAll(all_edges_from_pos);
+                            vars.addAll(all_edges_to_pos1);
+                            recordPathConstraint(ancestorIdx, constraint, vars);
+                        }
                     }
                 }
 
-                if (!this.nodesToSkip.contains(nodeIdx) && !this.nodesConnectedToPreviousNode.contains(nodeIdx)) {
+                if (!this.nodesToSkip.get(nodeIdx) && !this.nodesConnectedToPreviousNode.get(nodeIdx)) {
                     if (getBackwardEdges(nodeIdx).length > 1 ||
                             getForwardEdges(Arrays.stream(getBackwardEdges(nodeIdx)).min().orElseThrow()).length == 1) {
                         addEdgeConstraint(ancestorIdx, nodeIdx);
@@ -516,7 +881,7 @@ public class Mip {
         if (iPrimeIndex == VIRTUAL_START) {
             constant = 1;
         } else {
-            aKIPrime = this.ancestorPositionVars.get(ancestorIdx)[iPrimeIndex];
+            aKIPrime = this.positionVars[ancestorIdx][iPrimeIndex];
         }
 
         List<MPVariable> edgesBypassingI = new LinkedList<>();
@@ -526,9 +891,9 @@ public class Mip {
             }
             MPVariable edge;
             if (getBackwardEdges(posTo).length == 1) {
-                edge = this.ancestorPositionVars.get(ancestorIdx)[posTo];
+                edge = this.positionVars[ancestorIdx][posTo];
             } else {
-                edge = this.edges.get(new EdgeKey(iPrimeIndex, posTo, ancestorIdx));
+                edge = getEdge(ancestorIdx, iPrimeIndex, posTo);
             }
             edgesBypassingI.add(edge);
         }
@@ -538,54 +903,83 @@ public class Mip {
             if (posFrom == iPrimeIndex) {
                 continue;
             }
-            MPVariable edge = this.edges.get(new EdgeKey(posFrom, nodeIdx, ancestorIdx));
+            MPVariable edge = getEdge(ancestorIdx, posFrom, nodeIdx);
             edgesBypassingIPrime.add(edge);
         }
 
         MPConstraint constraint = solver.makeConstraint(constant, constant);
         // nodes can also exist as edges, need to account for this in the constraint coefficients
-        double ancExisting = constraint.getCoefficient(this.ancestorPositionVars.get(ancestorIdx)[nodeIdx]);
-        constraint.setCoefficient(this.ancestorPositionVars.get(ancestorIdx)[nodeIdx], ancExisting + 1);
+        double ancExisting = constraint.getCoefficient(this.positionVars[ancestorIdx][nodeIdx]);
+        constraint.setCoefficient(this.positionVars[ancestorIdx][nodeIdx], ancExisting + 1);
         if (aKIPrime != null) {
             double existing = constraint.getCoefficient(aKIPrime);
             constraint.setCoefficient(aKIPrime, existing + -1);
         }
         addConstraintSum(constraint, edgesBypassingI, 1);
         addConstraintSum(constraint, edgesBypassingIPrime, -1);
+        if (hint != null) {
+            List<MPVariable> vars = new ArrayList<>(edgesBypassingI);
+            vars.addAll(edgesBypassingIPrime);
+            vars.add(this.positionVars[ancestorIdx][nodeIdx]);
+            if (aKIPrime != null)
+                vars.add(aKIPrime);
+            recordPathConstraint(ancestorIdx, constraint, vars);
+        }
     }
 
-    private int[] getForwardEdges(int nodeIdx) {
+    private void recordPathConstraint(int ancestorIdx, MPConstraint constraint, List<MPVariable> vars) {
+        if (pathConstraints.get(ancestorIdx) == null)
+            pathConstraints.set(ancestorIdx, new ArrayList<>());
+        pathConstraints.get(ancestorIdx).add(new PathConstraint(constraint, vars));
+    }
 
-        int[] forwardEdges;
-        if (nodeIdx == VIRTUAL_START) {
-            forwardEdges = alnPog.getStarts();
-        } else {
-            forwardEdges = alnPog.getNodeIndices(nodeIdx, true);
+    /**
+     * Index the edges of the alignment POG, incl. those from the virtual start and to the virtual end, and assign
+     * each edge a slot in the edge variables of an ancestor: the forward edges of a node occupy consecutive slots.
+     */
+    private void indexEdges() {
+        this.forwardEdges = new int[nPos + 2][];
+        this.backwardEdges = new int[nPos + 2][];
+        this.edgeSlots = new int[nPos + 2];
+        for (int nodeIdx = VIRTUAL_START; nodeIdx < nPos; nodeIdx++) {
+            int[] forward = nodeIdx == VIRTUAL_START ? alnPog.getStarts() : alnPog.getNodeIndices(nodeIdx, true);
+            if (alnPog.isEndNode(nodeIdx))
+                forward = append(forward, virtualEndIdx);
+            forwardEdges[nodeIdx + 1] = forward;
+            edgeSlots[nodeIdx + 2] = edgeSlots[nodeIdx + 1] + forward.length;
         }
-
-        if (alnPog.isEndNode(nodeIdx)) {
-            forwardEdges = append(forwardEdges, virtualEndIdx);
+        for (int nodeIdx = 0; nodeIdx <= nPos; nodeIdx++) {
+            int[] backward = nodeIdx == virtualEndIdx ? alnPog.getEnds() : alnPog.getNodeIndices(nodeIdx, false);
+            if (alnPog.isStartNode(nodeIdx))
+                backward = append(backward, VIRTUAL_START);
+            backwardEdges[nodeIdx + 1] = backward;
         }
-
-        return forwardEdges;
-
     }
 
-    private int[] getBackwardEdges(int nodeIdx) {
+    /**
+     * Find the slot of an edge in the edge variables of an ancestor
+     * @return the slot, or -1 if there is no such edge
+     */
+    private int getEdgeSlot(int from, int to) {
+        int k = Arrays.binarySearch(forwardEdges[from + 1], to); // forward edges are in order, incl. the virtual end (last)
+        return k < 0 ? -1 : edgeSlots[from + 1] + k;
+    }
 
-        int[] backwardEdges;
-        if (nodeIdx == virtualEndIdx) {
-            backwardEdges = alnPog.getEnds();
-        } else {
-            backwardEdges = alnPog.getNodeIndices(nodeIdx, false);
-        }
+    private MPVariable getEdge(int ancestorIdx, int from, int to) {
+        int slot = getEdgeSlot(from, to);
+        return slot < 0 ? null : edgeVars[ancestorIdx][slot];
+    }
 
-        if (alnPog.isStartNode(nodeIdx)) {
-            backwardEdges = append(backwardEdges, VIRTUAL_START);
-        }
+    private void setEdge(int ancestorIdx, int from, int to, MPVariable edge) {
+        edgeVars[ancestorIdx][getEdgeSlot(from, to)] = edge;
+    }
 
-        return backwardEdges;
+    private int[] getForwardEdges(int nodeIdx) {
+        return forwardEdges[nodeIdx + 1];
+    }
 
+    private int[] getBackwardEdges(int nodeIdx) {
+        return backwardEdges[nodeIdx + 1];
     }
 
 
@@ -602,27 +996,26 @@ public class Mip {
 
         for (int ancestralIdx : tree.getAncestors()) {
 
-            MPVariable[] nodePosVar = ancestorPositionVars.get(ancestralIdx);
+            MPVariable[] nodePosVar = positionVars[ancestralIdx];
 
             for (int childIdx : tree.getChildren(ancestralIdx)) {
 
                 MPVariable[] pen = new MPVariable[nPos];
 
-                Integer[] nodeNeighbourPosVar = null;
+                BitSet nodeNeighbourContent = null;
                 MPVariable[] nodeNeighborPosVarAncestor = null;
-                MPVariable[] diffPos = null;
+                MPVariable[] diffPos = new MPVariable[nPos];
 
                 boolean isExtant = false;
                 if (tree.isLeaf(childIdx)) {
-                    nodeNeighbourPosVar = extantBinarySeqs.get(childIdx);
+                    nodeNeighbourContent = extantContent[childIdx];
                     isExtant = true;
                 } else {
-                    nodeNeighborPosVarAncestor = ancestorPositionVars.get(childIdx);
+                    nodeNeighborPosVarAncestor = positionVars[childIdx];
                     MPVariable lastVar = null;
 
-                    diffPos = new MPVariable[nPos];
                     for (int pos = 0; pos < nPos; pos++) {
-                        if (this.nodesToSkip.contains(pos)) {
+                        if (this.nodesToSkip.get(pos)) {
                             diffPos[pos] = lastVar;
                         } else {
                             diffPos[pos] = solver.makeBoolVar("");
@@ -634,25 +1027,24 @@ public class Mip {
                 for (int pos = 0; pos < nPos; pos++) {
                     if (isExtant) {
 
-                        if (this.nodesToSkip.contains(pos)) {
-                            this.diff.put(new DiffKey(ancestralIdx, childIdx, pos),
-                                    this.diff.get(new DiffKey(ancestralIdx, childIdx, pos - 1)));
+                        if (this.nodesToSkip.get(pos)) {
+                            diffPos[pos] = diffPos[pos - 1];
                             continue;
                         }
 
                         // constraint - difference variables
 
-                        if (nodeNeighbourPosVar[pos] == 1) {
+                        if (nodeNeighbourContent.get(pos)) {
                             // constraint: diff == 1 - nodePosVar[pos]
                             // rearrange: diff + nodePosVar[pos] == 1
                             MPVariable diffVar = solver.makeBoolVar("");
                             MPConstraint c = solver.makeConstraint(1, 1);
                             c.setCoefficient(diffVar, 1.0);
                             c.setCoefficient(nodePosVar[pos], 1.0);
-                            this.diff.put(new DiffKey(ancestralIdx, childIdx, pos), diffVar);
+                            diffPos[pos] = diffVar;
 
-                        } else if (nodeNeighbourPosVar[pos] == 0) {
-                            this.diff.put(new DiffKey(ancestralIdx, childIdx, pos), nodePosVar[pos]);
+                        } else {
+                            diffPos[pos] = nodePosVar[pos];
                         }
 
                         // gap penalty constraints
@@ -661,26 +1053,26 @@ public class Mip {
                             pen[pos] = solver.makeBoolVar("");
                             MPConstraint c = solver.makeConstraint(0, 0);
                             c.setCoefficient(pen[pos], 1.0);
-                            c.setCoefficient(this.diff.get(new DiffKey(ancestralIdx, childIdx, pos)), -1.0);
+                            c.setCoefficient(diffPos[pos], -1.0);
                         } else {
 
-                            if (nodeNeighbourPosVar[pos - 1] == 1 && nodeNeighbourPosVar[pos] == 0) {
+                            if (nodeNeighbourContent.get(pos - 1) && !nodeNeighbourContent.get(pos)) {
                                 pen[pos] = nodePosVar[pos];
 
-                            } else if (nodeNeighbourPosVar[pos - 1] == 0 && nodeNeighbourPosVar[pos] == 1) {
+                            } else if (!nodeNeighbourContent.get(pos - 1) && nodeNeighbourContent.get(pos)) {
                                 pen[pos] = solver.makeBoolVar("");
                                 MPConstraint constraint = solver.makeConstraint(1,1);
                                 constraint.setCoefficient(pen[pos], 1);
                                 constraint.setCoefficient(nodePosVar[pos], 1);
 
-                            } else if (nodeNeighbourPosVar[pos - 1] == 1 && nodeNeighbourPosVar[pos] == 1) {
+                            } else if (nodeNeighbourContent.get(pos - 1) && nodeNeighbourContent.get(pos)) {
                                 pen[pos] = solver.makeBoolVar("");
                                 MPConstraint constraint = solver.makeConstraint(0,Double.POSITIVE_INFINITY);
                                 constraint.setCoefficient(pen[pos], 1.0);
                                 constraint.setCoefficient(nodePosVar[pos - 1], -1.0);
                                 constraint.setCoefficient(nodePosVar[pos], 1.0);
 
-                            } else if (nodeNeighbourPosVar[pos - 1] == 0 && nodeNeighbourPosVar[pos] == 0) {
+                            } else {
                                 pen[pos] = solver.makeBoolVar("");
                                 MPConstraint constraint = solver.makeConstraint(0, Double.POSITIVE_INFINITY);
                                 constraint.setCoefficient(pen[pos], 1.0);
@@ -691,12 +1083,11 @@ public class Mip {
 
 
                         objective.setCoefficient(pen[pos],  objective.getCoefficient(pen[pos]) + treeNeighbourAlphaPen[pos][childIdx]);
-                        DiffKey diffKey = new DiffKey(ancestralIdx, childIdx, pos);
-                        objective.setCoefficient(this.diff.get(diffKey),  objective.getCoefficient(this.diff.get(diffKey)) + this.nodeWeights[pos]);
+                        objective.setCoefficient(diffPos[pos],  objective.getCoefficient(diffPos[pos]) + this.nodeWeights[pos]);
 
                     } else {
 
-                        if (this.nodesToSkip.contains(pos)) {
+                        if (this.nodesToSkip.get(pos)) {
                             continue;
                         }
 
@@ -746,8 +1137,8 @@ public class Mip {
                                         parentEdge = nodePosVar[posTo];
                                         childEdge = nodeNeighborPosVarAncestor[posTo];
                                     } else {
-                                        parentEdge = this.edges.get(new EdgeKey(pos - 1, posTo, ancestralIdx));
-                                        childEdge = this.edges.get(new EdgeKey(pos - 1, posTo, childIdx));
+                                        parentEdge = getEdge(ancestralIdx, pos - 1, posTo);
+                                        childEdge = getEdge(childIdx, pos - 1, posTo);
                                     }
                                     parentEdgesBypassingI.add(parentEdge);
                                     childEdgesBypassingI.add(childEdge);
@@ -768,8 +1159,8 @@ public class Mip {
                                         parentEdge = nodePosVar[pos];
                                         childEdge = nodeNeighborPosVarAncestor[pos];
                                     } else {
-                                        parentEdge = this.edges.get(new EdgeKey(posFrom, pos, ancestralIdx));
-                                        childEdge = this.edges.get(new EdgeKey(posFrom, pos, childIdx));
+                                        parentEdge = getEdge(ancestralIdx, posFrom, pos);
+                                        childEdge = getEdge(childIdx, posFrom, pos);
                                     }
 
                                     parentEdgesBypassingIMinus1.add(parentEdge);
@@ -802,10 +1193,8 @@ public class Mip {
     }
 
     /**
-     * Create a unique key for an edge in the POG associated with a specific ancestor.
-     * Allows this to be used as a key in hash maps.
+     * A constraint on the path of an ancestor, with the variables it involves.
      */
-    record EdgeKey(int from, int to, int ancestorIdx) {}
-    record DiffKey(int ancestorIdx, int childIdx, int pos) {}
+    record PathConstraint(MPConstraint constraint, List<MPVariable> vars) {}
 
 }
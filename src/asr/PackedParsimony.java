@@ -0,0 +1,184 @@
+package asr;
+
+import dat.phylo.IdxTree;
+
+/**
+ * Maximum parsimony with unit substitution cost, implemented on primitive arrays, with sets of states packed as bits.
+ *
+ * An instance is bound to a tree; columns are encoded as arrays of symbol indices (one for each branch point;
+ * -1 for un-instantiated), and are then inferred in one post-order sweep (scores) and one pre-order sweep (optimal states)
+ * over the tree, using a workspace that is private to the calling thread. This means that an instance can be shared
+ * by threads that infer different columns, e.g. all columns of an alignment.
+ *
+ * The result is the same as the traceback of {@link Parsimony.Inference}: the optimal states of a branch point are all
+ * states that appear in at least one most parsimonious assignment to the tree. Un-instantiated branch points
+ * that have an instantiated ancestor are not inferred. Because the substitution cost is unit, the states in a child that
+ * support a state in the parent are given by the child's best score only, so no traceback needs to be stored.
+ * The number of symbols is limited to {@link #MAX_SYMBOLS}.
+ */
+public class PackedParsimony {
+
+    public static final int UNINSTANTIATED = -1;
+    public static final int MAX_SYMBOLS = Long.SIZE;
+
+    private static final int EXCLUDED = Integer.MAX_VALUE / 2; // score of a state that an instantiated branch point cannot take
+
+    private final IdxTree tree;
+    private final int nNodes;
+    private final int[][] children;
+    private final int[] parent;
+    private final ThreadLocal<Workspace> workspaces;
+
+    /**
+     * Create a parsimony engine for a tree.
+     * @param tree the tree
+     */
+    public PackedParsimony(IdxTree tree) {
+        this.tree = tree;
+        this.nNodes = tree.getSize();
+        this.children = new int[nNodes][];
+        this.parent = new int[nNodes];
+        for (int idx = 0; idx < nNodes; idx ++) {
+            children[idx] = tree.isLeaf(idx) ? new int[0] : tree.getChildren(idx);
+            parent[idx] = tree.getParent(idx);
+        }
+        this.workspaces = ThreadLocal.withInitial(() -> new Workspace(nNodes));
+    }
+
+    public IdxTree getTree() {
+        return tree;
+    }
+
+    /**
+     * Infer the optimal states of all branch points, leaving the result in the workspace of the current thread.
+     * The workspace is re-used by the next call from the same thread.
+     * @param states symbol index for each branch point, {@link #UNINSTANTIATED} if not set
+     * @param nsym number of symbols, at most {@link #MAX_SYMBOLS}
+     * @return the workspace with the result
+     */
+    public Workspace infer(int[] states, int nsym) {
+        if (nsym > MAX_SYMBOLS)
+            throw new ASRRuntimeException("Too many symbols for packed parsimony: " + nsym);
+        Workspace ws = workspaces.get();
+        ws.ensure(nsym);
+        int[] scores = ws.scores;
+        int[] best = ws.best;
+        long[] argbest = ws.argbest;
+        long[] optimal = ws.optimal;
+        long all = nsym == MAX_SYMBOLS ? -1L : (1L << nsym) - 1;
+        // iterate through branch point indices backwards for postorder traversal
+        for (int idx = nNodes - 1; idx >= 0; idx --) {
+            int base = idx * nsym;
+            int s = states[idx];
+            if (s != UNINSTANTIATED) {
+                for (int i = 0; i < nsym; i ++)
+                    scores[base + i] = (i == s) ? 0 : EXCLUDED;
+                best[idx] = 0;
+                argbest[idx] = 1L << s;
+                continue;
+            }
+            int[] kids = children[idx];
+            if (kids.length == 0) { // un-instantiated leaf, all states are equally NOT penalised
+                for (int i = 0; i < nsym; i ++)
+                    scores[base + i] = 0;
+                best[idx] = 0;
+                argbest[idx] = all;
+                continue;
+            }
+            // the best that child c can do for parent state i is either to agree (its score for i) or to change from its best
+            for (int i = 0; i < nsym; i ++) {
+                int sum = 0;
+                for (int child : kids)
+                    sum += Math.min(scores[child * nsym + i], best[child] + 1);
+                scores[base + i] = sum;
+            }
+            int min = Integer.MAX_VALUE;
+            long arg = 0;
+            for (int i = 0; i < nsym; i ++) {
+                int score = scores[base + i];
+                if (score < min) {
+                    min = score;
+                    arg = 1L << i;
+                } else if (score == min) {
+                    arg |= 1L << i;
+                }
+            }
+            best[idx] = min;
+            argbest[idx] = arg;
+        }
+        // iterate forwards for preorder traversal, propagating the optimal states of each parent to its children
+        for (int idx = 0; idx < nNodes; idx ++) {
+            int p = parent[idx];
+            if (p < 0) {
+                optimal[idx] = argbest[idx];
+            } else if (states[idx] != UNINSTANTIATED) {
+                optimal[idx] = 1L << states[idx];
+            } else if (optimal[p] == 0 || states[p] != UNINSTANTIATED) {
+                optimal[idx] = 0; // not reached from the root
+            } else {
+                int base = idx * nsym;
+                int cbest = best[idx];
+                long opt = 0;
+                for (long pstates = optimal[p]; pstates != 0; pstates &= pstates - 1) {
+                    int i = Long.numberOfTrailingZeros(pstates);
+                    int score = scores[base + i];
+                    if (score == cbest)             // child agrees with parent
+                        opt |= 1L << i;
+                    else if (score == cbest + 1)    // child agrees, or changes from any of its best
+                        opt |= (1L << i) | argbest[idx];
+                    else                            // child changes from any of its best
+                        opt |= argbest[idx];
+                }
+                optimal[idx] = opt;
+            }
+        }
+        return ws;
+    }
+
+    /**
+     * Arrays that hold the result of inferring a column, one instance for each thread.
+     */
+    public static class Workspace {
+        private final int nNodes;
+        private int nsym = 0;
+        private int[] scores;           // [branch point][symbol] parsimony score of subtree, flattened
+        private final int[] best;       // [branch point] best score of subtree
+        private final long[] argbest;   // [branch point] symbols with the best score of subtree
+        private final long[] optimal;   // [branch point] symbols in a most parsimonious assignment, 0 if not inferred
+
+        private Workspace(int nNodes) {
+            this.nNodes = nNodes;
+            this.scores = new int[0];
+            this.best = new int[nNodes];
+            this.argbest = new long[nNodes];
+            this.optimal = new long[nNodes];
+        }
+
+        private void ensure(int nsym) {
+            this.nsym = nsym;
+            if (scores.length < nNodes * nsym)
+                scores = new int[nNodes * nsym];
+        }
+
+        /**
+         * @return the optimal symbols of a branch point, as bits (bit i is set if symbol i is optimal); 0 if not inferred
+         */
+        public long getOptimal(int idx) {
+            return optimal[idx];
+        }
+
+        /**
+         * @return parsimony score of the subtree rooted at a branch point, given that it takes a symbol
+         */
+        public int getScore(int idx, int sym) {
+            return scores[idx * nsym + sym];
+        }
+
+        /**
+         * @return the parsimony score of the tree
+         */
+        public int getScore() {
+            return best[0];
+        }
+    }
+}
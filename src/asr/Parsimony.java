@@ -23,6 +23,7 @@ public class Parsimony implements TreeDecor<List> {
 
     private int nnodes;
     private final IdxTree tree;
+    private PackedParsimony engine = null;
     private Inference inf = null;
     private boolean recodeNull;
 
@@ -42,6 +43,15 @@ public class Parsimony implements TreeDecor<List> {
         this.recodeNull = recodeNull;
     }
 
+    /**
+     * Set-up for performing parsimony with an engine that is shared with other instances for the same tree,
+     * e.g. one for each column of an alignment.
+     */
+    public Parsimony(PackedParsimony engine, boolean recodeNull) {
+        this(engine.getTree(), recodeNull);
+        this.engine = engine;
+    }
+
     /**
      * Exposes results of inference.
      * @param idx
@@ -70,9 +80,14 @@ public class Parsimony implements TreeDecor<List> {
      */
     public synchronized Inference infer(TreeInstance ti, boolean recodeNull) {
         Object[] key = ti.encode(recodeNull); // convert instances to standardised list
-        Inference myinf = new Inference(ti);
-        myinf.forward();
-        myinf.backward();
+        Inference myinf;
+        if (SET_ONE_TARGET_PARSIMONY || SET_RANDOM_PARSIMONY || key.length > PackedParsimony.MAX_SYMBOLS) {
+            myinf = new Inference(ti);
+            myinf.forward();
+            myinf.backward();
+        } else { // all optimal values, in order
+            myinf = new Inference(ti, getEngine());
+        }
         boolean nullAtAncestors = false;
         if (key[key.length - 1] == null) // an additional symbol was added to infer null at ancestors
             nullAtAncestors = true;
@@ -100,6 +115,12 @@ public class Parsimony implements TreeDecor<List> {
         return myinf;
     }
 
+    private PackedParsimony getEngine() {
+        if (engine == null)
+            engine = new PackedParsimony(tree);
+        return engine;
+    }
+
     /**
      * Performs the forward pass only in parsimony. Throws away the result that is required for backward pass.
      * Prefer {@link #decorate(TreeInstance)}.
@@ -211,7 +232,7 @@ public class Parsimony implements TreeDecor<List> {
     public class Inference {
         private final int[][][][] traceback;    // [node idx][parent value][child branch][best child value/s: 0, 1, 2, ...] = optimal child state,
         private final TreeInstance treeInstance;
-        private final double[][] scores;        // [node idx][parent value] the optimal score for each parent value
+        private final double[][] scores;        // [node idx][parent value] the optimal score for each parent value (null if packed)
         private final int nsym;
         private List[] optimal;                 // [node idx] list of (optimal) values at branch point
 
@@ -235,6 +256,38 @@ public class Parsimony implements TreeDecor<List> {
             }
         }
 
+        /**
+         * Complete inference with the packed engine; the optimal values of each branch point are listed in order.
+         * Forward and backward steps are not available for the result.
+         */
+        private Inference(TreeInstance ti, PackedParsimony packed) {
+            this.treeInstance = ti;
+            this.nsym = ti.getNPossibleValues();
+            this.scores = null;
+            this.traceback = null;
+            this.optimal = new List[nnodes];
+            int[] states = new int[nnodes];
+            for (int bpidx = 0; bpidx < nnodes; bpidx ++) {
+                Object bpval = ti.getInstance(bpidx);
+                states[bpidx] = bpval == null ? PackedParsimony.UNINSTANTIATED : ti.getIndexByValue(bpval);
+            }
+            PackedParsimony.Workspace ws = packed.infer(states, nsym);
+            for (int bpidx = 0; bpidx < nnodes; bpidx ++) {
+                Object bpval = ti.getInstance(bpidx);
+                if (bpval != null) {
+                    this.optimal[bpidx] = Collections.singletonList(bpval);
+                } else {
+                    long opt = ws.getOptimal(bpidx);
+                    if (opt != 0) {
+                        List mylist = new ArrayList(Long.bitCount(opt));
+                        for (; opt != 0; opt &= opt - 1)
+                            mylist.add(ti.getValueByIndex(Long.numberOfTrailingZeros(opt)));
+                        this.optimal[bpidx] = mylist;
+                    }
+                }
+            }
+        }
+
         /**
          * Perform forward step of maximum parsimony.
          * Many values can be optimally parsimonious.
@@ -242,6 +295,8 @@ public class Parsimony implements TreeDecor<List> {
          * @return the scores of the unique values at the root
          */
         public double[] forward() {
+            if (traceback == null)
+                throw new ASRRuntimeException("Parsimony has been completed by packed engine");
             return forward(0);
         }
 
@@ -313,6 +368,8 @@ public class Parsimony implements TreeDecor<List> {
          * This handles the node as if it was root; goes by scores assigned to states/symbols.
          */
         public void backward() {
+            if (traceback == null)
+                throw new ASRRuntimeException("Parsimony has been completed by packed engine");
             int bpidx = 0; // root
             int best_index = 0; // find one index with the best score (could be many but one is enough)
             for (int i = 1; i < nsym; i++) {
@@ -25,6 +25,7 @@ import json.JSONObject;
 
 import java.io.*;
 import java.util.*;
+import java.util.function.IntConsumer;
 
 /**
  * Container class for
@@ -53,8 +54,11 @@ public class Prediction {
     private TreeInstance[]  treeinstances;          // position-specific tree instances, which contain instantiated (by extants) and inferred content (duplicating the content in POGs)
     // Indexing of ancestors by ID to branch point index in phylogenetic tree and position-specific trees
     private final int[][] positidxs;                // position-specific tree indices [aligned pos]["global" branchpoint idx]
-    private final EnumDistrib[][] distribs;         // Probability distributions of ancestor states by branchpoint and position index
-    private Object[][] states = null;               // Actual values at inferred branch points, indexed by branchpoint index and position
+    private final int[][] positglobs;               // inverse of the above [aligned pos]["local" branchpoint idx] gives "global" branchpoint idx
+    private final Map<BitSet, PositionTree> positcache = new HashMap<>(); // position-specific trees, shared by positions with the same presence of branch points
+    private DistribMatrix distribs = null;          // Probability distributions of ancestor states by branchpoint and position index
+    private StateMatrix states = null;              // Actual values at inferred branch points, indexed by branchpoint index and position
+    private Checkpoint checkpoint = null;           // if set, character inference is saved as it completes, and resumed from
     private static final int GAP = 0;
     private static final int NON_GAP = 1;
 
@@ -77,7 +81,15 @@ public class Prediction {
         }
         this.positrees = new IdxTree[pogTree.getPositions()]; // by default there's one tree for each index in the alignment/POG
         this.positidxs = new int[pogTree.getPositions()][];   // by default there's one tree for each index in the alignment/POG
-        this.distribs = new EnumDistrib[phylotree.getSize()][];
+        this.positglobs = new int[pogTree.getPositions()][];
+    }
+
+    /**
+     * Save character inference to checkpoints as it completes, and resume from checkpoints saved previously.
+     * @param checkpoint the checkpoints, or null to not use any
+     */
+    public void setCheckpoint(Checkpoint checkpoint) {
+        this.checkpoint = checkpoint;
     }
 
     public void saveIndelSolutionAsFasta(String output, String prefix) {
@@ -174,12 +186,17 @@ public class Prediction {
     }
 
     /**
-     * Load instance from a JSON file.
+     * Load instance from a JSON file, or from a binary file saved by {@link PredictionFile#save(Prediction, String)}.
      * @param filename
      * @return
      * @throws IOException
      */
     public static Prediction load(String filename) throws IOException, JSONException {
+        if (PredictionFile.isBinary(filename)) {
+            try (PredictionFile file = PredictionFile.open(filename)) {
+                return file.toPrediction();
+            }
+        }
         FileReader freader=new FileReader(filename);
         BufferedReader reader=new BufferedReader(freader);
         StringBuilder sb = new StringBuilder();
@@ -288,17 +305,13 @@ public class Prediction {
 
     /**
      * Map a local, position-specific branch point index to the global index, applicable in the original phylogenetic tree.
-     * Computationally costly...
      * @param pos position in POG/alignment
      * @param local_idx the index at the given position
      * @return global index, or -1 if the local index is not used
      */
     private int local2global(int pos, int local_idx) {
-        for (int global_idx = 0; global_idx < positidxs[pos].length; global_idx ++) {
-            if (positidxs[pos][global_idx] == local_idx)
-                return global_idx;
-        }
-        return -1;
+        getTree(pos); // make sure maps are available
+        return local_idx >= 0 && local_idx < positglobs[pos].length ? positglobs[pos][local_idx] : -1;
     }
 
     /**
@@ -323,6 +336,7 @@ public class Prediction {
      * Retrieve position-specific index tree that is based on the original phylogenetic tree but has only indices for ancestor nodes,
      * which are not marked as absent (indels).
      * The index tree is cached inside this class instance, so that it can be quickly retrieved when required again.
+     * Positions with the same presence of branch points share the same tree and index maps.
      * @param position index in alignment/POG
      * @return index tree for specified position in alignment/POG
      */
@@ -330,77 +344,82 @@ public class Prediction {
         if (positrees[position] == null) {
             // we need to construct this from ancestor POGs...
             IdxTree phylo = pogTree.getTree();
-            Set<Integer> pruneMe = new HashSet<>();
+            BitSet present = new BitSet(phylo.getSize());
             for (int idx : phylo) {
-                // Object ancid = phylo.getLabel(idx);
-                if (!phylo.isLeaf(idx)) { // ancestor
-                    POGraph pog = ancarr[idx]; // getAncestor(ancid);
-                    if (pog == null)
-                        throw new ASRRuntimeException("Invalid ancestor at branchpoint " + idx);
-                    if (!pog.isNode(position))
-                        pruneMe.add(idx);
-                } else { // extant (Fixed: 5 Aug 2023)
-
-                    POGraph pog = pogTree.getExtant((int)idx);
-                    if (pog == null)
-                        throw new ASRRuntimeException("Invalid extant at branchpoint " + idx);
-                    if (!pog.isNode(position))
-                        pruneMe.add(idx);
-                }
+                POGraph pog = phylo.isLeaf(idx) ? pogTree.getExtant(idx) : ancarr[idx]; // extant (Fixed: 5 Aug 2023) or ancestor
+                if (pog == null)
+                    throw new ASRRuntimeException("Invalid " + (phylo.isLeaf(idx) ? "extant" : "ancestor") + " at branchpoint " + idx);
+                if (pog.isNode(position))
+                    present.set(idx);
             }
-            // pruneMe contains indices that SHOULD BE REMOVED, optionally including orphaned (not linked to extants) ancestors
-            IdxTree postree = null;
-            int[] indices = null;
-            if (GRASP.REMOVE_INDEL_ORPHANS) {
-                if (GRASP.VERBOSE) {
-                    int[] indices_with_orphans = phylo.getPrunedIndex(pruneMe, false);
-                    IdxTree tree_with_orphans = IdxTree.createPrunedTree(phylo, indices_with_orphans);
-                    int[] roots_with_orphans = tree_with_orphans.getRoots();
-                    indices = phylo.getPrunedIndex(pruneMe, true);
-                    postree = IdxTree.createPrunedTree(phylo, indices);
-                    int[] roots_without_orphans = postree.getRoots();
-                    int different = (roots_with_orphans.length - roots_without_orphans.length);
-                    if (different > 0)
-                        System.out.println("Pos " + position + " removed \t" + different + " orphaned INDEL trees");
-                } else {
-                    indices = phylo.getPrunedIndex(pruneMe, true);
-                    postree = IdxTree.createPrunedTree(phylo, indices);
+            PositionTree pt;
+            synchronized (positcache) {
+                pt = positcache.get(present);
+                if (pt == null) {
+                    pt = new PositionTree(phylo, present);
+                    positcache.put(present, pt);
                 }
-            } else {
-                int[] indices_with_orphans = phylo.getPrunedIndex(pruneMe, false);
-                postree = IdxTree.createPrunedTree(phylo, indices_with_orphans);
-                indices = indices_with_orphans;
-                if (GRASP.VERBOSE) {
-                    int[] indices_without_orphans = phylo.getPrunedIndex(pruneMe, true);
-                    IdxTree tree_without_orphans = IdxTree.createPrunedTree(phylo, indices_without_orphans);
-                    int[] roots_with_orphans = postree.getRoots();
-                    int[] roots_without_orphans = tree_without_orphans.getRoots();
-                    int different = (roots_with_orphans.length - roots_without_orphans.length);
-                    if (different > 0)
-                        System.out.println("Pos " + position + " contains \t" + different + " orphaned INDEL trees");
-                }
-            }
-            // save tree for quick re-retrieval later
-            positrees[position] = postree;
-            // save indices for quick re-retrieval later
-            positidxs[position] = indices;
-/*
-            Set<Integer> orphans = positrees[position].getIndicesOfOrphanedTrees();
-            if (orphans.size() > 0)
-                System.out.println("" + position + " has " + orphans.size() +" members");
-            // TODO: make this into an option (to remove trees that do not have any extants in them)
-            pruneMe = positrees[position].getIndicesOfOrphanedTrees();
-            if (pruneMe.size() > 0) {
-                indices = positrees[position].getPrunedIndex(pruneMe);
-                positrees[position] = IdxTree.createPrunedTree(positrees[position], indices);
-                positidxs[position] = indices;
             }
-
- */
+            if (GRASP.VERBOSE && pt.orphans > 0)
+                System.out.println("Pos " + position + (GRASP.REMOVE_INDEL_ORPHANS ? " removed \t" : " contains \t") + pt.orphans + " orphaned INDEL trees");
+            // save tree and indices for quick re-retrieval later
+            positidxs[position] = pt.global2local;
+            positglobs[position] = pt.local2global;
+            positrees[position] = pt.tree;
         } // else the index tree was already cached...
         return positrees[position];
     }
 
+    /**
+     * Position-specific tree, with maps between "global" (original phylogenetic tree) and "local" indices.
+     */
+    private static class PositionTree {
+        final IdxTree tree;
+        final int[] global2local;   // [global idx] local idx, -1 if absent
+        final int[] local2global;   // [local idx] global idx
+        final int orphans;          // number of orphaned indel trees (if removed, how many; else how many remain)
+
+        /**
+         * Prune the phylogenetic tree by removing branch points that are absent
+         * @param phylo the original phylogenetic tree
+         * @param present the branch points that are present
+         */
+        PositionTree(IdxTree phylo, BitSet present) {
+            // pruneMe contains indices that SHOULD BE REMOVED, optionally including orphaned (not linked to extants) ancestors
+            Set<Integer> pruneMe = new HashSet<>();
+            for (int idx = present.nextClearBit(0); idx < phylo.getSize(); idx = present.nextClearBit(idx + 1))
+                pruneMe.add(idx);
+            int[] indices_with_orphans = null, indices_without_orphans = null;
+            if (!GRASP.REMOVE_INDEL_ORPHANS || GRASP.VERBOSE)
+                indices_with_orphans = phylo.getPrunedIndex(new HashSet<>(pruneMe), false);
+            if (GRASP.REMOVE_INDEL_ORPHANS || GRASP.VERBOSE)
+                indices_without_orphans = phylo.getPrunedIndex(new HashSet<>(pruneMe), true);
+            this.global2local = GRASP.REMOVE_INDEL_ORPHANS ? indices_without_orphans : indices_with_orphans;
+            this.tree = IdxTree.createPrunedTree(phylo, global2local);
+            if (GRASP.VERBOSE) {
+                IdxTree other = IdxTree.createPrunedTree(phylo, GRASP.REMOVE_INDEL_ORPHANS ? indices_with_orphans : indices_without_orphans);
+                int[] roots_with_orphans = GRASP.REMOVE_INDEL_ORPHANS ? other.getRoots() : tree.getRoots();
+                int[] roots_without_orphans = GRASP.REMOVE_INDEL_ORPHANS ? tree.getRoots() : other.getRoots();
+                this.orphans = roots_with_orphans.length - roots_without_orphans.length;
+            } else
+                this.orphans = 0;
+            this.local2global = new int[tree.getSize()];
+            for (int global_idx = 0; global_idx < global2local.length; global_idx ++)
+                if (global2local[global_idx] >= 0)
+                    local2global[global2local[global_idx]] = global_idx;
+        }
+    }
+
+    /**
+     * Determine the number of distinct position-specific trees that have been constructed
+     * @return number of distinct trees
+     */
+    public int getNDistinctTrees() {
+        synchronized (positcache) {
+            return positcache.size();
+        }
+    }
+
     /**
      * Retrieve all necessary values to instantiate the tree at a specified position. These values are based on:
      * Each leaf (branch point with no children) is assigned a state as input to inference.
@@ -424,7 +443,7 @@ public class Prediction {
                             if (node != null)
                                 assigned[i] = node.get();
                         } else
-                            assigned[i] = states[global_idx][position];
+                            assigned[i] = states.get(global_idx, position);
                     }
                 }
                 TreeInstance ti = new TreeInstance(getTree(position), assigned);
@@ -488,12 +507,12 @@ public class Prediction {
             if (pog != null) {
                 if (mode == GRASP.Inference.JOINT) {
                     if (states != null) {
-                        pog.decorateNodes(states[idx]);
+                        pog.decorateNodes(states.getRow(idx));
                         ancestors.put(phylotree.getLabel(idx), pog);
                     }
                 } else if (mode == GRASP.Inference.MARGINAL) {
-                    if (distribs[idx] != null) {
-                        pog.decorateNodes(distribs[idx]);
+                    if (isMarginalInferred(idx)) {
+                        pog.decorateNodes(distribs.getRow(idx));
                         ancestors.put(phylotree.getLabel(idx), pog);
                     }
                 }
@@ -516,7 +535,7 @@ public class Prediction {
                 if (states != null)
                     ancestors.add(phylotree.getLabel(idx));
             } else if (mode == GRASP.Inference.MARGINAL) {
-                if (distribs[idx] != null)
+                if (isMarginalInferred(idx))
                     ancestors.add(phylotree.getLabel(idx));
             }
         }
@@ -537,9 +556,9 @@ public class Prediction {
         if (pog0 == null)
             throw new ASRRuntimeException("Invalid ancestor ID (not inferred) " + ancID);
         if (mode == GRASP.Inference.JOINT) {
-            pog0.decorateNodes(states[bpidx]);
+            pog0.decorateNodes(states == null ? null : states.getRow(bpidx));
         } else if (mode == GRASP.Inference.MARGINAL) {
-            pog0.decorateNodes(distribs[bpidx]);
+            pog0.decorateNodes(distribs == null ? null : distribs.getRow(bpidx));
         }
         return pog0;
     }
@@ -560,40 +579,147 @@ public class Prediction {
         int bpidx = getBranchpointIndex(ancestorID);                            // the index of the ancestor as it appears in the phylogenetic tree
         if (bpidx == -1)
             throw new ASRRuntimeException("Invalid ancestor ID (not found in tree) " + ancestorID);
-        if (distribs[bpidx] == null) {                                          // the ancestor has not yet been inferred, so DO it...
-            IdxTree[] trees = new IdxTree[getPositions()];                      // this is how many position-specific trees we are dealing with
-            // FIXME: create an index map for "inf" to enable generics <EnumDistrib>?
-            TreeDecor[] inf = new TreeDecor[getPositions()];    // which is also how many inferences we will carry out
-            for (int pos = 0; pos < getPositions(); pos ++) {                   // for each position...
-                trees[pos] = getTree(pos);                                      //   this is the tree with indels imputed
-                int ancidx = positidxs[pos][bpidx];                             //   index for sought ancestor in the position-specific tree
-                if (ancidx >= 0)                                                //   which may not exist, i.e. part of an indel, but if it is real...
-                    inf[pos] = new MaxLhoodMarginal(ancidx, trees[pos], MODEL, rates[pos]);//     set-up the inference
+        String key = checkpoint == null ? null : Checkpoint.getKey("marginal", MODEL, rates);
+        if (!isMarginalInferred(bpidx) && checkpoint != null) {                 // the ancestor may have been inferred by an earlier run
+            DistribMatrix saved = new DistribMatrix(MODEL.getDomain(), phylotree.getSize(), getPositions());
+            if (checkpoint.loadMarginal(key, saved, bpidx, ancestorID)) {
+                if (distribs == null)
+                    distribs = new DistribMatrix(MODEL.getDomain(), phylotree.getSize(), getPositions());
+                for (int pos = 0; pos < getPositions(); pos ++)
+                    distribs.set(bpidx, pos, saved.get(bpidx, pos));
             }
-
-            distribs[bpidx] = new EnumDistrib[pogTree.getPositions()];
+        }
+        if (!isMarginalInferred(bpidx)) {                                       // the ancestor has not yet been inferred, so DO it...
+            IdxTree[] trees = new IdxTree[getPositions()];                      // this is how many position-specific trees we are dealing with
             treeinstances = new TreeInstance[pogTree.getPositions()];
             for (int pos = 0; pos < getPositions(); pos ++) {                   // for each position...
+                trees[pos] = getTree(pos);                                      //   this is the tree with indels imputed
                 int specidx = positidxs[pos][bpidx];                            //   index for sought ancestor in the position-specific tree
                 if (specidx >= 0) {                                             //   which may not exist, i.e. part of an indel, but if it is real...
                     treeinstances[pos] = pogTree.getNodeInstance(pos, trees[pos], positidxs[pos]); //     get the instances at the leaves at that position, and...
                 }
             }
+            SitePatterns patterns = GRASP.SITE_PATTERNS ? new SitePatterns(positidxs, treeinstances, rates) : null;
+            if (GRASP.VERBOSE && patterns != null)
+                System.out.println("Marginal reconstruction of " + patterns);
+            // FIXME: create an index map for "inf" to enable generics <EnumDistrib>?
+            TreeDecor[] inf = new TreeDecor[getPositions()];    // which is at most how many inferences we will carry out
+            for (int pos = 0; pos < getPositions(); pos ++) {                   // for each position...
+                int ancidx = positidxs[pos][bpidx];                             //   index for sought ancestor in the position-specific tree
+                if (ancidx >= 0 && (patterns == null || patterns.isRepresentative(pos))) // which may not exist, i.e. part of an indel, but if it is real (and not yet inferred elsewhere)...
+                    inf[pos] = new MaxLhoodMarginal(ancidx, trees[pos], MODEL, rates[pos]);//     set-up the inference
+            }
+            if (distribs == null)
+                distribs = new DistribMatrix(MODEL.getDomain(), phylotree.getSize(), getPositions());
+            distribs.assign(bpidx);
             ThreadedDecorators threadpool = new ThreadedDecorators(inf, treeinstances, GRASP.NTHREADS);
             try {
                 Map<Integer, TreeDecor> ret = threadpool.runBatch();
                 for (int pos = 0; pos < getPositions(); pos ++) {                   // for each position...
                     int specidx = positidxs[pos][bpidx];                            //   index for sought ancestor in the position-specific tree
                     if (specidx >= 0) {                                             //   which may not exist, i.e. part of an indel, but if it is real...
-                        distribs[bpidx][pos] = (EnumDistrib)ret.get(pos).getDecoration(specidx);     //     extract distribution of marginal prob
+                        TreeDecor decor = ret.get(patterns == null ? pos : patterns.getRepresentative(pos)); // inference of the (same) pattern
+                        distribs.set(bpidx, pos, (EnumDistrib)decor.getDecoration(specidx)); // extract distribution of marginal prob
                     }
                 }
+                if (checkpoint != null)
+                    checkpoint.saveMarginal(key, distribs, bpidx, ancestorID);
             } catch (Exception e) {
                 e.printStackTrace();
             }
         }
         // at this point we know the ancestor has been inferred
-        return distribs[bpidx];
+        return distribs.getRow(bpidx);
+    }
+
+    /**
+     * @return true if marginal distributions have been inferred for the branch point
+     */
+    private boolean isMarginalInferred(int bpidx) {
+        return distribs != null && distribs.isAssigned(bpidx);
+    }
+
+    /**
+     * Get the marginal distributions for ALL ancestors, by one upward and one downward pass over each position-specific tree.
+     * Note that distributions are null for positions that are not part of an ancestor (i.e. the result of a deletion in an earlier ancestor,
+     * or parts that precede an insertion in a descendant)
+     * @param MODEL the substitution model
+     * @param rates the position-specific relative evolutionary rates
+     * @return the distributions indexed by branch point (in the phylogenetic tree) and position; null for extants
+     * (if all ancestors have been inferred before, no inference is performed)
+     */
+    public EnumDistrib[][] getMarginals(SubstModel MODEL, double[] rates) {
+        return getMarginalMatrix(MODEL, rates).toArray();
+    }
+
+    /**
+     * Get the marginal distributions for ALL ancestors, in compact form; see {@link #getMarginals(SubstModel, double[])}
+     * @param MODEL the substitution model
+     * @param rates the position-specific relative evolutionary rates
+     * @return the distributions indexed by branch point (in the phylogenetic tree) and position
+     */
+    public DistribMatrix getMarginalMatrix(SubstModel MODEL, double[] rates) {
+        if (rates == null) {
+            rates = new double[getPositions()];
+            Arrays.fill(rates, PhyloBN.DEFAULT_RATE);
+        }
+        boolean inferred = true;
+        for (int idx : getAncestorIndices())
+            inferred = inferred && isMarginalInferred(idx);
+        if (inferred && distribs != null)                                       // all ancestors have been inferred already
+            return distribs;
+        IdxTree[] trees = new IdxTree[getPositions()];                          // this is how many position-specific trees we are dealing with
+        treeinstances = new TreeInstance[getPositions()];
+        for (int pos = 0; pos < getPositions(); pos ++) {                       // for each position...
+            trees[pos] = getTree(pos);                                          //   this is the tree with indels imputed
+            treeinstances[pos] = pogTree.getNodeInstance(pos, trees[pos], positidxs[pos]); // get the instances at the leaves at that position
+        }
+        SitePatterns patterns = GRASP.SITE_PATTERNS ? new SitePatterns(positidxs, treeinstances, rates) : null;
+        if (GRASP.VERBOSE && patterns != null)
+            System.out.println("Marginal reconstruction (all ancestors) of " + patterns);
+        if (distribs == null)
+            distribs = new DistribMatrix(MODEL.getDomain(), phylotree.getSize(), getPositions());
+        int[] ancs = getAncestorIndices();
+        for (int idx : ancs)
+            distribs.assign(idx);
+        String key = checkpoint == null ? null : Checkpoint.getKey("marginal", MODEL, rates);
+        int block = checkpoint == null ? getPositions() : Checkpoint.BLOCK_SIZE; // without checkpoints, all positions are inferred in one go
+        for (int from = 0; from < getPositions(); from += block) {
+            int to = Math.min(from + block, getPositions());
+            if (checkpoint != null && checkpoint.loadMarginal(key, distribs, ancs, from, to)) {
+                if (GRASP.VERBOSE)
+                    System.out.println("Resumed positions " + from + "-" + (to - 1) + " from checkpoint");
+                continue;                                                       // inferred by an earlier run
+            }
+            TreeDecor[] inf = new TreeDecor[to - from];                         // at most as many inferences as there are positions in block
+            for (int pos = from; pos < to; pos ++) {
+                if (patterns == null || patterns.isRepresentative(pos))
+                    inf[pos - from] = new FelsensteinMarginal(trees[pos], MODEL, rates[pos]);
+            }
+            ThreadedDecorators threadpool = new ThreadedDecorators(inf, Arrays.copyOfRange(treeinstances, from, to), GRASP.NTHREADS);
+            try {
+                Map<Integer, TreeDecor> ret = threadpool.runBatch();
+                for (int pos = from; pos < to; pos ++) {                        // for each position...
+                    int rep = patterns == null ? pos : patterns.getRepresentative(pos);
+                    if (rep < from) {                                           //   pattern was inferred in an earlier block, so copy
+                        for (int idx : ancs)
+                            distribs.copy(idx, rep, pos);
+                        continue;
+                    }
+                    TreeDecor decor = ret.get(rep - from);                      //   inference of the (same) pattern
+                    for (int idx : ancs) {                                      //   for each ancestor...
+                        int ancidx = positidxs[pos][idx];                       //     index for sought ancestor in the position-specific tree
+                        if (ancidx >= 0)                                        //     which may not exist, i.e. part of an indel, but if it is real...
+                            distribs.set(idx, pos, (EnumDistrib) decor.getDecoration(ancidx)); // extract distribution of marginal prob
+                    }
+                }
+                if (checkpoint != null)
+                    checkpoint.saveMarginal(key, distribs, ancs, from, to);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        return distribs;
     }
 
     /**
@@ -612,39 +738,81 @@ public class Prediction {
      * @return the states at all ancestors that assign the greatest likelihood to the observed states at extant sequences
      */
     public Object[][] getJoint(SubstModel MODEL, double[] rates) {
+        return getJointMatrix(MODEL, rates).toArray();
+    }
+
+    /**
+     * Perform joint reconstruction across all ancestors, and all positions, keeping the result in compact form;
+     * see {@link #getJoint(SubstModel, double[])}
+     * @param MODEL evolutionary model
+     * @param rates the position-specific relative evolutionary rates
+     * @return the states at all ancestors that assign the greatest likelihood to the observed states at extant sequences
+     */
+    public StateMatrix getJointMatrix(SubstModel MODEL, double[] rates) {
         if (rates == null) {
             rates = new double[getPositions()];
             Arrays.fill(rates, PhyloBN.DEFAULT_RATE);
         }
-        this.states = new Object[getTree().getSize()][getPositions()];
+        StateMatrix states = new StateMatrix(MODEL.getDomain(), getTree().getSize(), getPositions());
+        for (int idx : getAncestorIndices())
+            states.assign(idx);
         IdxTree[] trees = new IdxTree[getPositions()];              // this is how many position-specific trees we are dealing with
-        // FIXME: create an index map for "inf" to enable generics <EnumDistrib>?
-        TreeDecor[] inf = new TreeDecor[getPositions()];            // number of positions is also how many inferences we will carry out
-        for (int pos = 0; pos < inf.length; pos++) {                // so for each position...
-            trees[pos] = getTree(pos);                                          //   this is the tree with indels imputed
-            inf[pos] = new MaxLhoodJoint(trees[pos], MODEL, rates[pos]);        //   configure inference
-        }
         treeinstances = new TreeInstance[getPositions()];
         for (int pos = 0; pos < getPositions(); pos ++) {           // for each position...
+            trees[pos] = getTree(pos);                                  //   this is the tree with indels imputed
             treeinstances[pos] = pogTree.getNodeInstance(pos, trees[pos], positidxs[pos]); // get the instances at the leaves at that position, and...
         }
-        ThreadedDecorators threadpool = new ThreadedDecorators(inf, treeinstances, GRASP.NTHREADS);
-        try {
-            Map<Integer, TreeDecor> ret = threadpool.runBatch();
-            for (int pos = 0; pos < getPositions(); pos ++) {           // for each position...
-                for (int idx : getAncestorIndices()) {                      // for each ancestor...
-                    int ancidx = positidxs[pos][idx];                           //   index for sought ancestor in the position-specific tree
-                    if (ancidx >= 0)                                            //   which may not exist, i.e. part of an indel, but if it is real...
-                        states[idx][pos] = ret.get(pos).getDecoration(ancidx);  //     extract state
+        SitePatterns patterns = GRASP.SITE_PATTERNS ? new SitePatterns(positidxs, treeinstances, rates) : null;
+        if (GRASP.VERBOSE && patterns != null)
+            System.out.println("Joint reconstruction of " + patterns);
+        int[] ancs = getAncestorIndices();
+        String key = checkpoint == null ? null : Checkpoint.getKey("joint", MODEL, rates);
+        int block = checkpoint == null ? getPositions() : Checkpoint.BLOCK_SIZE; // without checkpoints, all positions are inferred in one go
+        for (int from = 0; from < getPositions(); from += block) {
+            int to = Math.min(from + block, getPositions());
+            if (checkpoint != null && checkpoint.loadJoint(key, states, ancs, from, to)) {
+                if (GRASP.VERBOSE)
+                    System.out.println("Resumed positions " + from + "-" + (to - 1) + " from checkpoint");
+                continue;                                               // inferred by an earlier run
+            }
+            // FIXME: create an index map for "inf" to enable generics <EnumDistrib>?
+            TreeDecor[] inf = new TreeDecor[to - from];                 // at most as many inferences as there are positions in block
+            for (int pos = from; pos < to; pos++) {                     // so for each position...
+                if (patterns != null && !patterns.isRepresentative(pos))    //   no need to infer if the same pattern is inferred elsewhere
+                    continue;
+                if (GRASP.JOINT_ENGINE == GRASP.JointEngine.PUPKO)          //   configure inference
+                    inf[pos - from] = new PupkoJoint(trees[pos], MODEL, rates[pos]);
+                else
+                    inf[pos - from] = new MaxLhoodJoint(trees[pos], MODEL, rates[pos]);
+            }
+            ThreadedDecorators threadpool = new ThreadedDecorators(inf, Arrays.copyOfRange(treeinstances, from, to), GRASP.NTHREADS);
+            try {
+                Map<Integer, TreeDecor> ret = threadpool.runBatch();
+                for (int pos = from; pos < to; pos ++) {                    // for each position...
+                    int rep = patterns == null ? pos : patterns.getRepresentative(pos);
+                    if (rep < from) {                                       //   pattern was inferred in an earlier block, so copy
+                        for (int idx : ancs)
+                            states.setCode(idx, pos, states.getCode(idx, rep));
+                        continue;
+                    }
+                    TreeDecor decor = ret.get(rep - from);                  //   inference of the (same) pattern
+                    for (int idx : ancs) {                                  //   for each ancestor...
+                        int ancidx = positidxs[pos][idx];                       //     index for sought ancestor in the position-specific tree
+                        if (ancidx >= 0)                                        //     which may not exist, i.e. part of an indel, but if it is real...
+                            states.set(idx, pos, decor.getDecoration(ancidx));  //       extract state
+                    }
                 }
+                if (checkpoint != null)
+                    checkpoint.saveJoint(key, states, ancs, from, to);
+            } catch (Exception e) {
+                e.printStackTrace();
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
         if (GRASP.TIME) {
 //            for (int pos = 0; pos < inf.length; pos++)                 // so for each position...
 //                System.out.println("Pos " + pos + "\t" + ((MaxLhoodJoint)inf[pos]).toElapsedTime());
         }
+        this.states = states;
         return states;
     }
 
@@ -657,11 +825,11 @@ public class Prediction {
      */
     public Object[] getJoint(Object ancestorID, SubstModel MODEL, double[] rates) {
         if (states == null)   // the ancestors has not yet been inferred
-            getJoint(MODEL, rates);
+            getJointMatrix(MODEL, rates);
         int bpidx = getBranchpointIndex(ancestorID);                            // the index of the ancestor as it appears in the phylogenetic tree
         if (bpidx == -1)
             throw new ASRRuntimeException("Invalid ancestor ID (not found in tree) " + ancestorID);
-        return states[bpidx];
+        return states.getRow(bpidx);
     }
 
     /**
@@ -679,6 +847,23 @@ public class Prediction {
         int[] idxs = getConsensus(bpidx);
         if (idxs == null)
             throw new ASRRuntimeException("Failed to find optimal path for ancestor ID: " + ancID);
+        return getSequence(ancID, mode, idxs, gappy);
+    }
+
+    /**
+     * Retrieve the sequence for a given ancestor along a path that has already been determined, e.g.
+     * so that the gappy and the non-gappy sequence can be produced from the same consensus path.
+     * @param ancID the identifier/label for the ancestor
+     * @param mode inference mode, currently JOINT and MARGINAL are supported (see enum defined in GRASP class)
+     * @param idxs the positions of the path, see {@link #getConsensus(Object)}
+     * @param gappy if true, the sequence has an element (null for a gap) for every position of the reconstruction
+     * @return the sequence
+     */
+    public Object[] getSequence(Object ancID, GRASP.Inference mode, int[] idxs, boolean gappy) {
+        int bpidx = getBranchpointIndex(ancID);                            // the index of the ancestor as it appears in the phylogenetic tree
+        if (bpidx == -1) {
+            throw new ASRRuntimeException("Invalid ancestor ID: " + ancID);
+        }
         int N = getPositions();
         Object[] elems = new Object[gappy ? N : idxs.length];
         //EnumSeq seq = gappy ? new EnumSeq.Gappy(pogTree.getDomain()) : new EnumSeq(pogTree.getDomain());
@@ -686,12 +871,12 @@ public class Prediction {
             if (states == null) // not inferred yet
                 throw new ASRRuntimeException("Joint inference has not been performed: " + ancID);
             for (int i = 0; i < idxs.length; i ++)
-                elems[gappy ? idxs[i] : i] = states[bpidx][idxs[i]];
+                elems[gappy ? idxs[i] : i] = states.get(bpidx, idxs[i]);
         } else if (mode == GRASP.Inference.MARGINAL) {
-            if (distribs[bpidx] == null) // not inferred yet
+            if (!isMarginalInferred(bpidx)) // not inferred yet
                 throw new ASRRuntimeException("Marginal inference has not been performed: " + ancID);
             for (int i = 0; i < idxs.length; i ++)
-                elems[gappy ? idxs[i] : i] = distribs[bpidx][idxs[i]].getMax();
+                elems[gappy ? idxs[i] : i] = distribs.getMax(bpidx, idxs[i]);
         }
 //        seq.set(elems);
         String name = ancID.toString().startsWith("N") ? ancID.toString() : "N" + ancID.toString();
@@ -891,6 +1076,38 @@ public class Prediction {
     // including indel inference by parsimony and maximum likelihood
     // --------------------------------------------------------------------------------------------------------------- //
 
+    /**
+     * Decorate trees in parallel, on the shared scheduler (see {@link ThreadedDecorators}); decorators are modified in place.
+     * @param decors tree decorators
+     * @param tis tree instances, one for each decorator
+     * @throws ASRRuntimeException if one or more decorators failed
+     */
+    private static void decorateAll(TreeDecor[] decors, TreeInstance[] tis) {
+        ThreadedDecorators threadpool = new ThreadedDecorators(decors, tis, GRASP.NTHREADS);
+        try {
+            Map<Integer, TreeDecor> ret = threadpool.runBatch();
+            if (ret.size() < decors.length)
+                throw new ASRRuntimeException("Inference failed for " + (decors.length - ret.size()) + " of " + decors.length + " instances");
+        } catch (InterruptedException e) {
+            throw new ASRRuntimeException("Inference was interrupted", e);
+        }
+    }
+
+    /**
+     * Run a task for each branch point of a tree, in parallel on the shared scheduler (see {@link Scheduler}).
+     * When debugging, the tasks are run in order on the calling thread, so that what they print is legible.
+     * @param tree the tree
+     * @param task the task, which is given the branch point index
+     */
+    private static void forEachBranchPoint(IdxTree tree, IntConsumer task) {
+        if (DEBUG || GRASP.NTHREADS <= 1) {
+            for (int j = 0; j < tree.getSize(); j++)
+                task.accept(j);
+        } else {
+            Scheduler.get(GRASP.NTHREADS).run(tree.getSize(), task);
+        }
+    }
+
     /**
      * Basic inference of gaps by position-specific parsimony.
      * @param pogTree POGs and phylogenetic tree
@@ -902,9 +1119,10 @@ public class Prediction {
         Map<Object, POGraph> ancestors = new HashMap<>(); // prepare where predictions will go
         TreeInstance[] ti = pogTree.getNodeInstances(true);   // extract gap/no-gap (boolean) leaf instantiation for every position
         Parsimony[] pi = new Parsimony[nPos]; // prepare array where all inferred gap states will go
+        PackedParsimony engine = new PackedParsimony(tree); // all positions use the same tree
         // next stage should be multi-threaded... not so at the moment
         for (int i = 0; i < nPos; i ++) { // for every position...
-            pi[i] = new Parsimony(ti[i].getTree(), false); // this is where the inferred states for an individual position goes
+            pi[i] = new Parsimony(engine, false); // this is where the inferred states for an individual position goes
             pi[i].decorate(ti[i]);  // inference
         }
         // unpack the results, branch point by branch point
@@ -1055,15 +1273,15 @@ public class Prediction {
         // Retrieve an instance for each indel across the whole alignment (ordered by interval tree)
         // (state for each extant-indel: present, absent or permissible/neutral, as per Simmons and Ochoterena, 2000)
         // initially "permissible/neutral" is encoded as null (the variable is uninstantiated); see POGraph.getSimpleGapCode)
+        List<Interval1D> indels = pogTree.getIndels();
         TreeInstance[] ti = pogTree.getIndelInstances(); // a pogTree has a list of "indels"; here leaves are instantiated with applicable indels
         // inference will infer true, false, or accept that both true and false can be correct
         Parsimony[] pi = new Parsimony[ti.length];
+        PackedParsimony engine = new PackedParsimony(tree); // all indels use the same tree
+        for (int i = 0; i < ti.length; i++) // for each "indel"
+            pi[i] = new Parsimony(engine, false);
         // Below is where the main inference occurs
-        // this stage should be multi-threaded... not so at the moment
-        for (int i = 0; i < ti.length; i++) { // for each "indel"
-            pi[i] = new Parsimony(ti[i].getTree(), false);
-            pi[i].decorate(ti[i]);
-        }
+        decorateAll(pi, ti);
         if (DEBUG) {
             // print out tables...
             int i = 0; // interval index
@@ -1084,133 +1302,145 @@ public class Prediction {
         // the code below
         // (1) regardless, if an ancestor or extant, we can pull out what the INDEL states are: absent (false), present (true) or permissible (true/false)
         // (2) if an ancestor, an ancestor POG is created, using the info from (1)
+        POGraph[] pogs = new POGraph[tree.getSize()];
+        forEachBranchPoint(tree, j -> pogs[j] = assembleBySICP(pogTree, indels, pi, j));
         for (int j = 0; j < tree.getSize(); j++) { // we look at each branch point, corresponding to either an extant or ancestor sequence
-            Object ancID = tree.getBranchPoint(j).getID();
-            if (tree.getChildren(j).length == 0) { // not an ancestor
-                if (DEBUG) {
-                    POGraph pog = pogTree.getExtant(ancID);
-                    System.out.print(ancID + "\t");
-                    if (pog != null) {
-                        int i = 0;
-                        for (Interval1D ival : pogTree.getIntervalTree()) {
-                            if (ival.getWidth() > 1 || ival.min == -1 || ival.max == pogTree.getPositions()) { // exclude non-gaps
-                                StringBuilder sb = new StringBuilder();
-                                List calls = pi[i].getOptimal(j);
-                                for (Object b : calls) // each "b" is a Boolean
-                                    sb.append(b.toString().substring(0, 1)); // this converts each value to "t" or "f"
-                                System.out.print(sb + "\t");
-                                i++;
-                            }
-                        }
-                    }
-                    System.out.println();
-                }
-                continue; // skip the code below, only predictions for ancestors are used to compose POGs
-            }
-            // else: ancestor branch point
-            // (1) Find ancestor STATE for each INDEL, and
-            // (2) resolve what the POG looks like...
-            if (DEBUG) System.out.print(ancID + "\t");
-            // First, construct a list to include all unambiguously true indels, some of which are
-            // rendered inapplicable (due to being precluded by others)
-            IntervalST unamb_tree = new IntervalST();
-            List<Interval1D> unambiguous = new ArrayList<>();
-            List<Interval1D> ambiguous = new ArrayList<>();
-            int i = 0; // interval index; this order is decided above when indels are instantiated and inferred
-            for (Interval1D ival : pogTree.getIntervalTree()) { // order specific to pogTree, and linked with ti and pi
-                if (ival.getWidth() > 1 || ival.min == -1 || ival.max == pogTree.getPositions()) { // exclude non-gaps
-                    List<Boolean> calls = pi[i].getOptimal(j); // for ancestor index j
-                    if (DEBUG) {
+            if (pogs[j] != null) // an ancestor
+                ancestors.put(tree.getBranchPoint(j).getID(), pogs[j]);
+        }
+        return new Prediction(pogTree, ancestors);
+    }
+
+    /**
+     * Assemble the POG of an ancestor from the indel states inferred by SICP.
+     * @param pogTree POGs and phylogenetic tree
+     * @param indels the indels, in the order in which they were inferred
+     * @param pi the inferred indel states, one for each indel
+     * @param j index of branch point
+     * @return the POG, or null if the branch point is not an ancestor
+     */
+    private static POGraph assembleBySICP(POGTree pogTree, List<Interval1D> indels, Parsimony[] pi, int j) {
+        int nPos = pogTree.getPositions();
+        IdxTree tree = pogTree.getTree();
+        Object ancID = tree.getBranchPoint(j).getID();
+        if (tree.getChildren(j).length == 0) { // not an ancestor
+            if (DEBUG) {
+                POGraph pog = pogTree.getExtant(ancID);
+                System.out.print(ancID + "\t");
+                if (pog != null) {
+                    for (int i = 0; i < indels.size(); i ++) {
                         StringBuilder sb = new StringBuilder();
-                        for (Boolean b : calls)
-                            sb.append(b.toString().substring(0, 1));
+                        List calls = pi[i].getOptimal(j);
+                        for (Object b : calls) // each "b" is a Boolean
+                            sb.append(b.toString().substring(0, 1)); // this converts each value to "t" or "f"
                         System.out.print(sb + "\t");
                     }
-                    if (calls.contains(Boolean.TRUE)) { // INDEL can be TRUE
-                        if (calls.size() == 1) { // the ONLY value is TRUE so DEFINITIVELY include
-                            unambiguous.add(ival);
-                            unamb_tree.put(ival, true);
-                        } else
-                            ambiguous.add(ival);
-                    }
-                    i++;
                 }
+                System.out.println();
+            }
+            return null; // skip the code below, only predictions for ancestors are used to compose POGs
+        }
+        // else: ancestor branch point
+        // (1) Find ancestor STATE for each INDEL, and
+        // (2) resolve what the POG looks like...
+        if (DEBUG) System.out.print(ancID + "\t");
+        // First, construct a list to include all unambiguously true indels, some of which are
+        // rendered inapplicable (due to being precluded by others)
+        IntervalST unamb_tree = new IntervalST();
+        List<Interval1D> unambiguous = new ArrayList<>();
+        List<Interval1D> ambiguous = new ArrayList<>();
+        for (int i = 0; i < indels.size(); i ++) { // interval index; order specific to pogTree, and linked with ti and pi
+            Interval1D ival = indels.get(i);
+            List<Boolean> calls = pi[i].getOptimal(j); // for ancestor index j
+            if (DEBUG) {
+                StringBuilder sb = new StringBuilder();
+                for (Boolean b : calls)
+                    sb.append(b.toString().substring(0, 1));
+                System.out.print(sb + "\t");
             }
-            Set<Interval1D> unambigset = unamb_tree.flatten2Set(false);
-            unambiguous = new ArrayList<>();
-            unambiguous.addAll(unambigset);
-            if (DEBUG) System.out.println();
-            // the order in which the intervals are considered is important: sorted by first start-index, within-which end-index
-            Collections.sort(unambiguous);
-            // Second, construct an interval tree definitive, with INDELs that are not contained within a TRUE INDEL
-            IntervalST<Boolean> definitive = new IntervalST<>();    // to hold all unambiguously TRUE and not-precluded INDELs
-            Set<Integer> valididx = new HashSet<>();                // the set of indices that are used to hold all unambiguous calls
-            // TWO OPTIONS:
-            // (1) Use precluder edges to serially imprint gaps on the ancestor
+            if (calls.contains(Boolean.TRUE)) { // INDEL can be TRUE
+                if (calls.size() == 1) { // the ONLY value is TRUE so DEFINITIVELY include
+                    unambiguous.add(ival);
+                    unamb_tree.put(ival, true);
+                } else
+                    ambiguous.add(ival);
+            }
+        }
+        Set<Interval1D> unambigset = unamb_tree.flatten2Set(false);
+        unambiguous = new ArrayList<>();
+        unambiguous.addAll(unambigset);
+        if (DEBUG) System.out.println();
+        // the order in which the intervals are considered is important: sorted by first start-index, within-which end-index
+        Collections.sort(unambiguous);
+        // Second, construct an interval tree definitive, with INDELs that are not contained within a TRUE INDEL
+        IntervalST<Boolean> definitive = new IntervalST<>();    // to hold all unambiguously TRUE and not-precluded INDELs
+        Set<Integer> valididx = new HashSet<>();                // the set of indices that are used to hold all unambiguous calls
+        // TWO OPTIONS:
+        // (1) Use precluder edges to serially imprint gaps on the ancestor
 //            if (GRASP.INDEL_CONSERVATIVE) {
-                Interval1D precluder = null;                            // the interval that is the last to have been added, when considered "in order"
-                Set<Integer> frontedges = new HashSet<>();              // the set of edges current at the "front" of reaching the terminal
-                int prev = -1;
-                frontedges.add(prev);
-                for (int cnt = 0; cnt < unambiguous.size(); cnt++) {
-                    Interval1D current = unambiguous.get(cnt);          // "current" interval under consideration...
-                    if (cnt < unambiguous.size() - 1) {                 // there is at least one more after this...
-                        Interval1D next = unambiguous.get(cnt + 1);     // so look-ahead to the "next" interval
-                        if (!next.contains(current)) {                  // next is not precluding current...
-                            if (precluder != null) {                    // consider if the last-addition does
-                                if (!precluder.contains(current)) {     // last-addition does NOT preclude the current one either, so...
-                                    definitive.put(current, true);// add current interval to interval tree, true indicates that it is unambiguous
-                                    valididx.add(current.min);
-                                    valididx.add(current.max);
-                                    precluder = current;                // update last-addition
-                                }
-                            } else {                                    // there isn't a "last-addition", so...
-                                definitive.put(current, true);    // add current
-                                valididx.add(current.min);
-                                valididx.add(current.max);
-                                precluder = current;                    // update last-addition to current
-                            }
-                        }                                               // else: next interval precludes current, so can ignore current
-                    } else { // none after so include...
-                        if (precluder != null) {                        // consider if the last-addition does
-                            if (!precluder.contains(current)) {         // last-addition does NOT preclude the current one either, so...
-                                definitive.put(current, true);    // add current interval to interval tree, the cnt is not relevant at this stage
+            Interval1D precluder = null;                            // the interval that is the last to have been added, when considered "in order"
+            Set<Integer> frontedges = new HashSet<>();              // the set of edges current at the "front" of reaching the terminal
+            int prev = -1;
+            frontedges.add(prev);
+            for (int cnt = 0; cnt < unambiguous.size(); cnt++) {
+                Interval1D current = unambiguous.get(cnt);          // "current" interval under consideration...
+                if (cnt < unambiguous.size() - 1) {                 // there is at least one more after this...
+                    Interval1D next = unambiguous.get(cnt + 1);     // so look-ahead to the "next" interval
+                    if (!next.contains(current)) {                  // next is not precluding current...
+                        if (precluder != null) {                    // consider if the last-addition does
+                            if (!precluder.contains(current)) {     // last-addition does NOT preclude the current one either, so...
+                                definitive.put(current, true);// add current interval to interval tree, true indicates that it is unambiguous
                                 valididx.add(current.min);
                                 valididx.add(current.max);
+                                precluder = current;                // update last-addition
                             }
-                        } else {                                        // there isn't a "last-addition", so...
-                            definitive.put(current, true);
+                        } else {                                    // there isn't a "last-addition", so...
+                            definitive.put(current, true);    // add current
                             valididx.add(current.min);
                             valididx.add(current.max);
+                            precluder = current;                    // update last-addition to current
                         }
+                    }                                               // else: next interval precludes current, so can ignore current
+                } else { // none after so include...
+                    if (precluder != null) {                        // consider if the last-addition does
+                        if (!precluder.contains(current)) {         // last-addition does NOT preclude the current one either, so...
+                            definitive.put(current, true);    // add current interval to interval tree, the cnt is not relevant at this stage
+                            valididx.add(current.min);
+                            valididx.add(current.max);
+                        }
+                    } else {                                        // there isn't a "last-addition", so...
+                        definitive.put(current, true);
+                        valididx.add(current.min);
+                        valididx.add(current.max);
                     }
-                    if (!frontedges.contains(current.min)) { // just added an edge without a known source node
-                        int biggest = -1;
-                        for (int src : frontedges)
-                            biggest = src > biggest ? src : biggest;
-                        for (; biggest < current.min; biggest++) {
-                            Interval1D pad = new Interval1D(biggest, biggest + 1);
-                            if (precluder != null) {                        // consider if the last-addition does // FIXME: probably no need to check...
-                                if (!precluder.contains(pad)) {        // last-addition does NOT preclude the current one either, so...
-                                    definitive.put(pad, false); // add one-step patch to interval tree; false indicates that it is not based on ML inference
-                                    valididx.add(pad.min);
-                                    valididx.add(pad.max);
-                                }
-                            } else {                                        // there isn't a "last-addition", so...
+                }
+                if (!frontedges.contains(current.min)) { // just added an edge without a known source node
+                    int biggest = -1;
+                    for (int src : frontedges)
+                        biggest = src > biggest ? src : biggest;
+                    for (; biggest < current.min; biggest++) {
+                        Interval1D pad = new Interval1D(biggest, biggest + 1);
+                        if (precluder != null) {                        // consider if the last-addition does // FIXME: probably no need to check...
+                            if (!precluder.contains(pad)) {        // last-addition does NOT preclude the current one either, so...
                                 definitive.put(pad, false); // add one-step patch to interval tree; false indicates that it is not based on ML inference
                                 valididx.add(pad.min);
                                 valididx.add(pad.max);
                             }
+                        } else {                                        // there isn't a "last-addition", so...
+                            definitive.put(pad, false); // add one-step patch to interval tree; false indicates that it is not based on ML inference
+                            valididx.add(pad.min);
+                            valididx.add(pad.max);
                         }
                     }
-                    if (current.min > prev) { // check if we've moved beyond the source index (can do because the intervals are sorted)
-                        frontedges.remove(prev);
-                        prev = current.min;
-                    }
-                    frontedges.add(current.max);
                 }
+                if (current.min > prev) { // check if we've moved beyond the source index (can do because the intervals are sorted)
+                    frontedges.remove(prev);
+                    prev = current.min;
+                }
+                frontedges.add(current.max);
+            }
 //            } else
-            // add edges whenever true, and rely on consensus paths to find best
+        // add edges whenever true, and rely on consensus paths to find best
 //            {
 //                for (int cnt = 0; cnt < unambiguous.size(); cnt ++) {
 //                    Interval1D current = unambiguous.get(cnt);          // "current" interval under consideration...
@@ -1221,47 +1451,45 @@ public class Prediction {
 //                // TODO: pad sequence
 //            }
 
-            // After, unambiguous calls...
-            // optionally, add ambiguous calls, i.e. indels that are optimally both true and false.
-            // With SICP, an unambiguous call for an indel A precludes other calls, say B, if B is contained in A,
-            // regardless of B being unambiguous or ambiguous.
-            // However, an ambiguous call for an indel C does NOT preclude calls for other ambiguous calls.
-            // To incorporate ambiguous calls, we thus (a) refrain from adding those which are contained by unambiguous
-            // indels (which are not themselves contained), and (b) add ambiguous calls that have start and end points that
-            // are supported by unambiguous calls.
-            // the code below is an altered (mostly extended) version of the above strategy.
-            // Sorting is important: ambiguous indels added to the definitive interval tree in-order,
-            // will never contain those that follow.
-            Collections.sort(ambiguous);
-            EdgeMap emap = new EdgeMap();
-            List<Interval1D> ambigedges = new ArrayList<>();
-            for (int cnt = 0; cnt < ambiguous.size(); cnt ++) {
-                Interval1D current = ambiguous.get(cnt);        // "current" interval under consideration...
-                if (valididx.contains(current.min) && valididx.contains(current.max)) { // require both indices to be included from unambiguous calls
-                    boolean not_contained = true;
-                    for (Interval1D overlap : definitive.searchAll(current))
-                        if (overlap.contains(current)) {
-                            not_contained = false;
-                            break;
-                        }
-                    if (not_contained)
-                        ambigedges.add(current);
-                }
-            }
-            for (Interval1D ival : ambigedges)
-                definitive.put(ival, false);
-            // finally, we are now in a position to create edges for a POG, including edges that are just linkers,
-            // representing discontinuous sequence without decision
-            for (Interval1D edge : definitive) {
-                emap.add(edge.min, edge.max);
-                if (definitive.get(edge).contains(true))    // possibly test if it is unambiguous or ambiguous, before deciding to...
-                    emap.add(edge.min, edge.max);           // label the edge as "reciprocated"
+        // After, unambiguous calls...
+        // optionally, add ambiguous calls, i.e. indels that are optimally both true and false.
+        // With SICP, an unambiguous call for an indel A precludes other calls, say B, if B is contained in A,
+        // regardless of B being unambiguous or ambiguous.
+        // However, an ambiguous call for an indel C does NOT preclude calls for other ambiguous calls.
+        // To incorporate ambiguous calls, we thus (a) refrain from adding those which are contained by unambiguous
+        // indels (which are not themselves contained), and (b) add ambiguous calls that have start and end points that
+        // are supported by unambiguous calls.
+        // the code below is an altered (mostly extended) version of the above strategy.
+        // Sorting is important: ambiguous indels added to the definitive interval tree in-order,
+        // will never contain those that follow.
+        Collections.sort(ambiguous);
+        EdgeMap emap = new EdgeMap();
+        List<Interval1D> ambigedges = new ArrayList<>();
+        for (int cnt = 0; cnt < ambiguous.size(); cnt ++) {
+            Interval1D current = ambiguous.get(cnt);        // "current" interval under consideration...
+            if (valididx.contains(current.min) && valididx.contains(current.max)) { // require both indices to be included from unambiguous calls
+                boolean not_contained = true;
+                for (Interval1D overlap : definitive.searchAll(current))
+                    if (overlap.contains(current)) {
+                        not_contained = false;
+                        break;
+                    }
+                if (not_contained)
+                    ambigedges.add(current);
             }
-            // finally put the info into a POG
-            POGraph pog = POGraph.createFromEdgeMap(nPos, emap);
-            ancestors.put(ancID, pog);
         }
-        return new Prediction(pogTree, ancestors);
+        for (Interval1D ival : ambigedges)
+            definitive.put(ival, false);
+        // finally, we are now in a position to create edges for a POG, including edges that are just linkers,
+        // representing discontinuous sequence without decision
+        for (Interval1D edge : definitive) {
+            emap.add(edge.min, edge.max);
+            if (definitive.get(edge).contains(true))    // possibly test if it is unambiguous or ambiguous, before deciding to...
+                emap.add(edge.min, edge.max);           // label the edge as "reciprocated"
+        }
+        // finally put the info into a POG
+        POGraph pog = POGraph.createFromEdgeMap(nPos, emap);
+        return pog;
     }
 
 
@@ -1301,16 +1529,14 @@ public class Prediction {
         // Most likely character states in the ancestral nodes are reported only in positions
         // that are inferred to be non-gapped with a probability 􏰀0.5."
         // To do this would require a switch to marginal inference, then thresholding for 0.5.
+        List<Interval1D> indels = pogTree.getIndels();
         TreeInstance[] ti = pogTree.getIndelInstances(); // instantiate a tree for each "indel", assigning leaf states as per extants
         MaxLhoodJoint[] ji = new MaxLhoodJoint[ti.length];
         for (int i = 0; i < ji.length; i++) { // for each "indel" we need to infer either gain or loss, so set-up inference
             ji[i] = new MaxLhoodJoint(tree, gain_loss_model);
         }
         // Below is where the main inference occurs
-        // this stage should be multi-threaded... not so at the moment
-        for (int i = 0; i < ti.length; i++) { // for each "indel" we need to infer either gain or loss, so set-up inference
-            ji[i].decorate(ti[i]);
-        }
+        decorateAll(ji, ti);
         if (DEBUG) {
             // print out tables...
             int i = 0; // interval index
@@ -1329,110 +1555,121 @@ public class Prediction {
         // the code below
         // (1) regardless, if an ancestor or extant, we can pull out what the INDEL states are: absent (false), present (true)
         // (2) if an ancestor, an ancestor POG is created, using the info from (1)
+        POGraph[] pogs = new POGraph[tree.getSize()];
+        forEachBranchPoint(tree, j -> pogs[j] = assembleBySICML(pogTree, indels, ji, j));
         for (int j = 0; j < tree.getSize(); j++) { // we look at each branch point, corresponding to either an extant or ancestor sequence
-            Object ancID = tree.getBranchPoint(j).getID();
-            if (tree.getChildren(j).length == 0) { // not an ancestor, so we just print out debug info below before continuing with next
-                if (DEBUG) {
-                    POGraph pog = pogTree.getExtant(ancID);
-                    System.out.print(ancID + "\t");
-                    if (pog != null) {
-                        int i = 0;
-                        for (Interval1D ival : pogTree.getIntervalTree()) {
-                            if (ival.getWidth() > 1 || ival.min == -1 || ival.max == pogTree.getPositions()) // exclude non-gaps
-                                System.out.print(((Boolean)ji[i ++].getDecoration(j) ? "L" : "G") + "\t");
-                        }
-                    }
-                    System.out.println();
-                }
-                continue; // skip the code below, only predictions for ancestors are used to compose POGs
-            }
-            // else: ancestor branch point
-            // (1) Find ancestor STATE for each INDEL, and
-            // (2) resolve what the POG looks like...
-            // First, construct a list to include all unambiguously true indels, some of which are
-            // rendered inapplicable (due to being precluded by others)
-            IntervalST unamb_tree = new IntervalST();
-            List<Interval1D> unambiguous = new ArrayList<>();
-            if (DEBUG) System.out.print(ancID + "\t");
-            int i = 0; // interval index; this order is decided above when indels are instantiated and inferred
-            for (Interval1D ival : pogTree.getIntervalTree()) { // order specific to pogTree, and linked with ti and pi
-                if (ival.getWidth() > 1 || ival.min == -1 || ival.max == pogTree.getPositions()) { // exclude non-gaps
-                    Boolean call = (Boolean) ji[i].getDecoration(j);
-                    if (DEBUG)
-                        System.out.print((call ? "L" : "G") + "\t");
-                    if (call)
-                        unamb_tree.put(ival, true);
-                    i++;
+            if (pogs[j] != null) // an ancestor
+                ancestors.put(tree.getBranchPoint(j).getID(), pogs[j]);
+        }
+        if (DEBUG) System.out.println("Now checking if all POGs are complete...");
+        //ancestors = patchAncestorsWithBEP(pogTree, ancestors);
+        return new Prediction(pogTree, ancestors);
+    }
+
+    /**
+     * Assemble the POG of an ancestor from the indel states inferred by SICML.
+     * @param pogTree POGs and phylogenetic tree
+     * @param indels the indels, in the order in which they were inferred
+     * @param ji the inferred indel states, one for each indel
+     * @param j index of branch point
+     * @return the POG, or null if the branch point is not an ancestor
+     */
+    private static POGraph assembleBySICML(POGTree pogTree, List<Interval1D> indels, MaxLhoodJoint[] ji, int j) {
+        int nPos = pogTree.getPositions();
+        IdxTree tree = pogTree.getTree();
+        Object ancID = tree.getBranchPoint(j).getID();
+        if (tree.getChildren(j).length == 0) { // not an ancestor, so we just print out debug info below before continuing with next
+            if (DEBUG) {
+                POGraph pog = pogTree.getExtant(ancID);
+                System.out.print(ancID + "\t");
+                if (pog != null) {
+                    for (int i = 0; i < indels.size(); i ++)
+                        System.out.print(((Boolean)ji[i].getDecoration(j) ? "L" : "G") + "\t");
                 }
+                System.out.println();
             }
-            if (DEBUG) System.out.println();
-            unambiguous.addAll(unamb_tree.flatten2Set(false));
-            // the order in which the intervals are considered is important: sorted by first start-index, within-which end-index
-            Collections.sort(unambiguous);
-            // Second, construct an interval tree definitive, with INDELs that are not contained within a TRUE INDEL
-            IntervalST<Boolean> definitive = new IntervalST<>();    // to hold all unambiguously TRUE and not-precluded INDELs
-            Interval1D precluder = null;                            // the interval that is the last to have been added, when considered "in order"
-            Set<Integer> frontedges = new HashSet<>();              // the set of edges current at the "front" of reaching the terminal
-            int prev = -1;
-            frontedges.add(prev);
-            for (int cnt = 0; cnt < unambiguous.size(); cnt ++) {
-                Interval1D current = unambiguous.get(cnt);          // "current" interval under consideration...
-                if (cnt < unambiguous.size() - 1) {                 // there is at least one more after this...
-                    Interval1D next = unambiguous.get(cnt + 1);     // so look-ahead to the "next" interval
-                    if (!next.contains(current)) {                  // next is not precluding current...
-                        if (precluder != null) {                    // consider if the last-addition does
-                            if (!precluder.contains(current)) {     // last-addition does NOT preclude the current one either, so...
-                                definitive.put(current, true);// add current interval to interval tree, true indicates that it is unambiguous
-                                precluder = current;                // update last-addition
-                            }
-                        } else {                                    // there isn't a "last-addition", so...
-                            definitive.put(current, true);    // add current
-                            precluder = current;                    // update last-addition to current
-                        }
-                    }                                               // else: next interval precludes current, so can ignore current
-                } else { // none after so include...
-                    if (precluder != null) {                        // consider if the last-addition does
-                        if (!precluder.contains(current)) {         // last-addition does NOT preclude the current one either, so...
-                            definitive.put(current, true);    // add current interval to interval tree, the cnt is not relevant at this stage
+            return null; // skip the code below, only predictions for ancestors are used to compose POGs
+        }
+        // else: ancestor branch point
+        // (1) Find ancestor STATE for each INDEL, and
+        // (2) resolve what the POG looks like...
+        // First, construct a list to include all unambiguously true indels, some of which are
+        // rendered inapplicable (due to being precluded by others)
+        IntervalST unamb_tree = new IntervalST();
+        List<Interval1D> unambiguous = new ArrayList<>();
+        if (DEBUG) System.out.print(ancID + "\t");
+        for (int i = 0; i < indels.size(); i ++) { // interval index; order specific to pogTree, and linked with ti and ji
+            Interval1D ival = indels.get(i);
+            Boolean call = (Boolean) ji[i].getDecoration(j);
+            if (DEBUG)
+                System.out.print((call ? "L" : "G") + "\t");
+            if (call)
+                unamb_tree.put(ival, true);
+        }
+        if (DEBUG) System.out.println();
+        unambiguous.addAll(unamb_tree.flatten2Set(false));
+        // the order in which the intervals are considered is important: sorted by first start-index, within-which end-index
+        Collections.sort(unambiguous);
+        // Second, construct an interval tree definitive, with INDELs that are not contained within a TRUE INDEL
+        IntervalST<Boolean> definitive = new IntervalST<>();    // to hold all unambiguously TRUE and not-precluded INDELs
+        Interval1D precluder = null;                            // the interval that is the last to have been added, when considered "in order"
+        Set<Integer> frontedges = new HashSet<>();              // the set of edges current at the "front" of reaching the terminal
+        int prev = -1;
+        frontedges.add(prev);
+        for (int cnt = 0; cnt < unambiguous.size(); cnt ++) {
+            Interval1D current = unambiguous.get(cnt);          // "current" interval under consideration...
+            if (cnt < unambiguous.size() - 1) {                 // there is at least one more after this...
+                Interval1D next = unambiguous.get(cnt + 1);     // so look-ahead to the "next" interval
+                if (!next.contains(current)) {                  // next is not precluding current...
+                    if (precluder != null) {                    // consider if the last-addition does
+                        if (!precluder.contains(current)) {     // last-addition does NOT preclude the current one either, so...
+                            definitive.put(current, true);// add current interval to interval tree, true indicates that it is unambiguous
+                            precluder = current;                // update last-addition
                         }
-                    } else {                                        // there isn't a "last-addition", so...
-                        definitive.put(current, true);
+                    } else {                                    // there isn't a "last-addition", so...
+                        definitive.put(current, true);    // add current
+                        precluder = current;                    // update last-addition to current
                     }
-                }
-                if (!frontedges.contains(current.min)) { // just added an edge without a known source node
-                    int biggest = -1;
-                    for (int src : frontedges)
-                        biggest = src > biggest ? src : biggest;
-                    for (; biggest < current.min; biggest ++) {
-                        Interval1D pad = new Interval1D(biggest, biggest + 1);
-                        if (precluder != null) {                        // consider if the last-addition does // FIXME: probably no need to check...
-                            if (!precluder.contains(pad))               // last-addition does NOT preclude the current one either, so...
-                                definitive.put(pad, false);       // add one-step patch to interval tree; false indicates that it is not based on ML inference
-                        } else                                          // there isn't a "last-addition", so...
-                            definitive.put(pad, false);           // add one-step patch to interval tree; false indicates that it is not based on ML inference
+                }                                               // else: next interval precludes current, so can ignore current
+            } else { // none after so include...
+                if (precluder != null) {                        // consider if the last-addition does
+                    if (!precluder.contains(current)) {         // last-addition does NOT preclude the current one either, so...
+                        definitive.put(current, true);    // add current interval to interval tree, the cnt is not relevant at this stage
                     }
+                } else {                                        // there isn't a "last-addition", so...
+                    definitive.put(current, true);
                 }
-                if (current.min > prev) { // check if we've moved beyond the source index (can do because the intervals are sorted)
-                    frontedges.remove(prev);
-                    prev = current.min;
+            }
+            if (!frontedges.contains(current.min)) { // just added an edge without a known source node
+                int biggest = -1;
+                for (int src : frontedges)
+                    biggest = src > biggest ? src : biggest;
+                for (; biggest < current.min; biggest ++) {
+                    Interval1D pad = new Interval1D(biggest, biggest + 1);
+                    if (precluder != null) {                        // consider if the last-addition does // FIXME: probably no need to check...
+                        if (!precluder.contains(pad))               // last-addition does NOT preclude the current one either, so...
+                            definitive.put(pad, false);       // add one-step patch to interval tree; false indicates that it is not based on ML inference
+                    } else                                          // there isn't a "last-addition", so...
+                        definitive.put(pad, false);           // add one-step patch to interval tree; false indicates that it is not based on ML inference
                 }
-                frontedges.add(current.max);
             }
-            // finally, we are now in a position to create edges for a POG, including edges that are just linkers,
-            // representing discontinuous sequence without decision
-            EdgeMap emap = new EdgeMap();
-            for (Interval1D edge : definitive) {
-                emap.add(edge.min, edge.max);
-                if (definitive.get(edge).contains(true))    // possibly test if it is unambiguous or ambiguous, before deciding to...
-                    emap.add(edge.min, edge.max);           // label the edge as "reciprocated"
+            if (current.min > prev) { // check if we've moved beyond the source index (can do because the intervals are sorted)
+                frontedges.remove(prev);
+                prev = current.min;
             }
-            // finally put the info into a POG
-            POGraph pog = POGraph.createFromEdgeMap(nPos, emap);
-            ancestors.put(ancID, pog);
+            frontedges.add(current.max);
         }
-        if (DEBUG) System.out.println("Now checking if all POGs are complete...");
-        //ancestors = patchAncestorsWithBEP(pogTree, ancestors);
-        return new Prediction(pogTree, ancestors);
+        // finally, we are now in a position to create edges for a POG, including edges that are just linkers,
+        // representing discontinuous sequence without decision
+        EdgeMap emap = new EdgeMap();
+        for (Interval1D edge : definitive) {
+            emap.add(edge.min, edge.max);
+            if (definitive.get(edge).contains(true))    // possibly test if it is unambiguous or ambiguous, before deciding to...
+                emap.add(edge.min, edge.max);           // label the edge as "reciprocated"
+        }
+        // finally put the info into a POG
+        POGraph pog = POGraph.createFromEdgeMap(nPos, emap);
+        return pog;
     }
 
     /**
@@ -1458,13 +1695,14 @@ public class Prediction {
         if (DEBUG) System.out.println("Created " + (tif.length) + " forward and " + (tib.length) + " backward trees for parsimony");
         TreeDecor[] pif = new TreeDecor[tif.length];
         TreeDecor[] pib = new TreeDecor[tib.length];
+        PackedParsimony engine = new PackedParsimony(tree); // all edge instances use the same tree
         // Below is where the main inference is set-up
         for (int i = -1; i <= nPos; i++) {
             Object[] possible = tif[i + 1].getPossible();
             if (possible.length < 1) { // nothing to infer, not used at all
                 pif[i + 1] = null;
             } else {
-                pif[i + 1] = new Parsimony(tif[i + 1].getTree(), recodeNull);
+                pif[i + 1] = new Parsimony(engine, recodeNull);
             }
         }
         for (int i = -1; i <= nPos; i++) {
@@ -1472,45 +1710,22 @@ public class Prediction {
             if (possible.length < 1) { // nothing to infer, not used at all
                 pib[i + 1] = null;
             } else {
-                pib[i + 1] = new Parsimony(tib[i + 1].getTree(), recodeNull); //
+                pib[i + 1] = new Parsimony(engine, recodeNull); //
             }
         }
         if (DEBUG) System.out.println("Created " + (pif.length) + " + " + (pib.length) + " inference objects to now be run with " + (GRASP.NTHREADS) + " threads");
         // put all parsimony objects in threads
-        ThreadedDecorators fpool = new ThreadedDecorators(pif, tif, GRASP.NTHREADS);
-        ThreadedDecorators bpool = new ThreadedDecorators(pib, tib, GRASP.NTHREADS);
         try {
-            // Below is where the main inference occurs
-            Map<Integer, TreeDecor> fret = fpool.runBatch();
-            Map<Integer, TreeDecor> bret = bpool.runBatch();
+            // Below is where the main inference occurs, forward and backward edges in one batch
+            decorateEdges(pif, tif, pib, tib);
             if (DEBUG)
                 System.out.println("Threads completed, now time for assembling " + (tree.getSize() - tree.getNLeaves()) + " POGs");
-            // inference done, now assemble... TODO: use threads here too
+            // inference done, now assemble
+            POGraph[] pogs = new POGraph[tree.getSize()];
+            forEachBranchPoint(tree, j -> pogs[j] = assembleByEdges(tree, nPos, pif, pib, j));
             for (int j = 0; j < tree.getSize(); j++) { // we look at each branchpoint, corresponding to either an extant or ancestor sequence
-                Object ancID = tree.getBranchPoint(j).getID();
-                ancID = ancID;
-                if (tree.getChildren(j).length > 0) { // an ancestor
-                    //if (DEBUG) System.out.println("Assembling ancestor N" + ancID + " at branchpoint index " + j);
-                    EdgeMap.Directed emap = new EdgeMap.Directed();
-                    for (int i = -1; i <= nPos; i++) {
-                        if (i != nPos && pif[i + 1] != null) {
-                            List solutsf = (List) pif[i + 1].getDecoration(j);
-                            for (Object s : solutsf) {
-                                int next = ((Integer) s).intValue();
-                                emap.add(i, next, true);
-                            }
-                        }
-                        if (i != -1 && pib[i + 1] != null) {
-                            List solutsb = (List) pib[i + 1].getDecoration(j);
-                            for (Object s : solutsb) {
-                                int prev = ((Integer) s).intValue();
-                                emap.add(prev, i, false);
-                            }
-                        }
-                    }
-                    POGraph pog = POGraph.createFromEdgeMap(nPos, emap);
-                    ancestors.put(ancID, pog);
-                }
+                if (pogs[j] != null) // an ancestor
+                    ancestors.put(tree.getBranchPoint(j).getID(), pogs[j]);
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -1523,6 +1738,65 @@ public class Prediction {
         return new Prediction(pogTree, ancestors);
     }
 
+    /**
+     * Infer forward and backward edges as one batch, so that threads are not left idle between the two directions.
+     * Decorators are modified in place; those that fail are left undecorated (see {@link ThreadedDecorators}).
+     * @param fwd decorators for forward edges, null where there is nothing to infer
+     * @param tif tree instances for forward edges
+     * @param bwd decorators for backward edges, null where there is nothing to infer
+     * @param tib tree instances for backward edges
+     * @throws InterruptedException if the batch was cancelled
+     */
+    private static void decorateEdges(TreeDecor[] fwd, TreeInstance[] tif, TreeDecor[] bwd, TreeInstance[] tib) throws InterruptedException {
+        TreeDecor[] decors = new TreeDecor[fwd.length + bwd.length];
+        TreeInstance[] tis = new TreeInstance[tif.length + tib.length];
+        System.arraycopy(fwd, 0, decors, 0, fwd.length);
+        System.arraycopy(bwd, 0, decors, fwd.length, bwd.length);
+        System.arraycopy(tif, 0, tis, 0, tif.length);
+        System.arraycopy(tib, 0, tis, tif.length, tib.length);
+        new ThreadedDecorators(decors, tis, GRASP.NTHREADS).runBatch();
+    }
+
+    /**
+     * Assemble the POG of an ancestor from inferred edges, as used by BEP and BEML.
+     * A decoration is either a list of optimal edges (parsimony), a single edge (maximum likelihood), or null (no edge).
+     * @param tree phylogenetic tree
+     * @param nPos number of positions
+     * @param fwd decorators for forward edges, indexed by position + 1
+     * @param bwd decorators for backward edges, indexed by position + 1
+     * @param j index of branch point
+     * @return the POG, or null if the branch point is not an ancestor
+     */
+    private static POGraph assembleByEdges(IdxTree tree, int nPos, TreeDecor[] fwd, TreeDecor[] bwd, int j) {
+        if (tree.isLeaf(j))
+            return null;
+        EdgeMap.Directed emap = new EdgeMap.Directed();
+        for (int i = -1; i <= nPos; i++) {
+            if (i != nPos && fwd[i + 1] != null) {
+                for (int next : getEdges(fwd[i + 1].getDecoration(j)))
+                    emap.add(i, next, true);
+            }
+            if (i != -1 && bwd[i + 1] != null) {
+                for (int prev : getEdges(bwd[i + 1].getDecoration(j)))
+                    emap.add(prev, i, false);
+            }
+        }
+        return POGraph.createFromEdgeMap(nPos, emap);
+    }
+
+    private static int[] getEdges(Object decoration) {
+        if (decoration == null) // the most probable edge is none at all
+            return new int[0];
+        if (decoration instanceof List) {
+            List soluts = (List) decoration;
+            int[] edges = new int[soluts.size()];
+            for (int k = 0; k < edges.length; k ++)
+                edges[k] = ((Integer) soluts.get(k)).intValue();
+            return edges;
+        }
+        return new int[] {((Integer) decoration).intValue()};
+    }
+
     /**
      * Fixes discontinuous POGs by performing parsimony of edges when NULL (deleted) leaf states are excluded.
      * @param pogTree
@@ -1548,6 +1822,7 @@ public class Prediction {
         Set<Integer> columns = new HashSet<>();
         for (Map.Entry<Object, Set<Integer>> entry : crippled.entrySet())
             columns.addAll(entry.getValue());
+        PackedParsimony engine = new PackedParsimony(tree);
         while (columns.size() > 0) {
             List<Integer> cols_ordered = new ArrayList<>(columns);
             TreeInstance[] tis = new TreeInstance[cols_ordered.size()]; // package the trees for inference
@@ -1557,7 +1832,7 @@ public class Prediction {
                 int col = Math.abs(idx);
                 boolean STATUS_FORWARD = idx > 0;
                 tis[i] = pogTree.getEdgeInstance(col, STATUS_FORWARD);
-                Parsimony p = new Parsimony(tis[i].getTree(), false);
+                Parsimony p = new Parsimony(engine, false);
                 pinf[i] = p.infer(tis[i], false);
             }
             // patch the POGs with newly inferred edges...
@@ -1644,50 +1919,17 @@ public class Prediction {
         }
         if (DEBUG)
             System.out.println("Created " + (jif.length) + " + " + (jib.length) + " inference objects to now be run with " + (GRASP.NTHREADS) + " threads");
-        ThreadedDecorators fpool = new ThreadedDecorators(jif, tif, GRASP.NTHREADS);
-        ThreadedDecorators bpool = new ThreadedDecorators(jib, tib, GRASP.NTHREADS);
         try {
-            // Below is where the main inference occurs
-            Map<Integer, TreeDecor> fret = fpool.runBatch();
-            Map<Integer, TreeDecor> bret = bpool.runBatch();
-/*            for (int i = 0; i < jif.length; i++) {
-                if (jif[i] != null) {
-                    MaxLhoodJoint mlj = (MaxLhoodJoint) jif[i];
-                    System.out.println("Forward Col " + i + "\tAncs " + tif[i].getTree().getNParents() + "\tSyms " + tif[i].getNPossibleValues() + "\t" + mlj.toElapsedTime());
-                }
-            }
-            for (int i = 0; i < jib.length; i++) {
-                if (jib[i] != null) {
-                    MaxLhoodJoint mlj = (MaxLhoodJoint) jib[i];
-                    System.out.println("Backward Col " + i + "\tAncs " + tib[i].getTree().getNParents() + "\tSyms " + tib[i].getNPossibleValues() + "\t" + mlj.toElapsedTime());
-                }
-            } */
-                if (DEBUG)
+            // Below is where the main inference occurs, forward and backward edges in one batch
+            decorateEdges(jif, tif, jib, tib);
+            if (DEBUG)
                 System.out.println("Threads completed, now time for assembling " + (tree.getSize() - tree.getNLeaves()) + " POGs");
-            // inference done, now assemble... TODO: multi-thread, also create module for this as the same process applies to BEP
+            // inference done, now assemble
+            POGraph[] pogs = new POGraph[tree.getSize()];
+            forEachBranchPoint(tree, j -> pogs[j] = assembleByEdges(tree, nPos, jif, jib, j));
             for (int j = 0; j < tree.getSize(); j++) { // we look at each branchpoint, corresponding to either an extant or ancestor sequence
-                Object ancID = tree.getBranchPoint(j).getID();
-                if (tree.getChildren(j).length > 0) { // an ancestor
-                    EdgeMap.Directed emap = new EdgeMap.Directed();
-                    for (int i = -1; i <= nPos; i++) {
-                        if (i != nPos && jif[i + 1] != null) {
-                            Object solutsf = jif[i + 1].getDecoration(j);
-                            if (solutsf != null) { // if this is null, it means the most probable edge (forward) is actually none at all.
-                                int next = ((Integer) solutsf).intValue();
-                                emap.add(i, next, true);
-                            }
-                        }
-                        if (i != -1 && jib[i + 1] != null) {
-                            Object solutsb = jib[i + 1].getDecoration(j);
-                            if (solutsb != null) { // if this is null, it means the most probable edge (backward) is actually none at all.
-                                int prev = ((Integer) solutsb).intValue();
-                                emap.add(prev, i, false);
-                            }
-                        }
-                    }
-                    POGraph pog = POGraph.createFromEdgeMap(nPos, emap);
-                    ancestors.put(ancID, pog);
-                }
+                if (pogs[j] != null) // an ancestor
+                    ancestors.put(tree.getBranchPoint(j).getID(), pogs[j]);
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -1715,6 +1957,20 @@ public class Prediction {
 
     }
 
+    /**
+     * Inference of gaps by mixed-integer programming (MIP), see {@link Mip}.
+     * With {@link GRASP#MIP_WARM_START}, the solver starts from the bi-directional edge parsimony (BEP) solution, and
+     * if the solver stops at its time limit with a solution worse than BEP (under the same model), BEP is used instead.
+     * This is guaranteed only if BEP's path of every ancestor satisfies the MIP model; a block where it does not is
+     * left as the solver found it.
+     * @param pogTree POGs and phylogenetic tree
+     * @param aln the alignment
+     * @param solver name of the MIP solver, e.g. SCIP
+     * @param substModelName name of the substitution model, for distance-based penalties
+     * @param nThreads number of threads
+     * @param useDistances use branch lengths to set gap penalties
+     * @return instance of Prediction, with ancestor POGs (without character state)
+     */
     public static Prediction PredictByMIP(POGTree pogTree, EnumSeq.Alignment<Enumerable> aln,
                                           String solver, String substModelName, int nThreads, boolean useDistances) {
 
@@ -1725,6 +1981,14 @@ public class Prediction {
 
         Mip mipSolver = new Mip(pogTree, aln, solver, substModelName, nThreads, useDistances);
 
+        Prediction bep = null; // the (quick) BEP solution is a good starting point, and the fall-back
+        if (GRASP.MIP_WARM_START) {
+            bep = PredictByBidirEdgeParsimony(pogTree);
+            int nHints = mipSolver.setHint(bep);
+            if (GRASP.VERBOSE)
+                System.out.println("Starting MIP from bi-directional edge parsimony solution (" + nHints + " of " + tree.getAncestors().length + " ancestors)");
+        }
+
         if (GRASP.VERBOSE) {
             System.out.println("Constructing MIP indel model using " + solver + "...");
         }
@@ -1734,7 +1998,11 @@ public class Prediction {
 
         if (ancestorPositionVars == null) {
             System.out.println("Defaulting to bi-directional edge parsimony for indel inference");
-            return PredictByBidirEdgeParsimony(pogTree);
+            return bep != null ? bep : PredictByBidirEdgeParsimony(pogTree);
+        }
+        if (bep != null && mipSolver.isHintUsed()) { // solver stopped at the time limit, with a solution worse than BEP
+            System.out.println("Time-limited MIP solution is worse than bi-directional edge parsimony; using the latter");
+            return bep;
         }
 
         // unpack the results, branch point by branch point
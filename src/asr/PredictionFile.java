@@ -0,0 +1,265 @@
+package asr;
+
+import dat.phylo.IdxTree;
+import dat.pog.POGTree;
+import dat.pog.POGraph;
+import json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binary container for a complete reconstruction, as an alternative to the JSON format of {@link Prediction#save(String)}.
+ * The file is memory-mapped, and POGs are decoded on request, so a single ancestor can be retrieved without
+ * reading (or parsing) the rest of the file.
+ *
+ * Layout (all numbers big-endian):
+ * <pre>
+ *   "GRASPASR"           magic (8 bytes)
+ *   int                  format version
+ *   long                 offset of index
+ *   int                  length of header
+ *   header               GRASP version, number of positions, tree (as JSON, same as in ASR.json)
+ *   POG blocks           one for each extant and inferred ancestor, see {@link POGraph#toBinary}
+ *   index                int number of branch points, then (long offset, int length) of the POG of each branch point
+ *                        in the order of the tree; length is 0 if there is no POG
+ * </pre>
+ */
+public class PredictionFile implements Closeable {
+
+    public static final int FORMAT_VERSION = 1;
+    private static final byte[] MAGIC = "GRASPASR".getBytes(StandardCharsets.US_ASCII);
+    private static final int PREAMBLE = MAGIC.length + 4 + 8 + 4;
+
+    private final FileChannel channel;
+    private final String version;
+    private final int nPos;
+    private final IdxTree tree;
+    private final long[] offsets;
+    private final int[] lengths;
+
+    private PredictionFile(FileChannel channel) throws IOException {
+        this.channel = channel;
+        ByteBuffer pre = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(PREAMBLE, channel.size()));
+        if (!isMagic(pre))
+            throw new ASRRuntimeException("Invalid input file: not a binary reconstruction");
+        int format = pre.getInt();
+        if (format != FORMAT_VERSION)
+            throw new ASRRuntimeException("Invalid input file: unsupported format version " + format);
+        long indexOffset = pre.getLong();
+        int headerLength = pre.getInt();
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, PREAMBLE, headerLength);
+        this.version = readString(header);
+        this.nPos = header.getInt();
+        this.tree = IdxTree.fromJSON(new JSONObject(readString(header)));
+        ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, channel.size() - indexOffset);
+        int n = index.getInt();
+        if (n != tree.getSize())
+            throw new ASRRuntimeException("Number of branch points " + n + " in index does not match tree " + tree.getSize());
+        this.offsets = new long[n];
+        this.lengths = new int[n];
+        for (int i = 0; i < n; i ++) {
+            offsets[i] = index.getLong();
+            lengths[i] = index.getInt();
+        }
+    }
+
+    /**
+     * Open a binary reconstruction; only the header and the index are read.
+     * @param filename name of file
+     * @return the open file, which should be closed after use
+     * @throws IOException if the file cannot be read
+     * @throws ASRRuntimeException if the file is not a binary reconstruction
+     */
+    public static PredictionFile open(String filename) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        try {
+            return new PredictionFile(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Check if a file is a binary reconstruction, by its first bytes.
+     * @param filename name of file
+     * @return true if the file starts as a binary reconstruction
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isBinary(String filename) throws IOException {
+        try (InputStream in = Files.newInputStream(Paths.get(filename))) {
+            byte[] bytes = in.readNBytes(MAGIC.length);
+            return isMagic(ByteBuffer.wrap(bytes));
+        }
+    }
+
+    private static boolean isMagic(ByteBuffer buf) {
+        if (buf.remaining() < MAGIC.length)
+            return false;
+        byte[] bytes = new byte[MAGIC.length];
+        buf.get(bytes);
+        return Arrays.equals(bytes, MAGIC);
+    }
+
+    /**
+     * Save a reconstruction in the binary format.
+     * @param pred the reconstruction
+     * @param filename name of file
+     * @throws IOException if the file cannot be written
+     */
+    public static void save(Prediction pred, String filename) throws IOException {
+        IdxTree tree = pred.getTree();
+        long[] offsets = new long[tree.getSize()];
+        int[] lengths = new int[tree.getSize()];
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeString(out, GRASP.VERSION);
+            out.writeInt(pred.getPositions());
+            writeString(out, tree.toJSON().toString());
+            byte[] header = bytes.toByteArray();
+            ByteBuffer pre = ByteBuffer.allocate(PREAMBLE);
+            pre.put(MAGIC).putInt(FORMAT_VERSION).putLong(0).putInt(header.length); // index offset is set at the end
+            writeFully(channel, pre.flip());
+            writeFully(channel, ByteBuffer.wrap(header));
+            for (int idx : tree) {
+                Object label = tree.getLabel(idx);
+                POGraph pog = tree.isLeaf(idx) ? pred.getExtant(label) : pred.getAncestor(label);
+                if (pog == null)
+                    continue;
+                bytes.reset();
+                pog.toBinary(out);
+                offsets[idx] = channel.position();
+                lengths[idx] = bytes.size();
+                writeFully(channel, ByteBuffer.wrap(bytes.toByteArray()));
+            }
+            long indexOffset = channel.position();
+            ByteBuffer index = ByteBuffer.allocate(4 + tree.getSize() * (8 + 4));
+            index.putInt(tree.getSize());
+            for (int idx = 0; idx < tree.getSize(); idx ++)
+                index.putLong(offsets[idx]).putInt(lengths[idx]);
+            writeFully(channel, index.flip());
+            channel.position(MAGIC.length + 4);
+            writeFully(channel, ByteBuffer.allocate(8).putLong(indexOffset).flip());
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining())
+            channel.write(buf);
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return version of GRASP that saved the reconstruction
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    public int getPositions() {
+        return nPos;
+    }
+
+    public IdxTree getTree() {
+        return tree;
+    }
+
+    /**
+     * Decode the POG of a branch point, by mapping its block of the file
+     * @param bpidx branch point index
+     * @return the POG, null if the file has none for the branch point
+     */
+    public synchronized POGraph getPOG(int bpidx) throws IOException {
+        if (lengths[bpidx] == 0)
+            return null;
+        ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, offsets[bpidx], lengths[bpidx]);
+        return POGraph.fromBinary(buf);
+    }
+
+    /**
+     * Decode the POG of an ancestor
+     * @param ancID ancestor ID, as labelled in the tree
+     * @return the POG, null if not available
+     */
+    public POGraph getAncestor(Object ancID) throws IOException {
+        int bpidx = tree.getIndex(ancID);
+        return (bpidx < 0 || tree.isLeaf(bpidx)) ? null : getPOG(bpidx);
+    }
+
+    /**
+     * Decode the POG of an extant
+     * @param extID sequence name
+     * @return the POG, null if not available
+     */
+    public POGraph getExtant(Object extID) throws IOException {
+        int bpidx = tree.getIndex(extID);
+        return (bpidx < 0 || !tree.isLeaf(bpidx)) ? null : getPOG(bpidx);
+    }
+
+    /**
+     * Decode the complete reconstruction
+     * @return the reconstruction, as if loaded from JSON
+     */
+    public Prediction toPrediction() throws IOException {
+        Map<String, POGraph> extants = new HashMap<>();
+        Map<Object, POGraph> ancestors = new HashMap<>();
+        for (int idx : tree) {
+            POGraph pog = getPOG(idx);
+            if (pog == null)
+                continue;
+            if (tree.isLeaf(idx))
+                extants.put(tree.getLabel(idx).toString(), pog);
+            else
+                ancestors.put(tree.getLabel(idx), pog);
+        }
+        return new Prediction(new POGTree(extants, tree), ancestors);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Convert between the JSON and the binary formats of a reconstruction; the direction is given by the input file.
+     * Usage: PredictionFile input-file output-file
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: asr.PredictionFile <input> <output>\n\tConverts a reconstruction from JSON (e.g. ASR.json) to binary, or from binary to JSON");
+            System.exit(1);
+        }
+        if (isBinary(args[0])) {
+            try (PredictionFile file = open(args[0])) {
+                file.toPrediction().save(args[1]);
+            }
+        } else {
+            save(Prediction.load(args[0]), args[1]);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package asr;
+
+import bn.ctmc.SubstModel;
+import bn.math.Kernels;
+import dat.Enumerable;
+import dat.phylo.IdxTree;
+import dat.phylo.PhyloBN;
+import dat.phylo.TreeDecor;
+import dat.phylo.TreeInstance;
+
+import java.util.Arrays;
+
+/**
+ * "Joint" reconstruction by dynamic programming directly over the index tree, as described by
+ * Pupko et al. (2000) "A fast algorithm for joint reconstruction of ancestral amino acid sequences".
+ * Unlike MaxLhoodJoint, no Bayesian network is constructed: states are coded by their index in the domain of the
+ * substitution model, and the max-product pass (with back-pointers) is carried out over primitive arrays.
+ * The result is the same as that of variable elimination over the equivalent PhyloBN.
+ * Note that the tree represents a single position (one rate).
+ */
+public class PupkoJoint implements TreeDecor<Object> {
+
+    final private IdxTree tree;
+    final private Enumerable domain;
+    final private int nStates;
+    final private double[] logF;        // log of stationary (root) probabilities
+    final private double[][][] logP;    // [bpidx][parent state][child state] log of transition probabilities; null if no parent
+    final private Kernels kernels = Kernels.get(); // scalar or SIMD, decided when inference is set-up
+    private int[] states = null;        // result of last inference, as state indices
+
+    /**
+     * Set-up a joint reconstruction for the specified tree and substitution model; the transition probabilities
+     * for each branch are determined here, so that they can be re-used for any instance of the tree.
+     * @param tree phylogenetic tree, possibly specific to a position in an alignment
+     * @param model evolutionary model
+     * @param rate relative evolutionary rate
+     */
+    public PupkoJoint(IdxTree tree, SubstModel model, double rate) {
+        this.tree = tree;
+        this.domain = model.getDomain();
+        this.nStates = domain.size();
+        this.logF = new double[nStates];
+        double[] F = model.getF();
+        for (int s = 0; s < nStates; s ++)
+            logF[s] = Math.log(F[s]);
+        this.logP = new double[tree.getSize()][][];
+        for (int idx = 0; idx < tree.getSize(); idx ++) {
+            if (tree.getParent(idx) < 0)
+                continue;
+            double[][] probs = model.getProbs(tree.getBranchPoint(idx).getDistance() * rate);
+            logP[idx] = new double[nStates][nStates];
+            for (int s = 0; s < nStates; s ++)
+                for (int t = 0; t < nStates; t ++)
+                    logP[idx][s][t] = Math.log(probs[s][t]);
+        }
+    }
+
+    /**
+     * Set-up a joint reconstruction for the specified tree and substitution model, using the default rate.
+     * @param tree phylogenetic tree
+     * @param model evolutionary model
+     */
+    public PupkoJoint(IdxTree tree, SubstModel model) {
+        this(tree, model, PhyloBN.DEFAULT_RATE);
+    }
+
+    /**
+     * Retrieve the inferred state for a specified branch point, as determined by max likelihood
+     * @param idx branch point index
+     * @return state which jointly with all others assigns the greatest probability to the observed values (at leaves),
+     * or null if the branch point was not part of inference (and not instantiated)
+     */
+    @Override
+    public Object getDecoration(int idx) {
+        if (states == null)
+            throw new ASRRuntimeException("Joint inference has not been performed");
+        return states[idx] < 0 ? null : domain.get(states[idx]);
+    }
+
+    /**
+     * Determine the joint state that assigns the maximum likelihood to the specified observations.
+     * @param ti observed tree states
+     */
+    @Override
+    public void decorate(TreeInstance ti) {
+        states = infer(encode(ti));
+    }
+
+    /**
+     * Convert the values of a tree instance to state indices of the domain of the substitution model.
+     * @param ti tree instance, which must be based on the same tree as this inference
+     * @return array with the index of each value, or -1 where the branch point is not instantiated
+     * @throws ASRRuntimeException if a value is not part of the domain
+     */
+    public int[] encode(TreeInstance ti) {
+        if (ti.getSize() != tree.getSize())
+            throw new ASRRuntimeException("Invalid tree instance: size " + ti.getSize() + " does not match tree " + tree.getSize());
+        int[] observed = new int[ti.getSize()];
+        for (int idx = 0; idx < observed.length; idx ++) {
+            Object y = ti.getInstance(idx);
+            if (y == null)
+                observed[idx] = -1;
+            else if (domain.isValid(y))
+                observed[idx] = domain.getIndex(y);
+            else
+                throw new ASRRuntimeException("Invalid symbol for joint inference: " + y);
+        }
+        return observed;
+    }
+
+    /**
+     * Determine the joint state that assigns the maximum likelihood to the specified observations.
+     * The tree may be a forest (e.g. a position-specific tree, pruned by indels), in which case each root is
+     * treated independently. Branch points that are disconnected (no parent, no children) are not inferred.
+     * @param observed state index for each branch point, -1 if not instantiated
+     * @return state index for each branch point, -1 if not instantiated and not part of inference
+     */
+    public int[] infer(int[] observed) {
+        int n = tree.getSize();
+        double[][] lhood = new double[n][];     // [bpidx][state] log-likelihood of subtree under branch point, given its state
+        int[][] backptr = new int[n][];         // [bpidx][parent state] optimal state of branch point given that of its parent
+        int[] result = new int[n];
+        // post-order: since a parent is always indexed before its children, iterate backwards
+        for (int idx = n - 1; idx >= 0; idx --) {
+            result[idx] = observed[idx];
+            if (!tree.isConnected(idx))
+                continue;
+            double[] L = new double[nStates];
+            if (observed[idx] >= 0) {
+                Arrays.fill(L, Double.NEGATIVE_INFINITY);
+                L[observed[idx]] = 0;
+            }
+            for (int child : tree.getChildren(idx)) {
+                double[] Lc = lhood[child];
+                for (int s = 0; s < nStates; s ++)
+                    L[s] += Lc[s];
+            }
+            int parent = tree.getParent(idx);
+            if (parent >= 0) { // collapse into a message for parent, with back-pointers
+                double[] msg = new double[nStates];
+                int[] ptr = new int[nStates];
+                for (int s = 0; s < nStates; s ++) {
+                    double[] row = logP[idx][s];
+                    int argbest = kernels.argmaxSum(row, L, nStates);
+                    msg[s] = argbest < 0 ? Double.NEGATIVE_INFINITY : row[argbest] + L[argbest];
+                    ptr[s] = argbest < 0 ? (observed[idx] >= 0 ? observed[idx] : 0) : argbest;
+                }
+                lhood[idx] = msg;
+                backptr[idx] = ptr;
+            } else { // root of a (sub)tree: decide state
+                int argbest = kernels.argmaxSum(logF, L, nStates);
+                result[idx] = argbest < 0 ? (observed[idx] >= 0 ? observed[idx] : 0) : argbest;
+            }
+        }
+        // pre-order: trace back-pointers from roots
+        for (int idx = 0; idx < n; idx ++) {
+            int parent = tree.getParent(idx);
+            if (parent >= 0)
+                result[idx] = backptr[idx][result[parent]];
+        }
+        return result;
+    }
+
+    /**
+     * Retrieve the inferred states as a tree instance
+     * @return tree instance with states at all branch points that were part of inference
+     */
+    public TreeInstance getTreeInstance() {
+        Object[] values = new Object[tree.getSize()];
+        for (int idx = 0; idx < values.length; idx ++)
+            values[idx] = getDecoration(idx);
+        return new TreeInstance(tree, values);
+    }
+
+}
@@ -0,0 +1,160 @@
+package asr;
+
+import java.util.Arrays;
+
+/**
+ * Discrete categories of relative, position-specific evolutionary rates.
+ * Rates are "snapped" to the centre of their category, so that positions in the same category share the same
+ * transition probabilities (and often site patterns), at the cost of some accuracy.
+ */
+public class RateCategories {
+
+    private final double[] centres;     // the rate that represents each category, in ascending order
+    private final double[] upper;       // the upper bound (exclusive) of each category but the last
+
+    private RateCategories(double[] centres, double[] upper) {
+        this.centres = centres;
+        this.upper = upper;
+    }
+
+    /**
+     * Create categories from user-specified centres; each rate is assigned to the nearest centre.
+     * @param centres rates that represent categories
+     */
+    public RateCategories(double[] centres) {
+        this.centres = Arrays.copyOf(centres, centres.length);
+        Arrays.sort(this.centres);
+        this.upper = new double[this.centres.length - 1];
+        for (int k = 0; k < upper.length; k ++)
+            upper[k] = (this.centres[k] + this.centres[k + 1]) / 2;
+    }
+
+    /**
+     * Create up to K categories with (approximately) equal numbers of positions, from the observed rates.
+     * Categories are only split between distinct rates, so tied rates (e.g. many zero rates of invariant columns)
+     * are always in the same category, and there may be fewer than K categories.
+     * The centre of each category is the mean rate of the positions assigned to it, so the mean rate is preserved.
+     * @param rates observed rates, one for each position
+     * @param K number of categories
+     * @return categories
+     */
+    public static RateCategories fromQuantiles(double[] rates, int K) {
+        if (K < 1)
+            throw new ASRRuntimeException("Invalid number of rate categories: " + K);
+        double[] sorted = Arrays.copyOf(rates, rates.length);
+        Arrays.sort(sorted);
+        int n = sorted.length;
+        double[] centres = new double[Math.min(K, n)];
+        double[] upper = new double[Math.max(0, centres.length - 1)];
+        int ncats = 0;
+        int start = 0;
+        for (int k = 0; k < K && start < n; k ++) {
+            int end = k == K - 1 ? n : Math.max(start + 1, (int) Math.round((double) n * (k + 1) / K));
+            // move the cut to the nearest boundary between distinct rates, after the start
+            int after = end, before = end;
+            while (after < n && sorted[after] == sorted[after - 1])
+                after ++;
+            while (before > start && before < n && sorted[before] == sorted[before - 1])
+                before --;
+            end = (before > start && end - before < after - end) ? before : after;
+            double sum = 0;
+            for (int i = start; i < end; i ++)
+                sum += sorted[i];
+            centres[ncats] = sum / (end - start);
+            if (end < n)
+                upper[ncats] = sorted[end];
+            ncats ++;
+            start = end;
+        }
+        return new RateCategories(Arrays.copyOf(centres, ncats), Arrays.copyOf(upper, Math.max(0, ncats - 1)));
+    }
+
+    /**
+     * Parse categories from text: either the number of categories (determined from quantiles of the rates),
+     * or a comma-separated list of category centres.
+     * @param spec text, e.g. "8" or "0.1,0.5,1.0,2.0"
+     * @param rates observed rates, one for each position
+     * @return categories
+     * @throws NumberFormatException if the text is not formatted as above
+     */
+    public static RateCategories parse(String spec, double[] rates) {
+        if (spec.contains(",")) {
+            String[] parts = spec.split(",");
+            double[] centres = new double[parts.length];
+            for (int k = 0; k < parts.length; k ++)
+                centres[k] = Double.parseDouble(parts[k].trim());
+            return new RateCategories(centres);
+        }
+        return fromQuantiles(rates, Integer.parseInt(spec.trim()));
+    }
+
+    /**
+     * @return number of categories
+     */
+    public int size() {
+        return centres.length;
+    }
+
+    /**
+     * Determine the category of a rate
+     * @param rate the rate
+     * @return index of category
+     */
+    public int getCategory(double rate) {
+        int k = 0;
+        while (k < upper.length && rate >= upper[k])
+            k ++;
+        return k;
+    }
+
+    /**
+     * Retrieve the rate that represents a category
+     * @param k index of category
+     * @return the centre rate
+     */
+    public double getCentre(int k) {
+        return centres[k];
+    }
+
+    /**
+     * Replace each rate with the centre of its category
+     * @param rates rates, one for each position
+     * @return a new array with categorical rates
+     */
+    public double[] snap(double[] rates) {
+        double[] snapped = new double[rates.length];
+        for (int i = 0; i < rates.length; i ++)
+            snapped[i] = centres[getCategory(rates[i])];
+        return snapped;
+    }
+
+    /**
+     * Determine the proportion of (inferred) states that differ between two reconstructions, e.g. one with categorical
+     * rates and one with continuous rates. States that are null in both are ignored.
+     * @param states1 states indexed by branch point and position
+     * @param states2 states indexed by branch point and position
+     * @return proportion of states that differ
+     */
+    public static double getDifference(Object[][] states1, Object[][] states2) {
+        int ndiff = 0, ntotal = 0;
+        for (int i = 0; i < states1.length; i ++) {
+            for (int j = 0; j < states1[i].length; j ++) {
+                Object y1 = states1[i][j], y2 = states2[i][j];
+                if (y1 == null && y2 == null)
+                    continue;
+                ntotal += 1;
+                if (y1 == null || !y1.equals(y2))
+                    ndiff += 1;
+            }
+        }
+        return ntotal == 0 ? 0 : (double) ndiff / ntotal;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int k = 0; k < centres.length; k ++)
+            sb.append(k == 0 ? "" : ", ").append(String.format("%.3f", centres[k]));
+        return centres.length + " rate categories {" + sb + "}";
+    }
+}
@@ -0,0 +1,181 @@
+package asr;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Shared, long-lived work-stealing scheduler for batches of independent tasks, e.g. inference for each position of
+ * an alignment. A batch of n tasks is split into ranges of indices ("chunks") that are processed by a fork/join pool;
+ * idle threads steal chunks from busy ones, so tasks of uneven duration are balanced.
+ * Pools are created once for each level of parallelism and re-used by all batches (and all jobs, when running
+ * as a server); their threads are daemons, so need not be shut down.
+ */
+public class Scheduler {
+
+    private static final Map<Integer, Scheduler> schedulers = new HashMap<>();
+    private static final int CHUNKS_PER_THREAD = 8; // chunks are small enough to balance, and large enough to be cheap
+
+    private final ForkJoinPool pool;
+
+    private Scheduler(int nThreads) {
+        this.pool = new ForkJoinPool(nThreads);
+    }
+
+    /**
+     * Retrieve the shared scheduler for a level of parallelism, creating it if needed.
+     * @param nThreads number of threads
+     * @return the scheduler
+     */
+    public static synchronized Scheduler get(int nThreads) {
+        return schedulers.computeIfAbsent(Math.max(1, nThreads), Scheduler::new);
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Start a batch of tasks, indexed 0 to n - 1; the call returns immediately.
+     * @param n number of tasks
+     * @param task the task, which is given its index
+     * @return the batch, which can be joined or cancelled
+     */
+    public Batch submit(int n, IntConsumer task) {
+        Batch batch = new Batch(n, task, Math.max(1, n / (pool.getParallelism() * CHUNKS_PER_THREAD)));
+        pool.execute(batch.root);
+        return batch;
+    }
+
+    /**
+     * Run a batch of tasks, indexed 0 to n - 1, and wait until all are done.
+     * @param n number of tasks
+     * @param task the task, which is given its index
+     * @return the (completed) batch, with timing
+     * @throws ASRRuntimeException if a task failed
+     */
+    public Batch run(int n, IntConsumer task) {
+        Batch batch = submit(n, task);
+        batch.join();
+        return batch;
+    }
+
+    /**
+     * A batch of tasks that have been submitted to the scheduler.
+     */
+    public static class Batch {
+        private final IntConsumer task;
+        private final int grain;
+        private final long[] nanos;         // time taken by each task
+        private final long start = System.nanoTime();
+        private volatile long end = 0;
+        private volatile boolean cancelled = false;
+        private final RangeTask root;
+
+        private Batch(int n, IntConsumer task, int grain) {
+            this.task = task;
+            this.grain = grain;
+            this.nanos = new long[n];
+            this.root = new RangeTask(0, n);
+        }
+
+        /**
+         * Wait for all tasks to finish; if the batch is cancelled, for the tasks that are running to finish.
+         * @throws ASRRuntimeException if a task failed, with the cause attached
+         * @throws CancellationException if the batch was cancelled
+         */
+        public void join() {
+            try {
+                root.join(); // the root is never cancelled, so completes when no task is running
+            } catch (RuntimeException | Error e) {
+                throw new ASRRuntimeException("Task failed in batch: " + e.getMessage(), e);
+            } finally {
+                if (end == 0)
+                    end = System.nanoTime();
+            }
+            if (cancelled)
+                throw new CancellationException("Batch was cancelled");
+        }
+
+        /**
+         * Cancel the batch: tasks that have not started are skipped, tasks that are running finish.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public boolean isDone() {
+            return root.isDone();
+        }
+
+        public int size() {
+            return nanos.length;
+        }
+
+        /**
+         * @param i index of task
+         * @return time that the task took in milliseconds, 0 if not run
+         */
+        public double getTaskTime(int i) {
+            return nanos[i] / 1e6;
+        }
+
+        /**
+         * @return sum of times that tasks took in milliseconds, i.e. the CPU time that was spent on the batch
+         */
+        public double getTotalTaskTime() {
+            long sum = 0;
+            for (long t : nanos)
+                sum += t;
+            return sum / 1e6;
+        }
+
+        /**
+         * @return time from submission to completion (or now, if not completed) in milliseconds
+         */
+        public double getElapsedTime() {
+            return ((end == 0 ? System.nanoTime() : end) - start) / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d tasks in %.1f ms (%.1f ms task time)", nanos.length, getElapsedTime(), getTotalTaskTime());
+        }
+
+        /**
+         * Processes a range of task indices, splitting it in half until it is small enough.
+         */
+        private class RangeTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+            private final int from, to;
+
+            RangeTask(int from, int to) {
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                if (cancelled)
+                    return;
+                if (to - from > grain) {
+                    int mid = (from + to) >>> 1;
+                    invokeAll(new RangeTask(from, mid), new RangeTask(mid, to));
+                } else {
+                    for (int i = from; i < to && !cancelled; i ++) {
+                        long t0 = System.nanoTime();
+                        task.accept(i);
+                        nanos[i] = System.nanoTime() - t0;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package asr;
+
+import dat.phylo.TreeInstance;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compression of alignment positions into unique "site patterns" for character inference.
+ * Two positions share a pattern if their position-specific trees are the same (as identified by the map from
+ * global to local branch point indices), their observed leaf states are the same, and they evolve with the same rate.
+ * Inference then needs to be performed only once per pattern, with the result re-used by all positions in it.
+ */
+public class SitePatterns {
+
+    private final int[] pattern;        // [pos] the pattern index for each position, -1 if position is excluded
+    private final int[] representative; // [pattern] the first position that exhibits the pattern
+
+    /**
+     * Determine the site patterns for a set of positions
+     * @param positidxs for each position, the map from global (phylogenetic tree) index to local (position-specific) index
+     * @param tis for each position, the tree instance with observed values (null if position is excluded)
+     * @param rates for each position, the relative evolutionary rate
+     */
+    public SitePatterns(int[][] positidxs, TreeInstance[] tis, double[] rates) {
+        if (positidxs.length != tis.length || tis.length != rates.length)
+            throw new ASRRuntimeException("Mismatch in number of positions for site patterns");
+        this.pattern = new int[tis.length];
+        Map<Key, Integer> patmap = new HashMap<>();
+        int[] firstpos = new int[tis.length];
+        for (int pos = 0; pos < tis.length; pos ++) {
+            if (tis[pos] == null) {
+                pattern[pos] = -1;
+                continue;
+            }
+            Key key = new Key(positidxs[pos], tis[pos].getInstance(), rates[pos]);
+            Integer pat = patmap.get(key);
+            if (pat == null) {
+                pat = patmap.size();
+                patmap.put(key, pat);
+                firstpos[pat] = pos;
+            }
+            pattern[pos] = pat;
+        }
+        this.representative = Arrays.copyOf(firstpos, patmap.size());
+    }
+
+    /**
+     * @return the number of unique patterns
+     */
+    public int getNPatterns() {
+        return representative.length;
+    }
+
+    /**
+     * @return the number of positions, including those that are excluded
+     */
+    public int getPositions() {
+        return pattern.length;
+    }
+
+    /**
+     * Retrieve the pattern of a position
+     * @param pos position
+     * @return the pattern index, -1 if the position is excluded
+     */
+    public int getPattern(int pos) {
+        return pattern[pos];
+    }
+
+    /**
+     * Retrieve the position that represents the pattern of a given position, i.e. where inference is carried out
+     * @param pos position
+     * @return the representative position, or -1 if the position is excluded
+     */
+    public int getRepresentative(int pos) {
+        return pattern[pos] < 0 ? -1 : representative[pattern[pos]];
+    }
+
+    /**
+     * Determine if the position is where inference for its pattern is carried out
+     * @param pos position
+     * @return true if the position represents its pattern
+     */
+    public boolean isRepresentative(int pos) {
+        return getRepresentative(pos) == pos;
+    }
+
+    @Override
+    public String toString() {
+        return representative.length + " patterns in " + pattern.length + " positions";
+    }
+
+    /**
+     * Pattern key: the position-specific tree (as index map), leaf states and rate
+     */
+    private static class Key {
+        final int[] idxs;
+        final Object[] values;
+        final double rate;
+        final int hash;
+
+        Key(int[] idxs, Object[] values, double rate) {
+            this.idxs = idxs;
+            this.values = values;
+            this.rate = rate;
+            this.hash = 31 * (31 * Arrays.hashCode(idxs) + Arrays.hashCode(values)) + Double.hashCode(rate);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            Key key = (Key) o;
+            return hash == key.hash && Double.compare(rate, key.rate) == 0 && Arrays.equals(idxs, key.idxs) && Arrays.equals(values, key.values);
+        }
+    }
+}
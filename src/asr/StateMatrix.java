@@ -0,0 +1,131 @@
+package asr;
+
+import dat.Enumerable;
+
+import java.util.Arrays;
+
+/**
+ * Compact storage of inferred (joint) states, by branch point and position.
+ * Each state is coded by a byte, the index of the value in the domain of the substitution model;
+ * {@link #ABSENT} is used where the branch point has no state, e.g. where the ancestor has a gap, and for extants.
+ * Rows are allocated when the first state of a branch point is assigned.
+ */
+public class StateMatrix {
+
+    public static final byte ABSENT = -1;
+
+    private final Enumerable domain;
+    private final Object[] values;
+    private final int nPos;
+    private final byte[][] codes;   // [branch point][position] index of value in domain, ABSENT if none
+
+    /**
+     * Create an empty matrix
+     * @param domain the values that states can take, at most {@link Byte#MAX_VALUE} of them
+     * @param nRows number of branch points
+     * @param nPos number of positions
+     */
+    public StateMatrix(Enumerable domain, int nRows, int nPos) {
+        if (domain.size() > Byte.MAX_VALUE)
+            throw new ASRRuntimeException("Too many values to store compactly: " + domain.size());
+        this.domain = domain;
+        this.values = domain.getValues();
+        this.nPos = nPos;
+        this.codes = new byte[nRows][];
+    }
+
+    public Enumerable getDomain() {
+        return domain;
+    }
+
+    public int getPositions() {
+        return nPos;
+    }
+
+    /**
+     * @return true if the branch point has been assigned (even if all its positions are absent)
+     */
+    public boolean isAssigned(int row) {
+        return codes[row] != null;
+    }
+
+    /**
+     * Mark the branch point as assigned; positions are absent until set.
+     */
+    public void assign(int row) {
+        if (codes[row] == null) {
+            byte[] arr = new byte[nPos];
+            Arrays.fill(arr, ABSENT);
+            codes[row] = arr;
+        }
+    }
+
+    /**
+     * Set the state of a branch point at a position
+     * @param value the state, or null if absent
+     */
+    public void set(int row, int pos, Object value) {
+        assign(row);
+        if (value == null) {
+            codes[row][pos] = ABSENT;
+        } else {
+            if (!domain.isValid(value))
+                throw new ASRRuntimeException("Invalid state " + value + " at position " + pos);
+            codes[row][pos] = (byte) domain.getIndex(value);
+        }
+    }
+
+    /**
+     * Set the state of a branch point at a position by its code
+     * @param code index of the value in the domain, or {@link #ABSENT}
+     */
+    public void setCode(int row, int pos, byte code) {
+        assign(row);
+        codes[row][pos] = code;
+    }
+
+    /**
+     * @return the code of the state, {@link #ABSENT} if none
+     */
+    public byte getCode(int row, int pos) {
+        return codes[row] == null ? ABSENT : codes[row][pos];
+    }
+
+    /**
+     * @return the state, null if none
+     */
+    public Object get(int row, int pos) {
+        byte code = getCode(row, pos);
+        return code == ABSENT ? null : values[code];
+    }
+
+    /**
+     * Decode the states of a branch point
+     * @return states, null where absent; null if the branch point has not been assigned
+     */
+    public Object[] getRow(int row) {
+        if (codes[row] == null)
+            return null;
+        Object[] arr = new Object[nPos];
+        for (int pos = 0; pos < nPos; pos ++) {
+            byte code = codes[row][pos];
+            if (code != ABSENT)
+                arr[pos] = values[code];
+        }
+        return arr;
+    }
+
+    /**
+     * Decode all states
+     * @return states indexed by branch point and position, null where absent (including all branch points that have not been assigned)
+     */
+    public Object[][] toArray() {
+        Object[][] arr = new Object[codes.length][];
+        for (int row = 0; row < codes.length; row ++) {
+            arr[row] = getRow(row);
+            if (arr[row] == null)
+                arr[row] = new Object[nPos];
+        }
+        return arr;
+    }
+}
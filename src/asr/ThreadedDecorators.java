@@ -5,17 +5,17 @@ import dat.phylo.TreeInstance;
 
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.*;
+import java.util.concurrent.CancellationException;
 
 /**
- * this is the thread executor class
+ * Runs a batch of tree decorators in parallel, on the shared scheduler (see {@link Scheduler}).
  * @param <E>
  */
 public class ThreadedDecorators<E> { //
-    private ExecutorService executor;
-    private int nThreads;
-    private Map<Integer, Job<E>> jobsToDo = new HashMap<>();
-    private Map<Integer, Future<TreeDecor<E>>> jobsDone = new HashMap<>();
+    private final int nThreads;
+    private final TreeDecor<E>[] decors;
+    private final TreeInstance[] tis;
+    private volatile Scheduler.Batch batch = null;
 
     /**
      * Create a batch of tree decorators.
@@ -29,13 +29,8 @@ public class ThreadedDecorators<E> { //
         if (decors.length != tis.length)
             throw new ASRRuntimeException("Mismatch in batch jobs");
         this.nThreads = nThreads;
-        executor = Executors.newFixedThreadPool(nThreads);
-        // create jobs
-        for (int i = 0; i < decors.length; i ++) {
-            if (decors[i] != null) {
-                jobsToDo.put(i, new Job<>(decors[i], tis[i]));
-            }
-        }
+        this.decors = decors;
+        this.tis = tis;
     }
 
     /**
@@ -44,51 +39,49 @@ public class ThreadedDecorators<E> { //
      * @throws InterruptedException
      */
     public Map<Integer, TreeDecor<E>> runBatch() throws InterruptedException {
+        boolean[] failed = new boolean[decors.length];
+        batch = Scheduler.get(nThreads).submit(decors.length, i -> {
+            if (decors[i] != null) {
+                try {
+                    decors[i].decorate(tis[i]);
+                } catch (RuntimeException e) {
+                    System.err.println("Failed with job " + i + " for " + decors[i]);
+                    e.printStackTrace();
+                    failed[i] = true;
+                }
+            }
+        });
         if (GRASP.VERBOSE)
-            System.out.println("Running jobs: " + jobsToDo.size() + " with " + nThreads + " threads");
-
-        for (Map.Entry<Integer, Job<E>> entry : jobsToDo.entrySet()) {
-//            if (GRASP.VERBOSE)
-//                System.out.println("Considering thread " + job.toString() + " [" + !job.isCompleted() + "]");
-            Callable<TreeDecor<E>> worker = entry.getValue();
-            Future<TreeDecor<E>> submit = executor.submit(worker);
-            jobsDone.put(entry.getKey(), submit);
+            System.out.println("Running jobs: " + decors.length + " with " + nThreads + " threads");
+        try {
+            batch.join();
+        } catch (CancellationException e) {
+            throw new InterruptedException("Batch was cancelled");
         }
+        if (GRASP.VERBOSE)
+            System.out.println("Completed " + batch);
         // retrieve results
         Map<Integer, TreeDecor<E>> res = new HashMap<>();
-        for (Map.Entry<Integer, Future<TreeDecor<E>>> entry : jobsDone.entrySet()) {
-            Integer tag = entry.getKey();
-            Future<TreeDecor<E>> future = entry.getValue();
-            try {
-                TreeDecor ret = future.get();
-                res.put(tag, ret);
-            } catch (InterruptedException | ExecutionException e) {
-                System.err.println("Failed with thread for " + tag + " with future " + future);
-                e.printStackTrace();
-            }
+        for (int i = 0; i < decors.length; i ++) {
+            if (decors[i] != null && !failed[i])
+                res.put(i, decors[i]);
         }
-        executor.shutdown();
         return res;
     }
 
-    public class Job<E> implements Callable<TreeDecor<E>> {
-
-        private TreeDecor<E> decorator;
-        private TreeInstance ti;
-
-        public Job(TreeDecor<E> decorator, TreeInstance ti) {
-            this.decorator = decorator;
-            this.ti = ti;
-        }
+    /**
+     * Cancel the batch, if it is running: decorators that have not started are skipped.
+     */
+    public void cancel() {
+        if (batch != null)
+            batch.cancel();
+    }
 
-        @Override
-        public TreeDecor<E> call() throws Exception {
-//            if (GRASP.VERBOSE)
-//                System.out.println("Running thread " + this.toString());
-            decorator.decorate(ti);
-            TreeDecor<E> ret = decorator;
-            return ret;
-        }
+    /**
+     * @return the batch that was last run (with timing), or null if not run
+     */
+    public Scheduler.Batch getBatch() {
+        return batch;
     }
 
 }
@@ -40,6 +40,11 @@ public class BNet implements Serializable {
      */
     private boolean compiled = true;
 
+    /**
+     * Number of times nodes have been added or removed, so that structures derived from the BN can be kept up-to-date
+     */
+    private int modifications = 0;
+
     /**
      * All nodes of the BN
      */
@@ -89,6 +94,7 @@ public class BNet implements Serializable {
             throw new BNetRuntimeException("Duplicate node names in BNet: " + node.getName());
         }
         compiled = false;
+        modifications++;
         nodesByName.put(node.getName(), node);
         nodesByVar.put(node.getVariable(), node);
     }
@@ -113,10 +119,18 @@ public class BNet implements Serializable {
      */
     public void remove(BNode node) {
         compiled = false;
+        modifications++;
         nodesByName.remove(node.getName());
         nodesByVar.remove(node.getVariable());
     }
     
+    /**
+     * @return the number of times nodes have been added to or removed from the BN
+     */
+    public int getModifications() {
+        return modifications;
+    }
+
     /**
      * Compile and finalise the information in the Bayesian network so that
      * inference and other computationally complex processes can be done. (For
@@ -539,6 +553,39 @@ public class BNet implements Serializable {
         return bkey;
     }
 
+    /**
+     * Get the key to retrieve entries in the conditional probability given the values of parents in a state
+     * of the network, rather than the instances of nodes.
+     *
+     * @param node the node
+     * @param state values of variables
+     * @return the (partial) key, or null if the node has no parents
+     */
+    public Object[] getEvidenceKey(BNode node, Map<Variable, Object> state) {
+        if (node.isRoot())
+            return null;
+        List<EnumVariable> parents = node.getParents();
+        Object[] bkey = new Object[parents.size()];
+        for (int i = 0; i < bkey.length; i++)
+            bkey[i] = state.get(parents.get(i));
+        return bkey;
+    }
+
+    /**
+     * Sample values for the variables that have no value in a state of the network, using current parameters.
+     * Nodes are processed in a top-down manner; all parents before a child. The nodes are not modified.
+     *
+     * @param state values of variables, to which the samples are added
+     */
+    public void sampleInstance(Map<Variable, Object> state) {
+        for (BNode node : this.getOrdered()) { // traverse nodes in top-down order
+            if (state.get(node.getVariable()) == null) {
+                Distrib d = node.getDistrib(getEvidenceKey(node, state));
+                state.put(node.getVariable(), d.sample());
+            }
+        }
+    }
+
     /**
      * Use currently set instances to sample values for unset nodes.
      * The whole BN will be instantiated after this process.
@@ -569,12 +616,21 @@ public class BNet implements Serializable {
      * @return the preliminary list of relevant nodes, excluding query and evidence variables
      */
     public Set<BNode> getRelevantAndSome(Variable... query) {
-        List<BNode> relevant = new ArrayList<>();
+        return getRelevantAndSome(Evidence.of(this), query);
+    }
 
+    /**
+     * Determine the nodes that are relevant to a query, given evidence rather than the instances of nodes.
+     * @see #getRelevantAndSome(Variable...)
+     * @param evidence the evidence
+     * @param query the variables that are in the query
+     * @return the preliminary list of relevant nodes, excluding query and evidence variables
+     */
+    public Set<BNode> getRelevantAndSome(Evidence evidence, Variable... query) {
         Set<BNode> qset = new HashSet<>(); // set of nodes with query vars
         for (Variable qvar : query) {
             BNode qnode = this.getNode(qvar);
-            if (qnode.getInstance() == null)
+            if (!evidence.contains(qvar))
                 qset.add(qnode);
         }
 
@@ -585,7 +641,7 @@ public class BNet implements Serializable {
 
         Set<BNode> eset = new HashSet<>(); // set of nodes with evidence
         for (BNode node : this.getOrdered()) {
-            if (node.getInstance() != null)
+            if (evidence.contains(node.getVariable()))
                 eset.add(node);
         }
         for (BNode enode : eset) {
@@ -607,10 +663,21 @@ public class BNet implements Serializable {
      * FIXME: I don't think this implementation is correct (MB)
      */
     public List<BNode> getDconnected(Variable... query) {
+        return getDconnected(Evidence.of(this), query);
+    }
+
+    /**
+     * Find the nodes reachable from the query via active trails, given evidence rather than the instances of nodes.
+     * @see #getDconnected(Variable...)
+     * @param evidence the evidence
+     * @param query the variables that are in the query
+     * @return the reachable nodes in topological order
+     */
+    public List<BNode> getDconnected(Evidence evidence, Variable... query) {
         //Get set of evidence
         Set<BNode> z = new HashSet<BNode>(); //Evidence
         for (BNode node : this.getNodes()) {
-            if (node.getInstance() != null) {
+            if (evidence.contains(node.getVariable())) {
                 z.add(node);
             }
         }
@@ -789,6 +856,37 @@ public class BNet implements Serializable {
         return query_sample;
     }
     
+    /**
+     * Sample from the distribution of P(X|mb(X)), where the Markov blanket is valued by a state of the network,
+     * rather than by the instances of nodes. The nodes are not modified.
+     *
+     * @param query the node of X
+     * @param state values of all variables in the Markov blanket of X
+     * @return sample from distribution
+     */
+    public Object getMBProb(BNode query, Map<Variable, Object> state) {
+        if (!compiled) // relies on parent to children to parent linking, so BN must be compiled
+            this.compile();
+        Object[] key = this.getEvidenceKey(query, state);
+        if (!(query.getVariable() instanceof EnumVariable)) // Non-enumerable query, which means that there are no children of it
+            return query.getDistrib(key).sample();
+        Variable qvar = query.getVariable();
+        Object qvalue = state.get(qvar);
+        Enumerable edom = ((EnumVariable) qvar).getDomain();
+        double[] dist = new double[edom.size()];
+        Object[] values = edom.getValues();
+        Set<BNode> children = par2ch.get(query);
+        for (int i = 0; i < values.length; i ++) {
+            dist[i] = query.get(key, values[i]);
+            state.put(qvar, values[i]);
+            if (children != null)
+                for (BNode node : children)
+                    dist[i] *= node.get(getEvidenceKey(node, state), state.get(node.getVariable()));
+        }
+        state.put(qvar, qvalue);
+        return new EnumDistrib(edom, dist).sample();
+    }
+
     /**
      * Given the Markov Blanket network of a query, 
      * return a sample from the distribution of P(X|mb(X))
@@ -0,0 +1,147 @@
+/*
+    bnkit -- software for building and using Bayesian networks
+    Copyright (C) 2014  M. Boden et al.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bn;
+
+import dat.Variable;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Evidence as an immutable set of assignments of values to variables.
+ * Unlike instances of nodes (see {@link BNode#setInstance(Object)}), evidence is kept apart from the network,
+ * so that the same network (with its parameters untouched) can be queried with different evidence at the
+ * same time, e.g. from several threads.
+ */
+public final class Evidence {
+
+    /**
+     * No evidence
+     */
+    public static final Evidence NONE = new Evidence(Collections.emptyMap());
+
+    private final Map<Variable, Object> values;
+
+    private Evidence(Map<Variable, Object> values) {
+        this.values = values;
+    }
+
+    /**
+     * Create evidence from assignments; assignments of null are ignored
+     * @param assignments the assignments
+     * @return the evidence
+     */
+    public static Evidence of(Variable.Assignment... assignments) {
+        Map<Variable, Object> values = new HashMap<>();
+        for (Variable.Assignment assign : assignments)
+            if (assign != null && assign.val != null)
+                values.put(assign.var, assign.val);
+        return new Evidence(values);
+    }
+
+    /**
+     * Create evidence from variables and their values, e.g. a row of data; null values are ignored
+     * @param vars the variables
+     * @param vals the values, in the same order as the variables
+     * @return the evidence
+     */
+    public static Evidence of(Variable[] vars, Object[] vals) {
+        Map<Variable, Object> values = new HashMap<>();
+        for (int i = 0; i < vars.length && i < vals.length; i++)
+            if (vals[i] != null)
+                values.put(vars[i], vals[i]);
+        return new Evidence(values);
+    }
+
+    /**
+     * Create evidence from the current instances of the nodes of a network
+     * @param bn the network
+     * @return the evidence
+     */
+    public static Evidence of(BNet bn) {
+        Map<Variable, Object> values = new HashMap<>();
+        for (BNode node : bn.getNodes())
+            if (node.getInstance() != null)
+                values.put(node.getVariable(), node.getInstance());
+        return new Evidence(values);
+    }
+
+    /**
+     * Create evidence that adds (or replaces) an assignment to this evidence
+     * @param var the variable
+     * @param val the value, or null to remove the variable from the evidence
+     * @return new evidence
+     */
+    public Evidence with(Variable var, Object val) {
+        Map<Variable, Object> copy = new HashMap<>(values);
+        if (val == null)
+            copy.remove(var);
+        else
+            copy.put(var, val);
+        return new Evidence(copy);
+    }
+
+    /**
+     * @param var the variable
+     * @return the value assigned to the variable, or null if not assigned
+     */
+    public Object get(Variable var) {
+        return values.get(var);
+    }
+
+    public boolean contains(Variable var) {
+        return values.containsKey(var);
+    }
+
+    /**
+     * @return the variables that are assigned values
+     */
+    public Set<Variable> getVariables() {
+        return Collections.unmodifiableSet(values.keySet());
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * @return the assignments
+     */
+    public Variable.Assignment[] toArray() {
+        return Variable.Assignment.array(values);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Evidence && values.equals(((Evidence) other).values);
+    }
+
+    @Override
+    public int hashCode() {
+        return values.hashCode();
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<Variable, Object> entry : values.entrySet())
+            sb.append(sb.length() == 0 ? "" : ",").append(entry.getKey().getName()).append("=").append(entry.getValue());
+        return sb.toString();
+    }
+}
@@ -11,6 +11,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.function.Function;
 
 
 /**
@@ -85,11 +86,24 @@ public class SampleTrace {
      * All nodes are assumed to be instantiated.
      */
     public void count() {
+        count(BNode::getInstance);
+    }
+
+    /**
+     * Add the values of the query variables in a state of the network to the appropriate list.
+     * All variables are assumed to have values.
+     * @param state values of variables
+     */
+    public void count(Map<Variable, Object> state) {
+        count(node -> state.get(node.getVariable()));
+    }
+
+    private void count(Function<BNode, Object> instance) {
         int ecnt = 0;
         int key_index = 0;
         if (!allNonEnumerable) {
             for (BNode node : enumNodes)
-                key[ecnt ++] = node.getInstance();
+                key[ecnt ++] = instance.apply(node);
             key_index = enumCounts.getIndex(key);
             enumRecord[round] = key_index;
             enumCounts.count(key_index);
@@ -100,9 +114,9 @@ public class SampleTrace {
                     BNode node = entry.getKey();
                     SampleTable samples = entry.getValue();
                     if (allNonEnumerable) {
-                    	samples.count(node.getInstance());
+                    	samples.count(instance.apply(node));
                     } else {
-                    	samples.count(enumRecord[round - 1], node.getInstance());
+                    	samples.count(enumRecord[round - 1], instance.apply(node));
                     }
                 }
             }
@@ -2,6 +2,7 @@ package bn.alg;
 
 import bn.BNet;
 import bn.BNode;
+import bn.Evidence;
 import bn.Distrib;
 import dat.EnumTable;
 import bn.factor.Factor;
@@ -55,17 +56,28 @@ public class ApproxInference implements Inference {
      */
     @Override
     public Query makeQuery(Variable... qvars) {
+        return makeQuery(Evidence.of(bn), qvars);
+    }
+
+    /**
+     * Construct the data structure for the query, given evidence rather than the instances of nodes.
+     * The network is not modified by inference, so queries with different evidence can be run concurrently.
+     *
+     * @param evidence the evidence
+     * @param qvars query variables
+     */
+    public Query makeQuery(Evidence evidence, Variable... qvars) {
         List<BNode> X = new ArrayList<>(); // Query variables
         List<BNode> E = new ArrayList<>(); // Evidence variables
         List<BNode> Z = new ArrayList<>(); // 
 //        BNet qbn = bn.getRelevant(qvars); // create new BN with variables that are relevant to query, 
-        List<BNode> rnl = bn.getDconnected(qvars); //List of relevant nodes to be used based on FULL network
+        List<BNode> rnl = bn.getDconnected(evidence, qvars); //List of relevant nodes to be used based on FULL network
         try {
             for (Variable x : qvars) 
                 X.add(bn.getNode(x));
             for (BNode node : rnl) { // topological order: top-down
                 Variable var = node.getVariable();
-                if (node.getInstance() != null) {
+                if (evidence.contains(var)) {
                     E.add(bn.getNode(var));
                     //need to keep track of ALL non-evidence variables
                     //this includes the query variable
@@ -76,7 +88,7 @@ public class ApproxInference implements Inference {
         } catch (RuntimeException e) {
             throw new RuntimeException("makeQuery, ApproxInfer didn't work");
         }
-        return new AQuery(X, E, Z, rnl);
+        return new AQuery(X, E, Z, rnl, evidence);
     }
 
     /**
@@ -90,11 +102,15 @@ public class ApproxInference implements Inference {
         // BN that will be queried
 //        BNet cbn = q.qbn;
         List<BNode> rnl = q.rnl;
-        // First set all non-evidenced nodes including query
-        bn.sampleInstance();
+        // The state of the chain is kept apart from the nodes, starting with evidence;
+        // first set all non-evidenced variables including query
+        Map<Variable, Object> state = new HashMap<>();
+        for (Variable.Assignment assign : q.evidence.toArray())
+            state.put(assign.var, assign.val);
+        bn.sampleInstance(state);
 //        bn.sampleInstance(rnl); // will instantiate all nodes
         SampleTrace data = new SampleTrace(q.X, iterations);    // Storage class - maintains instance of each query node for each 'state' the chain passes through
-        data.count();                            // Observe the current instantiation, starting 'state' of chain
+        data.count(state);                       // Observe the current instantiation, starting 'state' of chain
         
         Map<BNode, Object> nextInstance = new HashMap<>();
         // Iterations of sampling
@@ -107,20 +123,17 @@ public class ApproxInference implements Inference {
                 // Get the Markov blanket for the node 
             	//The minimal set of nodes which d-separates node A from all other nodes is A's Markov blanket (MB)
                 // Sample from the Markov blanket distribution of the node
-                Object result = bn.getMBProb(node);
+                Object result = bn.getMBProb(node, state);
                 if (result != null) {
                     nextInstance.put(node, result); // save the sample for later
                 }
             }
             // instantiate the nodes according to the MB-based sampling
             for (Map.Entry<BNode, Object> inst : nextInstance.entrySet()) 
-                inst.getKey().setInstance(inst.getValue());
+                state.put(inst.getKey().getVariable(), inst.getValue());
             //Record instances of query node for current state of network
-            data.count();
+            data.count(state);
         }
-        // Reset all unevidenced nodes in network
-        for (BNode node : q.Z) 
-            node.resetInstance();
         // put everything in place
         Factor f = data.getFactor();
         return new CGTable(f);
@@ -164,12 +177,14 @@ public class ApproxInference implements Inference {
         final List<BNode> E;
         final List<BNode> Z;
         final List<BNode> rnl;
+        final Evidence evidence;
 
-        AQuery(List<BNode> X, List<BNode> E, List<BNode> Z, List<BNode> rnl) {
+        AQuery(List<BNode> X, List<BNode> E, List<BNode> Z, List<BNode> rnl, Evidence evidence) {
             this.X = X;
             this.E = E;
             this.Z = Z;
             this.rnl = rnl;
+            this.evidence = evidence;
         }
     }
 
@@ -0,0 +1,196 @@
+/*
+    bnkit -- software for building and using Bayesian networks
+    Copyright (C) 2014  M. Boden et al.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bn.alg;
+
+import bn.BNet;
+import bn.Evidence;
+import dat.Variable;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * Inference for many rows of evidence, e.g. to score a data set with a trained network.
+ * Each row is evidence for the variables in the header; null values and variables that are not in the
+ * network are ignored. Rows are never set as instances of nodes, so the network is not modified.
+ *
+ * Rows are grouped by their evidence pattern (which variables have values). The first row of each
+ * pattern is inferred on its own, so that the plan of its query is made once (see {@link VarElim});
+ * all other rows re-use that plan, and are inferred in parallel.
+ */
+public class BatchInference {
+
+    private final VarElim ve;
+    private final Variable[] headers;
+    private final int nThreads;
+
+    /**
+     * Set-up inference for rows of evidence
+     * @param bn the network, which should not be modified while in use
+     * @param headers the variable of each column
+     * @param nThreads number of threads; 1 or less to infer rows in the calling thread
+     */
+    public BatchInference(BNet bn, Variable[] headers, int nThreads) {
+        this.ve = new VarElim();
+        this.ve.instantiate(bn);
+        this.headers = headers;
+        this.nThreads = nThreads;
+    }
+
+    /**
+     * @return the inference engine, e.g. to access the plan hit rate
+     */
+    public VarElim getVarElim() {
+        return ve;
+    }
+
+    /**
+     * Determine the columns that are used as evidence: those of variables in the network that are not excluded
+     * @param exclude variables to ignore, e.g. the query
+     * @return true for each column that is used
+     */
+    private boolean[] getColumns(Variable... exclude) {
+        Set<Variable> excluded = new HashSet<>(List.of(exclude));
+        boolean[] used = new boolean[headers.length];
+        for (int j = 0; j < headers.length; j++)
+            used[j] = !excluded.contains(headers[j]) && ve.bn.getNode(headers[j]) != null;
+        return used;
+    }
+
+    /**
+     * Collect the evidence of a row
+     * @param row the values, in order of the header
+     * @param used the columns that are used
+     * @return the evidence
+     */
+    private Evidence getEvidence(Object[] row, boolean[] used) {
+        List<Variable.Assignment> assigns = new ArrayList<>(headers.length);
+        for (int j = 0; j < headers.length && j < row.length; j++)
+            if (row[j] != null && used[j])
+                assigns.add(new Variable.Assignment(headers[j], row[j]));
+        return Evidence.of(assigns.toArray(new Variable.Assignment[0]));
+    }
+
+    /**
+     * Infer each row: the first row of each evidence pattern in the calling thread, then all others in parallel
+     * @param rows the rows
+     * @param used the columns that are used
+     * @param task the inference of a row, given its index
+     */
+    private void run(Object[][] rows, boolean[] used, IntConsumer task) {
+        Map<BitSet, Integer> patterns = new HashMap<>();
+        boolean[] done = new boolean[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            BitSet pattern = new BitSet(headers.length);
+            for (int j = 0; j < headers.length && j < rows[i].length; j++)
+                if (rows[i][j] != null && used[j])
+                    pattern.set(j);
+            if (patterns.putIfAbsent(pattern, i) == null) {
+                task.accept(i);
+                done[i] = true;
+            }
+        }
+        if (nThreads <= 1) {
+            for (int i = 0; i < rows.length; i++)
+                if (!done[i])
+                    task.accept(i);
+            return;
+        }
+        AtomicInteger next = new AtomicInteger(0);
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < nThreads; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = next.getAndIncrement(); i < rows.length; i = next.getAndIncrement())
+                        if (!done[i])
+                            task.accept(i);
+                }));
+            }
+            for (Future<?> future : futures)
+                future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new BatchInferenceRuntimeException("Batch inference failed: " + e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BatchInferenceRuntimeException("Batch inference was interrupted");
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Infer the belief of query variables for each row.
+     * Values of the query variables in the rows are ignored, i.e. they are inferred as if not observed.
+     * @param rows the rows of evidence
+     * @param qvars the query variables
+     * @return the result of each row, in the same order
+     */
+    public QueryResult[] infer(Object[][] rows, Variable... qvars) {
+        QueryResult[] results = new QueryResult[rows.length];
+        boolean[] used = getColumns(qvars);
+        run(rows, used, i -> results[i] = ve.infer(ve.makeQuery(getEvidence(rows[i], used), qvars)));
+        return results;
+    }
+
+    /**
+     * Infer the most probable explanation for each row, see {@link VarElim#makeMPE(Variable...)}.
+     * @param rows the rows of evidence
+     * @param qvars variables that are inferred rather than maxed out, can be empty
+     * @return the result of each row, in the same order, from which assignments are accessed via {@link CGTable#getMPE()}
+     */
+    public QueryResult[] inferMPE(Object[][] rows, Variable... qvars) {
+        QueryResult[] results = new QueryResult[rows.length];
+        boolean[] used = getColumns(qvars);
+        run(rows, used, i -> results[i] = ve.infer(ve.makeMPE(getEvidence(rows[i], used), qvars)));
+        return results;
+    }
+
+    /**
+     * Determine the log likelihood of each row.
+     * @param rows the rows of evidence
+     * @return the log likelihood of each row, in the same order
+     */
+    public double[] logLikelihood(Object[][] rows) {
+        double[] results = new double[rows.length];
+        boolean[] used = getColumns();
+        run(rows, used, i -> results[i] = ve.logLikelihood(getEvidence(rows[i], used)));
+        return results;
+    }
+
+    public class BatchInferenceRuntimeException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public BatchInferenceRuntimeException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+    bnkit -- software for building and using Bayesian networks
+    Copyright (C) 2014  M. Boden et al.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bn.alg;
+
+import dat.EnumVariable;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * An order in which to eliminate (sum- or max-out) enumerable variables, found by a greedy heuristic on the
+ * interaction graph of a set of factors, i.e. the graph in which variables are adjacent if they appear in the
+ * same factor. Each step eliminates the best scoring variable, and connects its neighbours (fill-in).
+ *
+ * The cost of an order is estimated as the total size of the factors that are created when variables are
+ * eliminated (the product over each variable and its neighbours at the time); the largest of these is the width.
+ * See Koller and Friedman, Probabilistic Graphical Models, 2009, section 9.4.3.
+ */
+public class EliminationOrder {
+
+    public enum Heuristic {
+        TOPOLOGICAL,        // in the order given, e.g. parents before children
+        MIN_DEGREE,         // fewest neighbours
+        MIN_FILL,           // fewest edges added between neighbours
+        WEIGHTED_MIN_FILL   // smallest sum of edges added, each weighted by the product of the domain sizes it connects
+    }
+
+    private final Heuristic heuristic;
+    private final EnumVariable[] order;
+    private final double cost;
+    private final double width;
+
+    private EliminationOrder(Heuristic heuristic, EnumVariable[] order, double cost, double width) {
+        this.heuristic = heuristic;
+        this.order = order;
+        this.cost = cost;
+        this.width = width;
+    }
+
+    /**
+     * Find an order by a heuristic
+     * @param scopes the enumerable variables of each factor (evidence excluded)
+     * @param eliminate the variables to eliminate, e.g. in topological order, which is also used to break ties
+     * @param heuristic the heuristic
+     * @return the order
+     */
+    public static EliminationOrder find(Collection<EnumVariable[]> scopes, List<EnumVariable> eliminate, Heuristic heuristic) {
+        return new Graph(scopes, eliminate).eliminate(heuristic);
+    }
+
+    /**
+     * Find the order of least cost by any of the heuristics
+     * @param scopes the enumerable variables of each factor (evidence excluded)
+     * @param eliminate the variables to eliminate, e.g. in topological order, which is also used to break ties
+     * @return the cheapest order
+     */
+    public static EliminationOrder findBest(Collection<EnumVariable[]> scopes, List<EnumVariable> eliminate) {
+        EliminationOrder best = null;
+        for (Heuristic heuristic : Heuristic.values()) {
+            EliminationOrder order = find(scopes, eliminate, heuristic);
+            if (best == null || order.cost < best.cost)
+                best = order;
+        }
+        return best;
+    }
+
+    public Heuristic getHeuristic() {
+        return heuristic;
+    }
+
+    /**
+     * @return the variables, first eliminated first
+     */
+    public EnumVariable[] getOrder() {
+        return order;
+    }
+
+    /**
+     * @return the estimated cost, as the total number of entries of the factors created by elimination
+     */
+    public double getCost() {
+        return cost;
+    }
+
+    /**
+     * @return the number of entries of the largest factor created by elimination
+     */
+    public double getWidth() {
+        return width;
+    }
+
+    public String toString() {
+        return String.format("%s order of %d variables, cost %.3g, width %.3g", heuristic, order.length, cost, width);
+    }
+
+    /**
+     * Interaction graph, with variables indexed as first found in the variables to eliminate, then in the scopes
+     */
+    private static class Graph {
+        final List<EnumVariable> vars = new ArrayList<>();
+        final int nElim;
+        final BitSet[] adj;
+
+        Graph(Collection<EnumVariable[]> scopes, List<EnumVariable> eliminate) {
+            Map<EnumVariable, Integer> index = new HashMap<>();
+            for (EnumVariable var : eliminate)
+                if (index.putIfAbsent(var, vars.size()) == null)
+                    vars.add(var);
+            this.nElim = vars.size();
+            for (EnumVariable[] scope : scopes)
+                for (EnumVariable var : scope)
+                    if (index.putIfAbsent(var, vars.size()) == null)
+                        vars.add(var);
+            this.adj = new BitSet[vars.size()];
+            for (int v = 0; v < adj.length; v++)
+                adj[v] = new BitSet(adj.length);
+            for (EnumVariable[] scope : scopes) {
+                for (EnumVariable x : scope) {
+                    BitSet nbs = adj[index.get(x)];
+                    for (EnumVariable y : scope)
+                        if (x != y)
+                            nbs.set(index.get(y));
+                }
+            }
+        }
+
+        double getWeight(int v) {
+            double weight = vars.get(v).size();
+            for (int u = adj[v].nextSetBit(0); u >= 0; u = adj[v].nextSetBit(u + 1))
+                weight *= vars.get(u).size();
+            return weight;
+        }
+
+        double getScore(int v, Heuristic heuristic) {
+            switch (heuristic) {
+                case TOPOLOGICAL:
+                    return v;
+                case MIN_DEGREE:
+                    return adj[v].cardinality();
+                default:
+                    double fill = 0;
+                    for (int u = adj[v].nextSetBit(0); u >= 0; u = adj[v].nextSetBit(u + 1)) {
+                        BitSet missing = (BitSet) adj[v].clone();
+                        missing.andNot(adj[u]);
+                        for (int w = missing.nextSetBit(u + 1); w >= 0; w = missing.nextSetBit(w + 1))
+                            fill += heuristic == Heuristic.MIN_FILL ? 1 : (double) vars.get(u).size() * vars.get(w).size();
+                    }
+                    return fill;
+            }
+        }
+
+        /**
+         * Eliminate the variables (this graph is modified)
+         */
+        EliminationOrder eliminate(Heuristic heuristic) {
+            EnumVariable[] order = new EnumVariable[nElim];
+            double cost = 0, width = 0;
+            // candidates by score, then weight, then index; entries are re-queued when a score changes
+            PriorityQueue<double[]> queue = new PriorityQueue<>(Math.max(1, nElim), (a, b) -> {
+                int cmp = Double.compare(a[0], b[0]);
+                if (cmp == 0)
+                    cmp = Double.compare(a[1], b[1]);
+                return cmp != 0 ? cmp : Double.compare(a[2], b[2]);
+            });
+            int[] version = new int[nElim];
+            boolean[] done = new boolean[nElim];
+            for (int v = 0; v < nElim; v++)
+                queue.add(new double[] {getScore(v, heuristic), getWeight(v), v, 0});
+            for (int step = 0; step < nElim; step++) {
+                double[] top = queue.poll();
+                while (done[(int) top[2]] || version[(int) top[2]] != (int) top[3])
+                    top = queue.poll();
+                int v = (int) top[2];
+                double weight = getWeight(v);
+                cost += weight;
+                width = Math.max(width, weight);
+                BitSet nbs = adj[v];
+                BitSet affected = new BitSet(adj.length);
+                for (int u = nbs.nextSetBit(0); u >= 0; u = nbs.nextSetBit(u + 1)) {
+                    adj[u].or(nbs);
+                    adj[u].clear(u);
+                    adj[u].clear(v);
+                    affected.or(adj[u]);
+                }
+                affected.or(nbs);
+                if (heuristic == Heuristic.MIN_DEGREE) // only the degree of neighbours change
+                    affected.and(nbs);
+                adj[v] = new BitSet();
+                done[v] = true;
+                order[step] = vars.get(v);
+                if (heuristic == Heuristic.TOPOLOGICAL)
+                    continue;
+                for (int u = affected.nextSetBit(0); u >= 0 && u < nElim; u = affected.nextSetBit(u + 1)) {
+                    if (done[u])
+                        continue;
+                    version[u]++;
+                    queue.add(new double[] {getScore(u, heuristic), getWeight(u), u, version[u]});
+                }
+            }
+            return new EliminationOrder(heuristic, order, cost, width);
+        }
+    }
+}
@@ -0,0 +1,616 @@
+/*
+    bnkit -- software for building and using Bayesian networks
+    Copyright (C) 2014  M. Boden et al.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bn.alg;
+
+import bn.BNet;
+import bn.BNode;
+import bn.factor.AbstractFactor;
+import bn.factor.Factorize;
+import dat.EnumVariable;
+import dat.Variable;
+
+import java.util.*;
+
+/**
+ * Exact inference in Bayesian network by message passing in a junction tree (also known as a clique tree).
+ * The network is compiled once into a tree of cliques; factors of nodes are assigned to cliques, and
+ * messages are passed between cliques in accordance with the Shafer-Shenoy architecture (no division).
+ * After one calibration (two passes of messages), the marginal of any variable (or set of variables in the
+ * same clique) is available from a single clique.
+ *
+ * Evidence is read from the network (instantiated nodes) when inference is performed. When evidence changes,
+ * only the factors of affected nodes are re-made, and only messages that depend on them are passed again.
+ * If the parameters of the network change (e.g. in EM), call {@link #update()}.
+ *
+ * Only enumerable variables can be part of cliques. Non-enumerable nodes (e.g. Gaussians, which have only
+ * enumerable parents) contribute a likelihood on their parents when instantiated, and are otherwise barren.
+ * Queries that cannot be answered from a single clique are passed on to variable elimination.
+ *
+ * Shafer GR and Shenoy PP, Probability propagation, Annals of Mathematics and Artificial Intelligence 1990 2:327-351.
+ * Koller D and Friedman N, Probabilistic Graphical Models, MIT Press 2009, chapter 10.
+ */
+public class JunctionTree implements Inference {
+
+    public BNet bn;
+
+    private BNode[] nodes;                  // all nodes, in topological order
+    private int[][] children;               // nodes which factors include the variable of each node
+    private Object[] instances;             // the instance of each node when its factor was last made
+    private final Map<Variable, Object> scope = new HashMap<>(); // all variables, with evidence if instantiated
+    private AbstractFactor[] factors;       // factor of each node, null if stale (or barren)
+    private EnumVariable[][] cliques;       // variables of each clique
+    private int[][] assigned;               // nodes assigned to each clique
+    private int[] home;                     // clique assigned to each node (-1 if none)
+    private int[][] neighbours;             // adjacent cliques, the junction tree
+    private int[][] reverse;                // reverse[i][k] is the position of i among the neighbours of neighbours[i][k]
+    private EnumVariable[][][] separators;  // variables shared by each clique and each of its neighbours
+    private int[] order;                    // cliques in breadth-first order from the root of each component
+    private int[] parent;                   // parent in that order, -1 for roots
+    private final Map<Variable, Integer> varclique = new HashMap<>(); // smallest clique with each variable
+    private AbstractFactor[] potentials;    // product of factors assigned to each clique, null if none
+    private boolean[] stale;                // potential of clique needs to be re-made
+    private AbstractFactor[][] messages;    // messages[i][k] from clique i to neighbours[i][k], null if none (unity)
+    private boolean[][] valid;              // message is up-to-date
+    private AbstractFactor[] beliefs;       // product of potential and incoming messages, null if not up-to-date
+    private VarElim fallback = null;        // for queries that span cliques
+
+    @Override
+    public void instantiate(BNet bn) {
+        this.bn = bn;
+        this.bn.compile();
+        List<BNode> ordered = bn.getOrdered();
+        this.nodes = ordered.toArray(new BNode[0]);
+        Map<Variable, Integer> nodeidx = new HashMap<>();
+        for (int i = 0; i < nodes.length; i++)
+            nodeidx.put(nodes[i].getVariable(), i);
+        // index enumerable variables, and connect the members of each family (moralisation)
+        List<EnumVariable> evars = new ArrayList<>();
+        Map<Variable, Integer> varidx = new HashMap<>();
+        for (BNode node : nodes) {
+            if (node.getVariable() instanceof EnumVariable) {
+                varidx.put(node.getVariable(), evars.size());
+                evars.add((EnumVariable) node.getVariable());
+            }
+        }
+        int nVars = evars.size();
+        BitSet[] adj = new BitSet[nVars];
+        for (int v = 0; v < nVars; v++)
+            adj[v] = new BitSet(nVars);
+        List<List<Integer>> childlists = new ArrayList<>();
+        for (int i = 0; i < nodes.length; i++)
+            childlists.add(new ArrayList<>());
+        BitSet[] families = new BitSet[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            BitSet family = new BitSet(nVars);
+            Integer self = varidx.get(nodes[i].getVariable());
+            if (self != null)
+                family.set(self);
+            List<EnumVariable> parents = nodes[i].getParents();
+            if (parents != null) {
+                for (EnumVariable p : parents) {
+                    family.set(varidx.get(p));
+                    childlists.get(nodeidx.get(p)).add(i);
+                }
+            }
+            for (int v = family.nextSetBit(0); v >= 0; v = family.nextSetBit(v + 1)) {
+                adj[v].or(family);
+                adj[v].clear(v);
+            }
+            families[i] = family;
+        }
+        this.children = new int[nodes.length][];
+        for (int i = 0; i < nodes.length; i++)
+            children[i] = childlists.get(i).stream().mapToInt(Integer::intValue).toArray();
+        compileTree(evars, adj);
+        // assign each node to the smallest clique that contains its family
+        this.home = new int[nodes.length];
+        List<List<Integer>> assignlists = new ArrayList<>();
+        for (int c = 0; c < cliques.length; c++)
+            assignlists.add(new ArrayList<>());
+        for (int i = 0; i < nodes.length; i++) {
+            home[i] = -1;
+            double best = Double.POSITIVE_INFINITY;
+            for (int c = 0; c < cliques.length; c++) {
+                if (contains(cliques[c], families[i], evars) && getWeight(cliques[c]) < best) {
+                    best = getWeight(cliques[c]);
+                    home[i] = c;
+                }
+            }
+            if (home[i] == -1 && !families[i].isEmpty())
+                throw new JunctionTreeRuntimeException("No clique for the family of node " + nodes[i].getName());
+            if (home[i] >= 0)
+                assignlists.get(home[i]).add(i);
+        }
+        this.assigned = new int[cliques.length][];
+        for (int c = 0; c < cliques.length; c++)
+            assigned[c] = assignlists.get(c).stream().mapToInt(Integer::intValue).toArray();
+        for (int c = 0; c < cliques.length; c++) {
+            for (EnumVariable var : cliques[c]) {
+                Integer prev = varclique.get(var);
+                if (prev == null || getWeight(cliques[prev]) > getWeight(cliques[c]))
+                    varclique.put(var, c);
+            }
+        }
+        this.instances = new Object[nodes.length];
+        this.factors = new AbstractFactor[nodes.length];
+        this.potentials = new AbstractFactor[cliques.length];
+        this.beliefs = new AbstractFactor[cliques.length];
+        this.stale = new boolean[cliques.length];
+        update();
+    }
+
+    /**
+     * Create the cliques from a triangulation of the moral graph, by eliminating variables in min-fill order
+     * (ties are broken by the size of the resulting clique), and join them into a tree (forest, if the network
+     * is not connected), in which each clique is adjacent to the clique that first eliminates one of its
+     * remaining variables. Cliques that are subsets of an adjacent clique are merged into it.
+     * @param evars the enumerable variables
+     * @param adj the moral graph, as adjacent variables of each variable; this is modified
+     */
+    private void compileTree(List<EnumVariable> evars, BitSet[] adj) {
+        int nVars = evars.size();
+        int[] elimorder = new int[nVars];
+        int[] position = new int[nVars];
+        BitSet remaining = new BitSet(nVars);
+        remaining.set(0, nVars);
+        BitSet[] elimcliques = new BitSet[nVars];
+        for (int step = 0; step < nVars; step++) {
+            int best = -1;
+            long bestfill = Long.MAX_VALUE;
+            double bestweight = Double.POSITIVE_INFINITY;
+            for (int v = remaining.nextSetBit(0); v >= 0; v = remaining.nextSetBit(v + 1)) {
+                long fill = getFill(adj, v);
+                if (fill > bestfill)
+                    continue;
+                double weight = evars.get(v).size();
+                for (int u = adj[v].nextSetBit(0); u >= 0; u = adj[v].nextSetBit(u + 1))
+                    weight *= evars.get(u).size();
+                if (fill < bestfill || weight < bestweight) {
+                    best = v;
+                    bestfill = fill;
+                    bestweight = weight;
+                }
+            }
+            BitSet clique = (BitSet) adj[best].clone();
+            for (int u = clique.nextSetBit(0); u >= 0; u = clique.nextSetBit(u + 1)) { // connect neighbours (fill-in), then remove
+                adj[u].or(clique);
+                adj[u].clear(u);
+                adj[u].clear(best);
+            }
+            clique.set(best);
+            elimorder[step] = best;
+            position[best] = step;
+            elimcliques[step] = clique;
+            remaining.clear(best);
+        }
+        // each clique is adjacent to the clique of the first eliminated of its other variables
+        List<Set<Integer>> tree = new ArrayList<>();
+        for (int step = 0; step < nVars; step++)
+            tree.add(new HashSet<>());
+        for (int step = 0; step < nVars; step++) {
+            int first = -1;
+            BitSet clique = elimcliques[step];
+            for (int u = clique.nextSetBit(0); u >= 0; u = clique.nextSetBit(u + 1))
+                if (u != elimorder[step] && (first == -1 || position[u] < first))
+                    first = position[u];
+            if (first >= 0) {
+                tree.get(step).add(first);
+                tree.get(first).add(step);
+            }
+        }
+        // merge cliques that are subsets of an adjacent clique
+        BitSet alive = new BitSet(nVars);
+        alive.set(0, nVars);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = alive.nextSetBit(0); i >= 0; i = alive.nextSetBit(i + 1)) {
+                for (int j : tree.get(i)) {
+                    BitSet diff = (BitSet) elimcliques[i].clone();
+                    diff.andNot(elimcliques[j]);
+                    if (diff.isEmpty()) { // i is a subset of j
+                        for (int k : tree.get(i)) {
+                            if (k == j)
+                                continue;
+                            tree.get(k).remove(i);
+                            tree.get(k).add(j);
+                            tree.get(j).add(k);
+                        }
+                        tree.get(j).remove(i);
+                        tree.get(i).clear();
+                        alive.clear(i);
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+        // index the remaining cliques
+        int[] newidx = new int[nVars];
+        int nCliques = 0;
+        for (int i = alive.nextSetBit(0); i >= 0; i = alive.nextSetBit(i + 1))
+            newidx[i] = nCliques++;
+        this.cliques = new EnumVariable[nCliques][];
+        this.neighbours = new int[nCliques][];
+        for (int i = alive.nextSetBit(0); i >= 0; i = alive.nextSetBit(i + 1)) {
+            BitSet clique = elimcliques[i];
+            EnumVariable[] vars = new EnumVariable[clique.cardinality()];
+            int cnt = 0;
+            for (int u = clique.nextSetBit(0); u >= 0; u = clique.nextSetBit(u + 1))
+                vars[cnt++] = evars.get(u);
+            cliques[newidx[i]] = vars;
+            neighbours[newidx[i]] = tree.get(i).stream().mapToInt(j -> newidx[j]).sorted().toArray();
+        }
+        this.reverse = new int[nCliques][];
+        this.separators = new EnumVariable[nCliques][][];
+        this.messages = new AbstractFactor[nCliques][];
+        this.valid = new boolean[nCliques][];
+        for (int c = 0; c < nCliques; c++) {
+            int n = neighbours[c].length;
+            reverse[c] = new int[n];
+            separators[c] = new EnumVariable[n][];
+            messages[c] = new AbstractFactor[n];
+            valid[c] = new boolean[n];
+            for (int k = 0; k < n; k++) {
+                int d = neighbours[c][k];
+                reverse[c][k] = Arrays.binarySearch(neighbours[d], c);
+                List<EnumVariable> shared = new ArrayList<>();
+                for (EnumVariable var : cliques[c])
+                    for (EnumVariable other : cliques[d])
+                        if (var == other)
+                            shared.add(var);
+                separators[c][k] = shared.toArray(new EnumVariable[0]);
+            }
+        }
+        // order cliques breadth-first from a root in each component
+        this.order = new int[nCliques];
+        this.parent = new int[nCliques];
+        boolean[] visited = new boolean[nCliques];
+        int head = 0, tail = 0;
+        for (int root = 0; root < nCliques; root++) {
+            if (visited[root])
+                continue;
+            visited[root] = true;
+            parent[root] = -1;
+            order[tail++] = root;
+            while (head < tail) {
+                int c = order[head++];
+                for (int d : neighbours[c]) {
+                    if (!visited[d]) {
+                        visited[d] = true;
+                        parent[d] = c;
+                        order[tail++] = d;
+                    }
+                }
+            }
+        }
+    }
+
+    private static long getFill(BitSet[] adj, int v) {
+        long fill = 0;
+        for (int u = adj[v].nextSetBit(0); u >= 0; u = adj[v].nextSetBit(u + 1)) {
+            BitSet missing = (BitSet) adj[v].clone();
+            missing.andNot(adj[u]);
+            missing.clear(u);
+            fill += missing.cardinality();
+        }
+        return fill / 2;
+    }
+
+    private static boolean contains(EnumVariable[] clique, BitSet family, List<EnumVariable> evars) {
+        for (int v = family.nextSetBit(0); v >= 0; v = family.nextSetBit(v + 1)) {
+            boolean found = false;
+            for (EnumVariable var : clique) {
+                if (var == evars.get(v)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found)
+                return false;
+        }
+        return true;
+    }
+
+    private static double getWeight(EnumVariable[] vars) {
+        double weight = 1;
+        for (EnumVariable var : vars)
+            weight *= var.size();
+        return weight;
+    }
+
+    /**
+     * Re-make all factors and pass all messages again when next needed, e.g. after the parameters of the
+     * network have changed.
+     */
+    public void update() {
+        for (int i = 0; i < nodes.length; i++) {
+            instances[i] = nodes[i].getInstance();
+            scope.put(nodes[i].getVariable(), instances[i]);
+            factors[i] = null;
+        }
+        for (int c = 0; c < cliques.length; c++) {
+            stale[c] = true;
+            beliefs[c] = null;
+            Arrays.fill(valid[c], false);
+        }
+    }
+
+    /**
+     * Read evidence from the network; re-make the factors of nodes that are affected by changed evidence, and
+     * invalidate the messages that depend on them.
+     */
+    private void readEvidence() {
+        for (int i = 0; i < nodes.length; i++) {
+            Object instance = nodes[i].getInstance();
+            if (Objects.equals(instance, instances[i]))
+                continue;
+            instances[i] = instance;
+            scope.put(nodes[i].getVariable(), instance);
+            setStale(i);
+            for (int child : children[i])
+                setStale(child);
+        }
+    }
+
+    private void setStale(int nodeidx) {
+        factors[nodeidx] = null;
+        int c = home[nodeidx];
+        if (c < 0 || stale[c])
+            return;
+        stale[c] = true;
+        beliefs[c] = null;
+        // invalidate all messages directed away from the clique
+        Deque<int[]> queue = new ArrayDeque<>(); // clique, and the clique it was reached from
+        queue.add(new int[] {c, -1});
+        while (!queue.isEmpty()) {
+            int[] entry = queue.poll();
+            int from = entry[0];
+            for (int k = 0; k < neighbours[from].length; k++) {
+                int to = neighbours[from][k];
+                if (to == entry[1])
+                    continue;
+                valid[from][k] = false;
+                beliefs[to] = null;
+                queue.add(new int[] {to, from});
+            }
+        }
+    }
+
+    private AbstractFactor getFactor(int nodeidx) {
+        if (factors[nodeidx] == null) {
+            BNode node = nodes[nodeidx];
+            if (!(node.getVariable() instanceof EnumVariable) && instances[nodeidx] == null)
+                return null; // a barren, non-enumerable node
+            factors[nodeidx] = node.makeDenseFactor(scope);
+        }
+        return factors[nodeidx];
+    }
+
+    private AbstractFactor getPotential(int c) {
+        if (stale[c]) {
+            List<AbstractFactor> fs = new ArrayList<>();
+            for (int nodeidx : assigned[c]) {
+                AbstractFactor f = getFactor(nodeidx);
+                if (f != null)
+                    fs.add(f);
+            }
+            potentials[c] = product(fs);
+            stale[c] = false;
+        }
+        return potentials[c];
+    }
+
+    private static AbstractFactor product(List<AbstractFactor> fs) {
+        if (fs.isEmpty())
+            return null;
+        if (fs.size() == 1)
+            return fs.get(0);
+        if (fs.size() == 2)
+            return Factorize.getProduct(fs.get(0), fs.get(1));
+        return Factorize.getProduct(fs.toArray(new AbstractFactor[0]));
+    }
+
+    /**
+     * Product of the potential of a clique and messages from its neighbours
+     * @param c clique
+     * @param except position of the neighbour which message is excluded; -1 to include all
+     * @return the product, null if unity
+     */
+    private AbstractFactor collect(int c, int except) {
+        List<AbstractFactor> fs = new ArrayList<>();
+        AbstractFactor potential = getPotential(c);
+        if (potential != null)
+            fs.add(potential);
+        for (int k = 0; k < neighbours[c].length; k++) {
+            if (k == except)
+                continue;
+            AbstractFactor msg = messages[neighbours[c][k]][reverse[c][k]];
+            if (msg != null)
+                fs.add(msg);
+        }
+        return product(fs);
+    }
+
+    private void send(int c, int k) {
+        if (valid[c][k])
+            return;
+        AbstractFactor f = collect(c, k);
+        if (f != null && f.hasEnumVars()) {
+            List<Variable> sumout = new ArrayList<>();
+            for (EnumVariable var : f.getEnumVars())
+                if (!Arrays.asList(separators[c][k]).contains(var))
+                    sumout.add(var);
+            if (!sumout.isEmpty())
+                f = Factorize.getMargin(f, sumout.toArray(new Variable[0]));
+        }
+        messages[c][k] = f;
+        valid[c][k] = true;
+        beliefs[neighbours[c][k]] = null;
+    }
+
+    /**
+     * Read evidence from the network, and pass all messages that are not up-to-date, so that the belief of every
+     * clique is proportional to the joint probability of its variables and the evidence.
+     */
+    public void calibrate() {
+        readEvidence();
+        for (int i = order.length - 1; i >= 0; i--) { // collect, from leaves to roots
+            int c = order[i];
+            if (parent[c] >= 0)
+                send(c, Arrays.binarySearch(neighbours[c], parent[c]));
+        }
+        for (int c : order) {                        // distribute, from roots to leaves
+            for (int k = 0; k < neighbours[c].length; k++)
+                if (neighbours[c][k] != parent[c])
+                    send(c, k);
+        }
+    }
+
+    private AbstractFactor getBelief(int c) {
+        if (beliefs[c] == null)
+            beliefs[c] = collect(c, -1);
+        return beliefs[c];
+    }
+
+    /**
+     * @return number of cliques in the junction tree
+     */
+    public int getSize() {
+        return cliques.length;
+    }
+
+    @Override
+    public Query makeQuery(Variable[] qvars) {
+        return new JTQuery(qvars);
+    }
+
+    /**
+     * Infer the probabilities of the query variables given the evidence currently in the network.
+     * If the variables are in the same clique, the result is taken from its belief, after calibration;
+     * otherwise, variable elimination is used.
+     * @param query query handle, see {@link #makeQuery(Variable[])}
+     * @return the joint probability of the query variables
+     */
+    @Override
+    public QueryResult infer(Query query) {
+        JTQuery q = (JTQuery) query;
+        int best = -1;
+        for (int c = 0; c < cliques.length; c++) {
+            if (Arrays.asList(cliques[c]).containsAll(q.Q) && (best == -1 || getWeight(cliques[c]) < getWeight(cliques[best])))
+                best = c;
+        }
+        if (best == -1 || q.Q.isEmpty()) {
+            if (fallback == null) {
+                fallback = new VarElim();
+                fallback.instantiate(bn);
+            }
+            return fallback.infer(q.Q.toArray(new Variable[0]));
+        }
+        calibrate();
+        return getMarginal(best, q.Q);
+    }
+
+    /**
+     * Marginalise the belief of a (calibrated) clique to query variables
+     * @param c clique
+     * @param Q query variables, all in the clique
+     * @return the joint probability of the query variables
+     */
+    private QueryResult getMarginal(int c, List<Variable> Q) {
+        AbstractFactor f = getBelief(c);
+        if (f == null)
+            throw new JunctionTreeRuntimeException("Clique has no factors: " + Arrays.toString(cliques[c]));
+        List<Variable> sumout = new ArrayList<>();
+        if (f.hasEnumVars())
+            for (EnumVariable var : f.getEnumVars())
+                if (!Q.contains(var))
+                    sumout.add(var);
+        if (!sumout.isEmpty())
+            f = Factorize.getMargin(f, sumout.toArray(new Variable[0]));
+        return new CGTable(f, Q);
+    }
+
+    public QueryResult infer(Variable... query_vars) {
+        return infer(makeQuery(query_vars));
+    }
+
+    /**
+     * Infer the marginal probabilities of all (enumerable) variables without evidence, given the evidence
+     * currently in the network, from a single calibration.
+     * @return the result for each variable
+     */
+    public Map<Variable, QueryResult> inferAll() {
+        calibrate();
+        Map<Variable, QueryResult> results = new HashMap<>();
+        for (Map.Entry<Variable, Integer> entry : varclique.entrySet()) {
+            if (scope.get(entry.getKey()) == null)
+                results.put(entry.getKey(), getMarginal(entry.getValue(), List.of(entry.getKey())));
+        }
+        return results;
+    }
+
+    /**
+     * Determine the probability of the instantiated variables, from the beliefs of the calibrated tree.
+     * As with {@link VarElim#logLikelihood()}, non-enumerable variables which are not instantiated are
+     * not included.
+     * @return the log likelihood of the evidence (instantiated nodes)
+     */
+    public double logLikelihood() {
+        calibrate();
+        double sum = 0;
+        for (int c : order) {
+            if (parent[c] == -1) { // root of a component
+                AbstractFactor f = getBelief(c);
+                if (f != null)
+                    sum += f.getLogSum();
+            }
+        }
+        for (int i = 0; i < nodes.length; i++) { // nodes without enumerable variables, i.e. non-enumerable roots
+            if (home[i] == -1) {
+                AbstractFactor f = getFactor(i);
+                if (f != null)
+                    sum += f.getLogSum();
+            }
+        }
+        return sum;
+    }
+
+    class JTQuery implements Query {
+        final List<Variable> Q;
+
+        JTQuery(Variable... qvars) {
+            this.Q = Arrays.asList(qvars);
+        }
+
+        public String toString() {
+            StringBuilder sbuf = new StringBuilder("Q:");
+            for (Variable v : Q)
+                sbuf.append(v.getName()).append(",");
+            return sbuf.toString();
+        }
+    }
+
+    public class JunctionTreeRuntimeException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public JunctionTreeRuntimeException(String message) {
+            super(message);
+        }
+    }
+}
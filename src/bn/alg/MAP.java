@@ -115,18 +115,13 @@ public class MAP extends LearningAlg {
 
 	public void test(Object[][] values, Variable[] vars, EnumVariable[] qvars) {
 		//int[][] index = indexMe(bn, vars);
-		VarElim ve = new VarElim();
-		ve.instantiate(bn);
+		BatchInference batch = new BatchInference(bn, vars, THREAD_COUNT);
+		QueryResult[][] results = new QueryResult[qvars.length][];
+		for (int k = 0; k < qvars.length; k++) // all rows at once, for each query variable
+			results[k] = batch.infer(values, qvars[k]);
 		for (int i = 0; i < values.length; i++) {
-			bn.resetNodes();
-			for (int j = 0; j < vars.length; j++) {
-				BNode node = bn.getNode(vars[j]);
-				if (node != null)
-					node.setInstance(values[i][j]);
-			}
 			for (int k = 0; k < qvars.length; k++) {
-				Query q = ve.makeQuery(qvars[k]);
-				CGTable r = (CGTable) ve.infer(q);
+				CGTable r = (CGTable) results[k][i];
 				Distrib d = r.query(qvars[k]);
 				for (int j = 0; j < qvars[k].getDomain().size(); j++) {
 					Object instance = qvars[k].getDomain().get(j);
@@ -19,6 +19,7 @@ package bn.alg;
 
 import bn.BNet;
 import bn.BNode;
+import bn.Evidence;
 import dat.EnumVariable;
 import bn.factor.Factor;
 import dat.Variable;
@@ -51,12 +52,134 @@ public class VarElim implements Inference {
     static int STATUS_BEL = 0; // Belief (probability of)
     static int STATUS_MPE = 1; // Most probable explanation
 
+    private EliminationOrder.Heuristic heuristic = null; // null to pick the cheapest order for each query
+    public boolean verbose = false; // report the elimination order and its estimated cost of each query
+
+    // Query plans are re-used by queries of the same type, with the same query variables and the same evidenced variables
+    public static int PLAN_CACHE_SIZE = 256; // maximum number of plans kept
+    static int TYPE_NOMINATED = 2;           // plan types in addition to query status
+    static int TYPE_LIKELIHOOD = 3;
+    private final Map<List<Object>, Plan> plans = new LinkedHashMap<>(16, 0.75f, true) { // least recently used are removed
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<Object>, Plan> eldest) {
+            return size() > PLAN_CACHE_SIZE;
+        }
+    };
+    private int modifications = -1; // of the BN when the plans were made
+
     @Override
     public void instantiate(BNet bn) {
+        if (bn != this.bn) {
+            synchronized (plans) {
+                plans.clear();
+            }
+        }
         this.bn = bn;
         this.bn.compile();
     }
 
+    /**
+     * Set the heuristic by which the order of eliminating variables is determined.
+     * @param heuristic the heuristic, or null (default) to use whichever gives the cheapest order for each query
+     */
+    public void setHeuristic(EliminationOrder.Heuristic heuristic) {
+        this.heuristic = heuristic;
+    }
+
+    public EliminationOrder.Heuristic getHeuristic() {
+        return heuristic;
+    }
+
+    /**
+     * Determine the enumerable, unspecified variables of the factor that each relevant node will produce.
+     * @param scope all relevant variables, with evidence if instantiated
+     * @return the variables of each factor, in the order of the variables of the scope
+     */
+    private List<EnumVariable[]> getFactorScopes(Map<Variable, Object> scope) {
+        List<EnumVariable[]> scopes = new ArrayList<>();
+        for (Variable var : scope.keySet()) {
+            BNode node = bn.getNode(var);
+            List<EnumVariable> fvars = new ArrayList<>();
+            if (var instanceof EnumVariable && scope.get(var) == null)
+                fvars.add((EnumVariable) var);
+            List<EnumVariable> parents = node.getParents();
+            if (parents != null)
+                for (EnumVariable parent : parents)
+                    if (scope.containsKey(parent) && scope.get(parent) == null) // other parents are either evidence or summed out by the node
+                        fvars.add(parent);
+            scopes.add(fvars.toArray(new EnumVariable[0]));
+        }
+        return scopes;
+    }
+
+    /**
+     * Determine the order in which to eliminate the unspecified, enumerable variables, based on the factors that
+     * the relevant nodes will produce.
+     * @param scopes the variables of each factor
+     * @param X unspecified variables in topological order
+     * @return the order
+     */
+    private EliminationOrder getOrder(List<EnumVariable[]> scopes, List<Variable> X) {
+        List<EnumVariable> eliminate = new ArrayList<>();
+        for (Variable x : X)
+            if (x instanceof EnumVariable)
+                eliminate.add((EnumVariable) x);
+        EliminationOrder order = heuristic == null ? EliminationOrder.findBest(scopes, eliminate) : EliminationOrder.find(scopes, eliminate, heuristic);
+        if (verbose)
+            System.err.println("Variable elimination: " + order);
+        return order;
+    }
+
+    /**
+     * Estimate the cost of inference for a query.
+     * @param query the query
+     * @return the order of eliminating variables, including its estimated cost
+     */
+    public EliminationOrder getOrder(Query query) {
+        return ((CGQuery) query).plan.order;
+    }
+
+    /**
+     * Identify the plan for a query by its type and variables, the variables that are currently instantiated,
+     * and the heuristic that orders the elimination. Plans are discarded if nodes have been added to or removed from the BN.
+     */
+    private List<Object> getPlanKey(int type, Evidence evidence, Variable... vars) {
+        List<BNode> ordered = bn.getOrdered();
+        BitSet evidenced = new BitSet(ordered.size());
+        for (int i = 0; i < ordered.size(); i++)
+            if (evidence.contains(ordered.get(i).getVariable()))
+                evidenced.set(i);
+        return Arrays.asList(type, heuristic, Arrays.asList(vars.clone()), evidenced);
+    }
+
+    private Plan getPlan(List<Object> key) {
+        Plan plan;
+        synchronized (plans) {
+            if (bn.getModifications() != modifications) {
+                plans.clear();
+                modifications = bn.getModifications();
+            }
+            plan = plans.get(key);
+        }
+        timer.count(plan == null ? "plan miss" : "plan hit");
+        return plan;
+    }
+
+    private void putPlan(List<Object> key, CGQuery q) {
+        q.plan = new Plan(q);
+        synchronized (plans) {
+            plans.put(key, q.plan);
+        }
+    }
+
+    /**
+     * @return the proportion of queries (and likelihood calculations) that re-used a plan
+     */
+    public double getPlanHitRate() {
+        int hits = timer.getCount("plan hit"), total = hits + timer.getCount("plan miss");
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
     /**
      * Construct the data structure for the specified variables in preparation
      * of inference of belief. There are three types of variables (given the BN): 
@@ -70,19 +193,35 @@ public class VarElim implements Inference {
     @SuppressWarnings("rawtypes")
     @Override
     public Query makeQuery(Variable... qvars) {
+        return makeQuery(Evidence.of(bn), qvars);
+    }
+
+    /**
+     * Construct the data structure for the specified variables in preparation of inference of belief,
+     * given evidence rather than the instances of nodes (which are ignored). The BN is not modified by
+     * making or inferring the query, so queries with different evidence can be run concurrently.
+     * @param evidence the evidence
+     * @param qvars variables to include in query
+     * @return the query
+     */
+    public Query makeQuery(Evidence evidence, Variable... qvars) {
 	    // Find out what variables in the BN that are relevant to answer the query, and
         // which of these that can be summed out; organise them into "buckets".
-        // They will be listed in "topological order" (parents before children) as per heuristics given in Dechter.
+        // They will be listed in "topological order" (parents before children), but eliminated in the order of least estimated cost.
         // Each to-be-marginalised variable will be assigned a separate bucket,
         // so that when factorised and summed out, the result is passed-down to another.
+        List<Object> key = getPlanKey(STATUS_BEL, evidence, qvars);
+        Plan plan = getPlan(key);
+        if (plan != null)
+            return plan.makeQuery(evidence);
         List<Variable> Q = new ArrayList<>();               // Query, all nodes identified by user of this function
         List<Variable.Assignment> E = new ArrayList<>();    // Assignment, all variables that are instantiated with values AND relevant (not d-separated from any query node)
         List<Variable> X = new ArrayList<>();               // Un-instantiated but relevant nodes (not independent from any query or evidence node), but to-be summed out
         Q.addAll(Arrays.asList(qvars));
-        Set<BNode> relevant = bn.getRelevantAndSome(qvars);
+        Set<BNode> relevant = bn.getRelevantAndSome(evidence, qvars);
         for (BNode node : bn.getOrdered()) {
             Variable var = node.getVariable();
-            Object val = node.getInstance();
+            Object val = evidence.get(var);
             if (val != null)
                 E.add(new Variable.Assignment(var, val));
             else if (relevant.contains(node) && !Q.contains(var))
@@ -100,7 +239,9 @@ public class VarElim implements Inference {
             }
         }
          */
-        return new CGQuery(Q, E, X);
+        CGQuery q = new CGQuery(Q, E, X);
+        putPlan(key, q);
+        return q;
     }
     
     /**
@@ -119,9 +260,24 @@ public class VarElim implements Inference {
      */
     @SuppressWarnings("rawtypes")
     public Query makeMPE(Variable... qvars) {
+        return makeMPE(Evidence.of(bn), qvars);
+    }
+
+    /**
+     * Construct the data structure in preparation of inference of the most probable explanation,
+     * given evidence rather than the instances of nodes (which are ignored).
+     * @param evidence the evidence
+     * @param qvars variables to include in query, can be empty
+     * @return the query
+     */
+    public Query makeMPE(Evidence evidence, Variable... qvars) {
 	// Find out which variables in the BN that will be max:ed out and organise them into "buckets".
-        // They will be listed in "topological order" (parents before children) as per heuristics given in Dechter.
+        // They will be listed in "topological order" (parents before children), but eliminated in the order of least estimated cost.
         // Each margin variable will be assigned a bucket.
+        List<Object> key = getPlanKey(STATUS_MPE, evidence, qvars);
+        Plan plan = getPlan(key);
+        if (plan != null)
+            return plan.makeQuery(evidence);
         List<Variable> Q = new ArrayList<>(); // Query
         List<Variable.Assignment> E = new ArrayList<>(); // Assignment, all nodes that are instantiated with values AND relevant (not d-separated from any query node)
         List<Variable> X = new ArrayList<>(); // Unspecified, to-be summed out
@@ -129,7 +285,7 @@ public class VarElim implements Inference {
         List<BNode> rnl = bn.getOrdered();    // with MPE all nodes are relevant by definition
         for (BNode node : rnl) {
             Variable var = node.getVariable();
-            Object val = node.getInstance();
+            Object val = evidence.get(var);
             if (val != null) {
                 E.add(new Variable.Assignment(var, val));
             } else if (!Q.contains(var)) {
@@ -138,6 +294,7 @@ public class VarElim implements Inference {
         }
         CGQuery q = new CGQuery(Q, E, X);
         q.setStatus(STATUS_MPE);
+        putPlan(key, q);
         return q;
     }
     
@@ -155,14 +312,29 @@ public class VarElim implements Inference {
      */
     @SuppressWarnings("rawtypes")
     public Query makeNominatedMPEQuery(Variable... nomvars) {
+        return makeNominatedMPEQuery(Evidence.of(bn), nomvars);
+    }
+
+    /**
+     * Construct the data structure in preparation of inference of the most probable explanation over nominated
+     * variables, given evidence rather than the instances of nodes (which are ignored).
+     * @param evidence the evidence
+     * @param nomvars all variables to include
+     * @return the query data structure
+     */
+    public Query makeNominatedMPEQuery(Evidence evidence, Variable... nomvars) {
 	    // Find out which variables in the BN that will be max:ed out and organise them into "buckets".
+        List<Object> key = getPlanKey(TYPE_NOMINATED, evidence, nomvars);
+        Plan plan = getPlan(key);
+        if (plan != null)
+            return plan.makeQuery(evidence);
         List<Variable> Q = new ArrayList<>(); // Query, empty in this variant
         List<Variable.Assignment> E = new ArrayList<>(); // Assignment, all nodes that are instantiated with values AND relevant (not d-separated from any query node)
         List<Variable> X = new ArrayList<>(); // Unspecified, to-be summed out
-        List<BNode> rnl = bn.getDconnected(nomvars); //relevant *ordered* node list, based on the concept of D-separation, and topological ordering
+        List<BNode> rnl = bn.getDconnected(evidence, nomvars); //relevant *ordered* node list, based on the concept of D-separation, and topological ordering
         for (BNode node : rnl) {
             Variable var = node.getVariable();
-            Object val = node.getInstance();
+            Object val = evidence.get(var);
             if (val != null) {
                 E.add(new Variable.Assignment(var, val));
             } else {
@@ -171,6 +343,7 @@ public class VarElim implements Inference {
         }
         CGQuery q = new CGQuery(Q, E, X);
         q.setStatus(STATUS_MPE);
+        putPlan(key, q);
         return q;
     }
 
@@ -187,7 +360,7 @@ public class VarElim implements Inference {
     public QueryResult infer(Query query) {
 	    // All CPTs will be converted to "factors", and put in the bucket which is the first to sum-out any of the variables in the factor.
         // Assignment will be incorporated into the factor when it is constructed.
-        // Create list of buckets: first one has query variables, then all sum-outs in topological ordering (as sorted by the constructor)
+        // Create list of buckets: first one has query variables, then all sum-outs in reverse elimination order (buckets are processed from the end)
         CGQuery q = (CGQuery) query;
         Variable[] qarr = new Variable[q.Q.size()];
         q.Q.toArray(qarr);
@@ -195,71 +368,31 @@ public class VarElim implements Inference {
         List<Bucket> buckets = new ArrayList<>();
         Bucket first_bucket = new Bucket(q.Q);
         buckets.add(first_bucket);
-        for (Variable x : q.X) { // the list of unspecified variables appear in a topological order
-            // only create buckets for enumerable variables
-            try {
-                buckets.add(new Bucket((EnumVariable)x));
-            } catch (ClassCastException e) {
-                ;
-            }
-        }
+        Plan plan = q.plan;
+        EnumVariable[] order = plan.order.getOrder(); // only enumerable variables have buckets
+        for (int i = order.length - 1; i >= 0; i--)
+            buckets.add(new Bucket(order[i]));
         int nBuckets = buckets.size();
 
         // Fill buckets backwards with appropriate factor tables (instantiated when "made")
         timer.start("factors");
         Map<Variable, Object> relmap = q.getVariableScope();
-        for (Variable var : relmap.keySet()) {
-            BNode node = bn.getNode(var);
+        for (int k = 0; k < plan.nodes.length; k++) {
+            BNode node = plan.nodes[k];
             // next call is causing delays with threading
             AbstractFactor ft = node.makeDenseFactor(relmap); // forces new makeFactor method to be used on only relevant nodes
             // make sure we trace values of variables at the factor table level for MPE queries
             //ft.setTraced(q.getStatus() == STATUS_MPE);
-            boolean added = false;
-            if (!ft.hasEnumVars()) { // // the FT is empty of enumerable variables, hence will only "scale" factors
-                buckets.get(0).put(ft); // we will need to keep non-enumerable variables for later though
-                added = true;
-                continue;
-            }
-            // go through buckets in reverse order, choosing the first (from end) which "matches" the variables of the FT
-            for (int i = nBuckets - 1; i >= 0 && !added; i--) {
-                Bucket b = buckets.get(i);
-                if (b.match(ft)) {
-                    b.put(ft);
-                    added = true;
-                    break;
-                }
-            }
-            if (!added) { // if not added as per sum-out variable
+            if (plan.placement[k] < 0) { // if not added as per sum-out variable
                 // FT is somehow corrupt, e.g. no variables
                 throw new VarElimRuntimeException("Node can not be eliminated in inference: " + node.getName());
             }
+            buckets.get(plan.placement[k]).put(ft);
         }
         timer.stop("factors");
-        // Purge buckets, merge sum-out variables
-        List<Integer> remove = new ArrayList<>();
-        timer.start("merge");
-        for (int i = 1; i < nBuckets; i++) { // ignore query bucket
-            Bucket b = buckets.get(i);
-            if (b.factors.isEmpty()) { // no factors, put sum-out variables in other bucket(s)
-                for (Variable sumout : b.vars) { // check each sum-out variable
-                    for (int jj = i + 1; jj < nBuckets; jj++) { // search suitable bucket for sum-out
-                        try {
-                            Bucket b2 = buckets.get(jj);
-                            if (b2.hasFactorWith(sumout) || jj == nBuckets - 1) { // we've found a bucket with a factor with sum-out variable
-                                b2.vars.add(sumout);
-                            }
-                        } catch (IndexOutOfBoundsException e) {
-                            throw new VarElimRuntimeException("Bucket elimination failed during purging and merging: Variable is " + sumout.getName());
-                        }
-                    }
-                }
-                remove.add(i);
-                //FIXME if you remove a bucket the loop fails because nBuckets has not been updated
-            }
-        }
-        buckets.removeAll(remove);
-        timer.stop("merge");
-        nBuckets = buckets.size(); // update bucket number
+        // Each factor is in the bucket of the first eliminated of its variables, and the result of each bucket is
+        // passed to the bucket of the first eliminated of its remaining variables, so buckets without factors
+        // (e.g. variables not relevant after all) are simply skipped.
         // Create a factor of each bucket, by performing factor products and marginalisation as appropriate
         timer.start("products");
         for (int i = nBuckets - 1; i >= 0; i--) {
@@ -342,6 +475,16 @@ public class VarElim implements Inference {
         return infer(new Variable[]{query_var});
     }
 
+    /**
+     * Infer the belief of variables given evidence, leaving the instances of nodes untouched.
+     * @param evidence the evidence
+     * @param query_vars the query variables
+     * @return the result
+     */
+    public QueryResult infer(Evidence evidence, Variable... query_vars) {
+        return infer(makeQuery(evidence, query_vars));
+    }
+
     public QueryResult infer(BNode[] query_nodes) {
         Variable[] vars = new Variable[query_nodes.length];
         for (int i = 0; i < vars.length; i++) {
@@ -361,67 +504,49 @@ public class VarElim implements Inference {
      * @return the log likelihood of the evidence (instantiated nodes)
      */
     public double logLikelihood() {
+        return logLikelihood(Evidence.of(bn));
+    }
+
+    /**
+     * Determine the probability of evidence, rather than of the instances of nodes (which are ignored).
+     * @see #logLikelihood()
+     * @param evidence the evidence
+     * @return the log likelihood of the evidence
+     */
+    public double logLikelihood(Evidence evidence) {
 	// All CPTs will be converted to "factors", and put in the bucket which is the first to sum-out any of the variables in the factor.
         // Assignment will be incorporated into the factor when it is constructed.
         List<Variable> X = new ArrayList<>(); // unspecified variables, to-be summed-out
         Map<Variable, Object> R = new HashMap<>(); // all variables that are relevant with corresponding instantiations
+        List<Variable.Assignment> E = new ArrayList<>();
         for (BNode node : bn.getOrdered()) {
             Variable var = node.getVariable();
-            Object instance = node.getInstance();
+            Object instance = evidence.get(var);
             R.put(var, instance); // currently we consider all variables are relevant, even when not specified
             if (instance == null) 
                 X.add(var);
+            else
+                E.add(new Variable.Assignment(var, instance));
         }
-        List<Bucket> buckets = new ArrayList<>();
-        for (Variable x : X) { 
-            // only create buckets for enumerable, unspecified variables to-be marginalised-out
-            try {
-                buckets.add(new Bucket((EnumVariable)x));
-            } catch (ClassCastException e) {
-            }
+        List<Object> key = getPlanKey(TYPE_LIKELIHOOD, evidence);
+        Plan plan = getPlan(key);
+        if (plan == null) {
+            CGQuery q = new CGQuery(new ArrayList<>(), E, X);
+            putPlan(key, q);
+            plan = q.plan;
         }
+        List<Bucket> buckets = new ArrayList<>();
+        buckets.add(new Bucket(new ArrayList<>())); // the final bucket, with the factors left when all variables are eliminated
+        EnumVariable[] order = plan.order.getOrder(); // only create buckets for enumerable, unspecified variables to-be marginalised-out
+        for (int i = order.length - 1; i >= 0; i--)
+            buckets.add(new Bucket(order[i]));
         int nBuckets = buckets.size();
-        if (nBuckets == 0) // if no variables are unknown, then we need to 
-            buckets.add(new Bucket((EnumVariable)null));
         // Fill buckets backwards with appropriate factor tables (instantiated when "made")
-        for (BNode node : bn.getNodes()) {
+        for (int k = 0; k < plan.nodes.length; k++) {
             // node is converted into a factor, all nodes are considered relevant
-            AbstractFactor ft = node.makeDenseFactor(R); // Factor ft = node.makeFactor(bn, true);
-            boolean added = false;
-            if (!ft.hasEnumVars()) { // this happen if the FT has no variables
-                buckets.get(0).put(ft);
-                added = true;
-                continue;
-            }
-            // go through buckets in reverse order, choosing the first (from end) which "matches" the variables of the FT
-            for (int i = nBuckets - 1; i >= 0 && !added; i--) { 
-                Bucket b = buckets.get(i);
-                if (b.match(ft)) {
-                    b.put(ft);
-                    added = true;
-                }
-            }
-            if (!added) { // if not added as per sum-out variable, so put in penultimate bucket
-                buckets.get(0).put(ft);
-            }
-        }
-        // Purge buckets, merge sum-out variables
-        // FIXME error same as above
-        for (int i = 1; i < nBuckets; i++) { // do not re-organise penultimate bucket
-            Bucket b = buckets.get(i);
-            if (b.factors.isEmpty()) { // no factors, put sum-out variables in other bucket(s)
-                for (Variable sumout : b.vars) { // check each sum-out variable
-                    for (int jj = i + 1; jj < nBuckets; jj++) { // search suitable bucket for sum-out
-                        Bucket b2 = buckets.get(jj);
-                        if (b2.hasFactorWith(sumout) || jj == nBuckets - 1) { // we've found a bucket with a factor with sum-out variable
-                            b2.vars.add(sumout);
-                        }
-                    }
-                }
-                buckets.remove(i); // we can safely remove bucket since variables have been assigned to others
-            }
+            AbstractFactor ft = plan.nodes[k].makeDenseFactor(R); // Factor ft = node.makeFactor(bn, true);
+            buckets.get(plan.placement[k]).put(ft);
         }
-        nBuckets = buckets.size(); // update bucket number
         // Create a factor of each bucket, by performing factor products and marginalisation as appropriate
         for (int i = nBuckets - 1; i >= 0; i--) {
             Bucket b = buckets.get(i);
@@ -455,13 +580,10 @@ public class VarElim implements Inference {
                         for (int j = 0; j < margin.length; j ++) 
                             margin[j] = b.vars.get(j);
                         result = Factorize.getMargin(result, margin);   // sum-out variables of bucket
-                        for (int jj = i - 1; jj >= 0; jj--) { // find a new bucket for the result factor
-                            Bucket b2 = buckets.get(jj);      // FIXME: problem if FT is atomic (ie no variables)
-                            if (b2.match(result)) {
-                                b2.put(result);
-                                break;
-                            }
-                        }
+                        int jj = i - 1;
+                        while (jj > 0 && !buckets.get(jj).match(result)) // find a new bucket for the result factor, else the final
+                            jj--;
+                        buckets.get(jj).put(result);
                     } catch (ClassCastException e) {
                         throw new VarElimRuntimeException("Cannot marginalize continuous variables");
                     }
@@ -488,6 +610,7 @@ public class VarElim implements Inference {
         final Map<Variable, Object> E; // evidence variables; their nodes are instantiated to values
         final List<Variable> X; // unspecified variables, incl all not listed as query or evidence
         final Map<Variable, Object> all;
+        Plan plan;
 
         private int status = STATUS_BEL;
         
@@ -550,7 +673,68 @@ public class VarElim implements Inference {
         }
     }
 
-    
+
+    /**
+     * What is determined before factors are made: the relevant nodes, the order of elimination, and the bucket
+     * of each factor. A plan is re-used by queries with the same query variables and evidenced variables, for which
+     * only the values of evidence differ.
+     */
+    class Plan {
+        final int status;
+        final List<Variable> Q;
+        final List<Variable> X;
+        final Variable[] evidence;      // variables of relevant evidence
+        final BNode[] nodes;            // relevant nodes, each of which contribute a factor
+        final EliminationOrder order;
+        final int[] placement;          // bucket of the factor of each node, -1 if it has no bucket
+
+        Plan(CGQuery q) {
+            this.status = q.getStatus();
+            this.Q = q.Q;
+            this.X = q.X;
+            this.evidence = q.E.keySet().toArray(new Variable[0]);
+            this.nodes = new BNode[q.all.size()];
+            int i = 0;
+            for (Variable var : q.all.keySet())
+                nodes[i++] = bn.getNode(var);
+            List<EnumVariable[]> scopes = getFactorScopes(q.all); // same order as nodes
+            this.order = getOrder(scopes, X);
+            // Buckets are 0 for the query variables (or what is left when all are eliminated), then one for each
+            // variable to eliminate, last eliminated first; a factor goes in the bucket of the first eliminated of
+            // its variables, or if it has none of them, in bucket 0
+            EnumVariable[] eliminate = order.getOrder();
+            Map<EnumVariable, Integer> bucket = new HashMap<>();
+            for (int j = 0; j < eliminate.length; j++)
+                bucket.put(eliminate[j], eliminate.length - j);
+            this.placement = new int[nodes.length];
+            for (int k = 0; k < nodes.length; k++) {
+                EnumVariable[] fvars = scopes.get(k);
+                placement[k] = fvars.length == 0 || Q.isEmpty() ? 0 : -1;
+                for (EnumVariable fvar : fvars) {
+                    Integer b = bucket.get(fvar);
+                    if (b != null)
+                        placement[k] = Math.max(placement[k], b);
+                    else if (Q.contains(fvar))
+                        placement[k] = Math.max(placement[k], 0);
+                }
+            }
+        }
+
+        /**
+         * @param values the values of evidence
+         * @return a query with the values of evidence
+         */
+        CGQuery makeQuery(Evidence values) {
+            List<Variable.Assignment> E = new ArrayList<>(evidence.length);
+            for (Variable var : evidence)
+                E.add(new Variable.Assignment(var, values.get(var)));
+            CGQuery q = new CGQuery(Q, E, X);
+            q.setStatus(status);
+            q.plan = this;
+            return q;
+        }
+    }
+
     /**
      * A bucket holds factor tables and one variable
      *
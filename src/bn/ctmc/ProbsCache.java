@@ -0,0 +1,111 @@
+package bn.ctmc;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of transition probability matrices, indexed by time (i.e. the product of rate and branch length),
+ * which can be accessed concurrently by multiple threads. When full, the least recently used matrix is evicted.
+ * Matrices that are retrieved from the cache are shared, so must not be modified.
+ */
+public class ProbsCache {
+
+    private final LinkedHashMap<Double, double[][]> cache;
+    private int capacity;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Create a cache
+     * @param capacity max number of matrices that are held
+     */
+    public ProbsCache(int capacity) {
+        this.capacity = capacity;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) { // access-order, so eldest is least recently used
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Double, double[][]> eldest) {
+                return size() > ProbsCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Retrieve a matrix from the cache
+     * @param time the time (rate times distance) for which the matrix was computed
+     * @return the matrix, or null if not in cache
+     */
+    public double[][] get(double time) {
+        double[][] p;
+        synchronized (cache) {
+            p = cache.get(time);
+        }
+        if (p == null)
+            misses.increment();
+        else
+            hits.increment();
+        return p;
+    }
+
+    /**
+     * Place a matrix in the cache, possibly evicting the least recently used
+     * @param time the time (rate times distance) for which the matrix was computed
+     * @param p the matrix
+     */
+    public void put(double time, double[][] p) {
+        synchronized (cache) {
+            cache.put(time, p);
+        }
+    }
+
+    /**
+     * Change the max number of matrices that are held; if the cache holds more, the least recently used are evicted
+     * @param capacity max number of matrices
+     */
+    public void setCapacity(int capacity) {
+        synchronized (cache) {
+            this.capacity = capacity;
+            while (cache.size() > capacity)
+                cache.remove(cache.keySet().iterator().next());
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+        hits.reset();
+        misses.reset();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the proportion of look-ups that were found in the cache, 0 if there have been no look-ups
+     */
+    public double getHitRate() {
+        long h = hits.sum(), m = misses.sum();
+        return h + m == 0 ? 0 : (double) h / (h + m);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d/%d matrices, %d hits, %d misses (%.1f%%)", size(), capacity, getHits(), getMisses(), getHitRate() * 100);
+    }
+}
@@ -19,8 +19,6 @@
 package bn.ctmc;
 import bn.math.Matrix;
 import bn.prob.EnumDistrib;
-import dat.EnumTable;
-import dat.EnumVariable;
 import dat.Enumerable;
 import bn.ctmc.matrix.*;
 import bn.math.Matrix.Exp;
@@ -43,7 +41,6 @@ public abstract class SubstModel {
     double[] F;   // This is the frequencies of the character states
     Exp Rexp;     // exp(IRM)
     Enumerable alpha;
-    private EnumTable<EnumDistrib> table = null;
 
     /**
      * Create time reversible evolutionary model.
@@ -218,34 +215,40 @@ public abstract class SubstModel {
         }
     }
 
-    private double[][] probs = null;
-    private double time = 0.0;
-    // private boolean updateRequired = true;
+    // To speed up calculation, store recent probability matrices; shared by all threads using this model
+    private final ProbsCache probscache = new ProbsCache(10000);
 
-    // To speed up calculation, store recent probability matrices
-    private Map<Double, double[][]> probscache = new HashMap<>();
-
-    // size of cache
-    public int CACHE_SIZE = 10000;
+    /**
+     * Set the max number of probability matrices that are cached
+     * @param size max number of matrices
+     */
+    public void setCacheSize(int size) {
+        probscache.setCapacity(size);
+    }
 
     /**
-     * Set another cached prob matrix
+     * Retrieve the cache of probability matrices, e.g. to check how effective it is
+     * @return the cache
      */
-    private void setCache(double time, double[][] p) {
-        if (probscache.size() < CACHE_SIZE)
-            probscache.put(time, p);
+    public ProbsCache getCache() {
+        return probscache;
     }
 
-    private double[][] getCache(double time) {
+    /**
+     * Retrieve the transition probabilities for an expected distance, from cache if available.
+     * Safe to use by multiple threads; the returned matrix is shared so must not be modified.
+     * @param time expected distance
+     * @return the conditional probabilities of a symbol at time t+time GIVEN a symbol at time t  [row: X(t)][col: X(t+time)]
+     */
+    public double[][] getProbs(double time) {
         double[][] p = probscache.get(time);
         if (p == null) {
-            synchronized (this) {
-                p = getProbs(time, Rexp);
-                setCache(time, p);
-            }
+            p = getProbs(time, Rexp);
+            probscache.put(time, p);
         }
         return p;
     }
+
     /**
      * Get conditional probability P(X=x|Y=y,time)
      * @param X
@@ -254,8 +257,7 @@ public abstract class SubstModel {
      * @return
      */
     public double getProb(Object X, Object Y, double time) {
-        if (this.time != time || probs == null) // only re-compute matrix if time has changed
-            probs = getCache(time);
+        double[][] probs = getProbs(time);
         int index_X = alpha.getIndex(X);
         int index_Y = alpha.getIndex(Y);
         return probs[index_Y][index_X];
@@ -281,16 +283,15 @@ public abstract class SubstModel {
         return F[index_X];
     }
 
+    /**
+     * Get the conditional distribution P(X|Y=y,time)
+     * @param Y the value of the "parent"
+     * @param time
+     * @return the distribution over values of the "child"
+     */
     public EnumDistrib getDistrib(Object Y, double time) {
-        if (this.time != time || probs == null || table == null) { // only re-compute matrix if time has changed
-            probs = getCache(time);
-            table = new EnumTable<>(new EnumVariable(alpha));
-            for (int i = 0; i < probs.length; i ++) {
-                EnumDistrib d = new EnumDistrib(alpha, probs[i]);
-                table.setValue(i, d);
-            }
-        }
-        return table.getValue(new Object[] {Y});
+        double[][] probs = getProbs(time);
+        return new EnumDistrib(alpha, probs[alpha.getIndex(Y)]);
     }
 
     /**
@@ -84,7 +84,7 @@ public class SubstNode implements BNode {
         this.alpha = model.getDomain();
         this.values = this.alpha.getValues();
         this.table = new EnumTable<>(parent);
-        this.probs = model.getProbs(t, model.getRexp());
+        this.probs = model.getProbs(t);
         for (int i = 0; i < this.values.length; i ++) {
             table.setValue(i, new EnumDistrib(this.alpha, probs[i]));
         }
@@ -0,0 +1,108 @@
+package bn.math;
+
+/**
+ * Numerical kernels for the inner loops of tree likelihood calculations, e.g. the product of a row of a transition
+ * probability matrix and the (partial) likelihood of a child, summed or maxed over its states.
+ *
+ * Two implementations are available: a scalar one, which is always available and is the default, and one that
+ * uses the (incubating) JDK Vector API for SIMD instructions, which is only available if the JVM is started with
+ * the option "--add-modules jdk.incubator.vector". Which is used is decided at run-time, see {@link #setVector(boolean)}.
+ * Callers should retrieve the implementation with {@link #get()} once, e.g. when setting-up inference, rather than
+ * in the inner loop.
+ */
+public abstract class Kernels {
+
+    private static final Kernels SCALAR = new ScalarKernels();
+    private static Kernels vector = null;       // created on request, if available
+    private static volatile Kernels current = SCALAR;
+
+    /**
+     * @return the current implementation
+     */
+    public static Kernels get() {
+        return current;
+    }
+
+    /**
+     * Determine if the JDK Vector API can be used, i.e. if the JVM has been started with the incubator module
+     * @return true if available, false otherwise
+     */
+    public static boolean isVectorAvailable() {
+        return ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+    }
+
+    /**
+     * Select the implementation that subsequent calls to {@link #get()} return.
+     * @param useVector true to use the JDK Vector API, if available; false to use scalar kernels
+     * @return true if the Vector API is used as a result, false otherwise
+     */
+    public static synchronized boolean setVector(boolean useVector) {
+        if (useVector && isVectorAvailable()) {
+            if (vector == null) {
+                try {
+                    // loaded by name, so that this class does not depend on the incubator module
+                    vector = (Kernels) Class.forName("bn.math.VectorKernels").getDeclaredConstructor().newInstance();
+                } catch (ReflectiveOperationException | LinkageError e) {
+                    return false;
+                }
+            }
+            current = vector;
+            return true;
+        }
+        current = SCALAR;
+        return false;
+    }
+
+    /**
+     * @return a short name for the implementation
+     */
+    public abstract String getName();
+
+    /**
+     * Sum of element-wise products, e.g. the probability of a subtree given the parent state, from a row of the
+     * transition matrix and the likelihood of the subtree given the child state.
+     * @param a first array
+     * @param b second array
+     * @param n number of elements, from the start of each array
+     * @return sum of a[i] * b[i]
+     */
+    public abstract double dot(double[] a, double[] b, int n);
+
+    /**
+     * Add a scaled array to another, in place.
+     * @param alpha scale
+     * @param x array to scale
+     * @param y array to add to
+     * @param n number of elements, from the start of each array
+     */
+    public abstract void axpy(double alpha, double[] x, double[] y, int n);
+
+    /**
+     * Find the index that maximises the sum of two arrays, e.g. the best child state, given (log) transition
+     * probabilities from a parent state and (log) likelihoods of the child's subtree.
+     * @param a first array
+     * @param b second array
+     * @param n number of elements, from the start of each array
+     * @return the first index that maximises a[i] + b[i], or -1 if all sums are negative infinity
+     */
+    public abstract int argmaxSum(double[] a, double[] b, int n);
+
+    /**
+     * Log-sum-exp of the sums of elements of two arrays, and an extra term, which avoids overflow and underflow, e.g.
+     * the log probability of a subtree given the parent state, from log transition probabilities and the log
+     * likelihood of the child's subtree.
+     * @param a first array
+     * @param aoff offset into first array
+     * @param b second array
+     * @param boff offset into second array
+     * @param n number of elements
+     * @param extra an extra term, negative infinity if none
+     * @return log(exp(extra) + sum of exp(a[aoff + i] + b[boff + i]))
+     */
+    public abstract double logSumExpSum(double[] a, int aoff, double[] b, int boff, int n, double extra);
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+}
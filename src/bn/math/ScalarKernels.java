@@ -0,0 +1,57 @@
+package bn.math;
+
+/**
+ * Scalar (plain Java) implementation of kernels; always available.
+ */
+class ScalarKernels extends Kernels {
+
+    @Override
+    public String getName() {
+        return "scalar";
+    }
+
+    @Override
+    public double dot(double[] a, double[] b, int n) {
+        double sum = 0;
+        for (int i = 0; i < n; i ++)
+            sum += a[i] * b[i];
+        return sum;
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, double[] y, int n) {
+        for (int i = 0; i < n; i ++)
+            y[i] += alpha * x[i];
+    }
+
+    @Override
+    public int argmaxSum(double[] a, double[] b, int n) {
+        double best = Double.NEGATIVE_INFINITY;
+        int argbest = -1;
+        for (int i = 0; i < n; i ++) {
+            double v = a[i] + b[i];
+            if (v > best) {
+                best = v;
+                argbest = i;
+            }
+        }
+        return argbest;
+    }
+
+    @Override
+    public double logSumExpSum(double[] a, int aoff, double[] b, int boff, int n, double extra) {
+        double xmax = extra;
+        for (int i = 0; i < n; i ++) {
+            double v = a[aoff + i] + b[boff + i];
+            if (v > xmax)
+                xmax = v;
+        }
+        if (xmax == Double.NEGATIVE_INFINITY)
+            return Double.NEGATIVE_INFINITY;
+        double sum = 0.0;
+        for (int i = 0; i < n; i ++)
+            sum += Math.exp(a[aoff + i] + b[boff + i] - xmax);
+        sum += Math.exp(extra - xmax);
+        return xmax + Math.log(sum);
+    }
+}
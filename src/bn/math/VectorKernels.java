@@ -0,0 +1,107 @@
+package bn.math;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Implementation of kernels with the JDK Vector API, using 256-bit vectors (four doubles; AVX2 and AVX-512), which
+ * divide the 20 states of protein models without remainder; wider vectors were not faster for arrays of this size.
+ * Elements that do not fill a vector are processed by scalar code.
+ * Only loaded (by {@link Kernels#setVector(boolean)}) if the JVM is started with "--add-modules jdk.incubator.vector".
+ *
+ * Results of sums may differ from those of {@link ScalarKernels} in the last digits, since the order of addition differs.
+ */
+class VectorKernels extends Kernels {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_256;
+    private static final DoubleVector IOTA = DoubleVector.broadcast(SPECIES, 0).addIndex(1); // 0, 1, 2, ...
+
+    @Override
+    public String getName() {
+        return "vector(" + SPECIES.length() + ")";
+    }
+
+    @Override
+    public double dot(double[] a, double[] b, int n) {
+        int bound = SPECIES.loopBound(n);
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length())
+            acc = DoubleVector.fromArray(SPECIES, a, i).fma(DoubleVector.fromArray(SPECIES, b, i), acc);
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < n; i ++)
+            sum += a[i] * b[i];
+        return sum;
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, double[] y, int n) {
+        int bound = SPECIES.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector vy = DoubleVector.fromArray(SPECIES, y, i);
+            vy.add(DoubleVector.fromArray(SPECIES, x, i).mul(alpha)).intoArray(y, i);
+        }
+        for (; i < n; i ++)
+            y[i] += alpha * x[i];
+    }
+
+    @Override
+    public int argmaxSum(double[] a, double[] b, int n) {
+        int bound = SPECIES.loopBound(n);
+        // the best sum, and the (first) index where it is found, for each lane
+        DoubleVector vmax = DoubleVector.broadcast(SPECIES, Double.NEGATIVE_INFINITY);
+        DoubleVector vidx = DoubleVector.broadcast(SPECIES, -1);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector v = DoubleVector.fromArray(SPECIES, a, i).add(DoubleVector.fromArray(SPECIES, b, i));
+            VectorMask<Double> better = v.compare(VectorOperators.GT, vmax);
+            vmax = vmax.blend(v, better);
+            vidx = vidx.blend(IOTA.add(i), better);
+        }
+        double best = Double.NEGATIVE_INFINITY;
+        int argbest = -1;
+        for (int lane = 0; lane < SPECIES.length(); lane ++) {
+            double v = vmax.lane(lane);
+            int idx = (int) vidx.lane(lane);
+            if (v > best || (v == best && idx >= 0 && idx < argbest)) {
+                best = v;
+                argbest = idx;
+            }
+        }
+        for (; i < n; i ++) {
+            double v = a[i] + b[i];
+            if (v > best) {
+                best = v;
+                argbest = i;
+            }
+        }
+        return argbest;
+    }
+
+    @Override
+    public double logSumExpSum(double[] a, int aoff, double[] b, int boff, int n, double extra) {
+        int bound = SPECIES.loopBound(n);
+        DoubleVector vmax = DoubleVector.broadcast(SPECIES, extra);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length())
+            vmax = vmax.max(DoubleVector.fromArray(SPECIES, a, aoff + i).add(DoubleVector.fromArray(SPECIES, b, boff + i)));
+        double xmax = vmax.reduceLanes(VectorOperators.MAX);
+        for (; i < n; i ++)
+            xmax = Math.max(xmax, a[aoff + i] + b[boff + i]);
+        if (xmax == Double.NEGATIVE_INFINITY)
+            return Double.NEGATIVE_INFINITY;
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        for (i = 0; i < bound; i += SPECIES.length()) {
+            DoubleVector v = DoubleVector.fromArray(SPECIES, a, aoff + i).add(DoubleVector.fromArray(SPECIES, b, boff + i));
+            acc = acc.add(v.sub(xmax).lanewise(VectorOperators.EXP));
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < n; i ++)
+            sum += Math.exp(a[aoff + i] + b[boff + i] - xmax);
+        sum += Math.exp(extra - xmax);
+        return xmax + Math.log(sum);
+    }
+}
@@ -3,6 +3,8 @@ package dat.file;
 import dat.EnumSeq;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Created by marnie on 24/10/16.
@@ -11,6 +13,8 @@ public class AlnWriter {
     public static int LINE_WIDTH = 60;
     private BufferedWriter writer=null;
     private boolean fileExists = false;
+    private final List<String> names = new ArrayList<>(); // sequences added one at a time, written on close
+    private final List<String> rows = new ArrayList<>();
 
     /**
      * Create a file for storing sequences.
@@ -119,12 +123,46 @@ public class AlnWriter {
         }
     }
 
+    /**
+     * Adds one sequence, so that sequences can be added as they become available.
+     * Since the format interleaves blocks of all sequences, they are only written when the file is closed;
+     * until then, each is kept as a string, with null elements as gaps.
+     *
+     * @param name the name of the sequence
+     * @param seq the sequence
+     */
+    public void add(String name, Object[] seq) {
+        StringBuilder sb = new StringBuilder(seq.length);
+        for (Object sym : seq)
+            sb.append(sym == null ? "-" : sym.toString());
+        names.add(name);
+        rows.add(sb.toString());
+    }
+
     /**
      * Closes the file so that it can be read by others.
+     * Sequences that have been added are written first.
      *
      * @throws IOException if the close operation fails
      */
     public void close() throws IOException {
+        if (!rows.isEmpty()) {
+            writer.write("CLUSTAL");
+            writer.newLine();
+            writer.newLine();
+            for (int line = 0; line < rows.get(0).length(); line += LINE_WIDTH) {
+                for (int s = 0; s < rows.size(); s++) {
+                    String seq = rows.get(s);
+                    writer.write(names.get(s) + "\t");
+                    writer.write(seq, Math.min(line, seq.length()), Math.max(0, Math.min(LINE_WIDTH, seq.length() - line)));
+                    writer.newLine();
+                }
+                writer.newLine();
+                writer.newLine();
+            }
+            rows.clear();
+            names.clear();
+        }
         try {
             writer.flush();
             writer.close();
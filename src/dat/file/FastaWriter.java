@@ -118,29 +118,38 @@ public class FastaWriter {
         if (names.length != collection.length)
             throw new RuntimeException("Invalid arguments for saving to FASTA");
         for (int s=0; s<collection.length; s++) {
-            Object[] str=collection[s];
-            if (str == null) {
+            if (collection[s] == null) {
                 System.err.println("No sequence for " + names[s]);
                 continue;
             }
             try {
-                writer.write(defline(names[s]));
-                for (int i=0; i<str.length; i++) {
-                    if (i % LINE_WIDTH == 0)
-                        writer.newLine();
-                    try {
-                        writer.write(str[i].toString());
-                    } catch (NullPointerException npe) {
-                        writer.write("-"); //to catch gaps not stored in EnumSeq arr
-                    }
-                }
-                writer.newLine();
+                write(names[s], collection[s]);
             } catch (IOException e) {
                 throw new IOException("Error in writing sequence "+names[s]+" (index "+s+")");
             }
         }
     }
 
+    /**
+     * Writes one sequence to the file, so that sequences can be saved as they become available.
+     * Don't forget to {@see close} the file after all sequences have been stored.
+     * @param name the name of the sequence
+     * @param str the sequence, where null elements are written as gaps
+     * @throws IOException if the write operation fails
+     */
+    public void write(String name, Object[] str) throws IOException {
+        writer.write(defline(name));
+        for (int i=0; i<str.length; i++) {
+            if (i % LINE_WIDTH == 0)
+                writer.newLine();
+            if (str[i] == null)
+                writer.write("-"); //to catch gaps not stored in EnumSeq arr
+            else
+                writer.write(str[i].toString());
+        }
+        writer.newLine();
+    }
+
     /**
      * Closes the file so that it can be read by others.
      * @throws IOException if the close operation fails
@@ -0,0 +1,287 @@
+package dat.phylo;
+
+import bn.ctmc.GapSubstModel;
+import bn.math.Kernels;
+import dat.EnumSeq;
+import dat.Enumerable;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Felsenstein's peeling algorithm extended to handle gaps, as described in
+ * <a href="https://doi.org/10.1371/journal.pcbi.1000172"> Rivas & Eddy, 2008</a>, implemented on primitive arrays.
+ *
+ * An instance is bound to a tree and a gap-augmented substitution model; the (log) probabilities of substitution,
+ * deletion and insertion on each branch are computed once, at construction. Columns are encoded as arrays of
+ * residue indices (one for each branch point; -1 for gap, only leaves are read), and are then peeled without
+ * allocating memory, using a workspace that is private to the calling thread. This means that an instance can be shared
+ * by threads that peel different columns.
+ */
+public class GapPeeling {
+
+    public static final int GAP = -1;
+
+    private final IdxTree tree;
+    private final int nNodes;
+    private final int nRes;                 // number of residues, excluding gap
+    private final int[][] children;
+    private final boolean[] leaf;
+    private final Object[] alphabet;
+    private final Enumerable domain;
+    private final double[] logPrior;        // log of (gap-adjusted) stationary frequency of each residue
+    private final double[] logSubst;        // [child][parent residue][child residue] log P(x|y,t)(1-ksi(t)), flattened
+    private final double[] logGap;          // [child] log P(-|y,t)
+    private final double[] logIns;          // [child][residue] log P(x|-,t), flattened
+    private final int maxChildren;
+    private final Kernels kernels = Kernels.get(); // scalar or SIMD, decided when the engine is created
+    private final ThreadLocal<Workspace> workspaces;
+
+    /**
+     * Create a peeling engine for a tree and a gap-augmented model.
+     * @param tree the tree
+     * @param model gap-augmented substitution model
+     * @param times the time (rate times distance) of the branch that leads to each branch point
+     * @param instimes the time that determines the probability of an insertion on the branch that leads to each branch point
+     */
+    public GapPeeling(IdxTree tree, GapSubstModel model, double[] times, double[] instimes) {
+        this.tree = tree;
+        this.nNodes = tree.getSize();
+        this.domain = model.getDomain();
+        this.alphabet = domain.getValues();
+        this.nRes = alphabet.length - 1;
+        this.children = new int[nNodes][];
+        this.leaf = new boolean[nNodes];
+        int maxc = 0;
+        for (int idx = 0; idx < nNodes; idx ++) {
+            leaf[idx] = tree.isLeaf(idx);
+            children[idx] = leaf[idx] ? new int[0] : tree.getChildren(idx);
+            maxc = Math.max(maxc, children[idx].length);
+        }
+        this.maxChildren = maxc;
+        this.logPrior = new double[nRes];
+        for (int r = 0; r < nRes; r ++)
+            logPrior[r] = Math.log(model.getProb(alphabet[r]));
+        this.logSubst = new double[nNodes * nRes * nRes];
+        this.logGap = new double[nNodes];
+        this.logIns = new double[nNodes * nRes];
+        for (int idx = 0; idx < nNodes; idx ++) {
+            if (tree.getParent(idx) < 0)
+                continue; // no branch leads to a root
+            double[][] probs = model.getProbs(times[idx]); // probs[parent][child]
+            double probNoInsert = 1 - model.ksiT(times[idx]);
+            for (int y = 0; y < nRes; y ++)
+                for (int x = 0; x < nRes; x ++)
+                    logSubst[(idx * nRes + y) * nRes + x] = Math.log(probs[y][x] * probNoInsert);
+            logGap[idx] = Math.log(probNoInsert * model.gammaT(times[idx]));
+            double ksi = model.ksiT(instimes[idx]);
+            for (int x = 0; x < nRes; x ++)
+                logIns[idx * nRes + x] = Math.log(ksi * model.getProb(alphabet[x]));
+        }
+        this.workspaces = ThreadLocal.withInitial(() -> new Workspace(nNodes, nRes, maxChildren));
+    }
+
+    /**
+     * Create a peeling engine where the time of each branch is the distance to its parent, scaled by a rate;
+     * insertions are timed by the same branch.
+     * @param tree the tree
+     * @param model gap-augmented substitution model
+     * @param rate the rate
+     * @return peeling engine
+     */
+    public static GapPeeling create(IdxTree tree, GapSubstModel model, double rate) {
+        double[] times = new double[tree.getSize()];
+        for (int idx = 0; idx < times.length; idx ++)
+            times[idx] = tree.getParent(idx) < 0 ? 0 : tree.getDistance(idx) * rate;
+        return new GapPeeling(tree, model, times, times);
+    }
+
+    public IdxTree getTree() {
+        return tree;
+    }
+
+    /**
+     * @return the alphabet of the model, residues followed by gap
+     */
+    public Enumerable getDomain() {
+        return domain;
+    }
+
+    /**
+     * Encode a column of an alignment, for leaves in the tree.
+     * @param aln the alignment, with sequences named as the leaves
+     * @param alnMap map from sequence name to index in the alignment (see {@link EnumSeq.Alignment#getMap()})
+     * @param colIdx the column index
+     * @return residue indices, one for each branch point, {@link #GAP} for gaps and ancestors
+     */
+    public int[] encode(EnumSeq.Alignment<Enumerable> aln, Map<String, Integer> alnMap, int colIdx) {
+        int[] states = new int[nNodes];
+        Arrays.fill(states, GAP);
+        for (int idx = 0; idx < nNodes; idx ++) {
+            if (leaf[idx]) {
+                EnumSeq.Gappy<Enumerable> gseq = aln.getEnumSeq(alnMap.get((String) tree.getLabel(idx)));
+                Object residue = gseq.get(colIdx);
+                if (residue != null) // null residue implies a gap
+                    states[idx] = encode(residue);
+            }
+        }
+        return states;
+    }
+
+    /**
+     * Encode all columns of an alignment, for leaves in the tree.
+     * @param aln the alignment, with sequences named as the leaves
+     * @return residue indices, indexed by column then branch point
+     */
+    public int[][] encode(EnumSeq.Alignment<Enumerable> aln) {
+        Map<String, Integer> alnMap = aln.getMap();
+        int[][] columns = new int[aln.getWidth()][];
+        for (int col = 0; col < columns.length; col ++)
+            columns[col] = encode(aln, alnMap, col);
+        return columns;
+    }
+
+    /**
+     * Encode a residue
+     * @param residue the residue (not gap)
+     * @return index of residue
+     */
+    public int encode(Object residue) {
+        int r = domain.getIndex(residue);
+        if (r < 0 || r >= nRes)
+            throw new TreeRuntimeException("Invalid residue for gap-augmented model: " + residue);
+        return r;
+    }
+
+    /**
+     * Peel a column, leaving the (log) probabilities of each branch point in the workspace of the current thread.
+     * The workspace is re-used by the next call from the same thread.
+     * @param states residue indices, one for each branch point, {@link #GAP} for gaps; only leaves are read
+     * @return the workspace with the result
+     */
+    public Workspace peel(int[] states) {
+        Workspace ws = workspaces.get();
+        double[] resProbs = ws.resProbs;
+        double[] gapProbs = ws.gapProbs;
+        boolean[] allGap = ws.allGap;
+        double[] childTerms = ws.childTerms;
+        // iterate through branch point indices backwards for postorder traversal
+        for (int idx = nNodes - 1; idx >= 0; idx --) {
+            int base = idx * nRes;
+            if (leaf[idx]) {
+                Arrays.fill(resProbs, base, base + nRes, Double.NEGATIVE_INFINITY);
+                gapProbs[idx] = Double.NEGATIVE_INFINITY; // equation 18/19 Rivas & Eddy 2008
+                int r = states[idx];
+                allGap[idx] = r == GAP;
+                if (r != GAP)
+                    resProbs[base + r] = 0.0;
+                continue;
+            }
+            int[] kids = children[idx];
+            boolean all = true;
+            for (int child : kids)
+                if (!allGap[child]) {
+                    all = false;
+                    break;
+                }
+            allGap[idx] = all;
+            // ancestor is a gap
+            for (int c = 0; c < kids.length; c ++) {
+                int child = kids[c];
+                if (allGap[child]) {
+                    int cbase = child * nRes;
+                    childTerms[c] = kernels.logSumExpSum(resProbs, cbase, logIns, cbase, nRes, gapProbs[child]);
+                } else {
+                    childTerms[c] = Double.NEGATIVE_INFINITY;
+                }
+            }
+            gapProbs[idx] = logsumexp(childTerms, kids.length);
+            // ancestor is a residue
+            for (int y = 0; y < nRes; y ++) {
+                double sum = 0.0;
+                for (int child : kids) {
+                    int cbase = child * nRes;
+                    sum += kernels.logSumExpSum(resProbs, cbase, logSubst, (cbase + y) * nRes, nRes,
+                            allGap[child] ? logGap[child] : Double.NEGATIVE_INFINITY);
+                }
+                resProbs[base + y] = sum;
+            }
+        }
+        return ws;
+    }
+
+    /**
+     * Calculate the total probability of a column, i.e. P(col| Tree, Model, SeqLenParam), by peeling it and then
+     * summing over the states of the root, residues weighted by their prior and the geometric sequence length parameter.
+     * @param states residue indices, one for each branch point, {@link #GAP} for gaps; only leaves are read
+     * @param geometricSeqLenParam the geometric sequence length parameter
+     * @return log P(col| Tree, Model, SeqLenParam)
+     */
+    public double logProbCol(int[] states, double geometricSeqLenParam) {
+        Workspace ws = peel(states);
+        // root is branch point 0
+        double weightedLogSumResidueProb = kernels.logSumExpSum(logPrior, 0, ws.resProbs, 0, nRes, Double.NEGATIVE_INFINITY)
+                + Math.log(geometricSeqLenParam);
+        double rootGapProb = ws.gapProbs[0];
+        double xmax = Math.max(rootGapProb, weightedLogSumResidueProb);
+        if (xmax == Double.NEGATIVE_INFINITY)
+            return Double.NEGATIVE_INFINITY;
+        return xmax + Math.log(Math.exp(rootGapProb - xmax) + Math.exp(weightedLogSumResidueProb - xmax));
+    }
+
+    /**
+     * Log-sum-exp of the first n elements of an array; same as {@link smile.math.MathEx#logsumexp(double[])}
+     */
+    private static double logsumexp(double[] array, int n) {
+        double xmax = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i ++)
+            if (array[i] > xmax)
+                xmax = array[i];
+        if (xmax == Double.NEGATIVE_INFINITY)
+            return Double.NEGATIVE_INFINITY;
+        double sum = 0.0;
+        for (int i = 0; i < n; i ++)
+            sum += Math.exp(array[i] - xmax);
+        return xmax + Math.log(sum);
+    }
+
+    /**
+     * Arrays that hold the result of peeling a column, one instance for each thread.
+     */
+    public static class Workspace {
+        private final int nRes;
+        private final double[] resProbs;    // [branch point][residue] flattened
+        private final double[] gapProbs;    // [branch point]
+        private final boolean[] allGap;     // [branch point] true if all descendants are gaps
+        private final double[] childTerms;  // scratch, one for each child
+
+        private Workspace(int nNodes, int nRes, int maxChildren) {
+            this.nRes = nRes;
+            this.resProbs = new double[nNodes * nRes];
+            this.gapProbs = new double[nNodes];
+            this.allGap = new boolean[nNodes];
+            this.childTerms = new double[Math.max(1, maxChildren)];
+        }
+
+        /**
+         * @return log probability of the descendants of a branch point, given that it is a residue
+         */
+        public double getResidueLogProb(int idx, int residue) {
+            return resProbs[idx * nRes + residue];
+        }
+
+        /**
+         * @return log probability of the descendants of a branch point, given that it is a gap
+         */
+        public double getGapLogProb(int idx) {
+            return gapProbs[idx];
+        }
+
+        /**
+         * @return true if all descendants of a branch point are gaps
+         */
+        public boolean isAllGap(int idx) {
+            return allGap[idx];
+        }
+    }
+}
@@ -1149,25 +1149,46 @@ public class IdxGraph {
     }
 
     public static void saveToDOT(String directory, Map<Object, IdxGraph> graphs) throws IOException, ASRException {
-        StringBuilder sb = new StringBuilder();
-        FileWriter freadme=new FileWriter(directory + "/README_DOT.txt");
-        BufferedWriter readme=new BufferedWriter(freadme);
         int cnt = 0;
         String[] names = new String[graphs.size()];
         for (Map.Entry<Object, IdxGraph> entry : graphs.entrySet())
             names[cnt ++] = entry.getKey().toString();
         Arrays.sort(names);
-        for (String name : names) {
-            String filename = directory + "/" + toFilename(name) + ".dot";
-            sb.append(filename + " ");
-            FileWriter fwriter=new FileWriter(filename);
-            BufferedWriter writer=new BufferedWriter(fwriter);
-            IdxGraph g = graphs.get(name);
-            writer.write(g.toDOT());
-            writer.newLine();
-            writer.close();
-            fwriter.close();
-        }
+        for (String name : names)
+            saveToDOT(directory, name, graphs.get(name).toDOT());
+        saveREADME_DOT(directory, names);
+    }
+
+    /**
+     * Save the DOT text of a graph to a file in a directory, named by the graph.
+     * @param directory the directory
+     * @param name the name of the graph
+     * @param dot the DOT text, see {@link #toDOT()}
+     */
+    public static void saveToDOT(String directory, String name, String dot) throws IOException {
+        String filename = directory + "/" + toFilename(name) + ".dot";
+        FileWriter fwriter=new FileWriter(filename);
+        BufferedWriter writer=new BufferedWriter(fwriter);
+        writer.write(dot);
+        writer.newLine();
+        writer.close();
+        fwriter.close();
+    }
+
+    /**
+     * Save instructions for rendering the DOT files of named graphs, as saved by {@link #saveToDOT(String, String, String)}.
+     * @param directory the directory of the DOT files
+     * @param names the names of graphs
+     */
+    public static void saveREADME_DOT(String directory, String[] names) throws IOException {
+        names = names.clone();
+        Arrays.sort(names);
+        StringBuilder sb = new StringBuilder();
+        for (String name : names)
+            sb.append(directory + "/" + toFilename(name) + ".dot" + " ");
+        FileWriter freadme=new FileWriter(directory + "/README_DOT.txt");
+        BufferedWriter readme=new BufferedWriter(freadme);
+        int cnt = names.length;
         readme.write("Install graphviz\nRun command:\n");
         if (cnt > 1) {
             readme.write("gvpack -u " + sb.toString() + "| dot -Tpdf -o" + directory + "/pogs.pdf");
@@ -487,14 +487,24 @@ public class POGTree {
      * @return an array with TreeInstances indexed by edge in order of interval tree
      */
     public TreeInstance[] getIndelInstances() {
-        List<TreeInstance> instances = new ArrayList<>();
+        List<Interval1D> indels = getIndels();
+        TreeInstance[] insts = new TreeInstance[indels.size()];
+        for (int i = 0; i < insts.length; i ++)
+            insts[i] = getIndelInstance(indels.get(i));
+        return insts;
+    }
+
+    /**
+     * Retrieve the indels across all the POGs, in the order of the interval tree, which is also the order of {@link #getIndelInstances()}
+     * @return list of indels
+     */
+    public List<Interval1D> getIndels() {
+        List<Interval1D> indels = new ArrayList<>();
         for (Interval1D ival : ivals) {
             if (ival.getWidth() > 1 || ival.min == -1 || ival.max == this.nNodes) // exclude non-gaps
-                instances.add(getIndelInstance(ival));
+                indels.add(ival);
         }
-        TreeInstance[] insts = new TreeInstance[instances.size()];
-        instances.toArray(insts);
-        return insts;
+        return indels;
     }
 
     /**
@@ -14,6 +14,8 @@ import json.JSONObject;
 import json.JSONTokener;
 
 import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -153,6 +155,268 @@ public class POGraph extends IdxEdgeGraph<POGraph.StatusEdge> {
     }
 
 
+    // node and edge types in the binary format, see toBinary
+    private static final byte BIN_NONE = 0, BIN_NODE = 1, BIN_SYMNODE = 2, BIN_ENUMNODE = 3;
+    private static final byte BIN_STATUSEDGE = 1, BIN_BIDIREDGE = 2;
+
+    /**
+     * Write the instance in a compact binary format, for containers like {@link asr.PredictionFile}.
+     * Holds the same content as {@link #toJSON()}: node indices, packed adjacency, start and end nodes, node instances
+     * (with distributions as doubles against a single domain), and edge instances (also those that are disabled).
+     * @param out the destination
+     * @throws IOException if the write fails
+     * @throws ASRRuntimeException if nodes or edges are of mixed type
+     */
+    public void toBinary(DataOutput out) throws IOException {
+        writeString(out, getName().length() == 0 ? null : getName());
+        out.writeInt(nNodes);
+        out.writeByte((isTerminated() ? 1 : 0) | (isDirected() ? 2 : 0));
+        int cnt = 0;
+        for (int idx = 0; idx < nNodes; idx ++)
+            if (isNode(idx))
+                cnt ++;
+        int[] indices = new int[cnt];
+        cnt = 0;
+        for (int idx = 0; idx < nNodes; idx ++)
+            if (isNode(idx))
+                indices[cnt ++] = idx;
+        out.writeInt(indices.length);
+        for (int idx : indices)
+            out.writeInt(idx);
+        for (int idx : indices) {
+            int[] next = getNodeIndices(idx, true);
+            out.writeInt(next.length);
+            for (int to : next)
+                out.writeInt(to);
+        }
+        int[] starts = getStarts();
+        out.writeInt(starts.length);
+        for (int idx : starts)
+            out.writeInt(idx);
+        int[] ends = getEnds();
+        out.writeInt(ends.length);
+        for (int idx : ends)
+            out.writeInt(idx);
+        // nodes
+        Class nodetype = null;
+        for (int idx : indices) {
+            if (nodes[idx] == null)
+                continue;
+            if (nodetype == null)
+                nodetype = nodes[idx].getClass();
+            else if (nodetype != nodes[idx].getClass())
+                throw new ASRRuntimeException("Invalid mix of nodetypes " + nodetype + " and " + nodes[idx].getClass().toString());
+        }
+        if (nodetype == null) {
+            out.writeByte(BIN_NONE);
+        } else if (nodetype == SymNode.class) {
+            out.writeByte(BIN_SYMNODE);
+            for (int idx : indices) {
+                out.writeBoolean(nodes[idx] != null);
+                if (nodes[idx] != null) {
+                    writeString(out, nodes[idx].label);
+                    writeValue(out, ((SymNode) nodes[idx]).get());
+                }
+            }
+        } else if (nodetype == EnumNode.class) {
+            out.writeByte(BIN_ENUMNODE);
+            Enumerable domain = null;
+            for (int idx : indices)
+                if (domain == null && nodes[idx] != null)
+                    domain = ((EnumNode) nodes[idx]).getDistrib().getDomain();
+            out.writeInt(domain.size());
+            for (Object value : domain.getValues())
+                writeValue(out, value);
+            for (int idx : indices) {
+                out.writeBoolean(nodes[idx] != null);
+                if (nodes[idx] == null)
+                    continue;
+                writeString(out, nodes[idx].label);
+                EnumDistrib d = ((EnumNode) nodes[idx]).getDistrib();
+                if (!d.getDomain().equals(domain))
+                    throw new ASRRuntimeException("Invalid mix of domains in nodes");
+                for (int i = 0; i < domain.size(); i ++)
+                    out.writeDouble(d.get(i));
+            }
+        } else {
+            out.writeByte(BIN_NODE);
+            for (int idx : indices) {
+                out.writeBoolean(nodes[idx] != null);
+                if (nodes[idx] != null)
+                    writeString(out, nodes[idx].label);
+            }
+        }
+        // edges
+        Map<Integer, StatusEdge> edgemap = getEdges();
+        Class edgeclass = null;
+        for (StatusEdge e : edgemap.values()) {
+            if (edgeclass == null)
+                edgeclass = e.getClass();
+            else if (e.getClass() != edgeclass)
+                throw new ASRRuntimeException("Mixing edges");
+        }
+        out.writeByte(edgeclass == null ? BIN_NONE : (edgeclass == BidirEdge.class ? BIN_BIDIREDGE : BIN_STATUSEDGE));
+        out.writeInt(edgemap.size());
+        for (Map.Entry<Integer, StatusEdge> entry : edgemap.entrySet()) {
+            int from = getFrom(entry.getKey());
+            int to = getTo(entry.getKey());
+            StatusEdge e = entry.getValue();
+            out.writeInt(from);
+            out.writeInt(to);
+            int flags = (isEdge(from, to) ? 1 : 0) | (e.getReciprocated() ? 2 : 0);
+            if (e instanceof BidirEdge)
+                flags |= (((BidirEdge) e).isForward() ? 4 : 0) | (((BidirEdge) e).isBackward() ? 8 : 0);
+            out.writeByte(flags);
+            out.writeDouble(e.getWeight());
+            writeString(out, e.getLabel());
+        }
+    }
+
+    /**
+     * Decode an instance of POGraph from the binary format written by {@link #toBinary(DataOutput)}.
+     * @param buf the source, positioned at the start of the graph
+     * @return the graph
+     * @throws ASRRuntimeException if there is a formatting problem
+     */
+    public static POGraph fromBinary(ByteBuffer buf) {
+        try {
+            String name = readString(buf);
+            int n = buf.getInt();
+            int flags = buf.get();
+            if ((flags & 3) != 3)
+                throw new ASRRuntimeException("POGraph format is wrong in binary: is not terminated or not directed");
+            POGraph g = new POGraph(n);
+            if (name != null)
+                g.setName(name);
+            int[] indices = new int[buf.getInt()];
+            for (int i = 0; i < indices.length; i ++)
+                indices[i] = buf.getInt();
+            int[][] adjacent = new int[indices.length][];
+            for (int i = 0; i < indices.length; i ++) {
+                adjacent[i] = new int[buf.getInt()];
+                for (int j = 0; j < adjacent[i].length; j ++)
+                    adjacent[i][j] = buf.getInt();
+            }
+            int[] starts = new int[buf.getInt()];
+            for (int i = 0; i < starts.length; i ++)
+                starts[i] = buf.getInt();
+            int[] ends = new int[buf.getInt()];
+            for (int i = 0; i < ends.length; i ++)
+                ends[i] = buf.getInt();
+            // nodes need to be added before they are connected
+            byte nodetype = buf.get();
+            Enumerable domain = null;
+            if (nodetype == BIN_ENUMNODE) {
+                Object[] values = new Object[buf.getInt()];
+                for (int i = 0; i < values.length; i ++)
+                    values[i] = readValue(buf);
+                domain = new Enumerable(values);
+            }
+            for (int idx : indices) {
+                if (nodetype == BIN_NONE || buf.get() == 0) { // index is used, but has no node instance
+                    g.addNode(idx, null);
+                    continue;
+                }
+                String label = readString(buf);
+                Node node;
+                if (nodetype == BIN_SYMNODE) {
+                    node = new SymNode(readValue(buf));
+                } else if (nodetype == BIN_ENUMNODE) {
+                    double[] pr = new double[domain.size()];
+                    for (int i = 0; i < pr.length; i ++)
+                        pr[i] = buf.getDouble();
+                    node = new EnumNode(new EnumDistrib(domain, pr));
+                } else
+                    node = new Node();
+                if (label != null)
+                    node.setLabel(label);
+                g.addNode(idx, node);
+            }
+            for (int i = 0; i < indices.length; i ++)
+                for (int to : adjacent[i])
+                    g.addEdge(indices[i], to);
+            for (int idx : starts)
+                g.addEdge(-1, idx);
+            for (int idx : ends)
+                g.addTerminalEdge(idx);
+            byte edgetype = buf.get();
+            int nEdges = buf.getInt();
+            for (int i = 0; i < nEdges; i ++) {
+                int from = buf.getInt();
+                int to = buf.getInt();
+                int eflags = buf.get();
+                double weight = buf.getDouble();
+                String label = readString(buf);
+                StatusEdge e;
+                if (edgetype == BIN_BIDIREDGE) {
+                    e = new BidirEdge((eflags & 4) != 0, (eflags & 8) != 0);
+                    e.setWeight(weight);
+                } else
+                    e = new StatusEdge((eflags & 2) != 0, weight);
+                if (label != null)
+                    e.setLabel(label);
+                g.addEdge(from, to, e);
+                if ((eflags & 1) == 0) // edge instance is kept, but disabled
+                    g.disableEdge(from, to);
+            }
+            return g;
+        } catch (BufferUnderflowException e) {
+            throw new ASRRuntimeException("POGraph format is wrong in binary: ends prematurely");
+        }
+    }
+
+    private static void writeString(DataOutput out, String str) throws IOException {
+        if (str == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int len = buf.getInt();
+        if (len < 0)
+            return null;
+        byte[] bytes = new byte[len];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write a symbol value, keeping its type if it is a character, integer or boolean; other types are written as strings
+     */
+    private static void writeValue(DataOutput out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte('0');
+        } else if (value instanceof Character) {
+            out.writeByte('C');
+            out.writeChar((Character) value);
+        } else if (value instanceof Integer) {
+            out.writeByte('I');
+            out.writeInt((Integer) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte('B');
+            out.writeBoolean((Boolean) value);
+        } else {
+            out.writeByte('S');
+            writeString(out, value.toString());
+        }
+    }
+
+    private static Object readValue(ByteBuffer buf) {
+        byte type = buf.get();
+        switch (type) {
+            case '0': return null;
+            case 'C': return buf.getChar();
+            case 'I': return buf.getInt();
+            case 'B': return buf.get() != 0;
+            case 'S': return readString(buf);
+            default: throw new ASRRuntimeException("Invalid value type in binary: " + type);
+        }
+    }
+
     public static List<POGraph> loadFromJSON(String directory) throws IOException {
         Path filename = Paths.get(directory);
         BufferedReader reader = Files.newBufferedReader(filename, StandardCharsets.UTF_8);
@@ -306,21 +570,32 @@ public class POGraph extends IdxEdgeGraph<POGraph.StatusEdge> {
 
     /**
      * Establish if there is a path from idx1 to idx2.
-     * Uses forward recursion.
+     * Uses forward recursion, visiting each node at most once.
      * @param idx1 source node index (can use -1)
      * @param idx2 target node index (can use N, where N is the number of nodes in the POG)
      * @return true if there is a path, false otherwise
      */
     public boolean isPath(int idx1, int idx2) {
+        return isPath(idx1, idx2, new BitSet(nNodes + 2));
+    }
+
+    /**
+     * Helper function for {@link #isPath(int, int)}
+     * @param visited nodes (offset by 1 to include the start terminal) from which there is known to be no path
+     */
+    private boolean isPath(int idx1, int idx2, BitSet visited) {
         if (idx1 == idx2) // by def, a node has a path to itself
             return true;
         if (!isNode(idx1) && idx1 != -1) // the source node must either be the start terminal or a valid node (not just an index)
             return false;
         if (!isNode(idx2) && idx2 != nNodes) // the target node must either be the end terminal or a valid node (not just an index)
             return false;
+        if (visited.get(idx1 + 1)) // been here before, and did not find a path
+            return false;
+        visited.set(idx1 + 1);
         int[] forw = getForward(idx1);
         for (int to : forw) {
-            if (isPath(to, idx2))
+            if (isPath(to, idx2, visited))
                 return true;
         }
         return idx2 == nNodes ? isEndNode(idx1) : false; // if we are searching for end marker
@@ -8,19 +8,20 @@ public class MilliTimer {
     private Map<String, Long> tagmap = new HashMap<>();
     private Map<String, Long> elapsed = new HashMap<>();
     private Map<String, Integer> nstops = new HashMap<>();
+    private Map<String, Integer> counts = new HashMap<>();
 
-    public void start(String tag) {
+    public synchronized void start(String tag) {
         tagmap.put(tag, System.currentTimeMillis());
     }
 
-    public void stopStart(String stoptag, String starttag) {
+    public synchronized void stopStart(String stoptag, String starttag) {
         stop(stoptag, false);
         start(starttag);
     }
-    public void stop(String tag) {
+    public synchronized void stop(String tag) {
         stop(tag, false);
     }
-    public void stop(String tag, boolean restart) {
+    public synchronized void stop(String tag, boolean restart) {
         Long start = tagmap.get(tag);
         Long stop = System.currentTimeMillis();
         if (start != null) {
@@ -39,10 +40,18 @@ public class MilliTimer {
             start(tag);
     }
 
-    public void report() {
+    public synchronized void count(String tag) {
+        counts.merge(tag, 1, Integer::sum);
+    }
+
+    public synchronized int getCount(String tag) {
+        return counts.getOrDefault(tag, 0);
+    }
+
+    public synchronized void report() {
         report(false);
     }
-    public void report(boolean total) {
+    public synchronized void report(boolean total) {
         if (total)
             System.out.println("Tag    \tTotal ms");
         else
@@ -51,6 +60,11 @@ public class MilliTimer {
             Integer n = nstops.get(entry.getKey());
             System.out.println(entry.getKey() + "\t" + (total ? entry.getValue() : entry.getValue() / n));
         }
+        if (!counts.isEmpty()) {
+            System.out.println("Tag    \tCount");
+            for (Map.Entry<String, Integer> entry : counts.entrySet())
+                System.out.println(entry.getKey() + "\t" + entry.getValue());
+        }
     }
 
 }
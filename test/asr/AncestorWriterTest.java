@@ -0,0 +1,110 @@
+package asr;
+
+import bn.ctmc.SubstModel;
+import dat.file.AlnWriter;
+import dat.file.FastaWriter;
+import dat.pog.IdxGraph;
+import dat.pog.POGraph;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AncestorWriterTest {
+
+    static Prediction pred;
+
+    @TempDir
+    File dir;
+
+    @BeforeAll
+    static void setThingsUp() throws IOException {
+        pred = Prediction.PredictByBidirEdgeParsimony(TestData.loadDefaultPOGTree());
+        pred.getJoint(SubstModel.createModel("JTT"));
+    }
+
+    /**
+     * Save all ancestors at once, as GRASP does when output is not streamed
+     */
+    private void saveAll(boolean gappy) throws IOException, ASRException {
+        Map<Object, POGraph> pogs = pred.getAncestors(GRASP.Inference.JOINT);
+        String[] ancnames = new String[pogs.size()];
+        Object[][] ancseqs_gappy = new Object[pogs.size()][];
+        Object[][] ancseqs_nogap = new Object[pogs.size()][];
+        Map<Object, IdxGraph> saveme = new HashMap<>();
+        for (Map.Entry<Object, POGraph> entry : pogs.entrySet()) {
+            int idx = (Integer) entry.getKey();
+            ancnames[idx] = "N" + idx;
+            ancseqs_gappy[idx] = pred.getSequence(entry.getKey(), GRASP.Inference.JOINT, true);
+            ancseqs_nogap[idx] = pred.getSequence(entry.getKey(), GRASP.Inference.JOINT, false);
+            entry.getValue().setName("N" + idx);
+            saveme.put("N" + idx, entry.getValue());
+        }
+        FastaWriter fw = new FastaWriter(new File(dir, "test_ancestors.fa"));
+        fw.save(ancnames, gappy ? ancseqs_gappy : ancseqs_nogap);
+        fw.close();
+        AlnWriter aw = new AlnWriter(new File(dir, "test_ancestors.aln"));
+        aw.save(ancnames, ancseqs_gappy);
+        aw.close();
+        IdxGraph.saveToDOT(dir.getPath(), saveme);
+    }
+
+    private void stream(boolean gappy, int nThreads) throws IOException {
+        AncestorWriter stream = new AncestorWriter(pred, GRASP.Inference.JOINT, pred.getLabels(GRASP.Inference.JOINT));
+        FastaWriter fw = new FastaWriter(new File(dir, "test_ancestors.fa"));
+        stream.setFasta(fw, gappy);
+        AlnWriter aw = new AlnWriter(new File(dir, "test_ancestors.aln"));
+        stream.setClustal(aw);
+        stream.setDOT(dir.getPath());
+        stream.write(nThreads);
+        fw.close();
+        aw.close();
+    }
+
+    /**
+     * @return the content of all files in the directory, by name; the directory is emptied
+     */
+    private Map<String, byte[]> collect() throws IOException {
+        Map<String, byte[]> files = new TreeMap<>();
+        for (File file : dir.listFiles()) {
+            files.put(file.getName(), Files.readAllBytes(file.toPath()));
+            assertTrue(file.delete());
+        }
+        return files;
+    }
+
+    @Test
+    void sameAsSavedAtOnce() throws IOException, ASRException {
+        int window = AncestorWriter.WINDOW_PER_THREAD;
+        List<Object> labels = pred.getLabels(GRASP.Inference.JOINT);
+        try {
+            for (boolean gappy : new boolean[] {true, false}) {
+                saveAll(gappy);
+                Map<String, byte[]> expected = collect();
+                assertEquals(labels.size() + 3, expected.size()); // FASTA, CLUSTAL, README and a DOT file for each ancestor
+                for (int perThread : new int[] {1, window}) {
+                    AncestorWriter.WINDOW_PER_THREAD = perThread;
+                    for (int nThreads : new int[] {1, 3}) {
+                        assertTrue(nThreads * perThread < labels.size()); // ancestors are written over several windows
+                        stream(gappy, nThreads);
+                        Map<String, byte[]> actual = collect();
+                        assertEquals(expected.keySet(), actual.keySet());
+                        for (String name : expected.keySet())
+                            assertArrayEquals(expected.get(name), actual.get(name), name + " with " + nThreads + " threads");
+                    }
+                }
+            }
+        } finally {
+            AncestorWriter.WINDOW_PER_THREAD = window;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package asr;
+
+import bn.ctmc.SubstModel;
+import bn.prob.EnumDistrib;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CheckpointTest {
+
+    @TempDir
+    File dir;
+
+    int blocksize;
+    Prediction pred;
+    SubstModel model = SubstModel.createModel("JTT");
+
+    @BeforeEach
+    void setup() throws IOException {
+        blocksize = Checkpoint.BLOCK_SIZE;
+        Checkpoint.BLOCK_SIZE = 7; // many blocks, some with patterns inferred in earlier blocks
+        pred = Prediction.PredictByBidirEdgeParsimony(TestData.loadDefaultPOGTree());
+    }
+
+    @AfterEach
+    void reset() {
+        Checkpoint.BLOCK_SIZE = blocksize;
+    }
+
+    @Test
+    void resumeJoint() throws IOException {
+        Object[][] expected = pred.getJoint(model);
+        Checkpoint ckp = new Checkpoint(dir.getPath(), "test");
+        ckp.saveIndels(pred);
+        pred.setCheckpoint(ckp);
+        assertArrayEquals(expected, pred.getJoint(model));  // inferred in blocks, and saved
+        File first = new File(dir, "joint_0.ckp");
+        assertTrue(first.exists());
+        first.delete();                                     // as if interrupted before the first block was saved
+        Prediction resumed = new Checkpoint(dir.getPath(), "test").loadIndels();
+        assertNotNull(resumed);
+        resumed.setCheckpoint(ckp);
+        assertArrayEquals(expected, resumed.getJoint(model));
+        assertTrue(first.exists());
+    }
+
+    @Test
+    void resumeMarginal() throws IOException {
+        EnumDistrib[][] expected = pred.getMarginals(model, null);
+        Object ancid = pred.getTree().getLabel(0);
+        EnumDistrib[] root = pred.getMarginal(ancid, model, null);
+        Checkpoint ckp = new Checkpoint(dir.getPath(), "test");
+        ckp.saveIndels(pred);
+        Prediction first = ckp.loadIndels();
+        first.setCheckpoint(ckp);
+        first.getMarginal(ancid, model, null);             // saved on its own, since not all ancestors are inferred
+        assertTrue(new File(dir, "marginal_N" + ancid + ".ckp").exists());
+        first.getMarginals(model, null);
+        Prediction resumed = ckp.loadIndels();
+        resumed.setCheckpoint(ckp);
+        EnumDistrib[] d = resumed.getMarginal(ancid, model, null); // distributions are stored as floats, so compare with tolerance
+        for (int pos = 0; pos < root.length; pos ++) {
+            assertEquals(root[pos] == null, d[pos] == null);
+            if (root[pos] != null)
+                assertEquals(root[pos].get(0), d[pos].get(0), 1e-6);
+        }
+        EnumDistrib[][] all = resumed.getMarginals(model, null);
+        for (int idx = 0; idx < expected.length; idx ++) {
+            if (expected[idx] == null)
+                continue;
+            for (int pos = 0; pos < expected[idx].length; pos ++) {
+                assertEquals(expected[idx][pos] == null, all[idx][pos] == null);
+                if (expected[idx][pos] != null)
+                    assertEquals(expected[idx][pos].getMaxIndex(), all[idx][pos].getMaxIndex());
+            }
+        }
+    }
+
+    @Test
+    void otherRun() throws IOException {
+        Checkpoint ckp = new Checkpoint(dir.getPath(), "test");
+        ckp.saveIndels(pred);
+        assertNotNull(new Checkpoint(dir.getPath(), "test").loadIndels());
+        assertNull(new Checkpoint(dir.getPath(), "another").loadIndels());
+    }
+}
@@ -0,0 +1,63 @@
+package asr;
+
+import bn.ctmc.SubstModel;
+import bn.prob.EnumDistrib;
+import dat.Enumerable;
+import dat.phylo.IdxTree;
+import dat.phylo.Tree;
+import dat.phylo.TreeInstance;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FelsensteinMarginalTest {
+
+    double GAMMA_SHAPE = 1.1;
+    double GAMMA_SCALE = 0.2;
+
+    void assertSameDistribs(IdxTree tree, SubstModel model, double rate, TreeInstance ti) {
+        FelsensteinMarginal fm = new FelsensteinMarginal(tree, model, rate);
+        fm.decorate(ti);
+        for (int idx = 0; idx < tree.getSize(); idx ++) {
+            if (tree.isLeaf(idx) || !tree.isConnected(idx))
+                continue;
+            MaxLhoodMarginal<EnumDistrib> mlm = new MaxLhoodMarginal<>(idx, tree, model, rate);
+            mlm.decorate(ti);
+            assertArrayEquals(mlm.getDecoration(idx).get(), fm.getDecoration(idx).get(), 1e-6, "Branch point " + idx + " in " + ti);
+        }
+    }
+
+    @Test
+    void sameAsMaxLhoodMarginal() {
+        SubstModel model = SubstModel.createModel("JTT");
+        Enumerable alpha = model.getDomain();
+        for (int NLEAVES = 3; NLEAVES < 16; NLEAVES += 4) {
+            for (int SEED = 0; SEED < 10; SEED ++) {
+                Tree tree = Tree.Random(NLEAVES, SEED, GAMMA_SHAPE, 1.0 / GAMMA_SCALE, 2, 2);
+                Random rand = new Random(SEED);
+                double rate = 0.2 + rand.nextDouble() * 2;
+                assertSameDistribs(tree, model, rate, TestData.randomInstance(tree, alpha, rand, 0.2));
+            }
+        }
+    }
+
+    @Test
+    void sameAsMaxLhoodMarginalOnPrunedTree() {
+        SubstModel model = SubstModel.createModel("LG");
+        Enumerable alpha = model.getDomain();
+        for (int SEED = 0; SEED < 10; SEED ++) {
+            Tree tree = Tree.Random(12, SEED, GAMMA_SHAPE, 1.0 / GAMMA_SCALE, 2, 2);
+            Random rand = new Random(SEED);
+            Set<Integer> pruneMe = new HashSet<>();
+            for (int i = 0; i < 3; i ++)
+                pruneMe.add(1 + rand.nextInt(tree.getSize() - 1));
+            IdxTree pruned = IdxTree.createPrunedTree(tree, tree.getPrunedIndex(pruneMe, true));
+            assertSameDistribs(pruned, model, 1.0, TestData.randomInstance(pruned, alpha, rand, 0.0));
+        }
+    }
+
+}
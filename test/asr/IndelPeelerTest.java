@@ -0,0 +1,38 @@
+package asr;
+
+import bn.ctmc.GapSubstModel;
+import bn.ctmc.SubstModel;
+import bn.ctmc.matrix.JTT;
+import dat.EnumSeq;
+import dat.Enumerable;
+import dat.file.Utils;
+import dat.phylo.Tree;
+import dat.pog.POGTree;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndelPeelerTest {
+
+    @Test
+    void likelihoodEvaluator() throws IOException, ASRException {
+        SubstModel.createModel("JTT"); // initialise models
+        EnumSeq.Alignment<Enumerable> aln = Utils.loadAlignment("test/resources/basic_5.aln", Enumerable.aacid);
+        Tree tree = Tree.load("test/resources/basic_5.nwk", "newick");
+        Enumerable alpha = new Enumerable(JTT.S);
+        double geom = 1.0 / aln.getAvgSeqLength();
+        IndelPeeler.LikelihoodEvaluator evaluator = new IndelPeeler.LikelihoodEvaluator(tree, aln, JTT.F, JTT.Q, alpha, geom);
+        assertTrue(evaluator.getNPatterns() < aln.getWidth());
+        POGTree pogTree = new POGTree(aln, tree);
+        for (double muLambda : new double[] {0.05, 0.5, 1.5}) {
+            GapSubstModel model = new GapSubstModel(JTT.F, JTT.Q, alpha, muLambda, muLambda);
+            double expected = IndelPeeler.calcProbAlnGivenTree(pogTree, model, aln, geom, alpha, 2);
+            assertEquals(expected, evaluator.evaluate(muLambda), 1e-8);
+            assertEquals(expected, evaluator.evaluate(muLambda), 1e-8); // remembered
+        }
+        assertEquals(3, evaluator.getNEvaluations());
+    }
+
+}
@@ -0,0 +1,79 @@
+package asr;
+
+import dat.EnumSeq;
+import dat.Enumerable;
+import dat.phylo.IdxTree;
+import com.google.ortools.linearsolver.MPSolver;
+import dat.pog.POGTree;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MipTest {
+
+    @Test
+    void decompose() throws IOException {
+        EnumSeq.Alignment<Enumerable> aln = TestData.loadDefaultAlignment();
+        POGTree pogtree = TestData.loadDefaultPOGTree();
+        int blocksize = Mip.MIN_BLOCK_SIZE;
+        try {
+            Mip.MIN_BLOCK_SIZE = aln.getWidth(); // one block
+            Mip whole = new Mip(pogtree, aln, "SCIP", "JTT", 2, false);
+            HashMap<Integer, Integer[]> expected = whole.runMPSolverIndelInference();
+            Mip.MIN_BLOCK_SIZE = 1;             // split at every column with content in all sequences
+            Mip split = new Mip(pogtree, aln, "SCIP", "JTT", 2, false);
+            HashMap<Integer, Integer[]> actual = split.runMPSolverIndelInference();
+            assertNotNull(expected);
+            assertNotNull(actual);
+            assertEquals(whole.getObjectiveValue(), split.getObjectiveValue(), 1e-6);
+            IdxTree itree = pogtree.getTree();
+            for (int idx : itree.getAncestors()) {
+                assertEquals(aln.getWidth(), actual.get(idx).length);
+                for (int col = 0; col < aln.getWidth(); col++)
+                    if (aln.getOccupancy(col) == aln.getHeight()) // all ancestors have content where all extants do
+                        assertEquals(1, actual.get(idx)[col]);
+            }
+        } finally {
+            Mip.MIN_BLOCK_SIZE = blocksize;
+        }
+    }
+
+    @Test
+    void warmStart() throws IOException {
+        EnumSeq.Alignment<Enumerable> aln = TestData.loadDefaultAlignment();
+        POGTree pogtree = TestData.loadDefaultPOGTree();
+        Mip cold = new Mip(pogtree, aln, "SCIP", "JTT", 2, false);
+        assertNotNull(cold.runMPSolverIndelInference());
+        Mip warm = new Mip(pogtree, aln, "SCIP", "JTT", 2, false);
+        assertTrue(warm.setHint(Prediction.PredictByBidirEdgeParsimony(pogtree)) > 0);
+        assertNotNull(warm.runMPSolverIndelInference());
+        assertEquals(cold.getObjectiveValue(), warm.getObjectiveValue(), 1e-6); // the hint may change which optimum is found, not its value
+    }
+
+    @Test
+    void timeLimited() throws IOException {
+        EnumSeq.Alignment<Enumerable> aln = TestData.loadDefaultAlignment();
+        POGTree pogtree = TestData.loadDefaultPOGTree();
+        Mip cold = new Mip(pogtree, aln, "SCIP", "JTT", 2, false);
+        assertNotNull(cold.runMPSolverIndelInference());
+        boolean warmstart = GRASP.MIP_WARM_START;
+        Prediction optimal;
+        try {
+            GRASP.MIP_WARM_START = false;
+            optimal = Prediction.PredictByMIP(pogtree, aln, "SCIP", "JTT", 2, false); // a hint that satisfies the model
+        } finally {
+            GRASP.MIP_WARM_START = warmstart;
+        }
+        Mip warm = new Mip(pogtree, aln, "SCIP", "JTT", 2, false);
+        assertEquals(pogtree.getTree().getAncestors().length, warm.setHint(optimal));
+        warm.setTimeLimit(1); // stop the solver (almost) immediately
+        assertNotNull(warm.runMPSolverIndelInference());
+        assertNotEquals(MPSolver.ResultStatus.OPTIMAL, warm.getResultStatus());
+        // the hint is evaluated, and the solution is never worse than it
+        assertEquals(cold.getObjectiveValue(), warm.getHintObjectiveValue(), 1e-6);
+        assertTrue(warm.getObjectiveValue() <= warm.getHintObjectiveValue() + 1e-6);
+    }
+}
@@ -0,0 +1,87 @@
+package asr;
+
+import dat.file.Newick;
+import dat.phylo.IdxTree;
+import dat.phylo.Tree;
+import dat.phylo.TreeInstance;
+import dat.pog.POGTree;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PackedParsimonyTest {
+
+    /**
+     * Compare the optimal values with those found by traceback (the randomised order forces traceback)
+     */
+    private static void assertSameAsTraceback(TreeInstance ti1, TreeInstance ti2, PackedParsimony engine, boolean recodeNull) {
+        Parsimony packed = new Parsimony(engine, recodeNull);
+        Parsimony traced = new Parsimony(ti2.getTree(), recodeNull);
+        traced.SET_RANDOM_PARSIMONY = true;
+        packed.decorate(ti1);
+        traced.decorate(ti2);
+        for (int idx = 0; idx < ti1.getSize(); idx ++) {
+            List expected = traced.getDecoration(idx);
+            List actual = packed.getDecoration(idx);
+            if (expected == null) {
+                assertNull(actual);
+            } else {
+                assertEquals(expected.size(), actual.size());
+                assertEquals(new HashSet<>(expected), new HashSet<>(actual));
+            }
+        }
+    }
+
+    @Test
+    void edgesSameAsTraceback() throws IOException {
+        Tree tree = TestData.loadDefaultTree();
+        POGTree pogTree = new POGTree(TestData.loadDefaultAlignment(), tree);
+        PackedParsimony engine = new PackedParsimony(tree);
+        for (boolean recodeNull : new boolean[] {false, true}) {
+            for (int i = -1; i <= pogTree.getPositions(); i ++) {
+                for (boolean forward : new boolean[] {POGTree.EDGE_FORWARD, POGTree.EDGE_BACKWARD}) {
+                    TreeInstance ti = pogTree.getEdgeInstance(i, forward);
+                    if (ti.getPossible().length > 0)
+                        assertSameAsTraceback(ti, pogTree.getEdgeInstance(i, forward), engine, recodeNull);
+                }
+            }
+        }
+    }
+
+    @Test
+    void randomSameAsTraceback() {
+        Random rand = new Random(1);
+        IdxTree tree = Tree.RandomTopology(40, 1, 3, 2);
+        PackedParsimony engine = new PackedParsimony(tree);
+        Integer[] symbols = new Integer[] {0, 1, 2, 3, 4};
+        for (int rep = 0; rep < 200; rep ++) {
+            Object[] values = new Object[tree.getSize()];
+            for (int idx = 0; idx < values.length; idx ++) {
+                // leaves mostly instantiated, some ancestors too
+                if (rand.nextDouble() < (tree.isLeaf(idx) ? 0.8 : 0.05) && idx != 0)
+                    values[idx] = symbols[rand.nextInt(symbols.length)];
+            }
+            assertSameAsTraceback(new TreeInstance(tree, values.clone()), new TreeInstance(tree, values.clone()), engine, rep % 2 == 0);
+        }
+    }
+
+    @Test
+    void score() {
+        Tree tree = Newick.parse("((A,B)X,(C,D)Y,E)R;");
+        PackedParsimony engine = new PackedParsimony(tree);
+        int[] states = new int[tree.getSize()];
+        for (int idx = 0; idx < states.length; idx ++)
+            states[idx] = tree.isLeaf(idx) ? ("E".equals(tree.getLabel(idx)) ? 1 : 0) : PackedParsimony.UNINSTANTIATED;
+        PackedParsimony.Workspace ws = engine.infer(states, 2);
+        assertEquals(1, ws.getScore());
+        for (int idx = 0; idx < states.length; idx ++)
+            if (!tree.isLeaf(idx))
+                assertEquals(1L, ws.getOptimal(idx)); // only symbol 0
+    }
+
+}
@@ -0,0 +1,64 @@
+package asr;
+
+import bn.ctmc.SubstModel;
+import dat.phylo.IdxTree;
+import dat.phylo.Tree;
+import dat.pog.POGTree;
+import dat.pog.POGraph;
+import dat.pog.SymNode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PredictionFileTest {
+
+    @TempDir
+    File dir;
+
+    private static void assertSamePOG(POGraph expected, POGraph actual) {
+        assertEquals(expected.maxsize(), actual.maxsize());
+        assertArrayEquals(expected.getStarts(), actual.getStarts());
+        assertArrayEquals(expected.getEnds(), actual.getEnds());
+        for (int eidx : expected.getEdges().keySet()) { // edge instances are kept if the edge is disabled, but not if a node is missing
+            int from = expected.getFrom(eidx), to = expected.getTo(eidx);
+            if ((from == -1 || expected.isNode(from)) && (to == expected.maxsize() || expected.isNode(to)))
+                assertEquals(expected.isEdge(from, to), actual.isEdge(from, to) && actual.getEdge(from, to) != null);
+        }
+        for (int idx = 0; idx < expected.maxsize(); idx ++) {
+            assertEquals(expected.isNode(idx), actual.isNode(idx));
+            if (expected.isNode(idx)) {
+                assertArrayEquals(expected.getNodeIndices(idx, true), actual.getNodeIndices(idx, true));
+                if (expected.getNode(idx) instanceof SymNode)
+                    assertEquals(((SymNode) expected.getNode(idx)).get(), ((SymNode) actual.getNode(idx)).get());
+            }
+        }
+    }
+
+    @Test
+    void saveAndOpen() throws IOException {
+        Tree tree = TestData.loadDefaultTree();
+        Prediction pred = Prediction.PredictByBidirEdgeParsimony(new POGTree(TestData.loadDefaultAlignment(), tree));
+        pred.getJoint(SubstModel.createModel("JTT"));
+        pred.getAncestors(GRASP.Inference.JOINT); // decorates ancestor POGs with states
+        String filename = new File(dir, "ASR.bin").getPath();
+        PredictionFile.save(pred, filename);
+        assertTrue(PredictionFile.isBinary(filename));
+        try (PredictionFile file = PredictionFile.open(filename)) {
+            IdxTree ftree = file.getTree();
+            assertEquals(pred.getPositions(), file.getPositions());
+            assertEquals(tree.getSize(), ftree.getSize());
+            for (int idx : tree.getAncestors())
+                assertSamePOG(pred.getAncestor(tree.getLabel(idx)), file.getAncestor(ftree.getLabel(idx)));
+            for (int idx : tree.getLeaves())
+                assertSamePOG(pred.getExtant(tree.getLabel(idx)), file.getExtant(tree.getLabel(idx)));
+            assertNull(file.getAncestor(tree.getLabel(tree.getLeaves()[0])));
+        }
+        Prediction loaded = Prediction.load(filename);
+        for (int idx : tree.getAncestors())
+            assertSamePOG(pred.getAncestor(tree.getLabel(idx)), loaded.getAncestor(loaded.getTree().getLabel(idx)));
+    }
+}
@@ -0,0 +1,95 @@
+package asr;
+
+import bn.ctmc.SubstModel;
+import dat.phylo.IdxTree;
+import dat.phylo.TreeInstance;
+import dat.pog.POGTree;
+import dat.pog.POGraph;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PredictionTest {
+
+    static POGTree pogtree;
+
+    @BeforeAll
+    static void setThingsUp() throws IOException {
+        pogtree = TestData.loadDefaultPOGTree();
+    }
+
+    @Test
+    void getTreeShared() {
+        Prediction pred = Prediction.PredictByBidirEdgeParsimony(pogtree);
+        IdxTree phylo = pred.getTree();
+        Set<IdxTree> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int pos = 0; pos < pred.getPositions(); pos ++) {
+            IdxTree t = pred.getTree(pos);
+            distinct.add(t);
+            // compare with pruning the tree directly
+            Set<Integer> pruneMe = new HashSet<>();
+            for (int idx : phylo) {
+                POGraph pog = phylo.isLeaf(idx) ? pred.getExtant(phylo.getLabel(idx)) : pred.getAncestor(phylo.getLabel(idx));
+                if (!pog.isNode(pos))
+                    pruneMe.add(idx);
+            }
+            IdxTree expected = IdxTree.createPrunedTree(phylo, phylo.getPrunedIndex(pruneMe, GRASP.REMOVE_INDEL_ORPHANS));
+            assertEquals(expected.getSize(), t.getSize());
+            for (int idx = 0; idx < t.getSize(); idx ++) {
+                assertEquals(expected.getBranchPoint(idx), t.getBranchPoint(idx));
+                assertEquals(expected.getParent(idx), t.getParent(idx));
+            }
+        }
+        assertEquals(distinct.size(), pred.getNDistinctTrees());
+        assertTrue(distinct.size() < pred.getPositions());
+    }
+
+    @Test
+    void getTreeInstance() {
+        Prediction pred = Prediction.PredictByBidirEdgeParsimony(pogtree);
+        Object[][] states = pred.getJoint(SubstModel.createModel("JTT"));
+        IdxTree phylo = pred.getTree();
+        for (int pos = 0; pos < pred.getPositions(); pos ++) {
+            TreeInstance ti = pred.getTreeInstance(pos, GRASP.Inference.JOINT);
+            IdxTree t = pred.getTree(pos);
+            for (int idx = 0; idx < t.getSize(); idx ++) {
+                int global = phylo.getIndex(t.getBranchPoint(idx).getID());
+                if (!phylo.isLeaf(global))
+                    assertEquals(states[global][pos], ti.getInstance(idx));
+            }
+        }
+    }
+
+    /**
+     * Ancestor POGs must not depend on how many threads were used to infer and assemble them
+     */
+    @Test
+    void indelsSameForAnyThreads() {
+        int nThreads = GRASP.NTHREADS;
+        try {
+            GRASP.NTHREADS = 1;
+            Prediction[] serial = {Prediction.PredictBySICP(pogtree), Prediction.PredictBySICML(pogtree), Prediction.PredictByBidirEdgeParsimony(pogtree)};
+            GRASP.NTHREADS = 4;
+            Prediction[] parallel = {Prediction.PredictBySICP(pogtree), Prediction.PredictBySICML(pogtree), Prediction.PredictByBidirEdgeParsimony(pogtree)};
+            IdxTree phylo = pogtree.getTree();
+            for (int i = 0; i < serial.length; i ++) {
+                for (int idx : phylo) {
+                    if (phylo.isLeaf(idx))
+                        continue;
+                    Object label = phylo.getLabel(idx);
+                    assertEquals(serial[i].getAncestor(label).toJSON().toString(), parallel[i].getAncestor(label).toJSON().toString());
+                }
+            }
+        } finally {
+            GRASP.NTHREADS = nThreads;
+        }
+    }
+
+}
@@ -0,0 +1,73 @@
+package asr;
+
+import bn.ctmc.SubstModel;
+import dat.Enumerable;
+import dat.phylo.IdxTree;
+import dat.phylo.Tree;
+import dat.phylo.TreeInstance;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PupkoJointTest {
+
+    double GAMMA_SHAPE = 1.1;
+    double GAMMA_SCALE = 0.2;
+
+    void assertSameStates(IdxTree tree, SubstModel model, double rate, TreeInstance ti) {
+        MaxLhoodJoint mlj = new MaxLhoodJoint(tree, model, rate);
+        mlj.decorate(ti);
+        PupkoJoint pj = new PupkoJoint(tree, model, rate);
+        pj.decorate(ti);
+        for (int idx = 0; idx < tree.getSize(); idx ++)
+            assertEquals(mlj.getDecoration(idx), pj.getDecoration(idx), "Branch point " + idx + " in " + ti);
+    }
+
+    @Test
+    void sameAsMaxLhoodJoint() {
+        SubstModel model = SubstModel.createModel("LG");
+        Enumerable alpha = model.getDomain();
+        for (int NLEAVES = 3; NLEAVES < 20; NLEAVES += 4) {
+            for (int SEED = 0; SEED < 20; SEED ++) {
+                Tree tree = Tree.Random(NLEAVES, SEED, GAMMA_SHAPE, 1.0 / GAMMA_SCALE, 2, 2);
+                tree.adjustDistances(1.0);
+                Random rand = new Random(SEED);
+                double rate = 0.2 + rand.nextDouble() * 2;
+                assertSameStates(tree, model, rate, TestData.randomInstance(tree, alpha, rand, 0.0));
+                assertSameStates(tree, model, rate, TestData.randomInstance(tree, alpha, rand, 0.2));
+            }
+        }
+    }
+
+    @Test
+    void sameAsMaxLhoodJointOnPrunedTree() {
+        SubstModel model = SubstModel.createModel("WAG");
+        Enumerable alpha = model.getDomain();
+        for (int SEED = 0; SEED < 30; SEED ++) {
+            Tree tree = Tree.Random(12, SEED, GAMMA_SHAPE, 1.0 / GAMMA_SCALE, 2, 2);
+            Random rand = new Random(SEED);
+            // prune a few branch points (not the root), so the position-specific tree may be a forest
+            Set<Integer> pruneMe = new HashSet<>();
+            for (int i = 0; i < 3; i ++)
+                pruneMe.add(1 + rand.nextInt(tree.getSize() - 1));
+            IdxTree pruned = IdxTree.createPrunedTree(tree, tree.getPrunedIndex(pruneMe, true));
+            assertSameStates(pruned, model, 1.0, TestData.randomInstance(pruned, alpha, rand, 0.0));
+        }
+    }
+
+    @Test
+    void invalidSymbol() {
+        SubstModel model = SubstModel.createModel("JC");
+        Tree tree = Tree.Random(4, 1, GAMMA_SHAPE, 1.0 / GAMMA_SCALE, 2, 2);
+        Object[] states = new Object[tree.getSize()];
+        for (int idx : tree.getLeaves())
+            states[idx] = 'X';
+        PupkoJoint pj = new PupkoJoint(tree, model);
+        assertThrows(ASRRuntimeException.class, () -> pj.decorate(new TreeInstance(tree, states)));
+    }
+
+}
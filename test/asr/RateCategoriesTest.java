@@ -0,0 +1,62 @@
+package asr;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateCategoriesTest {
+
+    @Test
+    void fromQuantiles() {
+        double[] rates = new double[] {0.0, 0.1, 0.2, 0.3, 1.0, 1.2, 2.0, 3.0};
+        RateCategories cats = RateCategories.fromQuantiles(rates, 4);
+        assertEquals(4, cats.size());
+        double[] snapped = cats.snap(rates);
+        assertEquals(0.05, snapped[0], 1e-9);
+        assertEquals(0.05, snapped[1], 1e-9);
+        assertEquals(0.25, snapped[3], 1e-9);
+        assertEquals(2.5, snapped[7], 1e-9);
+        double sum1 = 0, sum2 = 0;
+        for (int i = 0; i < rates.length; i ++) {
+            sum1 += rates[i];
+            sum2 += snapped[i];
+        }
+        assertEquals(sum1, sum2, 1e-9); // mean rate is preserved
+    }
+
+    @Test
+    void fromQuantilesWithTies() {
+        // invariant columns with zero rate span the first cut
+        double[] rates = new double[] {0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.5, 1.0, 1.5, 2.0};
+        RateCategories cats = RateCategories.fromQuantiles(rates, 4);
+        assertEquals(4, cats.size());
+        double[] snapped = cats.snap(rates);
+        for (int i = 0; i < 6; i ++)
+            assertEquals(0.0, snapped[i], 1e-9);
+        assertEquals(0.5, snapped[6], 1e-9);
+        assertEquals(1.0, snapped[7], 1e-9);
+        assertEquals(1.75, snapped[9], 1e-9);
+        double sum1 = 0, sum2 = 0;
+        for (int i = 0; i < rates.length; i ++) {
+            sum1 += rates[i];
+            sum2 += snapped[i];
+        }
+        assertEquals(sum1, sum2, 1e-9);
+        // fewer distinct rates than categories
+        cats = RateCategories.fromQuantiles(new double[] {0.0, 0.0, 0.0, 2.0, 2.0}, 4);
+        assertEquals(2, cats.size());
+        assertEquals(0.0, cats.getCentre(cats.getCategory(0.0)), 1e-9);
+        assertEquals(2.0, cats.getCentre(cats.getCategory(2.0)), 1e-9);
+    }
+
+    @Test
+    void parse() {
+        RateCategories cats = RateCategories.parse("2.0, 0.5,1.0", null);
+        assertEquals(3, cats.size());
+        assertEquals(0.5, cats.getCentre(cats.getCategory(0.1)));
+        assertEquals(1.0, cats.getCentre(cats.getCategory(1.4)));
+        assertEquals(2.0, cats.getCentre(cats.getCategory(1.6)));
+        assertThrows(NumberFormatException.class, () -> RateCategories.parse("many", new double[] {1.0}));
+    }
+
+}
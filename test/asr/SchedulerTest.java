@@ -0,0 +1,71 @@
+package asr;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SchedulerTest {
+
+    @Test
+    void runAll() {
+        Scheduler scheduler = Scheduler.get(4);
+        assertSame(scheduler, Scheduler.get(4));
+        assertEquals(4, scheduler.getParallelism());
+        for (int n : new int[] {0, 1, 7, 1000}) {
+            int[] visited = new int[n];
+            Scheduler.Batch batch = scheduler.run(n, i -> visited[i] += 1);
+            for (int i = 0; i < n; i ++)
+                assertEquals(1, visited[i]);
+            assertTrue(batch.isDone());
+            assertEquals(n, batch.size());
+            assertTrue(batch.getElapsedTime() >= 0);
+        }
+    }
+
+    @Test
+    void failure() {
+        ASRRuntimeException e = assertThrows(ASRRuntimeException.class, () -> Scheduler.get(2).run(10, i -> {
+            if (i == 5)
+                throw new IllegalStateException("task 5");
+        }));
+        assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+
+    @Test
+    void cancel() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger count = new AtomicInteger();
+        Scheduler.Batch batch = Scheduler.get(1).submit(100, i -> {
+            started.countDown();
+            count.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        started.await();
+        batch.cancel();
+        AtomicBoolean joined = new AtomicBoolean(false);
+        Thread joiner = new Thread(() -> {
+            assertThrows(CancellationException.class, batch::join);
+            joined.set(true);
+        });
+        joiner.start();
+        joiner.join(200);
+        assertFalse(joined.get()); // the running task has not finished, so neither has join
+        release.countDown();
+        joiner.join();
+        assertTrue(joined.get());
+        assertTrue(batch.isCancelled());
+        assertTrue(batch.isDone());
+        assertEquals(1, count.get());
+    }
+
+}
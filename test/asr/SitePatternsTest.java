@@ -0,0 +1,80 @@
+package asr;
+
+import bn.ctmc.SubstModel;
+import bn.prob.EnumDistrib;
+import dat.phylo.Tree;
+import dat.phylo.TreeInstance;
+import dat.pog.POGTree;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SitePatternsTest {
+
+    static POGTree pogtree;
+
+    @BeforeAll
+    static void setThingsUp() throws IOException {
+        pogtree = TestData.loadDefaultPOGTree();
+    }
+
+    @Test
+    void jointSameWithPatterns() {
+        SubstModel model = SubstModel.createModel("JTT");
+        boolean save = GRASP.SITE_PATTERNS;
+        try {
+            GRASP.SITE_PATTERNS = false;
+            Object[][] expected = Prediction.PredictByBidirEdgeParsimony(pogtree).getJoint(model);
+            GRASP.SITE_PATTERNS = true;
+            Object[][] actual = Prediction.PredictByBidirEdgeParsimony(pogtree).getJoint(model);
+            assertArrayEquals(expected, actual);
+        } finally {
+            GRASP.SITE_PATTERNS = save;
+        }
+    }
+
+    @Test
+    void marginalSameWithPatterns() {
+        SubstModel model = SubstModel.createModel("JTT");
+        boolean save = GRASP.SITE_PATTERNS;
+        try {
+            GRASP.SITE_PATTERNS = false;
+            EnumDistrib[] expected = Prediction.PredictByBidirEdgeParsimony(pogtree).getMarginal(0, model, null);
+            GRASP.SITE_PATTERNS = true;
+            EnumDistrib[] actual = Prediction.PredictByBidirEdgeParsimony(pogtree).getMarginal(0, model, null);
+            assertEquals(expected.length, actual.length);
+            for (int pos = 0; pos < expected.length; pos ++) {
+                if (expected[pos] == null)
+                    assertNull(actual[pos]);
+                else
+                    assertArrayEquals(expected[pos].get(), actual[pos].get(), 1e-9);
+            }
+        } finally {
+            GRASP.SITE_PATTERNS = save;
+        }
+    }
+
+    @Test
+    void groupPositions() {
+        Tree tree = Tree.Random(4, 1, 1.1, 5, 2, 2);
+        int[] idxs = new int[tree.getSize()];
+        for (int idx = 0; idx < idxs.length; idx ++)
+            idxs[idx] = idx;
+        Object[][] values = new Object[][] {{null, null, 'A', 'C', null, 'A', 'A'}, {null, null, 'A', 'C', null, 'A', 'A'}, {null, null, 'A', 'C', null, 'A', 'C'}};
+        TreeInstance[] tis = new TreeInstance[5];
+        for (int pos = 0; pos < values.length; pos ++)
+            tis[pos] = new TreeInstance(tree, values[pos]);
+        tis[3] = new TreeInstance(tree, values[0]);
+        tis[4] = null; // excluded position
+        SitePatterns patterns = new SitePatterns(new int[][] {idxs, idxs, idxs, idxs, idxs}, tis, new double[] {1, 1, 1, 0.5, 1});
+        assertEquals(3, patterns.getNPatterns());
+        assertEquals(0, patterns.getRepresentative(1));
+        assertTrue(patterns.isRepresentative(2));
+        assertTrue(patterns.isRepresentative(3)); // different rate
+        assertEquals(-1, patterns.getPattern(4));
+    }
+
+}
@@ -0,0 +1,47 @@
+package asr;
+
+import bn.prob.EnumDistrib;
+import dat.Enumerable;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StateMatrixTest {
+
+    @Test
+    void states() {
+        StateMatrix sm = new StateMatrix(Enumerable.aacid, 3, 4);
+        assertFalse(sm.isAssigned(1));
+        assertNull(sm.getRow(1));
+        sm.set(1, 0, 'A');
+        sm.set(1, 2, 'Y');
+        assertTrue(sm.isAssigned(1));
+        assertArrayEquals(new Object[] {'A', null, 'Y', null}, sm.getRow(1));
+        assertEquals(StateMatrix.ABSENT, sm.getCode(1, 1));
+        assertEquals(StateMatrix.ABSENT, sm.getCode(0, 1));
+        Object[][] all = sm.toArray();
+        assertArrayEquals(new Object[4], all[0]);
+        assertEquals('Y', all[1][2]);
+        assertThrows(ASRRuntimeException.class, () -> sm.set(2, 0, 'J'));
+    }
+
+    @Test
+    void distribs() {
+        DistribMatrix dm = new DistribMatrix(Enumerable.nacid, 2, 3);
+        EnumDistrib d = new EnumDistrib(Enumerable.nacid, new double[] {0.1, 0.2, 0.6, 0.1});
+        dm.set(1, 1, d);
+        assertFalse(dm.isAssigned(0));
+        assertTrue(dm.isAssigned(1));
+        assertFalse(dm.isPresent(1, 0));
+        assertNull(dm.get(1, 0));
+        assertEquals(d.getMax(), dm.getMax(1, 1));
+        EnumDistrib copy = dm.get(1, 1);
+        for (int i = 0; i < Enumerable.nacid.size(); i ++)
+            assertEquals(d.get(i), copy.get(i), 1e-6);
+        EnumDistrib[][] all = dm.toArray();
+        assertNull(all[0]);
+        assertNull(all[1][2]);
+        dm.set(1, 1, null);
+        assertNull(dm.getMax(1, 1));
+    }
+}
@@ -0,0 +1,57 @@
+package asr;
+
+import dat.EnumSeq;
+import dat.Enumerable;
+import dat.phylo.IdxTree;
+import dat.phylo.Tree;
+import dat.phylo.TreeInstance;
+import dat.pog.POGTree;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Data sets and fixtures shared by the tests of this package.
+ */
+final class TestData {
+
+    private TestData() {
+    }
+
+    /**
+     * @return the protein alignment in test/resources/default.aln
+     */
+    static EnumSeq.Alignment<Enumerable> loadDefaultAlignment() throws IOException {
+        return new EnumSeq.Alignment<>(EnumSeq.Gappy.loadClustal("test/resources/default.aln", Enumerable.aacid));
+    }
+
+    /**
+     * @return the tree in test/resources/default.nwk, of the sequences in {@link #loadDefaultAlignment()}
+     */
+    static Tree loadDefaultTree() throws IOException {
+        return Tree.load("test/resources/default.nwk", "newick");
+    }
+
+    /**
+     * @return the default alignment and tree, as POGs and tree
+     */
+    static POGTree loadDefaultPOGTree() throws IOException {
+        return new POGTree(loadDefaultAlignment(), loadDefaultTree());
+    }
+
+    /**
+     * Create a random assignment of states to the leaves of a tree, leaving some un-instantiated
+     * @param tree the tree
+     * @param alpha the states
+     * @param rand random number generator
+     * @param pNull probability that a leaf is not instantiated
+     * @return the instance
+     */
+    static TreeInstance randomInstance(IdxTree tree, Enumerable alpha, Random rand, double pNull) {
+        Object[] states = new Object[tree.getSize()];
+        for (int idx = 0; idx < states.length; idx ++)
+            if (tree.isLeaf(idx))
+                states[idx] = rand.nextDouble() < pNull ? null : alpha.get(rand.nextInt(alpha.size()));
+        return new TreeInstance(tree, states);
+    }
+}
@@ -0,0 +1,41 @@
+package bn.alg;
+
+import bn.BNet;
+import bn.Evidence;
+import bn.node.CPT;
+import bn.prob.EnumDistrib;
+import dat.EnumVariable;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ApproxInferenceTest {
+
+    @Test
+    void evidence() {
+        List<CPT> cpts = new ArrayList<>();
+        BNet bn = JunctionTreeTest.randomNet(6, 7, cpts);
+        EnumVariable first = cpts.get(0).getVariable(), last = cpts.get(cpts.size() - 1).getVariable();
+        Evidence evidence = Evidence.NONE.with(last, last.getDomain().get(0));
+        VarElim ve = new VarElim();
+        ve.instantiate(bn);
+        EnumDistrib expected = (EnumDistrib) ((CGTable) ve.infer(evidence, first)).query(first);
+        int iterations = ApproxInference.iterations;
+        ApproxInference.iterations = 20000;
+        try {
+            ApproxInference ai = new ApproxInference();
+            ai.instantiate(bn);
+            CGTable result = ai.infer(ai.makeQuery(evidence, first));
+            EnumDistrib actual = (EnumDistrib) result.query(first);
+            for (int j = 0; j < first.size(); j++)
+                assertEquals(expected.get(j), actual.get(j), 0.05);
+        } finally {
+            ApproxInference.iterations = iterations;
+        }
+        for (CPT cpt : cpts) // the state of sampling is not kept in nodes
+            assertNull(cpt.getInstance());
+    }
+}
@@ -0,0 +1,67 @@
+package bn.alg;
+
+import bn.BNet;
+import bn.Evidence;
+import bn.node.CPT;
+import bn.prob.EnumDistrib;
+import dat.EnumVariable;
+import dat.Variable;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchInferenceTest {
+
+    @Test
+    void rows() {
+        List<CPT> cpts = new ArrayList<>();
+        BNet bn = JunctionTreeTest.randomNet(10, 11, cpts);
+        Variable[] headers = new Variable[cpts.size()];
+        for (int j = 0; j < headers.length; j++)
+            headers[j] = cpts.get(j).getVariable();
+        Random rand = new Random(11);
+        Object[][] rows = new Object[200][headers.length];
+        Set<List<Boolean>> patterns = new HashSet<>();
+        for (Object[] row : rows) {
+            List<Boolean> pattern = new ArrayList<>();
+            for (int j = 0; j < headers.length; j++) {
+                EnumVariable var = (EnumVariable) headers[j];
+                if (j % 3 == 0 && rand.nextBoolean()) // a few missing values, in few patterns
+                    row[j] = var.getDomain().get(rand.nextInt(var.size()));
+                pattern.add(row[j] != null || j == 0); // the query is not evidence
+            }
+            patterns.add(pattern);
+        }
+        EnumVariable query = (EnumVariable) headers[0];
+        BatchInference batch = new BatchInference(bn, headers, 4);
+        QueryResult[] results = batch.infer(rows, query);
+        double[] lls = batch.logLikelihood(rows);
+        VarElim ve = new VarElim();
+        ve.instantiate(bn);
+        for (int i = 0; i < rows.length; i++) {
+            Evidence evidence = Evidence.of(headers, rows[i]);
+            assertEquals(ve.logLikelihood(evidence), lls[i], 1e-9);
+            EnumDistrib expected = (EnumDistrib) ((CGTable) ve.infer(evidence.with(query, null), query)).query(query);
+            EnumDistrib actual = (EnumDistrib) ((CGTable) results[i]).query(query);
+            for (int j = 0; j < query.size(); j++)
+                assertEquals(expected.get(j), actual.get(j), 1e-9);
+        }
+        for (CPT cpt : cpts)
+            assertNull(cpt.getInstance());
+        // one plan for each pattern of the query, and of the likelihood
+        Set<List<Boolean>> llpatterns = new HashSet<>();
+        for (Object[] row : rows) {
+            List<Boolean> pattern = new ArrayList<>();
+            for (Object val : row)
+                pattern.add(val != null);
+            llpatterns.add(pattern);
+        }
+        assertEquals(patterns.size() + llpatterns.size(), batch.getVarElim().timer.getCount("plan miss"));
+    }
+}
@@ -0,0 +1,191 @@
+package bn.alg;
+
+import bn.BNet;
+import bn.BNode;
+import bn.Predef;
+import bn.node.CPT;
+import bn.prob.EnumDistrib;
+import dat.EnumVariable;
+import dat.Enumerable;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JunctionTreeTest {
+
+    /**
+     * Random network with boolean and ternary variables, each with up to three (earlier) parents
+     */
+    static BNet randomNet(int nNodes, long seed, List<CPT> cpts) {
+        Random rand = new Random(seed);
+        List<EnumVariable> vars = new ArrayList<>();
+        BNet bn = new BNet();
+        for (int i = 0; i < nNodes; i++) {
+            EnumVariable var = rand.nextBoolean() ? Predef.Boolean("B" + i) : Predef.Number(3, "T" + i);
+            List<EnumVariable> parents = new ArrayList<>();
+            for (int p = 0; p < Math.min(i, rand.nextInt(4)); p++) {
+                EnumVariable parent = vars.get(rand.nextInt(i));
+                if (!parents.contains(parent))
+                    parents.add(parent);
+            }
+            CPT cpt = parents.isEmpty() ? new CPT(var) : new CPT(var, parents.toArray(new EnumVariable[0]));
+            cpt.randomize(rand.nextLong());
+            vars.add(var);
+            cpts.add(cpt);
+            bn.add(cpt);
+        }
+        return bn;
+    }
+
+    static void assertSameMarginals(BNet bn, JunctionTree jt, VarElim ve) {
+        for (BNode node : bn.getNodes()) {
+            if (node.getInstance() != null)
+                continue;
+            EnumVariable var = (EnumVariable) node.getVariable();
+            EnumDistrib expected = (EnumDistrib) ((CGTable) ve.infer(var)).query(var);
+            EnumDistrib actual = (EnumDistrib) ((CGTable) jt.infer(var)).query(var);
+            for (Object value : var.getDomain().getValues())
+                assertEquals(expected.get(value), actual.get(value), 1e-9, var.getName());
+        }
+        assertEquals(ve.logLikelihood(), jt.logLikelihood(), 1e-9);
+    }
+
+    @Test
+    void sprinkler() {
+        EnumVariable CLOUDY = Predef.Boolean("Cloudy");
+        EnumVariable SPRINKLER = Predef.Boolean("Sprinkler");
+        EnumVariable RAIN = Predef.Boolean("Rain");
+        EnumVariable WETGRASS = Predef.Boolean("WetGrass");
+        CPT cloudy = new CPT(CLOUDY);
+        cloudy.put(new EnumDistrib(Enumerable.bool, 0.5, 0.5));
+        CPT sprinkler = new CPT(SPRINKLER, CLOUDY);
+        sprinkler.put(new EnumDistrib(Enumerable.bool, 0.10, 0.90), true);
+        sprinkler.put(new EnumDistrib(Enumerable.bool, 0.50, 0.50), false);
+        CPT rain = new CPT(RAIN, CLOUDY);
+        rain.put(new EnumDistrib(Enumerable.bool, 0.80, 0.20), true);
+        rain.put(new EnumDistrib(Enumerable.bool, 0.20, 0.80), false);
+        CPT wetGrass = new CPT(WETGRASS, SPRINKLER, RAIN);
+        wetGrass.put(new EnumDistrib(Enumerable.bool, 0.99, 0.01), true, true);
+        wetGrass.put(new EnumDistrib(Enumerable.bool, 0.90, 0.10), true, false);
+        wetGrass.put(new EnumDistrib(Enumerable.bool, 0.90, 0.10), false, true);
+        wetGrass.put(new EnumDistrib(Enumerable.bool, 0.01, 0.99), false, false);
+        BNet bn = new BNet();
+        bn.add(cloudy, sprinkler, rain, wetGrass);
+        JunctionTree jt = new JunctionTree();
+        jt.instantiate(bn);
+        VarElim ve = new VarElim();
+        ve.instantiate(bn);
+        assertEquals(2, jt.getSize()); // the loop Cloudy-Sprinkler-WetGrass-Rain is triangulated with one chord
+        assertSameMarginals(bn, jt, ve);
+        wetGrass.setInstance(true);
+        assertSameMarginals(bn, jt, ve);
+        sprinkler.setInstance(false);
+        assertSameMarginals(bn, jt, ve);
+        wetGrass.resetInstance();
+        assertSameMarginals(bn, jt, ve);
+        // a query of variables in the same clique
+        CGTable joint = (CGTable) jt.infer(CLOUDY, RAIN);
+        CGTable expected = (CGTable) ve.infer(new dat.Variable[] {CLOUDY, RAIN});
+        dat.Variable.Assignment[] assign = {new dat.Variable.Assignment(CLOUDY, true), new dat.Variable.Assignment(RAIN, false)};
+        assertEquals(expected.getFactor(expected.getKey(assign)) / expected.getSum(), joint.getFactor(joint.getKey(assign)) / joint.getSum(), 1e-9);
+    }
+
+    /**
+     * Marginals of all variables by enumeration of the joint probability, consistent with evidence
+     * @return the marginal of each node (by order in the list), and last, the likelihood of evidence
+     */
+    static double[][] enumerate(List<CPT> cpts) {
+        int n = cpts.size();
+        int[][] parentidx = new int[n][];
+        for (int i = 0; i < n; i++) {
+            List<EnumVariable> parents = cpts.get(i).getParents();
+            parentidx[i] = new int[parents == null ? 0 : parents.size()];
+            for (int j = 0; j < parentidx[i].length; j++)
+                for (int k = 0; k < n; k++)
+                    if (cpts.get(k).getVariable() == parents.get(j))
+                        parentidx[i][j] = k;
+        }
+        double[][] marginals = new double[n + 1][];
+        for (int i = 0; i < n; i++)
+            marginals[i] = new double[cpts.get(i).getVariable().size()];
+        marginals[n] = new double[1];
+        int[] idx = new int[n];
+        Object[] vals = new Object[n];
+        do {
+            boolean consistent = true;
+            for (int i = 0; i < n && consistent; i++) {
+                vals[i] = cpts.get(i).getVariable().getDomain().get(idx[i]);
+                consistent = cpts.get(i).getInstance() == null || cpts.get(i).getInstance().equals(vals[i]);
+            }
+            if (consistent) {
+                double p = 1;
+                for (int i = 0; i < n; i++) {
+                    Object[] key = new Object[parentidx[i].length];
+                    for (int j = 0; j < key.length; j++)
+                        key[j] = vals[parentidx[i][j]];
+                    p *= key.length == 0 ? cpts.get(i).get(vals[i]) : cpts.get(i).get(vals[i], key);
+                }
+                for (int i = 0; i < n; i++)
+                    marginals[i][idx[i]] += p;
+                marginals[n][0] += p;
+            }
+            int i = 0;
+            while (i < n && ++idx[i] == marginals[i].length)
+                idx[i++] = 0;
+            if (i == n)
+                break;
+        } while (true);
+        for (int i = 0; i < n; i++)
+            for (int j = 0; j < marginals[i].length; j++)
+                marginals[i][j] /= marginals[n][0];
+        return marginals;
+    }
+
+    static void assertEnumerated(List<CPT> cpts, JunctionTree jt) {
+        double[][] expected = enumerate(cpts);
+        Map<dat.Variable, QueryResult> all = jt.inferAll();
+        for (int i = 0; i < cpts.size(); i++) {
+            EnumVariable var = cpts.get(i).getVariable();
+            if (cpts.get(i).getInstance() != null) {
+                assertFalse(all.containsKey(var));
+                continue;
+            }
+            EnumDistrib actual = (EnumDistrib) ((CGTable) jt.infer(var)).query(var);
+            EnumDistrib fromAll = (EnumDistrib) ((CGTable) all.get(var)).query(var);
+            for (int j = 0; j < var.size(); j++) {
+                assertEquals(expected[i][j], actual.get(j), 1e-9, var.getName());
+                assertEquals(expected[i][j], fromAll.get(j), 1e-9, var.getName());
+            }
+        }
+        assertEquals(Math.log(expected[cpts.size()][0]), jt.logLikelihood(), 1e-9);
+    }
+
+    @Test
+    void incremental() {
+        List<CPT> cpts = new ArrayList<>();
+        BNet bn = randomNet(12, 1, cpts);
+        JunctionTree jt = new JunctionTree();
+        jt.instantiate(bn);
+        assertEnumerated(cpts, jt);
+        Random rand = new Random(2);
+        for (int round = 0; round < 10; round++) { // change evidence on a few nodes at a time
+            for (int i = 0; i < 2; i++) {
+                CPT cpt = cpts.get(rand.nextInt(cpts.size()));
+                if (cpt.getInstance() == null)
+                    cpt.setInstance(cpt.getVariable().getDomain().get(rand.nextInt(cpt.getVariable().size())));
+                else
+                    cpt.resetInstance();
+            }
+            assertEnumerated(cpts, jt);
+        }
+        for (CPT cpt : cpts) // as if trained
+            cpt.randomize(3);
+        jt.update();
+        assertEnumerated(cpts, jt);
+    }
+}
@@ -0,0 +1,169 @@
+package bn.alg;
+
+import bn.BNet;
+import bn.Evidence;
+import bn.Predef;
+import bn.node.CPT;
+import bn.prob.EnumDistrib;
+import dat.EnumVariable;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VarElimTest {
+
+    static void assertEnumerated(List<CPT> cpts, VarElim ve) {
+        double[][] expected = JunctionTreeTest.enumerate(cpts);
+        for (int i = 0; i < cpts.size(); i++) {
+            EnumVariable var = cpts.get(i).getVariable();
+            if (cpts.get(i).getInstance() != null)
+                continue;
+            EnumDistrib actual = (EnumDistrib) ((CGTable) ve.infer(var)).query(var);
+            for (int j = 0; j < var.size(); j++)
+                assertEquals(expected[i][j], actual.get(j), 1e-9, var.getName());
+        }
+        assertEquals(Math.log(expected[cpts.size()][0]), ve.logLikelihood(), 1e-9);
+    }
+
+    @Test
+    void heuristics() {
+        for (long seed = 0; seed < 5; seed++) {
+            List<CPT> cpts = new ArrayList<>();
+            BNet bn = JunctionTreeTest.randomNet(11, seed, cpts);
+            Random rand = new Random(seed);
+            for (int i = 0; i < 3; i++) {
+                CPT cpt = cpts.get(rand.nextInt(cpts.size()));
+                cpt.setInstance(cpt.getVariable().getDomain().get(rand.nextInt(cpt.getVariable().size())));
+            }
+            VarElim ve = new VarElim();
+            ve.instantiate(bn);
+            for (EliminationOrder.Heuristic heuristic : EliminationOrder.Heuristic.values()) {
+                ve.setHeuristic(heuristic);
+                for (CPT cpt : cpts) // queries use an order by the heuristic, not one cached under another
+                    assertEquals(heuristic, ve.getOrder(ve.makeQuery(cpt.getVariable())).getHeuristic());
+                assertEnumerated(cpts, ve);
+            }
+            ve.setHeuristic(null);
+            assertEnumerated(cpts, ve);
+        }
+    }
+
+    @Test
+    void cheapest() {
+        // a hub with many parents, each with a child: topological order joins all parents, min-fill eliminates the children first
+        EnumVariable hub = Predef.Boolean("Hub");
+        List<EnumVariable> parents = new ArrayList<>();
+        BNet bn = new BNet();
+        for (int i = 0; i < 12; i++) {
+            EnumVariable parent = Predef.Boolean("P" + i);
+            EnumVariable child = Predef.Boolean("C" + i);
+            parents.add(parent);
+            bn.add(new CPT(parent), new CPT(child, parent));
+        }
+        CPT cpt = new CPT(hub, parents.toArray(new EnumVariable[0]));
+        cpt.setInstance(true);
+        bn.add(cpt);
+        VarElim ve = new VarElim();
+        ve.instantiate(bn);
+        EnumVariable query = (EnumVariable) bn.getNode("C0").getVariable();
+        ve.setHeuristic(EliminationOrder.Heuristic.TOPOLOGICAL);
+        EliminationOrder topological = ve.getOrder(ve.makeQuery(query));
+        ve.setHeuristic(EliminationOrder.Heuristic.MIN_FILL); // on the same engine, so not the order cached above
+        EliminationOrder minfill = ve.getOrder(ve.makeQuery(query));
+        assertEquals(EliminationOrder.Heuristic.MIN_FILL, minfill.getHeuristic());
+        assertTrue(minfill.getCost() < topological.getCost());
+        VarElim fresh = new VarElim();
+        fresh.instantiate(bn);
+        fresh.setHeuristic(EliminationOrder.Heuristic.MIN_FILL);
+        assertEquals(fresh.getOrder(fresh.makeQuery(query)).getCost(), minfill.getCost());
+        ve.setHeuristic(null);
+        EliminationOrder best = ve.getOrder(ve.makeQuery(query));
+        assertTrue(best.getCost() <= minfill.getCost());
+        for (EliminationOrder.Heuristic heuristic : EliminationOrder.Heuristic.values()) {
+            ve.setHeuristic(heuristic);
+            assertTrue(best.getCost() <= ve.getOrder(ve.makeQuery(query)).getCost());
+        }
+    }
+
+    @Test
+    void plans() {
+        List<CPT> cpts = new ArrayList<>();
+        BNet bn = JunctionTreeTest.randomNet(10, 3, cpts);
+        VarElim ve = new VarElim();
+        ve.instantiate(bn);
+        Random rand = new Random(3);
+        CPT[] evidence = {cpts.get(2), cpts.get(7), cpts.get(9)};
+        for (int round = 0; round < 4; round++) { // same evidenced variables, other values
+            for (CPT cpt : evidence)
+                cpt.setInstance(cpt.getVariable().getDomain().get(rand.nextInt(cpt.getVariable().size())));
+            assertEnumerated(cpts, ve);
+        }
+        int queries = 4 * (cpts.size() - evidence.length + 1); // incl. likelihood
+        int misses = cpts.size() - evidence.length + 1;
+        assertEquals(misses, ve.timer.getCount("plan miss"));
+        assertEquals((double) (queries - misses) / queries, ve.getPlanHitRate(), 1e-9);
+        evidence[0].resetInstance(); // other evidenced variables, so new plans
+        assertEnumerated(cpts, ve);
+        assertEquals(2 * misses + 1, ve.timer.getCount("plan miss"));
+        CPT extra = new CPT(Predef.Boolean("Extra"), cpts.get(0).getVariable()); // other structure, so new plans
+        extra.randomize(4);
+        cpts.add(extra);
+        bn.add(extra);
+        ve.instantiate(bn);
+        assertEnumerated(cpts, ve);
+    }
+
+    @Test
+    void concurrent() throws Exception {
+        List<CPT> cpts = new ArrayList<>();
+        BNet bn = JunctionTreeTest.randomNet(10, 5, cpts);
+        Random rand = new Random(5);
+        Evidence[] evidence = new Evidence[20];
+        double[][][] expected = new double[evidence.length][][];
+        for (int i = 0; i < evidence.length; i++) { // expected by enumeration, with evidence as instances of nodes
+            evidence[i] = Evidence.NONE;
+            for (CPT cpt : cpts)
+                cpt.resetInstance();
+            for (int j = 0; j < 3; j++) {
+                CPT cpt = cpts.get(rand.nextInt(cpts.size()));
+                cpt.setInstance(cpt.getVariable().getDomain().get(rand.nextInt(cpt.getVariable().size())));
+                evidence[i] = evidence[i].with(cpt.getVariable(), cpt.getInstance());
+            }
+            expected[i] = JunctionTreeTest.enumerate(cpts);
+        }
+        for (CPT cpt : cpts)
+            cpt.resetInstance();
+        VarElim ve = new VarElim();
+        ve.instantiate(bn);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < evidence.length; i++) {
+                int idx = i;
+                futures.add(pool.submit(() -> {
+                    for (int k = 0; k < cpts.size(); k++) {
+                        EnumVariable var = cpts.get(k).getVariable();
+                        if (evidence[idx].contains(var))
+                            continue;
+                        EnumDistrib actual = (EnumDistrib) ((CGTable) ve.infer(evidence[idx], var)).query(var);
+                        for (int j = 0; j < var.size(); j++)
+                            assertEquals(expected[idx][k][j], actual.get(j), 1e-9, var.getName());
+                    }
+                    assertEquals(Math.log(expected[idx][cpts.size()][0]), ve.logLikelihood(evidence[idx]), 1e-9);
+                }));
+            }
+        }
+        for (Future<?> future : futures)
+            future.get();
+        pool.shutdown();
+        for (CPT cpt : cpts)
+            assertNull(cpt.getInstance());
+    }
+}
@@ -1,5 +1,6 @@
 package bn.ctmc;
 
+import bn.ctmc.matrix.JTT;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -33,7 +34,46 @@ class SubstModelTest {
 
     @Test
     void getProb() {
-        // TODO: test caching
+        SubstModel model = new JTT();
+        model.setCacheSize(3);
+        Object A = 'A', R = 'R';
+        for (int i = 0; i < 4; i ++) {
+            double[][] p = SubstModel.getProbs(ts[i], model.getRexp());
+            assertEquals(p[1][0], model.getProb(A, R, ts[i]), 1e-12);
+        }
+        assertEquals(3, model.getCache().size());   // the first is evicted
+        assertEquals(4, model.getCache().getMisses());
+        model.getProb(A, R, ts[3]);
+        model.getProb(R, A, ts[3]);
+        assertEquals(2, model.getCache().getHits());
+        model.getProb(A, R, ts[0]);                 // was evicted
+        assertEquals(5, model.getCache().getMisses());
+    }
 
+    @Test
+    void getProbsConcurrently() throws InterruptedException {
+        SubstModel model = new JTT();
+        model.setCacheSize(100);
+        Thread[] threads = new Thread[4];
+        boolean[] ok = new boolean[threads.length];
+        for (int t = 0; t < threads.length; t ++) {
+            final int tt = t;
+            threads[t] = new Thread(() -> {
+                boolean same = true;
+                for (int i = 0; i < 2000; i ++) {
+                    double time = ts[(i * (tt + 1)) % 200];
+                    double[][] p = model.getProbs(time);
+                    same = same && p[3][5] == SubstModel.getProbs(time, model.getRexp())[3][5];
+                }
+                ok[tt] = same;
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        for (boolean same : ok)
+            assertTrue(same);
+        assertTrue(model.getCache().size() <= 100);
+        assertEquals(threads.length * 2000, model.getCache().getHits() + model.getCache().getMisses());
     }
 }
\ No newline at end of file
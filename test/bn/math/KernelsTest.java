@@ -0,0 +1,64 @@
+package bn.math;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KernelsTest {
+
+    @AfterEach
+    void reset() {
+        Kernels.setVector(false);
+    }
+
+    double[] random(Random rand, int n, double pNegInf) {
+        double[] x = new double[n];
+        for (int i = 0; i < n; i ++)
+            x[i] = rand.nextDouble() < pNegInf ? Double.NEGATIVE_INFINITY : Math.log(rand.nextDouble());
+        return x;
+    }
+
+    @Test
+    void scalarIsDefault() {
+        assertEquals("scalar", Kernels.get().getName());
+        assertFalse(Kernels.setVector(false));
+    }
+
+    @Test
+    void vectorSameAsScalar() {
+        Kernels scalar = Kernels.get();
+        if (!Kernels.setVector(true)) {
+            assertFalse(Kernels.isVectorAvailable());
+            return; // JVM started without the incubator module
+        }
+        Kernels vector = Kernels.get();
+        assertNotSame(scalar, vector);
+        Random rand = new Random(1);
+        for (int n : new int[] {1, 4, 5, 20, 21, 61}) {
+            for (int rep = 0; rep < 20; rep ++) {
+                double[] a = random(rand, n + 3, 0.1), b = random(rand, n + 3, 0.1);
+                double[] pa = new double[n], pb = new double[n];
+                for (int i = 0; i < n; i ++) {
+                    pa[i] = Math.exp(a[i]);
+                    pb[i] = Math.exp(b[i]);
+                }
+                assertEquals(scalar.dot(pa, pb, n), vector.dot(pa, pb, n), 1e-12);
+                double[] y1 = pb.clone(), y2 = pb.clone();
+                scalar.axpy(0.3, pa, y1, n);
+                vector.axpy(0.3, pa, y2, n);
+                assertArrayEquals(y1, y2);
+                assertEquals(scalar.argmaxSum(a, b, n), vector.argmaxSum(a, b, n));
+                double extra = rep % 2 == 0 ? Double.NEGATIVE_INFINITY : -1.0;
+                assertEquals(scalar.logSumExpSum(a, 1, b, 2, n, extra), vector.logSumExpSum(a, 1, b, 2, n, extra), 1e-12);
+            }
+        }
+        double[] neginf = new double[] {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        assertEquals(-1, vector.argmaxSum(neginf, neginf, 5));
+        assertEquals(Double.NEGATIVE_INFINITY, vector.logSumExpSum(neginf, 0, neginf, 0, 5, Double.NEGATIVE_INFINITY));
+    }
+
+}
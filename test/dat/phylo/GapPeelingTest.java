@@ -0,0 +1,131 @@
+package dat.phylo;
+
+import asr.ASRException;
+import bn.ctmc.GapSubstModel;
+import bn.ctmc.matrix.JCGap;
+import bn.ctmc.matrix.JTTGap;
+import dat.EnumSeq;
+import dat.Enumerable;
+import dat.file.Utils;
+import org.junit.jupiter.api.Test;
+import smile.math.MathEx;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GapPeelingTest {
+
+    @Test
+    void logProbColByHand() throws IOException, ASRException {
+        Tree tree = Tree.load("test/resources/GapSubstModel_test_1.nwk", "newick");
+        EnumSeq.Alignment<Enumerable> aln = Utils.loadAlignment("test/resources/GapSubstModel_test_1.aln", Enumerable.nacid);
+        GapPeeling engine = GapPeeling.create(tree, new JCGap(0.05, 0.05), 1.0);
+        int[][] columns = engine.encode(aln);
+        // expected value calculated by hand (see IndelSegmentationTest)
+        assertEquals(-13.465945445655642, engine.logProbCol(columns[0], 1.0 / 400), 1e-5);
+    }
+
+    @Test
+    void allGapColumn() throws IOException {
+        Tree tree = Tree.load("test/resources/default.nwk", "newick");
+        GapPeeling engine = GapPeeling.create(tree, new JTTGap(0.1, 0.1), 1.0);
+        int[] gaps = new int[tree.getSize()];
+        Arrays.fill(gaps, GapPeeling.GAP);
+        GapPeeling.Workspace ws = engine.peel(gaps);
+        for (int idx = 0; idx < tree.getSize(); idx ++)
+            assertTrue(ws.isAllGap(idx));
+        double p = engine.logProbCol(gaps, 0.01);
+        assertTrue(p < 0);
+    }
+
+    /**
+     * Felsenstein's peeling extended to gaps (Rivas & Eddy, 2008), as implemented in Tree before GapPeeling, kept as an
+     * independent reference. Log probabilities are written to the arrays, which are filled with -infinity first.
+     */
+    static void referencePeeling(Tree tree, EnumSeq.Alignment<Enumerable> aln, int colIdx, double[][] resProbs,
+                                 double[] gapProbs, double rate, GapSubstModel model) {
+        Map<String, Integer> alnMap = aln.getMap();
+        Double[] containsGaps = tree.containsGaps(aln, colIdx);
+        Object[] alphabet = model.getDomain().getValues();
+        int numResidues = alphabet.length - 1;
+        for (int bpidx = tree.getSize() - 1; bpidx >= 0; bpidx--) {
+            Arrays.fill(resProbs[bpidx], Double.NEGATIVE_INFINITY);
+            gapProbs[bpidx] = Double.NEGATIVE_INFINITY;
+            BranchPoint node = tree.getBranchPoint(bpidx);
+            if (node.isLeaf()) {
+                Character residue = (Character) aln.getEnumSeq(alnMap.get((String) node.getLabel())).get(colIdx);
+                if (residue != null)
+                    resProbs[bpidx][model.getDomain().getIndex(residue)] = 0.0;
+                continue;
+            }
+            int[] children = tree.getChildren(bpidx);
+            double[] gapTerms = new double[children.length];
+            for (int c = 0; c < children.length; c++) {
+                int child = children[c];
+                if (containsGaps[child] == 1.0) {
+                    double[] terms = new double[alphabet.length];
+                    for (int r = 0; r < numResidues; r++)
+                        terms[r] = resProbs[child][r] + Math.log(model.getProbOfInsertion(tree.getDistance(child) * rate, model.getDomain().get(r)));
+                    terms[numResidues] = gapProbs[child];
+                    gapTerms[c] = MathEx.logsumexp(terms);
+                } else {
+                    gapTerms[c] = Double.NEGATIVE_INFINITY;
+                }
+            }
+            gapProbs[bpidx] = MathEx.logsumexp(gapTerms);
+            for (int parentRes = 0; parentRes < numResidues; parentRes++) {
+                double sum = 0;
+                for (int child : children) {
+                    double[] terms = new double[containsGaps[child] == 1.0 ? alphabet.length : numResidues];
+                    for (int r = 0; r < numResidues; r++)
+                        terms[r] = resProbs[child][r] + Math.log(model.getProbGapAugmented((Character) alphabet[r],
+                                (Character) alphabet[parentRes], tree.getDistance(child) * rate));
+                    if (containsGaps[child] == 1.0)
+                        terms[numResidues] = Math.log(model.getProbOfGap(tree.getDistance(child) * rate));
+                    sum += MathEx.logsumexp(terms);
+                }
+                resProbs[bpidx][parentRes] = sum;
+            }
+        }
+    }
+
+    @Test
+    void sameAsReferenceInParallel() throws Exception {
+        Tree tree = Tree.load("test/resources/default.nwk", "newick");
+        EnumSeq.Alignment<Enumerable> aln = new EnumSeq.Alignment<>(EnumSeq.Gappy.loadClustal("test/resources/default.aln", Enumerable.aacid));
+        GapSubstModel model = new JTTGap(0.1, 0.1);
+        double rate = 0.7;
+        GapPeeling engine = GapPeeling.create(tree, model, rate);
+        int[][] columns = engine.encode(aln);
+        int nRes = model.getDomain().size() - 1;
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<?>[] futures = new Future[columns.length];
+            for (int col = 0; col < columns.length; col ++) {
+                final int[] states = columns[col];
+                futures[col] = executor.submit(() -> engine.logProbCol(states, 0.01));
+            }
+            for (int col = 0; col < columns.length; col += 3) {
+                double[][] resProbs = new double[tree.getSize()][nRes];
+                double[] gapProbs = new double[tree.getSize()];
+                referencePeeling(tree, aln, col, resProbs, gapProbs, rate, model);
+                GapPeeling.Workspace ws = engine.peel(columns[col]);
+                for (int idx = 0; idx < tree.getSize(); idx ++) {
+                    assertEquals(gapProbs[idx], ws.getGapLogProb(idx), 1e-9);
+                    for (int r = 0; r < nRes; r ++)
+                        assertEquals(resProbs[idx][r], ws.getResidueLogProb(idx, r), 1e-9);
+                }
+                assertEquals(engine.logProbCol(columns[col], 0.01), (Double) futures[col].get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}